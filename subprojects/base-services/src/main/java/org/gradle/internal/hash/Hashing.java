@@ -231,6 +231,12 @@ public class Hashing {
             digest.update(bytes, off, len);
         }
 
+        @Override
+        public void putBytes(ByteBuffer buffer) {
+            checkNotDone();
+            digest.update(buffer);
+        }
+
         @Override
         public HashCode hash() {
             done = true;
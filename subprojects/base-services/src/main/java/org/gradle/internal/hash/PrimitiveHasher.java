@@ -16,6 +16,8 @@
 
 package org.gradle.internal.hash;
 
+import java.nio.ByteBuffer;
+
 /**
  * Hasher abstraction that can be fed different kinds of primitives that it then forwards directly to the hash function.
  * Inspired by the Google Guava project – https://github.com/google/guava.
@@ -31,6 +33,11 @@ public interface PrimitiveHasher {
      */
     void putBytes(byte[] bytes, int off, int len);
 
+    /**
+     * Feed the remaining bytes of the given buffer into the hasher. Advances the position of the buffer to its limit.
+     */
+    void putBytes(ByteBuffer buffer);
+
     /**
      * Feed a single byte into the hasher.
      */
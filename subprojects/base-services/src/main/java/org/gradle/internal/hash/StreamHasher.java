@@ -18,6 +18,7 @@ package org.gradle.internal.hash;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 
 public interface StreamHasher {
     /**
@@ -30,4 +31,10 @@ public interface StreamHasher {
      * The method will not close either stream.
      */
     HashCode hashCopy(InputStream inputStream, OutputStream outputStream) throws IOException;
+
+    /**
+     * Returns the hash of the content of the given channel from its current position to its end, which is the same as the hash of a stream with the same content.
+     * The content is mapped into memory instead of being copied to the heap. The method will not close the channel.
+     */
+    HashCode hashMapped(FileChannel channel) throws IOException;
 }
@@ -262,6 +262,30 @@ class HttpBuildCacheServiceTest extends Specification {
         cache.store(key, writer("".bytes))
     }
 
+    def "streams stored entries over a pooled connection"() {
+        def content = "Data".bytes
+        def clientPorts = []
+        2.times {
+            server.expect("/cache/${key.hashCode}", ["PUT"], new HttpServer.ActionSupport("put is streamed with its length") {
+                void handle(HttpServletRequest request, HttpServletResponse response) {
+                    assert request.getHeader(HttpHeaders.CONTENT_LENGTH) == "${content.length}"
+                    assert request.getHeader(HttpHeaders.TRANSFER_ENCODING) == null
+                    assert request.inputStream.bytes == content
+                    clientPorts << request.remotePort
+                    response.setStatus(200)
+                }
+            })
+        }
+
+        when:
+        cache.store(key, writer(content))
+        cache.store(key, writer(content))
+
+        then:
+        clientPorts.size() == 2
+        clientPorts[0] == clientPorts[1]
+    }
+
     def "does preemptive authentication"() {
         def configuration = new HttpBuildCache()
         configuration.url = server.uri.resolve("/cache/")
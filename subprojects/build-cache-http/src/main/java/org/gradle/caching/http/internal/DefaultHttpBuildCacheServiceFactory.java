@@ -39,6 +39,12 @@ import java.util.Collections;
  */
 public class DefaultHttpBuildCacheServiceFactory implements BuildCacheServiceFactory<HttpBuildCache> {
 
+    /**
+     * The maximum number of connections kept open to the build cache node.
+     * Loads and stores from parallel workers each use a connection of their own, and wait for one to become available when all are in use.
+     */
+    public static final String MAX_CONNECTIONS_PROPERTY = "org.gradle.caching.internal.http.maxConnections";
+
     private final SslContextFactory sslContextFactory;
 
     @Inject
@@ -70,7 +76,8 @@ public class DefaultHttpBuildCacheServiceFactory implements BuildCacheServiceFac
         boolean allowUntrustedServer = configuration.isAllowUntrustedServer();
         DefaultHttpSettings.Builder builder = DefaultHttpSettings.builder()
             .withAuthenticationSettings(authentications)
-            .followRedirects(false);
+            .followRedirects(false)
+            .maxConnections(Integer.getInteger(MAX_CONNECTIONS_PROPERTY, DefaultHttpSettings.DEFAULT_MAX_CONNECTIONS));
         if (allowUntrustedServer) {
             builder.allowUntrustedConnections();
         } else {
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.codec;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.gradle.caching.configuration.BuildCacheCompression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures packing and unpacking throughput of build cache entries for each compression.
+ *
+ * The "classes" shape has many small, compressible files, like the output of a compile task.
+ * The "jars" shape has a few large, already compressed files, like the output of an archive task.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 7)
+@State(Scope.Benchmark)
+public class BuildCacheEntryCodecBenchmark {
+    @Param({"NONE", "LZ4", "GZIP"})
+    BuildCacheCompression compression;
+
+    @Param({"classes", "jars"})
+    String shape;
+
+    private List<byte[]> files;
+    private byte[] entry;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        Random random = new Random(1234L);
+        if (shape.equals("classes")) {
+            files = createClassFiles(random, 2000, 512, 8 * 1024);
+        } else {
+            files = createJarFiles(random, 4, 8 * 1024 * 1024);
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        pack(output);
+        entry = output.toByteArray();
+        long uncompressedLength = 0;
+        for (byte[] file : files) {
+            uncompressedLength += file.length;
+        }
+        System.out.printf(">>> %s entry with %s compression is %d bytes long (uncompressed length: %d, compression ratio: %,.2f%%)%n",
+            shape, compression, entry.length, uncompressedLength, 100d * entry.length / uncompressedLength);
+    }
+
+    @Benchmark
+    public long pack() throws IOException {
+        CountingOutputStream output = new CountingOutputStream();
+        pack(output);
+        return output.count;
+    }
+
+    @Benchmark
+    public long unpack() throws IOException {
+        long count = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (TarArchiveInputStream tarInput = new TarArchiveInputStream(BuildCacheEntryCodecs.decode(new ByteArrayInputStream(entry)))) {
+            while (tarInput.getNextTarEntry() != null) {
+                int read;
+                while ((read = tarInput.read(buffer)) >= 0) {
+                    count += read;
+                }
+            }
+        }
+        return count;
+    }
+
+    private void pack(OutputStream output) throws IOException {
+        try (TarArchiveOutputStream tarOutput = new TarArchiveOutputStream(BuildCacheEntryCodecs.encode(compression, output), "utf-8")) {
+            tarOutput.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            for (int i = 0; i < files.size(); i++) {
+                byte[] file = files.get(i);
+                TarArchiveEntry tarEntry = new TarArchiveEntry("tree-classes/org/gradle/sample/File" + i);
+                tarEntry.setSize(file.length);
+                tarOutput.putArchiveEntry(tarEntry);
+                tarOutput.write(file);
+                tarOutput.closeArchiveEntry();
+            }
+        }
+    }
+
+    private static List<byte[]> createClassFiles(Random random, int count, int minSize, int maxSize) {
+        // Class files mostly consist of a constant pool of identifiers shared between classes, and short sequences of bytecode
+        String[] identifiers = {"java/lang/Object", "java/lang/String", "org/gradle/api/Task", "getName", "setName", "<init>", "()V", "Ljava/util/List;", "Code", "LineNumberTable", "this"};
+        List<byte[]> files = new ArrayList<byte[]>(count);
+        for (int i = 0; i < count; i++) {
+            ByteArrayOutputStream file = new ByteArrayOutputStream();
+            int size = minSize + random.nextInt(maxSize - minSize);
+            while (file.size() < size) {
+                if (random.nextBoolean()) {
+                    byte[] identifier = identifiers[random.nextInt(identifiers.length)].getBytes();
+                    file.write(identifier, 0, identifier.length);
+                } else {
+                    for (int j = 0; j < 8; j++) {
+                        file.write(random.nextInt(32));
+                    }
+                }
+            }
+            files.add(file.toByteArray());
+        }
+        return files;
+    }
+
+    private static List<byte[]> createJarFiles(Random random, int count, int size) {
+        List<byte[]> files = new ArrayList<byte[]>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] file = new byte[size];
+            random.nextBytes(file);
+            files.add(file);
+        }
+        return files;
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
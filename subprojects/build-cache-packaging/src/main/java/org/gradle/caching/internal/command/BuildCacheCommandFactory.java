@@ -24,6 +24,7 @@ import org.gradle.api.internal.cache.StringInterner;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.logging.Logging;
 import org.gradle.caching.BuildCacheKey;
+import org.gradle.caching.configuration.BuildCacheCompression;
 import org.gradle.caching.internal.CacheableEntity;
 import org.gradle.caching.internal.controller.BuildCacheLoadCommand;
 import org.gradle.caching.internal.controller.BuildCacheStoreCommand;
@@ -31,6 +32,8 @@ import org.gradle.caching.internal.origin.OriginMetadata;
 import org.gradle.caching.internal.origin.OriginMetadataFactory;
 import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
 import org.gradle.caching.internal.packaging.UnrecoverableUnpackingException;
+import org.gradle.caching.internal.packaging.codec.BuildCacheEntryCodecs;
+import org.gradle.caching.local.internal.BuildCacheBlobStore;
 import org.gradle.internal.file.FileType;
 import org.gradle.internal.fingerprint.CurrentFileCollectionFingerprint;
 import org.gradle.internal.fingerprint.FingerprintingStrategy;
@@ -42,6 +45,7 @@ import org.gradle.internal.snapshot.FileSystemMirror;
 import org.gradle.internal.snapshot.FileSystemSnapshot;
 import org.gradle.internal.snapshot.MissingFileSnapshot;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -98,11 +102,16 @@ public class BuildCacheCommandFactory {
             return cacheKey;
         }
 
+        @Nullable
         @Override
-        public BuildCacheLoadCommand.Result<LoadMetadata> load(InputStream input) {
+        public BuildCacheLoadCommand.Result<LoadMetadata> load(InputStream input, @Nullable BuildCacheBlobStore blobStore) {
             loadListener.beforeLoad();
             try {
-                BuildCacheEntryPacker.UnpackResult unpackResult = packer.unpack(entity, input, originMetadataFactory.createReader(entity));
+                BuildCacheEntryPacker.UnpackResult unpackResult = packer.unpack(entity, BuildCacheEntryCodecs.decode(input), originMetadataFactory.createReader(entity), blobStore);
+                if (unpackResult == null) {
+                    LOGGER.info("Contents of files for {} are missing from the local build cache.", entity.getDisplayName());
+                    return null;
+                }
                 ImmutableSortedMap<String, CurrentFileCollectionFingerprint> snapshots = snapshotUnpackedData(unpackResult.getSnapshots());
                 LOGGER.info("Unpacked trees for {} from cache.", entity.getDisplayName());
                 return new Result<LoadMetadata>() {
@@ -232,9 +241,9 @@ public class BuildCacheCommandFactory {
         }
 
         @Override
-        public BuildCacheStoreCommand.Result store(OutputStream output) throws IOException {
+        public BuildCacheStoreCommand.Result store(OutputStream output, BuildCacheCompression compression, @Nullable BuildCacheBlobStore blobStore) throws IOException {
             LOGGER.info("Packing {}", entity.getDisplayName());
-            final BuildCacheEntryPacker.PackResult packResult = packer.pack(entity, fingerprints, output, originMetadataFactory.createWriter(entity, executionTime));
+            final BuildCacheEntryPacker.PackResult packResult = packer.pack(entity, fingerprints, output, compression, originMetadataFactory.createWriter(entity, executionTime), blobStore);
             return new BuildCacheStoreCommand.Result() {
                 @Override
                 public long getArtifactEntryCount() {
@@ -16,20 +16,27 @@
 
 package org.gradle.caching.internal.packaging;
 
+import org.gradle.caching.configuration.BuildCacheCompression;
 import org.gradle.caching.internal.CacheableEntity;
 import org.gradle.caching.internal.origin.OriginMetadata;
 import org.gradle.caching.internal.origin.OriginReader;
 import org.gradle.caching.internal.origin.OriginWriter;
+import org.gradle.caching.local.internal.BuildCacheBlobStore;
 import org.gradle.internal.fingerprint.CurrentFileCollectionFingerprint;
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Map;
 
 public interface BuildCacheEntryPacker {
-    PackResult pack(CacheableEntity entity, Map<String, CurrentFileCollectionFingerprint> fingerprints, OutputStream output, OriginWriter writeOrigin) throws IOException;
+    /**
+     * Packs the outputs of the given entity, compressing them with the given {@code compression}.
+     * When a {@code blobStore} is given, the contents of files are stored there, and the entry only refers to them by their content hash.
+     */
+    PackResult pack(CacheableEntity entity, Map<String, CurrentFileCollectionFingerprint> fingerprints, OutputStream output, BuildCacheCompression compression, OriginWriter writeOrigin, @Nullable BuildCacheBlobStore blobStore) throws IOException;
 
     class PackResult {
         private final long entries;
@@ -43,7 +50,14 @@ public interface BuildCacheEntryPacker {
         }
     }
 
-    UnpackResult unpack(CacheableEntity entity, InputStream input, OriginReader readOrigin) throws IOException;
+    /**
+     * Unpacks the outputs of the given entity.
+     * Files which the entry only refers to by their content hash are restored from the given {@code blobStore}.
+     *
+     * @return the result, or {@code null} when contents the entry refers to are missing from the {@code blobStore}, in which case nothing has been unpacked.
+     */
+    @Nullable
+    UnpackResult unpack(CacheableEntity entity, InputStream input, OriginReader readOrigin, @Nullable BuildCacheBlobStore blobStore) throws IOException;
 
     class UnpackResult {
         private final OriginMetadata originMetadata;
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.codec;
+
+import org.gradle.caching.configuration.BuildCacheCompression;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes and reads the compression header of build cache entries.
+ *
+ * Entries compressed with GZIP have no header, so they are plain {@code .tar.gz} archives, as in earlier versions.
+ * Entries using any other compression start with a magic number followed by the id of the codec.
+ * Entries which do not start with the magic number are read as GZIP.
+ */
+public final class BuildCacheEntryCodecs {
+    private static final byte[] MAGIC = {'G', 'C', 'E', 1};
+    private static final int HEADER_LENGTH = MAGIC.length + 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte UNCOMPRESSED_ID = 0;
+    private static final byte LZ4_ID = 1;
+
+    private static final BuildCacheEntryCodec UNCOMPRESSED = new BuildCacheEntryCodec() {
+        @Override
+        public OutputStream encode(OutputStream output) {
+            return output;
+        }
+
+        @Override
+        public InputStream decode(InputStream input) {
+            return new BufferedInputStream(input, BUFFER_SIZE);
+        }
+    };
+
+    private static final BuildCacheEntryCodec GZIP = new BuildCacheEntryCodec() {
+        @Override
+        public OutputStream encode(OutputStream output) throws IOException {
+            return new GZIPOutputStream(output);
+        }
+
+        @Override
+        public InputStream decode(InputStream input) throws IOException {
+            return new GZIPInputStream(input);
+        }
+    };
+
+    private static final BuildCacheEntryCodec LZ4 = new BuildCacheEntryCodec() {
+        @Override
+        public OutputStream encode(OutputStream output) {
+            return new Lz4BlockOutputStream(output);
+        }
+
+        @Override
+        public InputStream decode(InputStream input) {
+            return new Lz4BlockInputStream(input);
+        }
+    };
+
+    private BuildCacheEntryCodecs() {
+    }
+
+    /**
+     * Writes the header for the given compression, and returns a stream which compresses the rest of the entry.
+     */
+    public static OutputStream encode(BuildCacheCompression compression, OutputStream output) throws IOException {
+        return encode(compression, output, null, 1);
+    }
+
+    /**
+     * Writes the header for the given compression, and returns a stream which compresses the rest of the entry
+     * using up to {@code parallelism} threads of the given executor.
+     *
+     * Only LZ4 compression makes use of the executor. The compressed contents are the same as when compressing on a single thread.
+     */
+    public static OutputStream encode(BuildCacheCompression compression, OutputStream output, @Nullable ExecutorService executor, int parallelism) throws IOException {
+        switch (compression) {
+            case GZIP:
+                return GZIP.encode(output);
+            case LZ4:
+                writeHeader(LZ4_ID, output);
+                if (executor != null && parallelism > 1) {
+                    // Keep a few blocks queued per thread, so threads don't idle while the caller writes the next block
+                    return new Lz4BlockOutputStream(output, executor, 2 * parallelism);
+                }
+                return LZ4.encode(output);
+            case NONE:
+                writeHeader(UNCOMPRESSED_ID, output);
+                return UNCOMPRESSED.encode(output);
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    /**
+     * Reads the header of an entry, and returns a stream which decompresses the rest of the entry.
+     */
+    public static InputStream decode(InputStream input) throws IOException {
+        PushbackInputStream pushbackInput = new PushbackInputStream(input, HEADER_LENGTH);
+        byte[] header = new byte[HEADER_LENGTH];
+        int length = 0;
+        int read;
+        while (length < HEADER_LENGTH && (read = pushbackInput.read(header, length, HEADER_LENGTH - length)) >= 0) {
+            length += read;
+        }
+        if (length < HEADER_LENGTH || !hasMagic(header)) {
+            pushbackInput.unread(header, 0, length);
+            return GZIP.decode(pushbackInput);
+        }
+        switch (header[MAGIC.length]) {
+            case UNCOMPRESSED_ID:
+                return UNCOMPRESSED.decode(pushbackInput);
+            case LZ4_ID:
+                return LZ4.decode(pushbackInput);
+            default:
+                throw new IOException("Build cache entry uses an unknown compression with id " + header[MAGIC.length] + ".");
+        }
+    }
+
+    private static void writeHeader(byte codecId, OutputStream output) throws IOException {
+        output.write(MAGIC);
+        output.write(codecId);
+    }
+
+    private static boolean hasMagic(byte[] header) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compresses and decompresses single blocks in the LZ4 block format.
+ *
+ * The compressor uses the single-probe hash table of the fast LZ4 compressor, and skips ahead faster the longer it finds no matches.
+ * Blocks are expected to be at most 64KB long, so matches can always be encoded with a two byte offset.
+ */
+final class Lz4Block {
+    private static final int HASH_LOG = 12;
+    static final int HASH_TABLE_SIZE = 1 << HASH_LOG;
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_DISTANCE = 65535;
+    // The last 5 bytes of a block are always literals, and the last match must start at least 12 bytes before the end
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int SKIP_TRIGGER = 6;
+    private static final int ML_BITS = 4;
+    private static final int RUN_MASK = 15;
+    private static final int ML_MASK = 15;
+
+    private Lz4Block() {
+    }
+
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses {@code length} bytes from {@code source} into {@code target}, which must be at least {@link #maxCompressedLength(int)} long.
+     *
+     * @return the number of compressed bytes.
+     */
+    static int compress(byte[] source, int length, byte[] target, int[] hashTable) {
+        Arrays.fill(hashTable, -1);
+        int anchor = 0;
+        int targetPosition = 0;
+        if (length > MF_LIMIT) {
+            int matchLimit = length - MF_LIMIT;
+            int matchEnd = length - LAST_LITERALS;
+            int position = 0;
+            int searchCount = 1 << SKIP_TRIGGER;
+            while (position < matchLimit) {
+                int sequence = readInt(source, position);
+                int hash = hash(sequence);
+                int reference = hashTable[hash];
+                hashTable[hash] = position;
+                if (reference < 0 || position - reference > MAX_DISTANCE || readInt(source, reference) != sequence) {
+                    position += searchCount++ >>> SKIP_TRIGGER;
+                    continue;
+                }
+                searchCount = 1 << SKIP_TRIGGER;
+                while (position > anchor && reference > 0 && source[position - 1] == source[reference - 1]) {
+                    position--;
+                    reference--;
+                }
+                int matchLength = MIN_MATCH + commonLength(source, position + MIN_MATCH, reference + MIN_MATCH, matchEnd);
+                targetPosition = writeSequence(source, anchor, position - anchor, position - reference, matchLength, target, targetPosition);
+                position += matchLength;
+                anchor = position;
+                if (position < matchLimit) {
+                    hashTable[hash(readInt(source, position - 2))] = position - 2;
+                }
+            }
+        }
+        return writeLastLiterals(source, anchor, length - anchor, target, targetPosition);
+    }
+
+    /**
+     * Decompresses {@code length} bytes from {@code source} into {@code target}, which must decompress to exactly {@code decompressedLength} bytes.
+     */
+    static void decompress(byte[] source, int length, byte[] target, int decompressedLength) throws IOException {
+        int position = 0;
+        int targetPosition = 0;
+        while (true) {
+            if (position >= length) {
+                throw corrupt();
+            }
+            int token = source[position++] & 0xff;
+
+            int literalLength = token >>> ML_BITS;
+            if (literalLength == RUN_MASK) {
+                int next;
+                do {
+                    if (position >= length) {
+                        throw corrupt();
+                    }
+                    next = source[position++] & 0xff;
+                    literalLength += next;
+                } while (next == 255);
+            }
+            if (literalLength > length - position || literalLength > decompressedLength - targetPosition) {
+                throw corrupt();
+            }
+            System.arraycopy(source, position, target, targetPosition, literalLength);
+            position += literalLength;
+            targetPosition += literalLength;
+            if (position == length) {
+                break;
+            }
+
+            if (position + 2 > length) {
+                throw corrupt();
+            }
+            int offset = (source[position] & 0xff) | (source[position + 1] & 0xff) << 8;
+            position += 2;
+            if (offset == 0 || offset > targetPosition) {
+                throw corrupt();
+            }
+
+            int matchLength = token & ML_MASK;
+            if (matchLength == ML_MASK) {
+                int next;
+                do {
+                    if (position >= length) {
+                        throw corrupt();
+                    }
+                    next = source[position++] & 0xff;
+                    matchLength += next;
+                } while (next == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength > decompressedLength - targetPosition) {
+                throw corrupt();
+            }
+            int reference = targetPosition - offset;
+            if (offset >= matchLength) {
+                System.arraycopy(target, reference, target, targetPosition, matchLength);
+            } else {
+                // Overlapping match, which repeats the last offset bytes
+                for (int i = 0; i < matchLength; i++) {
+                    target[targetPosition + i] = target[reference + i];
+                }
+            }
+            targetPosition += matchLength;
+        }
+        if (targetPosition != decompressedLength) {
+            throw corrupt();
+        }
+    }
+
+    private static int writeSequence(byte[] source, int literalStart, int literalLength, int offset, int matchLength, byte[] target, int targetPosition) {
+        int tokenPosition = targetPosition++;
+        int token;
+        if (literalLength >= RUN_MASK) {
+            token = RUN_MASK << ML_BITS;
+            targetPosition = writeLength(literalLength - RUN_MASK, target, targetPosition);
+        } else {
+            token = literalLength << ML_BITS;
+        }
+        System.arraycopy(source, literalStart, target, targetPosition, literalLength);
+        targetPosition += literalLength;
+
+        target[targetPosition++] = (byte) offset;
+        target[targetPosition++] = (byte) (offset >>> 8);
+
+        int extraMatchLength = matchLength - MIN_MATCH;
+        if (extraMatchLength >= ML_MASK) {
+            token |= ML_MASK;
+            targetPosition = writeLength(extraMatchLength - ML_MASK, target, targetPosition);
+        } else {
+            token |= extraMatchLength;
+        }
+        target[tokenPosition] = (byte) token;
+        return targetPosition;
+    }
+
+    private static int writeLastLiterals(byte[] source, int literalStart, int literalLength, byte[] target, int targetPosition) {
+        if (literalLength >= RUN_MASK) {
+            target[targetPosition++] = (byte) (RUN_MASK << ML_BITS);
+            targetPosition = writeLength(literalLength - RUN_MASK, target, targetPosition);
+        } else {
+            target[targetPosition++] = (byte) (literalLength << ML_BITS);
+        }
+        System.arraycopy(source, literalStart, target, targetPosition, literalLength);
+        return targetPosition + literalLength;
+    }
+
+    private static int writeLength(int length, byte[] target, int targetPosition) {
+        while (length >= 255) {
+            target[targetPosition++] = (byte) 255;
+            length -= 255;
+        }
+        target[targetPosition++] = (byte) length;
+        return targetPosition;
+    }
+
+    private static int commonLength(byte[] source, int position, int reference, int limit) {
+        int start = position;
+        while (position < limit && source[position] == source[reference]) {
+            position++;
+            reference++;
+        }
+        return position - start;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readInt(byte[] source, int position) {
+        return (source[position] & 0xff)
+            | (source[position + 1] & 0xff) << 8
+            | (source[position + 2] & 0xff) << 16
+            | (source[position + 3] & 0xff) << 24;
+    }
+
+    private static IOException corrupt() {
+        return new IOException("Build cache entry is corrupt.");
+    }
+}
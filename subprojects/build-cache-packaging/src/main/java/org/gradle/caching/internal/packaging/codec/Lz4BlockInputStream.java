@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.codec;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+import static org.gradle.caching.internal.packaging.codec.Lz4BlockOutputStream.BLOCK_HEADER_LENGTH;
+import static org.gradle.caching.internal.packaging.codec.Lz4BlockOutputStream.BLOCK_SIZE;
+
+/**
+ * Decompresses a stream written by {@link Lz4BlockOutputStream}.
+ */
+class Lz4BlockInputStream extends InputStream {
+    private final DataInputStream input;
+    private final byte[] buffer = new byte[BLOCK_SIZE];
+    private final byte[] compressed = new byte[BLOCK_SIZE];
+    private final byte[] header = new byte[BLOCK_HEADER_LENGTH];
+    private final CRC32 checksum = new CRC32();
+    private int position;
+    private int limit;
+    private boolean finished;
+
+    Lz4BlockInputStream(InputStream input) {
+        this.input = new DataInputStream(input);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillBuffer()) {
+            return -1;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fillBuffer()) {
+            return -1;
+        }
+        int count = Math.min(len, limit - position);
+        System.arraycopy(buffer, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private boolean fillBuffer() throws IOException {
+        while (position == limit) {
+            if (finished) {
+                return false;
+            }
+            readBlock();
+        }
+        return true;
+    }
+
+    private void readBlock() throws IOException {
+        input.readFully(header, 0, 4);
+        int length = readInt(header, 0);
+        if (length == 0) {
+            finished = true;
+            return;
+        }
+        input.readFully(header, 4, BLOCK_HEADER_LENGTH - 4);
+        int storedLength = readInt(header, 4);
+        int expectedChecksum = readInt(header, 8);
+        if (length < 0 || length > BLOCK_SIZE || storedLength <= 0 || storedLength > length) {
+            throw new IOException("Build cache entry is corrupt.");
+        }
+        if (storedLength == length) {
+            input.readFully(buffer, 0, length);
+        } else {
+            input.readFully(compressed, 0, storedLength);
+            Lz4Block.decompress(compressed, storedLength, buffer, length);
+        }
+        checksum.reset();
+        checksum.update(buffer, 0, length);
+        if ((int) checksum.getValue() != expectedChecksum) {
+            throw new IOException("Build cache entry is corrupt.");
+        }
+        position = 0;
+        limit = length;
+    }
+
+    private static int readInt(byte[] source, int offset) {
+        return (source[offset] & 0xff) << 24
+            | (source[offset + 1] & 0xff) << 16
+            | (source[offset + 2] & 0xff) << 8
+            | (source[offset + 3] & 0xff);
+    }
+}
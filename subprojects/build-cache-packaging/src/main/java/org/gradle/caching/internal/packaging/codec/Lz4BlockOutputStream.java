@@ -0,0 +1,207 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.codec;
+
+import org.gradle.internal.UncheckedException;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Compresses a stream as a sequence of LZ4 blocks.
+ *
+ * Each block starts with its uncompressed length, its stored length and the CRC32 of its uncompressed contents, as big-endian ints.
+ * Blocks which do not get smaller are stored uncompressed, which is indicated by a stored length equal to the uncompressed length.
+ * The stream ends with a zero length.
+ *
+ * Blocks are compressed independently of each other. When an executor is given, blocks are compressed on it
+ * and written in order as they complete, so the result is the same as when compressing on the calling thread.
+ */
+class Lz4BlockOutputStream extends OutputStream {
+    static final int BLOCK_SIZE = 64 * 1024;
+    static final int BLOCK_HEADER_LENGTH = 12;
+
+    private static final ThreadLocal<int[]> HASH_TABLES = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[Lz4Block.HASH_TABLE_SIZE];
+        }
+    };
+
+    private final OutputStream output;
+    private final ExecutorService executor;
+    private final int maxPendingBlocks;
+    private final Deque<Future<Block>> pendingBlocks = new ArrayDeque<Future<Block>>();
+    private final Deque<Block> freeBlocks = new ArrayDeque<Block>();
+    private final byte[] header = new byte[BLOCK_HEADER_LENGTH];
+    private Block current = new Block();
+    private boolean closed;
+
+    Lz4BlockOutputStream(OutputStream output) {
+        this(output, null, 0);
+    }
+
+    /**
+     * Creates a stream which compresses up to {@code maxPendingBlocks} blocks at a time on the given executor.
+     */
+    Lz4BlockOutputStream(OutputStream output, @Nullable ExecutorService executor, int maxPendingBlocks) {
+        this.output = output;
+        this.executor = executor;
+        this.maxPendingBlocks = maxPendingBlocks;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (current.count == BLOCK_SIZE) {
+            writeBlock();
+        }
+        current.buffer[current.count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (current.count == BLOCK_SIZE) {
+                writeBlock();
+            }
+            int toCopy = Math.min(len, BLOCK_SIZE - current.count);
+            System.arraycopy(b, off, current.buffer, current.count, toCopy);
+            current.count += toCopy;
+            off += toCopy;
+            len -= toCopy;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeBlock();
+        writePendingBlocks(0);
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writeBlock();
+            writePendingBlocks(0);
+            writeInt(header, 0, 0);
+            output.write(header, 0, 4);
+        } finally {
+            try {
+                cancelPendingBlocks();
+            } finally {
+                output.close();
+            }
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if (current.count == 0) {
+            return;
+        }
+        if (executor == null) {
+            current.compress(HASH_TABLES.get());
+            writeCompressed(current);
+            current.count = 0;
+            return;
+        }
+        final Block block = current;
+        pendingBlocks.add(executor.submit(new Callable<Block>() {
+            @Override
+            public Block call() {
+                block.compress(HASH_TABLES.get());
+                return block;
+            }
+        }));
+        writePendingBlocks(maxPendingBlocks - 1);
+        current = freeBlocks.isEmpty() ? new Block() : freeBlocks.remove();
+    }
+
+    private void writePendingBlocks(int maxRemaining) throws IOException {
+        while (pendingBlocks.size() > maxRemaining) {
+            Block block = waitFor(pendingBlocks.remove());
+            writeCompressed(block);
+            block.count = 0;
+            freeBlocks.add(block);
+        }
+    }
+
+    private void cancelPendingBlocks() {
+        while (!pendingBlocks.isEmpty()) {
+            pendingBlocks.remove().cancel(false);
+        }
+    }
+
+    private void writeCompressed(Block block) throws IOException {
+        boolean stored = block.compressedLength >= block.count;
+        writeInt(header, 0, block.count);
+        writeInt(header, 4, stored ? block.count : block.compressedLength);
+        writeInt(header, 8, block.checksum);
+        output.write(header);
+        if (stored) {
+            output.write(block.buffer, 0, block.count);
+        } else {
+            output.write(block.compressed, 0, block.compressedLength);
+        }
+    }
+
+    private static Block waitFor(Future<Block> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing build cache entry", e);
+        } catch (ExecutionException e) {
+            throw UncheckedException.throwAsUncheckedException(e.getCause());
+        }
+    }
+
+    private static void writeInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    private static class Block {
+        private final byte[] buffer = new byte[BLOCK_SIZE];
+        private final byte[] compressed = new byte[Lz4Block.maxCompressedLength(BLOCK_SIZE)];
+        private final CRC32 crc = new CRC32();
+        private int count;
+        private int compressedLength;
+        private int checksum;
+
+        void compress(int[] hashTable) {
+            crc.reset();
+            crc.update(buffer, 0, count);
+            checksum = (int) crc.getValue();
+            compressedLength = Lz4Block.compress(buffer, count, compressed, hashTable);
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2009 the original author or authors.
+ * Copyright 2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -13,9 +13,7 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
+@NonNullApi
+package org.gradle.caching.internal.packaging.codec;
 
-package org.gradle.api.internal.tasks.testing.detection;
-
-public interface JarFilePackageListener {
-    void receivePackage(String packageName);
-}
+import org.gradle.api.NonNullApi;
@@ -16,8 +16,10 @@
 
 package org.gradle.caching.internal.packaging.impl;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
@@ -27,19 +29,27 @@ import org.apache.commons.io.input.CloseShieldInputStream;
 import org.gradle.api.GradleException;
 import org.gradle.api.UncheckedIOException;
 import org.gradle.api.internal.cache.StringInterner;
+import org.gradle.caching.configuration.BuildCacheCompression;
 import org.gradle.caching.internal.CacheableEntity;
 import org.gradle.caching.internal.origin.OriginMetadata;
 import org.gradle.caching.internal.origin.OriginReader;
 import org.gradle.caching.internal.origin.OriginWriter;
 import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
+import org.gradle.caching.internal.packaging.codec.BuildCacheEntryCodecs;
+import org.gradle.caching.local.internal.BuildCacheBlobStore;
 import org.gradle.internal.IoActions;
 import org.gradle.internal.MutableLong;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.ManagedExecutor;
+import org.gradle.internal.concurrent.Stoppable;
 import org.gradle.internal.file.FileType;
 import org.gradle.internal.file.TreeType;
 import org.gradle.internal.fingerprint.CurrentFileCollectionFingerprint;
 import org.gradle.internal.hash.HashCode;
 import org.gradle.internal.hash.StreamHasher;
 import org.gradle.internal.nativeplatform.filesystem.FileSystem;
+import org.gradle.internal.snapshot.DefaultRegularFileSnapshot;
 import org.gradle.internal.snapshot.DirectorySnapshot;
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
 import org.gradle.internal.snapshot.FileSystemSnapshotVisitor;
@@ -49,6 +59,7 @@ import org.gradle.internal.snapshot.RelativePathStringTracker;
 
 import javax.annotation.Nullable;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -56,11 +67,18 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -69,8 +87,11 @@ import static org.gradle.caching.internal.packaging.impl.PackerDirectoryUtil.mak
 
 /**
  * Packages build cache entries to a POSIX TAR file.
+ *
+ * When packing, the contents of small files are read ahead and the archive is compressed on multiple threads.
+ * Entries are still written in the order of the snapshots, so the archive is the same as when packing on a single thread.
  */
-public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
+public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker, Stoppable {
     @SuppressWarnings("OctalInteger")
     private interface UnixPermissions {
         int FILE_FLAG =         0100000;
@@ -81,8 +102,16 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
     }
 
     private static final String METADATA_PATH = "METADATA";
+    // Set on entries for files whose contents are stored in a blob store instead of the archive
+    private static final String CONTENT_HASH_PAX_HEADER = "GRADLE.contentHash";
     private static final Pattern TREE_PATH = Pattern.compile("(missing-)?tree-([^/]+)(?:/(.*))?");
     private static final int BUFFER_SIZE = 64 * 1024;
+    // Larger files are streamed into the archive while it is written, so they don't need to fit into memory
+    private static final long MAX_READ_AHEAD_FILE_SIZE = 1024 * 1024;
+    private static final long MAX_READ_AHEAD_BYTES = 16 * 1024 * 1024;
+    private static final int MAX_PENDING_ENTRIES = 1024;
+    // Entries referring to a blob store only contain the structure of the trees, so up to this size they are checked for missing contents before unpacking
+    private static final int MAX_CHECKED_ENTRY_SIZE = 16 * 1024 * 1024;
     private static final ThreadLocal<byte[]> COPY_BUFFERS = new ThreadLocal<byte[]>() {
         @Override
         protected byte[] initialValue() {
@@ -93,27 +122,31 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
     private final FileSystem fileSystem;
     private final StreamHasher streamHasher;
     private final StringInterner stringInterner;
+    private final int parallelism;
+    private final ManagedExecutor executor;
+
+    public TarBuildCacheEntryPacker(FileSystem fileSystem, StreamHasher streamHasher, StringInterner stringInterner, ExecutorFactory executorFactory) {
+        this(fileSystem, streamHasher, stringInterner, executorFactory, Runtime.getRuntime().availableProcessors());
+    }
 
-    public TarBuildCacheEntryPacker(FileSystem fileSystem, StreamHasher streamHasher, StringInterner stringInterner) {
+    @VisibleForTesting
+    TarBuildCacheEntryPacker(FileSystem fileSystem, StreamHasher streamHasher, StringInterner stringInterner, ExecutorFactory executorFactory, int parallelism) {
         this.fileSystem = fileSystem;
         this.streamHasher = streamHasher;
         this.stringInterner = stringInterner;
+        this.parallelism = parallelism;
+        this.executor = parallelism > 1 ? executorFactory.create("Build cache packing", parallelism) : null;
     }
 
     @Override
-    public PackResult pack(CacheableEntity entity, Map<String, CurrentFileCollectionFingerprint> fingerprints, OutputStream output, OriginWriter writeOrigin) throws IOException {
-        BufferedOutputStream bufferedOutput;
-        if (output instanceof BufferedOutputStream) {
-            bufferedOutput = (BufferedOutputStream) output;
-        } else {
-            bufferedOutput = new BufferedOutputStream(output);
-        }
+    public PackResult pack(CacheableEntity entity, Map<String, CurrentFileCollectionFingerprint> fingerprints, OutputStream output, BuildCacheCompression compression, OriginWriter writeOrigin, @Nullable BuildCacheBlobStore blobStore) throws IOException {
+        BufferedOutputStream bufferedOutput = new BufferedOutputStream(BuildCacheEntryCodecs.encode(compression, output, executor, parallelism));
         try (TarArchiveOutputStream tarOutput = new TarArchiveOutputStream(bufferedOutput, "utf-8")) {
             tarOutput.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
             tarOutput.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
             tarOutput.setAddPaxHeadersForNonAsciiNames(true);
             packMetadata(writeOrigin, tarOutput);
-            long entryCount = pack(entity, fingerprints, tarOutput);
+            long entryCount = pack(entity, fingerprints, tarOutput, blobStore);
             return new PackResult(entryCount + 1);
         }
     }
@@ -126,7 +159,7 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
         tarOutput.closeArchiveEntry();
     }
 
-    private long pack(CacheableEntity entity, Map<String, CurrentFileCollectionFingerprint> fingerprints, TarArchiveOutputStream tarOutput) {
+    private long pack(CacheableEntity entity, Map<String, CurrentFileCollectionFingerprint> fingerprints, TarArchiveOutputStream tarOutput, @Nullable BuildCacheBlobStore blobStore) {
         MutableLong entries = new MutableLong();
         entity.visitTrees((treeName, type, root) -> {
             if (root == null) {
@@ -134,7 +167,7 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
             }
             CurrentFileCollectionFingerprint fingerprint = fingerprints.get(treeName);
             try {
-                entries.increment(packTree(treeName, type, fingerprint, tarOutput));
+                entries.increment(packTree(treeName, type, fingerprint, tarOutput, blobStore));
             } catch (Exception ex) {
                 throw new GradleException(String.format("Could not pack tree '%s': %s", treeName, ex.getMessage()), ex);
             }
@@ -142,10 +175,17 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
         return entries.get();
     }
 
-    private long packTree(String name, TreeType type, CurrentFileCollectionFingerprint fingerprint, TarArchiveOutputStream tarOutput) {
-        PackingVisitor packingVisitor = new PackingVisitor(tarOutput, name, type, fileSystem);
-        fingerprint.accept(packingVisitor);
-        return packingVisitor.finish();
+    private long packTree(String name, TreeType type, CurrentFileCollectionFingerprint fingerprint, TarArchiveOutputStream tarOutput, @Nullable BuildCacheBlobStore blobStore) throws IOException {
+        ReadAheadEntryWriter entryWriter = new ReadAheadEntryWriter(tarOutput, executor);
+        try {
+            PackingVisitor packingVisitor = new PackingVisitor(entryWriter, name, type, fileSystem, streamHasher, blobStore);
+            fingerprint.accept(packingVisitor);
+            long entries = packingVisitor.finish();
+            entryWriter.flush();
+            return entries;
+        } finally {
+            entryWriter.cancel();
+        }
     }
 
     private static void createTarEntry(String path, long size, int mode, TarArchiveOutputStream tarOutput) throws IOException {
@@ -156,13 +196,38 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
     }
 
     @Override
-    public UnpackResult unpack(CacheableEntity entity, InputStream input, OriginReader readOrigin) throws IOException {
+    @Nullable
+    public UnpackResult unpack(CacheableEntity entity, InputStream input, OriginReader readOrigin, @Nullable BuildCacheBlobStore blobStore) throws IOException {
+        if (blobStore != null) {
+            byte[] head = ByteStreams.toByteArray(ByteStreams.limit(input, MAX_CHECKED_ENTRY_SIZE));
+            if (head.length < MAX_CHECKED_ENTRY_SIZE) {
+                if (!allBlobsStored(head, blobStore)) {
+                    return null;
+                }
+                input = new ByteArrayInputStream(head);
+            } else {
+                input = new SequenceInputStream(new ByteArrayInputStream(head), input);
+            }
+        }
         try (TarArchiveInputStream tarInput = new TarArchiveInputStream(input)) {
-            return unpack(entity, tarInput, readOrigin);
+            return unpack(entity, tarInput, readOrigin, blobStore);
         }
     }
 
-    private UnpackResult unpack(CacheableEntity entity, TarArchiveInputStream tarInput, OriginReader readOriginAction) throws IOException {
+    private static boolean allBlobsStored(byte[] entry, BuildCacheBlobStore blobStore) throws IOException {
+        try (TarArchiveInputStream tarInput = new TarArchiveInputStream(new ByteArrayInputStream(entry))) {
+            TarArchiveEntry tarEntry;
+            while ((tarEntry = tarInput.getNextTarEntry()) != null) {
+                String contentHash = tarEntry.getExtraPaxHeader(CONTENT_HASH_PAX_HEADER);
+                if (contentHash != null && !blobStore.containsBlob(HashCode.fromString(contentHash))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private UnpackResult unpack(CacheableEntity entity, TarArchiveInputStream tarInput, OriginReader readOriginAction, @Nullable BuildCacheBlobStore blobStore) throws IOException {
         ImmutableMap.Builder<String, CacheableTree> treesBuilder = ImmutableMap.builder();
         entity.visitTrees((name, type, root) -> {
             if (root != null) {
@@ -200,7 +265,7 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
 
                 boolean missing = matcher.group(1) != null;
                 String childPath = matcher.group(3);
-                tarEntry = unpackTree(treeName, tree.getType(), tree.getRoot(), tarInput, tarEntry, childPath, missing, snapshots, entries);
+                tarEntry = unpackTree(treeName, tree.getType(), tree.getRoot(), tarInput, tarEntry, childPath, missing, snapshots, entries, blobStore);
             }
         }
         if (originMetadata == null) {
@@ -229,7 +294,7 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
     }
 
     @Nullable
-    private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File treeRoot, TarArchiveInputStream input, TarArchiveEntry rootEntry, String childPath, boolean missing, Map<String, FileSystemLocationSnapshot> snapshots, MutableLong entries) throws IOException {
+    private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File treeRoot, TarArchiveInputStream input, TarArchiveEntry rootEntry, String childPath, boolean missing, Map<String, FileSystemLocationSnapshot> snapshots, MutableLong entries, @Nullable BuildCacheBlobStore blobStore) throws IOException {
         boolean isDirEntry = rootEntry.isDirectory();
         boolean root = Strings.isNullOrEmpty(childPath);
         if (!root) {
@@ -246,7 +311,7 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
             if (isDirEntry) {
                 throw new IllegalStateException("Should be a file: " + treeName);
             }
-            RegularFileSnapshot fileSnapshot = unpackFile(input, rootEntry, treeRoot, treeRoot.getName());
+            RegularFileSnapshot fileSnapshot = unpackFile(input, rootEntry, treeRoot, treeRoot.getName(), blobStore);
             snapshots.put(treeName, fileSnapshot);
             return input.getNextTarEntry();
         }
@@ -256,7 +321,7 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
         }
         chmodUnpackedFile(rootEntry, treeRoot);
 
-        return unpackDirectoryTree(input, rootEntry, snapshots, entries, treeRoot, treeName);
+        return unpackDirectoryTree(input, rootEntry, snapshots, entries, treeRoot, treeName, blobStore);
     }
 
     private void unpackMissingFile(File treeRoot) throws IOException {
@@ -268,22 +333,38 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
         }
     }
 
-    private RegularFileSnapshot unpackFile(TarArchiveInputStream input, TarArchiveEntry entry, File file, String fileName) throws IOException {
-        OutputStream output = new FileOutputStream(file);
+    private RegularFileSnapshot unpackFile(TarArchiveInputStream input, TarArchiveEntry entry, File file, String fileName, @Nullable BuildCacheBlobStore blobStore) throws IOException {
         HashCode hash;
-        try {
-            hash = streamHasher.hashCopy(input, output);
-            chmodUnpackedFile(entry, file);
-        } finally {
-            IoActions.closeQuietly(output);
+        String contentHash = entry.getExtraPaxHeader(CONTENT_HASH_PAX_HEADER);
+        if (contentHash != null) {
+            hash = restoreFile(contentHash, file, blobStore);
+        } else {
+            OutputStream output = new FileOutputStream(file);
+            try {
+                hash = streamHasher.hashCopy(input, output);
+            } finally {
+                IoActions.closeQuietly(output);
+            }
         }
+        chmodUnpackedFile(entry, file);
         String internedAbsolutePath = stringInterner.intern(file.getAbsolutePath());
         String internedFileName = stringInterner.intern(fileName);
-        return new RegularFileSnapshot(internedAbsolutePath, internedFileName, hash, file.lastModified());
+        return new DefaultRegularFileSnapshot(internedAbsolutePath, internedFileName, hash, file.lastModified());
+    }
+
+    private static HashCode restoreFile(String contentHash, File file, @Nullable BuildCacheBlobStore blobStore) {
+        if (blobStore == null) {
+            throw new IllegalStateException("Cached entry format error, contents of '" + file.getName() + "' are not stored in the entry.");
+        }
+        HashCode hash = HashCode.fromString(contentHash);
+        if (!blobStore.restoreBlob(hash, file)) {
+            throw new IllegalStateException(String.format("Cached entry format error, contents of '%s' with hash %s are missing.", file.getName(), contentHash));
+        }
+        return hash;
     }
 
     @Nullable
-    private TarArchiveEntry unpackDirectoryTree(TarArchiveInputStream input, TarArchiveEntry rootEntry, Map<String, FileSystemLocationSnapshot> snapshots, MutableLong entries, File treeRoot, String treeName) throws IOException {
+    private TarArchiveEntry unpackDirectoryTree(TarArchiveInputStream input, TarArchiveEntry rootEntry, Map<String, FileSystemLocationSnapshot> snapshots, MutableLong entries, File treeRoot, String treeName, @Nullable BuildCacheBlobStore blobStore) throws IOException {
         RelativePathParser parser = new RelativePathParser();
         parser.rootPath(rootEntry.getName());
 
@@ -313,7 +394,7 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
                 String indernedDirName = stringInterner.intern(parser.getName());
                 builder.preVisitDirectory(internedAbsolutePath, indernedDirName);
             } else {
-                RegularFileSnapshot fileSnapshot = unpackFile(input, entry, file, parser.getName());
+                RegularFileSnapshot fileSnapshot = unpackFile(input, entry, file, parser.getName(), blobStore);
                 builder.visit(fileSnapshot);
             }
         }
@@ -330,6 +411,13 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
         fileSystem.chmod(file, entry.getMode() & UnixPermissions.PERM_MASK);
     }
 
+    @Override
+    public void stop() {
+        if (executor != null) {
+            executor.stop();
+        }
+    }
+
     private static String escape(String name) {
         try {
             return URLEncoder.encode(name, "utf-8");
@@ -348,20 +436,24 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
 
     private static class PackingVisitor implements FileSystemSnapshotVisitor {
         private final RelativePathStringTracker relativePathStringTracker;
-        private final TarArchiveOutputStream tarOutput;
+        private final ReadAheadEntryWriter entryWriter;
         private final String treePath;
         private final String treeRoot;
         private final FileSystem fileSystem;
+        private final StreamHasher streamHasher;
+        private final BuildCacheBlobStore blobStore;
         private final TreeType type;
 
         private long entries;
 
-        public PackingVisitor(TarArchiveOutputStream tarOutput, String treeName, TreeType type, FileSystem fileSystem) {
-            this.tarOutput = tarOutput;
+        public PackingVisitor(ReadAheadEntryWriter entryWriter, String treeName, TreeType type, FileSystem fileSystem, StreamHasher streamHasher, @Nullable BuildCacheBlobStore blobStore) {
+            this.entryWriter = entryWriter;
             this.treePath = "tree-" + escape(treeName);
             this.treeRoot = treePath + "/";
             this.type = type;
             this.fileSystem = fileSystem;
+            this.streamHasher = streamHasher;
+            this.blobStore = blobStore;
             this.relativePathStringTracker = new RelativePathStringTracker();
         }
 
@@ -372,7 +464,7 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
             assertCorrectType(root, directorySnapshot);
             String targetPath = getTargetPath(root);
             int mode = root ? UnixPermissions.DEFAULT_DIR_PERM : fileSystem.getUnixMode(new File(directorySnapshot.getAbsolutePath()));
-            storeDirectoryEntry(targetPath, mode, tarOutput);
+            storeDirectoryEntry(targetPath, mode);
             entries++;
             return true;
         }
@@ -383,12 +475,16 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
             relativePathStringTracker.enter(fileSnapshot);
             String targetPath = getTargetPath(root);
             if (fileSnapshot.getType() == FileType.Missing) {
-                storeMissingTree(targetPath, tarOutput);
+                storeMissingTree(targetPath);
             } else {
                 assertCorrectType(root, fileSnapshot);
                 File file = new File(fileSnapshot.getAbsolutePath());
                 int mode = fileSystem.getUnixMode(file);
-                storeFileEntry(file, targetPath, file.length(), mode, tarOutput);
+                if (blobStore != null) {
+                    storeBlobEntry(file, fileSnapshot.getHash(), targetPath, mode);
+                } else {
+                    storeFileEntry(file, targetPath, file.length(), mode);
+                }
             }
             relativePathStringTracker.leave();
             entries++;
@@ -401,7 +497,7 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
 
         public long finish() {
             if (entries == 0) {
-                storeMissingTree(treePath, tarOutput);
+                storeMissingTree(treePath);
                 entries++;
             }
             return entries;
@@ -434,36 +530,154 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
             return treeRoot + relativePath;
         }
 
-        private void storeMissingTree(String treePath, TarArchiveOutputStream tarOutput) {
-            try {
+        private void storeMissingTree(String treePath) {
+            entryWriter.add(tarOutput -> {
                 createTarEntry("missing-" + treePath, 0, UnixPermissions.FILE_FLAG | UnixPermissions.DEFAULT_FILE_PERM, tarOutput);
                 tarOutput.closeArchiveEntry();
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
-            }
+            });
         }
-        private void storeDirectoryEntry(String path, int mode, TarArchiveOutputStream tarOutput) {
-            try {
+
+        private void storeDirectoryEntry(String path, int mode) {
+            entryWriter.add(tarOutput -> {
                 createTarEntry(path + "/", 0, UnixPermissions.DIR_FLAG | mode, tarOutput);
                 tarOutput.closeArchiveEntry();
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
-            }
+            });
         }
 
-        private void storeFileEntry(File inputFile, String path, long size, int mode, TarArchiveOutputStream tarOutput) {
-            try {
-                createTarEntry(path, size, UnixPermissions.FILE_FLAG | mode, tarOutput);
-                FileInputStream input = new FileInputStream(inputFile);
-                try {
-                    IOUtils.copyLarge(input, tarOutput, COPY_BUFFERS.get());
-                } finally {
-                    IoActions.closeQuietly(input);
+        private void storeFileEntry(File inputFile, String path, long size, int mode) {
+            entryWriter.addFile(inputFile, size, tarOutput -> createTarEntry(path, size, UnixPermissions.FILE_FLAG | mode, tarOutput));
+        }
+
+        private void storeBlobEntry(final File inputFile, final HashCode contentHash, String path, int mode) {
+            blobStore.storeBlob(contentHash, blobFile -> {
+                try (InputStream input = new FileInputStream(inputFile); OutputStream output = new FileOutputStream(blobFile)) {
+                    HashCode actualHash = streamHasher.hashCopy(input, output);
+                    if (!actualHash.equals(contentHash)) {
+                        throw new IllegalStateException(String.format("File '%s' changed after it was snapshotted", inputFile));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
+            });
+            entryWriter.add(tarOutput -> {
+                TarArchiveEntry entry = new TarArchiveEntry(path, true);
+                entry.setSize(0);
+                entry.setMode(UnixPermissions.FILE_FLAG | mode);
+                entry.addPaxHeader(CONTENT_HASH_PAX_HEADER, contentHash.toString());
+                tarOutput.putArchiveEntry(entry);
                 tarOutput.closeArchiveEntry();
+            });
+        }
+    }
+
+    private interface EntryAction {
+        void write(TarArchiveOutputStream tarOutput) throws IOException;
+    }
+
+    /**
+     * Writes entries to the archive in the order they are added, reading the contents of small files ahead on the executor.
+     */
+    private static class ReadAheadEntryWriter {
+        private final TarArchiveOutputStream tarOutput;
+        private final ExecutorService executor;
+        private final Deque<PendingEntry> pendingEntries = new ArrayDeque<PendingEntry>();
+        private long pendingBytes;
+
+        public ReadAheadEntryWriter(TarArchiveOutputStream tarOutput, @Nullable ExecutorService executor) {
+            this.tarOutput = tarOutput;
+            this.executor = executor;
+        }
+
+        public void add(EntryAction action) {
+            if (executor == null) {
+                write(action);
+            } else {
+                enqueue(new PendingEntry(action, null, 0));
+            }
+        }
+
+        /**
+         * Adds a file entry. The {@code createEntry} action needs to put the entry, the contents of the file are written after it.
+         */
+        public void addFile(File file, long size, EntryAction createEntry) {
+            if (executor == null || size > MAX_READ_AHEAD_FILE_SIZE) {
+                add(tarOutput -> {
+                    createEntry.write(tarOutput);
+                    try (InputStream input = new FileInputStream(file)) {
+                        IOUtils.copyLarge(input, tarOutput, COPY_BUFFERS.get());
+                    }
+                    tarOutput.closeArchiveEntry();
+                });
+            } else {
+                Future<byte[]> contents = executor.submit(() -> Files.readAllBytes(file.toPath()));
+                enqueue(new PendingEntry(createEntry, contents, size));
+            }
+        }
+
+        public void flush() {
+            writePendingEntries(0, 0);
+        }
+
+        public void cancel() {
+            for (PendingEntry entry : pendingEntries) {
+                if (entry.contents != null) {
+                    entry.contents.cancel(false);
+                }
+            }
+            pendingEntries.clear();
+        }
+
+        private void enqueue(PendingEntry entry) {
+            pendingEntries.add(entry);
+            pendingBytes += entry.size;
+            writePendingEntries(MAX_PENDING_ENTRIES, MAX_READ_AHEAD_BYTES);
+        }
+
+        private void writePendingEntries(int maxEntries, long maxBytes) {
+            while (pendingEntries.size() > maxEntries || (pendingBytes > maxBytes && !pendingEntries.isEmpty())) {
+                PendingEntry entry = pendingEntries.remove();
+                pendingBytes -= entry.size;
+                write(entry.action);
+                if (entry.contents != null) {
+                    byte[] contents = waitFor(entry.contents);
+                    try {
+                        tarOutput.write(contents);
+                        tarOutput.closeArchiveEntry();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+        }
+
+        private void write(EntryAction action) {
+            try {
+                action.write(tarOutput);
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
         }
+
+        private static byte[] waitFor(Future<byte[]> contents) {
+            try {
+                return contents.get();
+            } catch (InterruptedException e) {
+                throw UncheckedException.throwAsUncheckedException(e);
+            } catch (ExecutionException e) {
+                throw UncheckedException.throwAsUncheckedException(e.getCause());
+            }
+        }
+    }
+
+    private static class PendingEntry {
+        private final EntryAction action;
+        private final Future<byte[]> contents;
+        private final long size;
+
+        public PendingEntry(EntryAction action, @Nullable Future<byte[]> contents, long size) {
+            this.action = action;
+            this.contents = contents;
+            this.size = size;
+        }
     }
 }
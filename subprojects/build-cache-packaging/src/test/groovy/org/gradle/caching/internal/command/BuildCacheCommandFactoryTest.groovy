@@ -21,6 +21,7 @@ import com.google.common.collect.ImmutableMap
 import org.gradle.api.internal.cache.StringInterner
 import org.gradle.api.internal.file.collections.ImmutableFileCollection
 import org.gradle.caching.BuildCacheKey
+import org.gradle.caching.configuration.BuildCacheCompression
 import org.gradle.caching.internal.CacheableEntity
 import org.gradle.caching.internal.TestCacheableTree
 import org.gradle.caching.internal.origin.OriginMetadata
@@ -29,9 +30,13 @@ import org.gradle.caching.internal.origin.OriginReader
 import org.gradle.caching.internal.origin.OriginWriter
 import org.gradle.caching.internal.packaging.BuildCacheEntryPacker
 import org.gradle.caching.internal.packaging.UnrecoverableUnpackingException
+import org.gradle.caching.internal.packaging.codec.BuildCacheEntryCodecs
+import org.gradle.caching.local.internal.BuildCacheBlobStore
 import org.gradle.internal.file.TreeType
 import org.gradle.internal.hash.HashCode
 import org.gradle.internal.nativeintegration.filesystem.DefaultFileMetadata
+import org.gradle.internal.snapshot.DefaultDirectorySnapshot
+import org.gradle.internal.snapshot.DefaultRegularFileSnapshot
 import org.gradle.internal.snapshot.DirectorySnapshot
 import org.gradle.internal.snapshot.FileSystemMirror
 import org.gradle.internal.snapshot.RegularFileSnapshot
@@ -55,6 +60,7 @@ class BuildCacheCommandFactoryTest extends Specification {
     def key = Mock(BuildCacheKey)
     def loadListener = Mock(BuildCacheLoadListener)
     def timer = Stub(Timer)
+    def blobStore = Mock(BuildCacheBlobStore)
 
     def originMetadata = Mock(OriginMetadata)
     def originReader = Mock(OriginReader)
@@ -69,27 +75,27 @@ class BuildCacheCommandFactoryTest extends Specification {
         def outputFile = temporaryFolder.file("output.txt")
         def outputDir = temporaryFolder.file("outputDir")
         def outputDirFile = outputDir.file("file.txt")
-        def input = Mock(InputStream)
+        def input = emptyEntry()
         def entity = entity(
             prop("outputDir", DIRECTORY, outputDir),
             prop("outputFile", FILE, outputFile)
         )
         def load = commandFactory.createLoad(key, entity, localStateFiles, loadListener)
 
-        def outputFileSnapshot = new RegularFileSnapshot(outputFile.absolutePath, outputFile.name, HashCode.fromInt(234), 234)
+        def outputFileSnapshot = new DefaultRegularFileSnapshot(outputFile.absolutePath, outputFile.name, HashCode.fromInt(234), 234)
         def fileSnapshots = ImmutableMap.of(
-            "outputDir", new DirectorySnapshot(outputDir.getAbsolutePath(), outputDir.name, ImmutableList.of(new RegularFileSnapshot(outputDirFile.getAbsolutePath(), outputDirFile.name, HashCode.fromInt(123), 123)), HashCode.fromInt(456)),
+            "outputDir", new DefaultDirectorySnapshot(outputDir.getAbsolutePath(), outputDir.name, ImmutableList.of(new DefaultRegularFileSnapshot(outputDirFile.getAbsolutePath(), outputDirFile.name, HashCode.fromInt(123), 123)), HashCode.fromInt(456)),
             "outputFile", outputFileSnapshot)
 
         when:
-        def result = load.load(input)
+        def result = load.load(input, blobStore)
 
         then:
         1 * loadListener.beforeLoad()
         1 * originFactory.createReader(entity) >> originReader
 
         then:
-        1 * packer.unpack(entity, input, originReader) >> new BuildCacheEntryPacker.UnpackResult(originMetadata, 123L, fileSnapshots)
+        1 * packer.unpack(entity, _ as InputStream, originReader, blobStore) >> new BuildCacheEntryPacker.UnpackResult(originMetadata, 123L, fileSnapshots)
 
         then:
         1 * fileSystemMirror.putMetadata(outputDir.absolutePath, DefaultFileMetadata.directory())
@@ -117,21 +123,43 @@ class BuildCacheCommandFactoryTest extends Specification {
         !localStateFile.exists()
     }
 
+    def "load is a miss when file contents are missing from the blob store"() {
+        def input = emptyEntry()
+        def outputFile = temporaryFolder.file("output.txt")
+        def entity = this.entity(prop("output", FILE, outputFile))
+        def command = commandFactory.createLoad(key, entity, localStateFiles, loadListener)
+
+        when:
+        def result = command.load(input, blobStore)
+
+        then:
+        1 * loadListener.beforeLoad()
+        1 * originFactory.createReader(entity) >> originReader
+
+        then:
+        1 * packer.unpack(entity, _ as InputStream, originReader, blobStore) >> null
+
+        then:
+        result == null
+        0 * loadListener._
+        0 * fileSystemMirror._
+    }
+
     def "after failed unpacking output is cleaned up"() {
-        def input = Mock(InputStream)
+        def input = emptyEntry()
         def outputFile = temporaryFolder.file("output.txt")
         def entity = this.entity(prop("output", FILE, outputFile))
         def command = commandFactory.createLoad(key, entity, localStateFiles, loadListener)
 
         when:
-        command.load(input)
+        command.load(input, null)
 
         then:
         1 * loadListener.beforeLoad()
         1 * originFactory.createReader(entity) >> originReader
 
         then:
-        1 * packer.unpack(entity, input, originReader) >> {
+        1 * packer.unpack(entity, _ as InputStream, originReader, null) >> {
             outputFile << "partially extracted output fil..."
             throw new RuntimeException("unpacking error")
         }
@@ -151,19 +179,19 @@ class BuildCacheCommandFactoryTest extends Specification {
     }
 
     def "error during cleanup of failed unpacking is reported"() {
-        def input = Mock(InputStream)
+        def input = emptyEntry()
         def entity = entity()
         def command = commandFactory.createLoad(key, entity, localStateFiles, loadListener)
 
         when:
-        command.load(input)
+        command.load(input, null)
 
         then:
         1 * loadListener.beforeLoad()
         1 * originFactory.createReader(entity) >> originReader
 
         then:
-        1 * packer.unpack(entity, input, originReader) >> {
+        1 * packer.unpack(entity, _ as InputStream, originReader, null) >> {
             throw new RuntimeException("unpacking error")
         }
 
@@ -180,19 +208,19 @@ class BuildCacheCommandFactoryTest extends Specification {
     }
 
     def "store invokes packer"() {
-        def output = Mock(OutputStream)
+        def output = new ByteArrayOutputStream()
         def entity = entity(prop("output"))
         def outputFingerprints = Mock(Map)
         def command = commandFactory.createStore(key, entity, outputFingerprints, 421L)
 
         when:
-        def result = command.store(output)
+        def result = command.store(output, BuildCacheCompression.NONE, blobStore)
 
         then:
         1 * originFactory.createWriter(entity, 421L) >> originWriter
 
         then:
-        1 * packer.pack(entity, outputFingerprints, output, originWriter) >> new BuildCacheEntryPacker.PackResult(123)
+        1 * packer.pack(entity, outputFingerprints, output, BuildCacheCompression.NONE, originWriter, blobStore) >> new BuildCacheEntryPacker.PackResult(123)
 
         then:
         result.artifactEntryCount == 123
@@ -210,4 +238,10 @@ class BuildCacheCommandFactoryTest extends Specification {
     TestCacheableTree prop(String name, TreeType type = FILE, File root = null) {
         new TestCacheableTree(name, type, root)
     }
+
+    static InputStream emptyEntry() {
+        def output = new ByteArrayOutputStream()
+        BuildCacheEntryCodecs.encode(BuildCacheCompression.NONE, output).close()
+        new ByteArrayInputStream(output.toByteArray())
+    }
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.codec
+
+import org.gradle.caching.configuration.BuildCacheCompression
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.Executors
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+
+class BuildCacheEntryCodecsTest extends Specification {
+
+    @Unroll
+    def "can read #description compressed with #compression"() {
+        when:
+        def encoded = encode(compression, content)
+
+        then:
+        decode(encoded) == content
+
+        where:
+        [compression, contentWithDescription] << [
+            BuildCacheCompression.values(),
+            [
+                ["empty content", new byte[0]],
+                ["a few bytes", "abc".bytes],
+                ["repetitive content", ("class Foo { int bar; }\n" * 20000).bytes],
+                ["random content", randomBytes(300000)],
+                ["a long run of a single byte", new byte[200000]]
+            ]
+        ].combinations()
+        description = contentWithDescription[0]
+        content = contentWithDescription[1] as byte[]
+    }
+
+    def "compresses repetitive content with LZ4"() {
+        def content = ("class Foo { int bar; }\n" * 20000).bytes
+
+        expect:
+        encode(BuildCacheCompression.LZ4, content).length < content.length / 10
+    }
+
+    def "stores incompressible content with little overhead with LZ4"() {
+        def content = randomBytes(300000)
+
+        expect:
+        encode(BuildCacheCompression.LZ4, content).length < content.length + 100
+    }
+
+    def "writes plain gzip for GZIP"() {
+        def content = "content".bytes
+
+        expect:
+        new GZIPInputStream(new ByteArrayInputStream(encode(BuildCacheCompression.GZIP, content))).bytes == content
+    }
+
+    def "reads entries without header as gzip"() {
+        def content = "content".bytes
+        def output = new ByteArrayOutputStream()
+        new GZIPOutputStream(output).withStream { it.write(content) }
+
+        expect:
+        decode(output.toByteArray()) == content
+    }
+
+    def "detects corrupt LZ4 entries"() {
+        def encoded = encode(BuildCacheCompression.LZ4, ("class Foo { int bar; }\n" * 20000).bytes)
+        encoded[encoded.length - 100] = (byte) (encoded[encoded.length - 100] ^ 0x55)
+
+        when:
+        decode(encoded)
+
+        then:
+        def e = thrown IOException
+        e.message == "Build cache entry is corrupt."
+    }
+
+    def "detects truncated LZ4 entries"() {
+        def encoded = encode(BuildCacheCompression.LZ4, randomBytes(300000))
+
+        when:
+        decode(Arrays.copyOf(encoded, encoded.length - 10))
+
+        then:
+        thrown EOFException
+    }
+
+    @Unroll
+    def "compresses #description with LZ4 on multiple threads the same way as on a single thread"() {
+        def executor = Executors.newFixedThreadPool(4)
+
+        when:
+        def output = new ByteArrayOutputStream()
+        BuildCacheEntryCodecs.encode(BuildCacheCompression.LZ4, output, executor, 4).withStream { it.write(content) }
+
+        then:
+        output.toByteArray() == encode(BuildCacheCompression.LZ4, content)
+
+        cleanup:
+        executor.shutdownNow()
+
+        where:
+        description          | content
+        "empty content"      | new byte[0]
+        "repetitive content" | ("class Foo { int bar; }\n" * 200000).bytes
+        "random content"     | randomBytes(3000000)
+    }
+
+    def "fails for unknown compression"() {
+        def encoded = encode(BuildCacheCompression.NONE, "content".bytes)
+        encoded[4] = (byte) 42
+
+        when:
+        decode(encoded)
+
+        then:
+        def e = thrown IOException
+        e.message == "Build cache entry uses an unknown compression with id 42."
+    }
+
+    private static byte[] encode(BuildCacheCompression compression, byte[] content) {
+        def output = new ByteArrayOutputStream()
+        BuildCacheEntryCodecs.encode(compression, output).withStream { it.write(content) }
+        output.toByteArray()
+    }
+
+    private static byte[] decode(byte[] encoded) {
+        BuildCacheEntryCodecs.decode(new ByteArrayInputStream(encoded)).withStream { it.bytes }
+    }
+
+    private static byte[] randomBytes(int length) {
+        def bytes = new byte[length]
+        new Random(1234L).nextBytes(bytes)
+        bytes
+    }
+}
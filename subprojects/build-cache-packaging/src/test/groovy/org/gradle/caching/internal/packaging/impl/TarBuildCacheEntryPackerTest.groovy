@@ -16,19 +16,27 @@
 
 package org.gradle.caching.internal.packaging.impl
 
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import org.gradle.api.Action
+import org.gradle.api.GradleException
 import org.gradle.api.internal.cache.StringInterner
 import org.gradle.api.internal.file.TestFiles
+import org.gradle.caching.configuration.BuildCacheCompression
 import org.gradle.caching.internal.CacheableEntity
 import org.gradle.caching.internal.TestCacheableTree
 import org.gradle.caching.internal.origin.OriginReader
 import org.gradle.caching.internal.origin.OriginWriter
+import org.gradle.caching.internal.packaging.codec.BuildCacheEntryCodecs
+import org.gradle.caching.local.internal.BuildCacheBlobStore
+import org.gradle.internal.concurrent.DefaultExecutorFactory
 import org.gradle.internal.file.TreeType
 import org.gradle.internal.fingerprint.CurrentFileCollectionFingerprint
 import org.gradle.internal.fingerprint.FingerprintingStrategy
 import org.gradle.internal.fingerprint.impl.AbsolutePathFingerprintingStrategy
 import org.gradle.internal.fingerprint.impl.DefaultCurrentFileCollectionFingerprint
+import org.gradle.internal.hash.DefaultFileHasher
 import org.gradle.internal.hash.DefaultStreamHasher
-import org.gradle.internal.hash.TestFileHasher
+import org.gradle.internal.hash.HashCode
 import org.gradle.internal.nativeplatform.filesystem.FileSystem
 import org.gradle.internal.snapshot.WellKnownFileLocations
 import org.gradle.internal.snapshot.impl.DefaultFileSystemMirror
@@ -54,9 +62,14 @@ class TarBuildCacheEntryPackerTest extends Specification {
     def fileSystem = Mock(FileSystem)
     def streamHasher = new DefaultStreamHasher()
     def stringInterner = new StringInterner()
-    def packer = new TarBuildCacheEntryPacker(fileSystem, streamHasher, stringInterner)
+    def packer = new TarBuildCacheEntryPacker(fileSystem, streamHasher, stringInterner, new DefaultExecutorFactory(), 4)
     def fileSystemMirror = new DefaultFileSystemMirror(Stub(WellKnownFileLocations))
-    def snapshotter = new DefaultFileSystemSnapshotter(new TestFileHasher(), stringInterner, TestFiles.fileSystem(), fileSystemMirror)
+    def snapshotter = new DefaultFileSystemSnapshotter(new DefaultFileHasher(streamHasher), stringInterner, TestFiles.fileSystem(), fileSystemMirror)
+    BuildCacheBlobStore blobStore = null
+
+    def cleanup() {
+        packer.stop()
+    }
 
     @Unroll
     def "can pack single file with file mode #mode"() {
@@ -324,15 +337,149 @@ class TarBuildCacheEntryPackerTest extends Specification {
         0 * _
     }
 
+    def "can pack directory with file contents stored by content hash"() {
+        def sourceOutputDir = temporaryFolder.file("source").createDir()
+        def sourceFile1 = sourceOutputDir.file("file1.txt") << "same"
+        def sourceFile2 = sourceOutputDir.file("file2.txt") << "same"
+        def sourceFile3 = sourceOutputDir.file("file3.txt") << "different"
+        def targetOutputDir = temporaryFolder.file("target")
+        def blobs = new TestBlobStore(temporaryFolder.file("blobs").createDir())
+        blobStore = blobs
+        def output = new ByteArrayOutputStream()
+
+        when:
+        def packResult = pack output, prop(DIRECTORY, sourceOutputDir)
+
+        then:
+        1 * fileSystem.getUnixMode(sourceFile1) >> 0644
+        1 * fileSystem.getUnixMode(sourceFile2) >> 0644
+        1 * fileSystem.getUnixMode(sourceFile3) >> 0755
+        0 * _
+        packResult.entries == 4
+        blobs.dir.listFiles()*.text.sort() == ["different", "same"]
+        !new String(output.toByteArray(), "utf-8").contains("different")
+
+        when:
+        def input = new ByteArrayInputStream(output.toByteArray())
+        def result = unpack input, prop(DIRECTORY, targetOutputDir)
+
+        then:
+        1 * fileSystem.chmod(targetOutputDir, 0755)
+        1 * fileSystem.chmod(targetOutputDir.file("file1.txt"), 0644)
+        1 * fileSystem.chmod(targetOutputDir.file("file2.txt"), 0644)
+        1 * fileSystem.chmod(targetOutputDir.file("file3.txt"), 0755)
+        0 * _
+        targetOutputDir.file("file1.txt").text == "same"
+        targetOutputDir.file("file2.txt").text == "same"
+        targetOutputDir.file("file3.txt").text == "different"
+        result.entries == 4
+        result.snapshots["test"].hash == snapshotter.snapshot(sourceOutputDir).hash
+    }
+
+    def "packs directory on multiple threads the same way as on a single thread"() {
+        def sourceOutputDir = temporaryFolder.file("source").createDir()
+        def random = new Random(1234L)
+        (1..300).each { index ->
+            def content = new byte[random.nextInt(4096)]
+            random.nextBytes(content)
+            sourceOutputDir.file("dir${index % 7}/file${index}.bin").createFile().bytes = content
+        }
+        def largeContent = new byte[3 * 1024 * 1024]
+        random.nextBytes(largeContent)
+        sourceOutputDir.file("dir3/large.bin").createFile().bytes = largeContent
+        def singleThreadedPacker = new TarBuildCacheEntryPacker(fileSystem, streamHasher, stringInterner, new DefaultExecutorFactory(), 1)
+        _ * fileSystem.getUnixMode(_) >> 0644
+
+        when:
+        def parallelOutput = new ByteArrayOutputStream()
+        pack parallelOutput, prop(DIRECTORY, sourceOutputDir)
+        def singleThreadedOutput = new ByteArrayOutputStream()
+        def fingerprints = [test: prop(DIRECTORY, sourceOutputDir).fingerprint()]
+        singleThreadedPacker.pack(entity(prop(DIRECTORY, sourceOutputDir)), fingerprints, singleThreadedOutput, BuildCacheCompression.LZ4, writeOrigin, null)
+
+        then:
+        def parallelEntries = tarEntries(parallelOutput.toByteArray())
+        parallelEntries.size() == 1 + 1 + 7 + 301
+        parallelEntries == tarEntries(singleThreadedOutput.toByteArray())
+
+        cleanup:
+        singleThreadedPacker.stop()
+    }
+
+    def "does not unpack anything when contents stored by content hash are missing"() {
+        def sourceOutputDir = temporaryFolder.file("source").createDir()
+        sourceOutputDir.file("file1.txt") << "present"
+        sourceOutputDir.file("file2.txt") << "missing"
+        def targetOutputDir = temporaryFolder.file("target")
+        def blobs = new TestBlobStore(temporaryFolder.file("blobs").createDir())
+        blobStore = blobs
+        def output = new ByteArrayOutputStream()
+        _ * fileSystem.getUnixMode(_) >> 0644
+
+        when:
+        pack output, prop(DIRECTORY, sourceOutputDir)
+        blobs.dir.listFiles().find { it.text == "missing" }.delete()
+        def result = unpack new ByteArrayInputStream(output.toByteArray()), prop(DIRECTORY, targetOutputDir)
+
+        then:
+        result == null
+        !targetOutputDir.exists()
+        0 * fileSystem.chmod(_, _)
+    }
+
+    def "fails to unpack file stored by content hash without blob store"() {
+        def sourceOutputFile = temporaryFolder.file("source.txt") << "output"
+        def targetOutputFile = temporaryFolder.file("target.txt")
+        blobStore = new TestBlobStore(temporaryFolder.file("blobs").createDir())
+        def output = new ByteArrayOutputStream()
+        _ * fileSystem.getUnixMode(sourceOutputFile) >> 0644
+
+        when:
+        pack output, prop(FILE, sourceOutputFile)
+        blobStore = null
+        unpack new ByteArrayInputStream(output.toByteArray()), prop(FILE, targetOutputFile)
+
+        then:
+        def ex = thrown IllegalStateException
+        ex.message == "Cached entry format error, contents of 'target.txt' are not stored in the entry."
+    }
+
+    def "does not store contents of file which changed after it was snapshotted"() {
+        def sourceOutputFile = temporaryFolder.file("source.txt") << "output"
+        def fingerprint = prop(FILE, sourceOutputFile).fingerprint()
+        def blobs = new TestBlobStore(temporaryFolder.file("blobs").createDir())
+        _ * fileSystem.getUnixMode(sourceOutputFile) >> 0644
+
+        when:
+        sourceOutputFile.text = "changed"
+        packer.pack(entity(prop(FILE, sourceOutputFile)), [test: fingerprint], new ByteArrayOutputStream(), BuildCacheCompression.LZ4, writeOrigin, blobs)
+
+        then:
+        def ex = thrown GradleException
+        ex.cause.message == "File '${sourceOutputFile}' changed after it was snapshotted"
+        blobs.dir.listFiles().length == 0
+    }
+
     def pack(OutputStream output, OriginWriter writeOrigin = this.writeOrigin, TreeDefinition... treeDefs) {
         Map<String, CurrentFileCollectionFingerprint> fingerprints = treeDefs.collectEntries { treeDef ->
             return [(treeDef.tree.name): treeDef.fingerprint()]
         }
-        packer.pack(entity(treeDefs), fingerprints, output, writeOrigin)
+        packer.pack(entity(treeDefs), fingerprints, output, BuildCacheCompression.LZ4, writeOrigin, blobStore)
     }
 
     def unpack(InputStream input, OriginReader readOrigin = this.readOrigin, TreeDefinition... treeDefs) {
-        packer.unpack(entity(treeDefs), input, readOrigin)
+        packer.unpack(entity(treeDefs), BuildCacheEntryCodecs.decode(input), readOrigin, blobStore)
+    }
+
+    private static List<List<Object>> tarEntries(byte[] entry) {
+        def tarInput = new TarArchiveInputStream(BuildCacheEntryCodecs.decode(new ByteArrayInputStream(entry)))
+        def entries = []
+        def tarEntry
+        while ((tarEntry = tarInput.nextTarEntry) != null) {
+            entries << [tarEntry.name, tarEntry.mode, tarInput.bytes]
+        }
+        tarInput.close()
+        entries
     }
 
     def entity(TreeDefinition... treeDefs) {
@@ -370,6 +517,43 @@ class TarBuildCacheEntryPackerTest extends Specification {
         }
     }
 
+    private static class TestBlobStore implements BuildCacheBlobStore {
+        final File dir
+
+        TestBlobStore(File dir) {
+            this.dir = dir
+        }
+
+        @Override
+        void storeBlob(HashCode contentHash, Action<? super File> writer) {
+            def file = new File(dir, contentHash.toString())
+            if (!file.exists()) {
+                def tempFile = new File(dir, "${contentHash}.part")
+                try {
+                    writer.execute(tempFile)
+                    tempFile.renameTo(file)
+                } finally {
+                    tempFile.delete()
+                }
+            }
+        }
+
+        @Override
+        boolean containsBlob(HashCode contentHash) {
+            new File(dir, contentHash.toString()).exists()
+        }
+
+        @Override
+        boolean restoreBlob(HashCode contentHash, File target) {
+            def file = new File(dir, contentHash.toString())
+            if (!file.exists()) {
+                return false
+            }
+            target.bytes = file.bytes
+            return true
+        }
+    }
+
     private abstract static class TreeDefinition {
         final TestCacheableTree tree
 
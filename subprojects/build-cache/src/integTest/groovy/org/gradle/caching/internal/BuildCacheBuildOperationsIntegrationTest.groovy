@@ -21,6 +21,7 @@ import org.gradle.caching.internal.operations.BuildCacheArchivePackBuildOperatio
 import org.gradle.caching.internal.operations.BuildCacheArchiveUnpackBuildOperationType
 import org.gradle.caching.internal.operations.BuildCacheRemoteLoadBuildOperationType
 import org.gradle.caching.internal.operations.BuildCacheRemoteStoreBuildOperationType
+import org.gradle.caching.local.internal.BuildCacheBlobStore
 import org.gradle.caching.local.internal.DefaultBuildCacheTempFileStore
 import org.gradle.caching.local.internal.LocalBuildCacheService
 import org.gradle.integtests.fixtures.AbstractIntegrationSpec
@@ -84,6 +85,11 @@ class BuildCacheBuildOperationsIntegrationTest extends AbstractIntegrationSpec {
                 void storeLocally(BuildCacheKey key, File file) {
                     ${isLocal ? storeBody ?: "" : ""}
                 }
+
+                // @Override
+                ${BuildCacheBlobStore.name} getBlobStore() {
+                    null
+                }
     
                 void withTempFile(BuildCacheKey key, Action<? super File> action) {
                     new $DefaultBuildCacheTempFileStore.name(new File("${TextUtil.normaliseFileSeparators(file("tmp").absolutePath)}")).withTempFile(key, action)
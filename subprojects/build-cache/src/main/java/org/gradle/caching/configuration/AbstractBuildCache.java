@@ -16,6 +16,8 @@
 
 package org.gradle.caching.configuration;
 
+import org.gradle.api.Incubating;
+
 /**
  * Base implementation for build cache service configuration.
  *
@@ -24,6 +26,7 @@ package org.gradle.caching.configuration;
 public abstract class AbstractBuildCache implements BuildCache {
     private boolean enabled = true;
     private boolean push;
+    private BuildCacheCompression compression = BuildCacheCompression.GZIP;
 
     /**
      * {@inheritDoc}
@@ -56,4 +59,26 @@ public abstract class AbstractBuildCache implements BuildCache {
     public void setPush(boolean push) {
         this.push = push;
     }
+
+    /**
+     * Returns the compression used for the entries stored in the build cache.
+     *
+     * <p>Defaults to {@link BuildCacheCompression#GZIP}, which builds using older Gradle versions can read as well.</p>
+     *
+     * @since 5.1
+     */
+    @Incubating
+    public BuildCacheCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Sets the compression used for the entries stored in the build cache.
+     *
+     * @since 5.1
+     */
+    @Incubating
+    public void setCompression(BuildCacheCompression compression) {
+        this.compression = compression;
+    }
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.configuration;
+
+import org.gradle.api.Incubating;
+
+/**
+ * The compression used for the entries stored in a build cache.
+ *
+ * <p>The compression is recorded in each entry, so entries can be loaded regardless of the compression configured for the build cache.</p>
+ *
+ * <p>Builds using Gradle versions before 5.1 can only load entries compressed with {@link #GZIP}.
+ * Other compressions should only be used for build caches that such builds do not share.</p>
+ *
+ * @see AbstractBuildCache#setCompression(BuildCacheCompression)
+ * @since 5.1
+ */
+@Incubating
+public enum BuildCacheCompression {
+    /**
+     * Store entries uncompressed.
+     *
+     * <p>This makes storing and loading entries cheapest, but uses the most disk space and bandwidth.</p>
+     */
+    NONE,
+
+    /**
+     * Compress entries with LZ4.
+     *
+     * <p>Compresses and decompresses several times faster than {@link #GZIP}, at the cost of somewhat larger entries.</p>
+     */
+    LZ4,
+
+    /**
+     * Compress entries with GZIP.
+     *
+     * <p>Produces the smallest entries, which may be preferable for build caches accessed over slow networks.
+     * Entries are standard {@code .tar.gz} archives.</p>
+     */
+    GZIP
+}
@@ -23,12 +23,15 @@ import com.google.common.collect.Iterables;
 import org.gradle.api.internal.GeneratedSubclasses;
 import org.gradle.caching.BuildCacheService;
 import org.gradle.caching.BuildCacheServiceFactory;
+import org.gradle.caching.configuration.AbstractBuildCache;
 import org.gradle.caching.configuration.BuildCache;
+import org.gradle.caching.configuration.BuildCacheCompression;
 import org.gradle.caching.configuration.internal.BuildCacheConfigurationInternal;
 import org.gradle.caching.internal.FinalizeBuildCacheConfigurationBuildOperationType;
 import org.gradle.caching.internal.controller.service.BuildCacheServiceRole;
 import org.gradle.caching.internal.controller.service.BuildCacheServicesConfiguration;
 import org.gradle.internal.Cast;
+import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.operations.BuildOperationContext;
 import org.gradle.internal.operations.BuildOperationDescriptor;
 import org.gradle.internal.operations.BuildOperationExecutor;
@@ -58,6 +61,7 @@ public final class BuildCacheControllerFactory {
 
     public static BuildCacheController create(
         final BuildOperationExecutor buildOperationExecutor,
+        final ExecutorFactory executorFactory,
         final Path buildIdentityPath,
         final File gradleUserHomeDir,
         final BuildCacheConfigurationInternal buildCacheConfiguration,
@@ -114,6 +118,7 @@ public final class BuildCacheControllerFactory {
                     return new DefaultBuildCacheController(
                         config,
                         buildOperationExecutor,
+                        executorFactory,
                         gradleUserHomeDir,
                         logStackTraces,
                         emitDebugLogging
@@ -132,7 +137,15 @@ public final class BuildCacheControllerFactory {
     private static BuildCacheServicesConfiguration toConfiguration(BuildCache local, BuildCacheService localService, BuildCache remote, BuildCacheService remoteService) {
         boolean remotePush = remote != null && remote.isPush();
         boolean localPush = local != null && local.isPush();
-        return new BuildCacheServicesConfiguration(localService, localPush, remoteService, remotePush);
+        return new BuildCacheServicesConfiguration(localService, localPush, compressionOf(local), remoteService, remotePush, compressionOf(remote));
+    }
+
+    private static BuildCacheCompression compressionOf(@Nullable BuildCache configuration) {
+        // Build caches which don't extend AbstractBuildCache have no compression setting
+        if (configuration instanceof AbstractBuildCache) {
+            return ((AbstractBuildCache) configuration).getCompression();
+        }
+        return BuildCacheCompression.GZIP;
     }
 
 
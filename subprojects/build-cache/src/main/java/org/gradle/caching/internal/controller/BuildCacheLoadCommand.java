@@ -17,7 +17,9 @@
 package org.gradle.caching.internal.controller;
 
 import org.gradle.caching.BuildCacheKey;
+import org.gradle.caching.local.internal.BuildCacheBlobStore;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -29,8 +31,11 @@ public interface BuildCacheLoadCommand<T> {
      * Called at-most-once to initiate loading the artifact from the input stream.
      *
      * The input stream will be closed by this method.
+     * Artifacts loaded from a local build cache which deduplicates files refer to the contents of their files in the given {@code blobStore}.
+     * When some of these contents are missing, nothing is loaded and {@code null} is returned, so the artifact is treated as a miss.
      */
-    Result<T> load(InputStream inputStream) throws IOException;
+    @Nullable
+    Result<T> load(InputStream inputStream, @Nullable BuildCacheBlobStore blobStore) throws IOException;
 
     interface Result<T> {
 
@@ -17,7 +17,10 @@
 package org.gradle.caching.internal.controller;
 
 import org.gradle.caching.BuildCacheKey;
+import org.gradle.caching.configuration.BuildCacheCompression;
+import org.gradle.caching.local.internal.BuildCacheBlobStore;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -26,11 +29,12 @@ public interface BuildCacheStoreCommand {
     BuildCacheKey getKey();
 
     /**
-     * Called at-most-once to initiate writing the artifact to the output stream.
+     * Called at-most-once per format to initiate writing the artifact to the output stream.
      *
      * The output stream will be closed by this method.
+     * When a {@code blobStore} is given, the contents of files are stored there, and the artifact only refers to them.
      */
-    Result store(OutputStream outputStream) throws IOException;
+    Result store(OutputStream outputStream, BuildCacheCompression compression, @Nullable BuildCacheBlobStore blobStore) throws IOException;
 
     interface Result {
 
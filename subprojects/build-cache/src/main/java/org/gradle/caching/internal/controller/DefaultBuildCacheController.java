@@ -22,6 +22,7 @@ import org.gradle.api.GradleException;
 import org.gradle.api.UncheckedIOException;
 import org.gradle.caching.BuildCacheKey;
 import org.gradle.caching.BuildCacheService;
+import org.gradle.caching.configuration.BuildCacheCompression;
 import org.gradle.caching.internal.controller.operations.PackOperationDetails;
 import org.gradle.caching.internal.controller.operations.PackOperationResult;
 import org.gradle.caching.internal.controller.operations.UnpackOperationDetails;
@@ -37,14 +38,21 @@ import org.gradle.caching.internal.controller.service.NullBuildCacheServiceHandl
 import org.gradle.caching.internal.controller.service.NullLocalBuildCacheServiceHandle;
 import org.gradle.caching.internal.controller.service.OpFiringBuildCacheServiceHandle;
 import org.gradle.caching.internal.controller.service.StoreTarget;
+import org.gradle.caching.internal.controller.service.StreamingLoadTarget;
+import org.gradle.caching.internal.packaging.UnrecoverableUnpackingException;
+import org.gradle.caching.local.internal.BuildCacheBlobStore;
 import org.gradle.caching.local.internal.BuildCacheTempFileStore;
 import org.gradle.caching.local.internal.DefaultBuildCacheTempFileStore;
 import org.gradle.caching.local.internal.LocalBuildCacheService;
+import org.gradle.internal.IoActions;
 import org.gradle.internal.UncheckedException;
 import org.gradle.internal.concurrent.CompositeStoppable;
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.ManagedExecutor;
 import org.gradle.internal.operations.BuildOperationContext;
 import org.gradle.internal.operations.BuildOperationDescriptor;
 import org.gradle.internal.operations.BuildOperationExecutor;
+import org.gradle.internal.operations.CurrentBuildOperationPreservingRunnable;
 import org.gradle.internal.operations.RunnableBuildOperation;
 
 import javax.annotation.Nullable;
@@ -53,9 +61,28 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class DefaultBuildCacheController implements BuildCacheController {
 
+    /**
+     * When set to {@code true}, entries loaded from the remote or a legacy local build cache are unpacked while they are being loaded,
+     * instead of after they have been written to a temporary file.
+     * The size of the archive is not known when unpacking starts, so it is reported as -1 in the unpack build operation.
+     */
+    public static final String STREAMING_LOAD_PROPERTY = "org.gradle.caching.internal.streamingLoad";
+
+    /**
+     * When set to {@code true}, entries are uploaded to the remote build cache in the background after they have been packed,
+     * and storing them in the remote build cache is retried before it is disabled.
+     * The build waits for the queued uploads when the build cache is closed at the end of the build.
+     */
+    public static final String ASYNC_REMOTE_STORE_PROPERTY = "org.gradle.caching.internal.asyncRemoteStore";
+    private static final int MAX_CONCURRENT_REMOTE_STORES = 4;
+    private static final long MAX_QUEUED_REMOTE_STORE_BYTES = 256L * 1024 * 1024;
+    private static final int MAX_REMOTE_STORE_ATTEMPTS = 3;
+
     @VisibleForTesting
     final BuildCacheServiceHandle legacyLocal;
 
@@ -68,18 +95,41 @@ public class DefaultBuildCacheController implements BuildCacheController {
     private final BuildCacheTempFileStore tmp;
     private final BuildOperationExecutor buildOperationExecutor;
     private final boolean emitDebugLogging;
+    private final BuildCacheCompression localCompression;
+    private final BuildCacheCompression remoteCompression;
+    private final ManagedExecutor loadExecutor;
+    private final ManagedExecutor uploadExecutor;
+    private final RemoteStoreQueue remoteStoreQueue;
 
     private boolean closed;
 
     public DefaultBuildCacheController(
         BuildCacheServicesConfiguration config,
         BuildOperationExecutor buildOperationExecutor,
+        ExecutorFactory executorFactory,
         File gradleUserHomeDir,
         boolean logStackTraces,
         boolean emitDebugLogging
+    ) {
+        this(config, buildOperationExecutor, executorFactory, gradleUserHomeDir, logStackTraces, emitDebugLogging, Boolean.getBoolean(STREAMING_LOAD_PROPERTY), Boolean.getBoolean(ASYNC_REMOTE_STORE_PROPERTY));
+    }
+
+    @VisibleForTesting
+    DefaultBuildCacheController(
+        BuildCacheServicesConfiguration config,
+        BuildOperationExecutor buildOperationExecutor,
+        ExecutorFactory executorFactory,
+        File gradleUserHomeDir,
+        boolean logStackTraces,
+        boolean emitDebugLogging,
+        boolean streamingLoad,
+        boolean asyncRemoteStore
     ) {
         this.buildOperationExecutor = buildOperationExecutor;
         this.emitDebugLogging = emitDebugLogging;
+        this.localCompression = config.localCompression;
+        this.remoteCompression = config.remoteCompression;
+        this.loadExecutor = streamingLoad ? executorFactory.create("Build cache loads") : null;
 
         if (config.local instanceof LocalBuildCacheService) {
             LocalBuildCacheService castLocal = (LocalBuildCacheService) config.local;
@@ -88,11 +138,20 @@ public class DefaultBuildCacheController implements BuildCacheController {
             this.legacyLocal = NullBuildCacheServiceHandle.INSTANCE;
         } else {
             this.local = NullLocalBuildCacheServiceHandle.INSTANCE;
-            this.legacyLocal = toHandle(config.local, config.localPush, BuildCacheServiceRole.LOCAL, buildOperationExecutor, logStackTraces);
+            this.legacyLocal = toHandle(config.local, config.localPush, BuildCacheServiceRole.LOCAL, buildOperationExecutor, logStackTraces, 1);
             this.tmp = new DefaultBuildCacheTempFileStore(new File(gradleUserHomeDir, "build-cache-tmp"));
         }
 
-        this.remote = toHandle(config.remote, config.remotePush, BuildCacheServiceRole.REMOTE, buildOperationExecutor, logStackTraces);
+        this.remote = toHandle(config.remote, config.remotePush, BuildCacheServiceRole.REMOTE, buildOperationExecutor, logStackTraces, asyncRemoteStore ? MAX_REMOTE_STORE_ATTEMPTS : 1);
+
+        if (asyncRemoteStore && remote.canStore()) {
+            File queueDir = new File(gradleUserHomeDir, "build-cache-upload");
+            this.uploadExecutor = executorFactory.create("Build cache uploads", MAX_CONCURRENT_REMOTE_STORES);
+            this.remoteStoreQueue = new RemoteStoreQueue(remote, buildOperationExecutor, uploadExecutor, queueDir, MAX_QUEUED_REMOTE_STORE_BYTES);
+        } else {
+            this.uploadExecutor = null;
+            this.remoteStoreQueue = null;
+        }
     }
 
     @Override
@@ -108,46 +167,36 @@ public class DefaultBuildCacheController implements BuildCacheController {
     @Nullable
     @Override
     public <T> T load(final BuildCacheLoadCommand<T> command) {
-        final Unpack<T> unpack = new Unpack<T>(command);
-
         if (local.canLoad()) {
+            Unpack<T> localUnpack = new Unpack<T>(command, local.getBlobStore());
             try {
-                local.load(command.getKey(), unpack);
+                local.load(command.getKey(), localUnpack);
             } catch (Exception e) {
                 throw new GradleException("Build cache entry " + command.getKey().getHashCode() + " from local build cache is invalid", e);
             }
 
-            if (unpack.result != null) {
-                return unpack.result.getMetadata();
+            if (localUnpack.result != null) {
+                return localUnpack.result.getMetadata();
             }
         }
 
+        final Unpack<T> unpack = new Unpack<T>(command, null);
+
         if (legacyLocal.canLoad() || remote.canLoad()) {
             tmp.withTempFile(command.getKey(), new Action<File>() {
                 @Override
                 public void execute(File file) {
-                    LoadTarget loadTarget = new LoadTarget(file);
-                    BuildCacheServiceRole loadedRole = null;
+                    boolean loaded = false;
                     if (legacyLocal.canLoad()) {
-                        loadedRole = BuildCacheServiceRole.LOCAL;
-                        legacyLocal.load(command.getKey(), loadTarget);
+                        loaded = loadAndUnpack(legacyLocal, BuildCacheServiceRole.LOCAL, file, unpack);
                     }
 
-                    if (remote.canLoad() && !loadTarget.isLoaded()) {
-                        loadedRole = BuildCacheServiceRole.REMOTE;
-                        remote.load(command.getKey(), loadTarget);
+                    if (remote.canLoad() && unpack.result == null) {
+                        loaded = loadAndUnpack(remote, BuildCacheServiceRole.REMOTE, file, unpack);
                     }
 
-                    if (loadTarget.isLoaded()) {
-                        try {
-                            unpack.execute(file);
-                        } catch (Exception e) {
-                            @SuppressWarnings("ConstantConditions") String roleDisplayName = loadedRole.getDisplayName();
-                            throw new GradleException("Build cache entry " + command.getKey().getHashCode() + " from " + roleDisplayName + " build cache is invalid", e);
-                        }
-                        if (local.canStore()) {
-                            local.store(command.getKey(), file);
-                        }
+                    if (loaded && local.canStore()) {
+                        local.store(command.getKey(), file);
                     }
                 }
             });
@@ -161,34 +210,129 @@ public class DefaultBuildCacheController implements BuildCacheController {
         }
     }
 
+    /**
+     * Loads the entry into the given file and unpacks it.
+     *
+     * @return whether the complete entry has been written to the file.
+     */
+    private <T> boolean loadAndUnpack(BuildCacheServiceHandle handle, BuildCacheServiceRole role, File file, Unpack<T> unpack) {
+        if (loadExecutor != null) {
+            return loadAndUnpackStreaming(handle, role, file, unpack);
+        }
+
+        BuildCacheKey key = unpack.command.getKey();
+        LoadTarget loadTarget = new LoadTarget(file);
+        handle.load(key, loadTarget);
+        if (!loadTarget.isLoaded()) {
+            return false;
+        }
+        try {
+            unpack.execute(file);
+        } catch (Exception e) {
+            throw invalidEntry(key, role, e);
+        }
+        return true;
+    }
+
+    /**
+     * Loads the entry on another thread, and unpacks it on this thread while it is being loaded.
+     */
+    private <T> boolean loadAndUnpackStreaming(final BuildCacheServiceHandle handle, BuildCacheServiceRole role, File file, Unpack<T> unpack) {
+        final BuildCacheKey key = unpack.command.getKey();
+        final StreamingLoadTarget loadTarget = new StreamingLoadTarget(file);
+        Future<?> load = loadExecutor.submit(new CurrentBuildOperationPreservingRunnable(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    handle.load(key, loadTarget);
+                } finally {
+                    loadTarget.loadCompleted();
+                }
+            }
+        }));
+
+        Exception unpackFailure = null;
+        try {
+            InputStream input = loadTarget.awaitEntry();
+            if (input == null) {
+                return false;
+            }
+            try {
+                unpack.unpack(input, -1);
+            } catch (Exception e) {
+                unpackFailure = e;
+            } finally {
+                IoActions.closeQuietly(input);
+            }
+        } finally {
+            waitFor(load);
+        }
+
+        if (unpackFailure != null) {
+            if (loadTarget.isLoaded()) {
+                throw invalidEntry(key, role, unpackFailure);
+            }
+            if (unpackFailure instanceof UnrecoverableUnpackingException) {
+                throw (UnrecoverableUnpackingException) unpackFailure;
+            }
+            // The load failed while the entry was being unpacked. The load command has removed the outputs it unpacked,
+            // and the service handle has disabled the cache when the load failed, so this is a miss like any other failed load.
+        }
+        return loadTarget.isLoaded();
+    }
+
+    private static void waitFor(Future<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        } catch (ExecutionException e) {
+            throw UncheckedException.throwAsUncheckedException(e.getCause());
+        }
+    }
+
+    private static GradleException invalidEntry(BuildCacheKey key, BuildCacheServiceRole role, Exception cause) {
+        return new GradleException("Build cache entry " + key.getHashCode() + " from " + role.getDisplayName() + " build cache is invalid", cause);
+    }
+
     private class Unpack<T> implements Action<File> {
         private final BuildCacheLoadCommand<T> command;
+        private final BuildCacheBlobStore blobStore;
 
         private BuildCacheLoadCommand.Result<T> result;
 
-        private Unpack(BuildCacheLoadCommand<T> command) {
+        private Unpack(BuildCacheLoadCommand<T> command, @Nullable BuildCacheBlobStore blobStore) {
             this.command = command;
+            this.blobStore = blobStore;
         }
 
         @Override
-        public void execute(final File file) {
+        public void execute(File file) {
+            try (InputStream input = new FileInputStream(file)) {
+                unpack(input, file.length());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void unpack(final InputStream input, final long archiveSize) {
             buildOperationExecutor.run(new RunnableBuildOperation() {
                 @Override
                 public void run(BuildOperationContext context) {
-                    try (InputStream input = new FileInputStream(file)) {
-                        result = command.load(input);
+                    try {
+                        result = command.load(input, blobStore);
                     } catch (IOException e) {
                         throw new UncheckedIOException(e);
                     }
                     context.setResult(new UnpackOperationResult(
-                        result.getArtifactEntryCount()
+                        result == null ? 0 : result.getArtifactEntryCount()
                     ));
                 }
 
                 @Override
                 public BuildOperationDescriptor.Builder description() {
                     return BuildOperationDescriptor.displayName("Unpack build cache entry " + command.getKey().getHashCode())
-                        .details(new UnpackOperationDetails(command.getKey(), file.length()))
+                        .details(new UnpackOperationDetails(command.getKey(), archiveSize))
                         .progressDisplayName("Unpacking build cache entry");
                 }
             });
@@ -196,29 +340,47 @@ public class DefaultBuildCacheController implements BuildCacheController {
     }
 
     @Override
-    public void store(final BuildCacheStoreCommand command) {
-        boolean anyStore = local.canStore() || legacyLocal.canStore() || remote.canStore();
-        if (!anyStore) {
+    public void store(BuildCacheStoreCommand command) {
+        boolean storeLocally = local.canStore() || legacyLocal.canStore();
+        boolean storeRemotely = remote.canStore();
+        if (!storeLocally && !storeRemotely) {
             return;
         }
 
+        BuildCacheBlobStore localBlobStore = local.canStore() ? local.getBlobStore() : null;
+        if (storeLocally && storeRemotely && (localCompression != remoteCompression || localBlobStore != null)) {
+            // The entry is packed once for each format
+            store(command, remoteCompression, null, false, true);
+            store(command, localCompression, localBlobStore, true, false);
+        } else if (storeRemotely) {
+            store(command, remoteCompression, null, storeLocally, true);
+        } else {
+            store(command, localCompression, localBlobStore, true, false);
+        }
+    }
+
+    private void store(BuildCacheStoreCommand command, BuildCacheCompression compression, @Nullable BuildCacheBlobStore blobStore, final boolean storeLocally, final boolean storeRemotely) {
         final BuildCacheKey key = command.getKey();
-        final Pack pack = new Pack(command);
+        final Pack pack = new Pack(command, compression, blobStore);
 
         tmp.withTempFile(command.getKey(), new Action<File>() {
             @Override
             public void execute(File file) {
                 pack.execute(file);
 
-                if (legacyLocal.canStore()) {
+                if (storeLocally && legacyLocal.canStore()) {
                     legacyLocal.store(key, new StoreTarget(file));
                 }
 
-                if (remote.canStore()) {
-                    remote.store(key, new StoreTarget(file));
+                if (storeRemotely && remote.canStore()) {
+                    if (remoteStoreQueue != null) {
+                        remoteStoreQueue.submit(key, file, storeLocally && local.canStore());
+                    } else {
+                        remote.store(key, new StoreTarget(file));
+                    }
                 }
 
-                if (local.canStore()) {
+                if (storeLocally && local.canStore()) {
                     local.store(key, file);
                 }
             }
@@ -228,9 +390,13 @@ public class DefaultBuildCacheController implements BuildCacheController {
     private class Pack implements Action<File> {
 
         private final BuildCacheStoreCommand command;
+        private final BuildCacheCompression compression;
+        private final BuildCacheBlobStore blobStore;
 
-        private Pack(BuildCacheStoreCommand command) {
+        private Pack(BuildCacheStoreCommand command, BuildCacheCompression compression, @Nullable BuildCacheBlobStore blobStore) {
             this.command = command;
+            this.compression = compression;
+            this.blobStore = blobStore;
         }
 
         @Override
@@ -239,7 +405,7 @@ public class DefaultBuildCacheController implements BuildCacheController {
                 @Override
                 public void run(BuildOperationContext context) {
                     try {
-                        BuildCacheStoreCommand.Result result = command.store(new FileOutputStream(file));
+                        BuildCacheStoreCommand.Result result = command.store(new FileOutputStream(file), compression, blobStore);
                         context.setResult(new PackOperationResult(
                             result.getArtifactEntryCount(),
                             file.length()
@@ -263,21 +429,22 @@ public class DefaultBuildCacheController implements BuildCacheController {
     public void close() {
         if (!closed) {
             closed = true;
-            CompositeStoppable.stoppable(legacyLocal, local, remote).stop();
+            // Wait for queued uploads and stop the executors first, so that services are not closed while they are still in use
+            CompositeStoppable.stoppable(remoteStoreQueue, uploadExecutor, loadExecutor, legacyLocal, local, remote).stop();
         }
     }
 
-    private static BuildCacheServiceHandle toHandle(BuildCacheService service, boolean push, BuildCacheServiceRole role, BuildOperationExecutor buildOperationExecutor, boolean logStackTraces) {
+    private static BuildCacheServiceHandle toHandle(BuildCacheService service, boolean push, BuildCacheServiceRole role, BuildOperationExecutor buildOperationExecutor, boolean logStackTraces, int maxStoreAttempts) {
         return service == null
             ? NullBuildCacheServiceHandle.INSTANCE
-            : toNonNullHandle(service, push, role, buildOperationExecutor, logStackTraces);
+            : toNonNullHandle(service, push, role, buildOperationExecutor, logStackTraces, maxStoreAttempts);
     }
 
-    private static BuildCacheServiceHandle toNonNullHandle(BuildCacheService service, boolean push, BuildCacheServiceRole role, BuildOperationExecutor buildOperationExecutor, boolean logStackTraces) {
+    private static BuildCacheServiceHandle toNonNullHandle(BuildCacheService service, boolean push, BuildCacheServiceRole role, BuildOperationExecutor buildOperationExecutor, boolean logStackTraces, int maxStoreAttempts) {
         if (role == BuildCacheServiceRole.LOCAL) {
-            return new BaseBuildCacheServiceHandle(service, push, role, logStackTraces);
+            return new BaseBuildCacheServiceHandle(service, push, role, logStackTraces, maxStoreAttempts);
         } else {
-            return new OpFiringBuildCacheServiceHandle(service, push, role, buildOperationExecutor, logStackTraces);
+            return new OpFiringBuildCacheServiceHandle(service, push, role, buildOperationExecutor, logStackTraces, maxStoreAttempts);
         }
     }
 
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller;
+
+import com.google.common.io.Files;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.caching.BuildCacheKey;
+import org.gradle.caching.internal.controller.operations.DrainOperationDetails;
+import org.gradle.caching.internal.controller.operations.DrainOperationResult;
+import org.gradle.caching.internal.controller.service.BuildCacheServiceHandle;
+import org.gradle.caching.internal.controller.service.StoreTarget;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.concurrent.Stoppable;
+import org.gradle.internal.operations.BuildOperationContext;
+import org.gradle.internal.operations.BuildOperationDescriptor;
+import org.gradle.internal.operations.BuildOperationExecutor;
+import org.gradle.internal.operations.RunnableBuildOperation;
+import org.gradle.internal.time.Time;
+import org.gradle.internal.time.Timer;
+import org.gradle.util.GFileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Uploads packed entries to the remote build cache in the background, so that storing an entry doesn't hold up the task that produced it.
+ *
+ * Queueing an entry blocks while the queued entries exceed the given number of bytes, so that packing can't outpace uploading indefinitely.
+ * Stopping the queue waits for all queued entries to be uploaded.
+ */
+class RemoteStoreQueue implements Stoppable {
+
+    private final BuildCacheServiceHandle remote;
+    private final BuildOperationExecutor buildOperationExecutor;
+    private final Executor executor;
+    private final File dir;
+    private final long maxQueuedBytes;
+
+    private final Object lock = new Object();
+    private long queuedBytes;
+    private int queuedCount;
+    private boolean stopped;
+
+    private int uploadedCount;
+    private int droppedCount;
+    private long peakQueuedBytes;
+    private long totalUploadLatency;
+    private long maxUploadLatency;
+
+    RemoteStoreQueue(BuildCacheServiceHandle remote, BuildOperationExecutor buildOperationExecutor, Executor executor, File dir, long maxQueuedBytes) {
+        this.remote = remote;
+        this.buildOperationExecutor = buildOperationExecutor;
+        this.executor = executor;
+        this.dir = dir;
+        this.maxQueuedBytes = maxQueuedBytes;
+        GFileUtils.mkdirs(dir);
+    }
+
+    /**
+     * Queues the packed entry in the given file for uploading.
+     *
+     * @param keepFile whether the file is still needed by the caller, in which case the entry is copied instead of moved.
+     */
+    public void submit(final BuildCacheKey key, File file, boolean keepFile) {
+        final long size = file.length();
+        synchronized (lock) {
+            // Always accept an entry when the queue is empty, so entries larger than the limit can still be stored
+            while (!stopped && queuedCount > 0 && queuedBytes + size > maxQueuedBytes) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    throw UncheckedException.throwAsUncheckedException(e);
+                }
+            }
+            if (stopped || !remote.canStore()) {
+                droppedCount++;
+                return;
+            }
+            queuedBytes += size;
+            queuedCount++;
+            peakQueuedBytes = Math.max(peakQueuedBytes, queuedBytes);
+        }
+        final Timer timer = Time.startTimer();
+
+        final File queuedFile;
+        try {
+            queuedFile = File.createTempFile(key.getHashCode() + "-", ".upload", dir);
+            if (keepFile) {
+                Files.copy(file, queuedFile);
+            } else {
+                Files.move(file, queuedFile);
+            }
+        } catch (IOException e) {
+            finished(size, false, 0);
+            throw new UncheckedIOException(e);
+        }
+
+        // The upload outlives the operation of the task that stores the entry, so it doesn't run as part of it
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                upload(key, queuedFile, size, timer);
+            }
+        });
+    }
+
+    private void upload(BuildCacheKey key, File file, long size, Timer timer) {
+        boolean uploaded = false;
+        try {
+            if (remote.canStore()) {
+                remote.store(key, new StoreTarget(file));
+                // The remote build cache is disabled when storing fails
+                uploaded = remote.canStore();
+            }
+        } finally {
+            GFileUtils.deleteQuietly(file);
+            finished(size, uploaded, timer.getElapsedMillis());
+        }
+    }
+
+    private void finished(long size, boolean uploaded, long latency) {
+        synchronized (lock) {
+            queuedBytes -= size;
+            queuedCount--;
+            if (uploaded) {
+                uploadedCount++;
+                totalUploadLatency += latency;
+                maxUploadLatency = Math.max(maxUploadLatency, latency);
+            } else {
+                droppedCount++;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits for all queued entries to be uploaded, and reports what has been uploaded during the build.
+     */
+    @Override
+    public void stop() {
+        buildOperationExecutor.run(new RunnableBuildOperation() {
+            @Override
+            public void run(BuildOperationContext context) {
+                synchronized (lock) {
+                    stopped = true;
+                    while (queuedCount > 0) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            throw UncheckedException.throwAsUncheckedException(e);
+                        }
+                    }
+                    context.setResult(new DrainOperationResult(uploadedCount, droppedCount, peakQueuedBytes, totalUploadLatency, maxUploadLatency));
+                }
+            }
+
+            @Override
+            public BuildOperationDescriptor.Builder description() {
+                return BuildOperationDescriptor.displayName("Wait for entries to be stored in remote build cache")
+                    .details(new DrainOperationDetails(maxQueuedBytes))
+                    .progressDisplayName("Uploading to remote build cache");
+            }
+        });
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller.operations;
+
+import org.gradle.caching.internal.operations.BuildCacheRemoteStoreDrainBuildOperationType;
+
+public class DrainOperationResult implements BuildCacheRemoteStoreDrainBuildOperationType.Result {
+
+    private final int uploadedCount;
+    private final int droppedCount;
+    private final long peakQueuedBytes;
+    private final long totalUploadLatency;
+    private final long maxUploadLatency;
+
+    public DrainOperationResult(int uploadedCount, int droppedCount, long peakQueuedBytes, long totalUploadLatency, long maxUploadLatency) {
+        this.uploadedCount = uploadedCount;
+        this.droppedCount = droppedCount;
+        this.peakQueuedBytes = peakQueuedBytes;
+        this.totalUploadLatency = totalUploadLatency;
+        this.maxUploadLatency = maxUploadLatency;
+    }
+
+    @Override
+    public int getUploadedCount() {
+        return uploadedCount;
+    }
+
+    @Override
+    public int getDroppedCount() {
+        return droppedCount;
+    }
+
+    @Override
+    public long getPeakQueuedBytes() {
+        return peakQueuedBytes;
+    }
+
+    @Override
+    public long getTotalUploadLatency() {
+        return totalUploadLatency;
+    }
+
+    @Override
+    public long getMaxUploadLatency() {
+        return maxUploadLatency;
+    }
+}
@@ -33,14 +33,19 @@ public class BaseBuildCacheServiceHandle implements BuildCacheServiceHandle {
     protected final BuildCacheServiceRole role;
     private final boolean pushEnabled;
     private final boolean logStackTraces;
+    private final int maxStoreAttempts;
 
-    private boolean disabled;
+    private volatile boolean disabled;
 
-    public BaseBuildCacheServiceHandle(BuildCacheService service, boolean push, BuildCacheServiceRole role, boolean logStackTraces) {
+    /**
+     * @param maxStoreAttempts how many times storing an entry is attempted before the service is disabled.
+     */
+    public BaseBuildCacheServiceHandle(BuildCacheService service, boolean push, BuildCacheServiceRole role, boolean logStackTraces, int maxStoreAttempts) {
         this.role = role;
         this.service = service;
         this.pushEnabled = push;
         this.logStackTraces = logStackTraces;
+        this.maxStoreAttempts = maxStoreAttempts;
     }
 
     @Nullable
@@ -82,10 +87,18 @@ public class BaseBuildCacheServiceHandle implements BuildCacheServiceHandle {
     public final void store(BuildCacheKey key, StoreTarget storeTarget) {
         String description = "Store entry " + key.getDisplayName() + " in " + role.getDisplayName() + " build cache";
         LOGGER.debug(description);
-        try {
-            storeInner(description, key, storeTarget);
-        } catch (Exception e) {
-            failure("store", "in", key, e);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                storeInner(description, key, storeTarget);
+                return;
+            } catch (Exception e) {
+                if (attempt >= maxStoreAttempts || disabled) {
+                    failure("store", "in", key, e);
+                    return;
+                }
+                LOGGER.debug("Retrying to store entry {} in {} build cache after failure: {}", key.getDisplayName(), role.getDisplayName(), e.getMessage());
+                storeTarget.reset();
+            }
         }
     }
 
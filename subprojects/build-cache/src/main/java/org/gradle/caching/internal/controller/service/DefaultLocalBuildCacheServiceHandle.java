@@ -18,6 +18,7 @@ package org.gradle.caching.internal.controller.service;
 
 import org.gradle.api.Action;
 import org.gradle.caching.BuildCacheKey;
+import org.gradle.caching.local.internal.BuildCacheBlobStore;
 import org.gradle.caching.local.internal.LocalBuildCacheService;
 
 import javax.annotation.Nullable;
@@ -59,6 +60,12 @@ public class DefaultLocalBuildCacheServiceHandle implements LocalBuildCacheServi
         service.storeLocally(key, file);
     }
 
+    @Nullable
+    @Override
+    public BuildCacheBlobStore getBlobStore() {
+        return service.getBlobStore();
+    }
+
     @Override
     public void close() {
         service.close();
@@ -41,7 +41,7 @@ public class LoadTarget implements BuildCacheEntryReader {
             if (loaded) {
                 throw new IllegalStateException("Build cache entry has already been read");
             }
-            Files.asByteSink(file).writeFrom(input);
+            writeTo(input, file);
             loaded = true;
         } catch (Exception e) {
             throw closer.rethrow(e);
@@ -50,6 +50,10 @@ public class LoadTarget implements BuildCacheEntryReader {
         }
     }
 
+    protected void writeTo(InputStream input, File file) throws IOException {
+        Files.asByteSink(file).writeFrom(input);
+    }
+
     public boolean isLoaded() {
         return loaded;
     }
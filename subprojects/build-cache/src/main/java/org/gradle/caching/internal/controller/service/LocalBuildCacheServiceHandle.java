@@ -19,6 +19,7 @@ package org.gradle.caching.internal.controller.service;
 import com.google.common.annotations.VisibleForTesting;
 import org.gradle.api.Action;
 import org.gradle.caching.BuildCacheKey;
+import org.gradle.caching.local.internal.BuildCacheBlobStore;
 import org.gradle.caching.local.internal.LocalBuildCacheService;
 
 import javax.annotation.Nullable;
@@ -41,6 +42,9 @@ public interface LocalBuildCacheServiceHandle extends Closeable {
     // TODO: what if this errors?
     void store(BuildCacheKey key, File file);
 
+    @Nullable
+    BuildCacheBlobStore getBlobStore();
+
     @Override
     void close();
 
@@ -36,8 +36,8 @@ public class OpFiringBuildCacheServiceHandle extends BaseBuildCacheServiceHandle
 
     private final BuildOperationExecutor buildOperationExecutor;
 
-    public OpFiringBuildCacheServiceHandle(BuildCacheService service, boolean push, BuildCacheServiceRole role, BuildOperationExecutor buildOperationExecutor, boolean logStackTraces) {
-        super(service, push, role, logStackTraces);
+    public OpFiringBuildCacheServiceHandle(BuildCacheService service, boolean push, BuildCacheServiceRole role, BuildOperationExecutor buildOperationExecutor, boolean logStackTraces, int maxStoreAttempts) {
+        super(service, push, role, logStackTraces, maxStoreAttempts);
         this.buildOperationExecutor = buildOperationExecutor;
     }
 
@@ -50,6 +50,13 @@ public class StoreTarget implements BuildCacheEntryWriter {
         }
     }
 
+    /**
+     * Allows the entry to be written again, when storing it is retried.
+     */
+    void reset() {
+        stored = false;
+    }
+
     public boolean isStored() {
         return stored;
     }
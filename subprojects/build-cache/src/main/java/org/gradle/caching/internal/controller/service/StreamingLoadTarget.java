@@ -0,0 +1,222 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller.service;
+
+import org.gradle.internal.UncheckedException;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * A {@link LoadTarget} which passes the bytes of the entry to a reader on another thread while they are being written to the file.
+ *
+ * The bytes are handed over through a bounded buffer, so a slow reader slows down the load instead of buffering the whole entry in memory.
+ * When the reader stops early, the rest of the entry is still written to the file.
+ */
+public class StreamingLoadTarget extends LoadTarget {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private enum State {
+        WAITING, STREAMING, FINISHED, FAILED, MISSED
+    }
+
+    private final int bufferSize;
+    private final Deque<byte[]> chunks = new ArrayDeque<byte[]>();
+    private int bufferedBytes;
+    private State state = State.WAITING;
+    private Throwable failure;
+    private boolean readerClosed;
+
+    public StreamingLoadTarget(File file) {
+        this(file, DEFAULT_BUFFER_SIZE);
+    }
+
+    StreamingLoadTarget(File file, int bufferSize) {
+        super(file);
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    protected void writeTo(InputStream input, File file) throws IOException {
+        started();
+        try {
+            OutputStream output = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[CHUNK_SIZE];
+                int read;
+                while ((read = input.read(buffer)) >= 0) {
+                    output.write(buffer, 0, read);
+                    offer(buffer, read);
+                }
+            } finally {
+                output.close();
+            }
+        } catch (Throwable e) {
+            failed(e);
+            throw e;
+        }
+        finished();
+    }
+
+    /**
+     * Called when the service is done with the load, whether the entry was found or not.
+     */
+    public synchronized void loadCompleted() {
+        if (state == State.WAITING) {
+            state = State.MISSED;
+        } else if (state == State.STREAMING) {
+            // The service failed the load without reading the entry
+            state = State.FAILED;
+            failure = new IOException("The build cache entry was not read completely.");
+        }
+        notifyAll();
+    }
+
+    /**
+     * Waits until the service starts reading the entry, and returns a stream of its contents.
+     * Returns {@code null} when the service did not find the entry.
+     */
+    @Nullable
+    public InputStream awaitEntry() {
+        synchronized (this) {
+            while (state == State.WAITING) {
+                await();
+            }
+            if (state == State.MISSED) {
+                return null;
+            }
+        }
+        return new ChunkInputStream();
+    }
+
+    private synchronized void started() {
+        state = State.STREAMING;
+        notifyAll();
+    }
+
+    private synchronized void offer(byte[] buffer, int length) {
+        while (!readerClosed && bufferedBytes >= bufferSize) {
+            await();
+        }
+        if (readerClosed) {
+            return;
+        }
+        chunks.addLast(Arrays.copyOf(buffer, length));
+        bufferedBytes += length;
+        notifyAll();
+    }
+
+    private synchronized void finished() {
+        state = State.FINISHED;
+        notifyAll();
+    }
+
+    private synchronized void failed(Throwable cause) {
+        state = State.FAILED;
+        failure = cause;
+        notifyAll();
+    }
+
+    @Nullable
+    private synchronized byte[] take() throws IOException {
+        while (chunks.isEmpty() && state == State.STREAMING) {
+            await();
+        }
+        if (state == State.FAILED) {
+            throw new IOException("Could not read build cache entry.", failure);
+        }
+        byte[] chunk = chunks.pollFirst();
+        if (chunk != null) {
+            bufferedBytes -= chunk.length;
+            notifyAll();
+        }
+        return chunk;
+    }
+
+    private synchronized void closeReader() {
+        readerClosed = true;
+        chunks.clear();
+        bufferedBytes = 0;
+        notifyAll();
+    }
+
+    private void await() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+    }
+
+    private class ChunkInputStream extends InputStream {
+        private byte[] chunk = new byte[0];
+        private int position;
+
+        @Override
+        public int read() throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+            return chunk[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextChunk()) {
+                return -1;
+            }
+            int count = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return chunk.length - position;
+        }
+
+        @Override
+        public void close() {
+            closeReader();
+        }
+
+        private boolean nextChunk() throws IOException {
+            while (position == chunk.length) {
+                byte[] next = take();
+                if (next == null) {
+                    return false;
+                }
+                chunk = next;
+                position = 0;
+            }
+            return true;
+        }
+    }
+}
@@ -29,6 +29,9 @@ public final class BuildCacheArchiveUnpackBuildOperationType implements BuildOpe
          */
         String getCacheKey();
 
+        /**
+         * The size of the archive, or -1 when the archive is unpacked while it is being loaded.
+         */
         long getArchiveSize();
 
     }
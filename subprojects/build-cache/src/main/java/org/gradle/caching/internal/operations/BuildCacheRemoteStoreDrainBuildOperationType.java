@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.operations;
+
+import org.gradle.internal.operations.BuildOperationType;
+
+/**
+ * Waiting at the end of the build for the entries queued for storing in the remote build cache to be uploaded.
+ *
+ * The result summarizes all entries that have been queued during the build.
+ */
+public final class BuildCacheRemoteStoreDrainBuildOperationType implements BuildOperationType<BuildCacheRemoteStoreDrainBuildOperationType.Details, BuildCacheRemoteStoreDrainBuildOperationType.Result> {
+
+    public interface Details {
+
+        /**
+         * The number of bytes that may be queued before storing entries blocks.
+         */
+        long getMaxQueuedBytes();
+
+    }
+
+    public interface Result {
+
+        /**
+         * The number of entries that have been uploaded.
+         */
+        int getUploadedCount();
+
+        /**
+         * The number of entries that have not been uploaded, because the remote build cache has been disabled or failed.
+         */
+        int getDroppedCount();
+
+        /**
+         * The highest number of bytes that were queued at the same time.
+         */
+        long getPeakQueuedBytes();
+
+        /**
+         * The time from queueing an entry until its upload finished, summed over all entries, in milliseconds.
+         */
+        long getTotalUploadLatency();
+
+        /**
+         * The longest time from queueing an entry until its upload finished, in milliseconds.
+         */
+        long getMaxUploadLatency();
+
+    }
+
+    private BuildCacheRemoteStoreDrainBuildOperationType() {
+    }
+}
@@ -16,6 +16,7 @@
 
 package org.gradle.caching.local;
 
+import org.gradle.api.Incubating;
 import org.gradle.caching.configuration.AbstractBuildCache;
 
 import javax.annotation.Nullable;
@@ -29,6 +30,7 @@ import javax.annotation.Nullable;
 public class DirectoryBuildCache extends AbstractBuildCache {
     private Object directory;
     private int removeUnusedEntriesAfterDays = 7;
+    private boolean deduplicateFiles;
 
     /**
      * Returns the directory to use to store the build cache.
@@ -69,4 +71,28 @@ public class DirectoryBuildCache extends AbstractBuildCache {
         }
         this.removeUnusedEntriesAfterDays = removeUnusedEntriesAfterDays;
     }
+
+    /**
+     * Returns whether the contents of files in cache entries are stored only once. Defaults to {@code false}.
+     *
+     * @since 5.1
+     */
+    @Incubating
+    public boolean isDeduplicateFiles() {
+        return deduplicateFiles;
+    }
+
+    /**
+     * Sets whether the contents of files in cache entries are stored only once.
+     *
+     * When enabled, each file is stored separately by its content hash, and entries only refer to the files they contain.
+     * Files which are produced by many tasks, or which stay the same between different cache keys, then only take up space once.
+     * Entries copied from the remote build cache are still stored as a whole.
+     *
+     * @since 5.1
+     */
+    @Incubating
+    public void setDeduplicateFiles(boolean deduplicateFiles) {
+        this.deduplicateFiles = deduplicateFiles;
+    }
 }
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal;
+
+import org.gradle.api.Action;
+import org.gradle.internal.hash.HashCode;
+
+import java.io.File;
+
+/**
+ * Stores the contents of files in build cache entries by their content hash,
+ * so that files shared between entries are only stored once.
+ */
+public interface BuildCacheBlobStore {
+
+    /**
+     * Stores a file with the given content hash, unless a file with the same hash is already stored.
+     * The {@code writer} is only executed when the file needs to be stored, and must write contents matching the hash.
+     */
+    void storeBlob(HashCode contentHash, Action<? super File> writer);
+
+    /**
+     * Returns whether a file with the given content hash is stored.
+     */
+    boolean containsBlob(HashCode contentHash);
+
+    /**
+     * Copies the file with the given content hash to the given target.
+     *
+     * @return whether a file with the given hash was found.
+     */
+    boolean restoreBlob(HashCode contentHash, File target);
+}
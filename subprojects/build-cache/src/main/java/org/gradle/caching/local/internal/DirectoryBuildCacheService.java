@@ -25,35 +25,44 @@ import org.gradle.caching.BuildCacheEntryWriter;
 import org.gradle.caching.BuildCacheException;
 import org.gradle.caching.BuildCacheKey;
 import org.gradle.caching.BuildCacheService;
+import org.gradle.internal.Factory;
 import org.gradle.internal.UncheckedException;
+import org.gradle.internal.hash.HashCode;
 import org.gradle.internal.resource.local.FileAccessTracker;
 import org.gradle.internal.resource.local.LocallyAvailableResource;
 import org.gradle.internal.resource.local.PathKeyFileStore;
 import org.gradle.util.GFileUtils;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class DirectoryBuildCacheService implements LocalBuildCacheService, BuildCacheService {
 
+    private static final String BLOB_SUFFIX = ".blob";
+
     private final PathKeyFileStore fileStore;
     private final PersistentCache persistentCache;
     private final BuildCacheTempFileStore tempFileStore;
     private final FileAccessTracker fileAccessTracker;
     private final String failedFileSuffix;
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final BuildCacheBlobStore blobStore;
 
-    public DirectoryBuildCacheService(PathKeyFileStore fileStore, PersistentCache persistentCache, BuildCacheTempFileStore tempFileStore, FileAccessTracker fileAccessTracker, String failedFileSuffix) {
+    public DirectoryBuildCacheService(PathKeyFileStore fileStore, PersistentCache persistentCache, BuildCacheTempFileStore tempFileStore, FileAccessTracker fileAccessTracker, String failedFileSuffix, boolean deduplicateFiles) {
         this.fileStore = fileStore;
         this.persistentCache = persistentCache;
         this.tempFileStore = tempFileStore;
         this.fileAccessTracker = fileAccessTracker;
         this.failedFileSuffix = failedFileSuffix;
+        this.blobStore = deduplicateFiles ? new DirectoryBlobStore() : null;
     }
 
     private static class LoadAction implements Action<File> {
@@ -170,6 +179,12 @@ public class DirectoryBuildCacheService implements LocalBuildCacheService, Build
         fileAccessTracker.markAccessed(resource.getFile());
     }
 
+    @Nullable
+    @Override
+    public BuildCacheBlobStore getBlobStore() {
+        return blobStore;
+    }
+
     @Override
     public void withTempFile(final BuildCacheKey key, final Action<? super File> action) {
         persistentCache.withFileLock(new Runnable() {
@@ -184,4 +199,109 @@ public class DirectoryBuildCacheService implements LocalBuildCacheService, Build
     public void close() {
         persistentCache.close();
     }
+
+    /**
+     * Stores the contents of files next to the cache artifacts, so they are tracked and garbage collected the same way.
+     */
+    private class DirectoryBlobStore implements BuildCacheBlobStore {
+        @Override
+        public void storeBlob(final HashCode contentHash, final Action<? super File> writer) {
+            final String path = contentHash + BLOB_SUFFIX;
+            if (markAccessedIfStored(path)) {
+                return;
+            }
+            // Write the contents outside of the lock, so that stores and restores of other blobs can proceed meanwhile
+            final File tempFile;
+            try {
+                tempFile = File.createTempFile(contentHash + "-", BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX, persistentCache.getBaseDir());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            try {
+                writer.execute(tempFile);
+                persistentCache.withFileLock(new Runnable() {
+                    @Override
+                    public void run() {
+                        lock.writeLock().lock();
+                        try {
+                            LocallyAvailableResource resource = fileStore.get(path);
+                            if (resource == null) {
+                                resource = fileStore.move(path, tempFile);
+                            }
+                            fileAccessTracker.markAccessed(resource.getFile());
+                        } finally {
+                            lock.writeLock().unlock();
+                        }
+                    }
+                });
+            } finally {
+                GFileUtils.deleteQuietly(tempFile);
+            }
+        }
+
+        private boolean markAccessedIfStored(final String path) {
+            return persistentCache.withFileLock(new Factory<Boolean>() {
+                @Override
+                public Boolean create() {
+                    lock.readLock().lock();
+                    try {
+                        LocallyAvailableResource resource = fileStore.get(path);
+                        if (resource == null) {
+                            return false;
+                        }
+                        fileAccessTracker.markAccessed(resource.getFile());
+                        return true;
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public boolean containsBlob(final HashCode contentHash) {
+            return persistentCache.withFileLock(new Factory<Boolean>() {
+                @Override
+                public Boolean create() {
+                    lock.readLock().lock();
+                    try {
+                        return fileStore.get(contentHash + BLOB_SUFFIX) != null;
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public boolean restoreBlob(final HashCode contentHash, final File target) {
+            return persistentCache.withFileLock(new Factory<Boolean>() {
+                @Override
+                public Boolean create() {
+                    lock.readLock().lock();
+                    try {
+                        return restoreInsideLock(contentHash, target);
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                }
+            });
+        }
+
+        private boolean restoreInsideLock(HashCode contentHash, File target) {
+            LocallyAvailableResource resource = fileStore.get(contentHash + BLOB_SUFFIX);
+            if (resource == null) {
+                return false;
+            }
+            File file = resource.getFile();
+            fileAccessTracker.markAccessed(file);
+            try {
+                // Leave copying to the JDK, which can use the copy offloading of the operating system
+                Files.copy(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return true;
+        }
+    }
 }
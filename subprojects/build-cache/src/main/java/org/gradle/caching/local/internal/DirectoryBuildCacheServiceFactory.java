@@ -81,6 +81,9 @@ public class DirectoryBuildCacheServiceFactory implements BuildCacheServiceFacto
         describer.type(DIRECTORY_BUILD_CACHE_TYPE).
             config("location", target.getAbsolutePath()).
             config("removeUnusedEntriesAfter", String.valueOf(removeUnusedEntriesAfterDays) + " days");
+        if (configuration.isDeduplicateFiles()) {
+            describer.config("deduplicateFiles", "true");
+        }
 
         PathKeyFileStore fileStore = fileStoreFactory.createFileStore(target);
         PersistentCache persistentCache = cacheRepository
@@ -93,7 +96,7 @@ public class DirectoryBuildCacheServiceFactory implements BuildCacheServiceFacto
         BuildCacheTempFileStore tempFileStore = new DefaultBuildCacheTempFileStore(target);
         FileAccessTracker fileAccessTracker = new SingleDepthFileAccessTracker(fileAccessTimeJournal, target, FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP);
 
-        return new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, FAILED_READ_SUFFIX);
+        return new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, FAILED_READ_SUFFIX, configuration.isDeduplicateFiles());
     }
 
     private static void checkDirectory(File directory) {
@@ -19,6 +19,7 @@ package org.gradle.caching.local.internal;
 import org.gradle.api.Action;
 import org.gradle.caching.BuildCacheKey;
 
+import javax.annotation.Nullable;
 import java.io.Closeable;
 import java.io.File;
 
@@ -39,6 +40,12 @@ public interface LocalBuildCacheService extends BuildCacheTempFileStore, Closeab
      */
     void storeLocally(BuildCacheKey key, File file);
 
+    /**
+     * Returns the store for the contents of files in cache artifacts, or {@code null} if the contents are stored in the artifacts themselves.
+     */
+    @Nullable
+    BuildCacheBlobStore getBlobStore();
+
     @Override
     void close();
 }
@@ -24,11 +24,14 @@ import org.gradle.caching.BuildCacheKey
 import org.gradle.caching.BuildCacheService
 import org.gradle.caching.BuildCacheServiceFactory
 import org.gradle.caching.configuration.AbstractBuildCache
+import org.gradle.caching.configuration.BuildCacheCompression
 import org.gradle.caching.configuration.internal.DefaultBuildCacheConfiguration
 import org.gradle.caching.configuration.internal.DefaultBuildCacheServiceRegistration
 import org.gradle.caching.internal.FinalizeBuildCacheConfigurationBuildOperationType
 import org.gradle.caching.local.DirectoryBuildCache
+import org.gradle.caching.local.internal.BuildCacheBlobStore
 import org.gradle.caching.local.internal.LocalBuildCacheService
+import org.gradle.internal.concurrent.DefaultExecutorFactory
 import org.gradle.internal.operations.TestBuildOperationExecutor
 import org.gradle.internal.reflect.DirectInstantiator
 import org.gradle.testing.internal.util.Specification
@@ -58,6 +61,7 @@ class BuildCacheControllerFactoryTest extends Specification {
     private <T extends BuildCacheController> T createController(Class<T> controllerType) {
         def controller = BuildCacheControllerFactory.create(
             buildOperationExecuter,
+            new DefaultExecutorFactory(),
             Path.path("test"),
             null,
             config,
@@ -142,6 +146,29 @@ class BuildCacheControllerFactoryTest extends Specification {
         }
     }
 
+    def 'compresses local and remote entries with GZIP by default'() {
+        config.remote(TestRemoteBuildCache)
+
+        when:
+        def c = createController()
+
+        then:
+        c.localCompression == BuildCacheCompression.GZIP
+        c.remoteCompression == BuildCacheCompression.GZIP
+    }
+
+    def 'uses the configured compression'() {
+        config.local.compression = BuildCacheCompression.NONE
+        config.remote(TestRemoteBuildCache).compression = BuildCacheCompression.LZ4
+
+        when:
+        def c = createController()
+
+        then:
+        c.localCompression == BuildCacheCompression.NONE
+        c.remoteCompression == BuildCacheCompression.LZ4
+    }
+
     def "respects debug logging setting - #setting"() {
         when:
         emitDebugLogging = setting
@@ -262,6 +289,11 @@ class BuildCacheControllerFactoryTest extends Specification {
 
         }
 
+        @Override
+        BuildCacheBlobStore getBlobStore() {
+            return null
+        }
+
         @Override
         void close() {
 
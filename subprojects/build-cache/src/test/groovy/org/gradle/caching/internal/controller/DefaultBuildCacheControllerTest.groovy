@@ -21,8 +21,12 @@ import org.gradle.caching.BuildCacheEntryReader
 import org.gradle.caching.BuildCacheEntryWriter
 import org.gradle.caching.BuildCacheKey
 import org.gradle.caching.BuildCacheService
+import org.gradle.caching.configuration.BuildCacheCompression
 import org.gradle.caching.internal.controller.service.BuildCacheServicesConfiguration
+import org.gradle.caching.internal.operations.BuildCacheRemoteStoreDrainBuildOperationType
+import org.gradle.caching.local.internal.BuildCacheBlobStore
 import org.gradle.caching.local.internal.LocalBuildCacheService
+import org.gradle.internal.concurrent.DefaultExecutorFactory
 import org.gradle.internal.operations.TestBuildOperationExecutor
 import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
 import org.gradle.testing.internal.util.Specification
@@ -43,12 +47,16 @@ class DefaultBuildCacheControllerTest extends Specification {
     def localPush = true
     def remote = Mock(BuildCacheService)
     def remotePush = true
+    def localCompression = BuildCacheCompression.LZ4
+    def remoteCompression = BuildCacheCompression.LZ4
 
     BuildCacheService legacyLocal = null
+    def streamingLoad = false
+    def asyncRemoteStore = false
 
     def storeCommand = Stub(BuildCacheStoreCommand) {
         getKey() >> key
-        store(_) >> { OutputStream output ->
+        store(_, _, _) >> { OutputStream output, BuildCacheCompression compression, BuildCacheBlobStore blobStore ->
             output.close()
             new BuildCacheStoreCommand.Result() {
                 @Override
@@ -61,7 +69,7 @@ class DefaultBuildCacheControllerTest extends Specification {
 
     def loadCommand = Stub(BuildCacheLoadCommand) {
         getKey() >> key
-        load(_) >> { InputStream input ->
+        load(_, _) >> { InputStream input, BuildCacheBlobStore blobStore ->
             input.close()
             new BuildCacheLoadCommand.Result() {
                 @Override
@@ -78,6 +86,7 @@ class DefaultBuildCacheControllerTest extends Specification {
     }
 
     def operations = new TestBuildOperationExecutor()
+    def executorFactory = new DefaultExecutorFactory()
 
     @Rule
     final TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
@@ -87,15 +96,22 @@ class DefaultBuildCacheControllerTest extends Specification {
     BuildCacheController getController() {
         new DefaultBuildCacheController(
             new BuildCacheServicesConfiguration(
-                legacyLocal ?: local, localPush,
-                remote, remotePush
+                legacyLocal ?: local, localPush, localCompression,
+                remote, remotePush, remoteCompression
             ),
             operations,
+            executorFactory,
             tmpDir.file("dir"),
-            false, false
+            false, false,
+            streamingLoad,
+            asyncRemoteStore
         )
     }
 
+    def cleanup() {
+        executorFactory.stop()
+    }
+
     def "does suppress exceptions from load"() {
         given:
         1 * remote.load(key, _) >> { throw new RuntimeException() }
@@ -122,6 +138,98 @@ class DefaultBuildCacheControllerTest extends Specification {
         1 * local.storeLocally(key, _)
     }
 
+    def "packs entry once when local and remote use the same compression"() {
+        given:
+        def command = Mock(BuildCacheStoreCommand) {
+            getKey() >> key
+        }
+
+        when:
+        controller.store(command)
+
+        then:
+        1 * command.store(_, BuildCacheCompression.LZ4, null) >> { OutputStream output, BuildCacheCompression compression, BuildCacheBlobStore blobStore ->
+            output.close()
+            Stub(BuildCacheStoreCommand.Result)
+        }
+        1 * remote.store(key, _)
+        1 * local.storeLocally(key, _)
+    }
+
+    def "packs entry for each compression when local and remote use different compressions"() {
+        given:
+        localCompression = BuildCacheCompression.LZ4
+        remoteCompression = BuildCacheCompression.GZIP
+        def command = Mock(BuildCacheStoreCommand) {
+            getKey() >> key
+        }
+
+        when:
+        controller.store(command)
+
+        then:
+        1 * command.store(_, BuildCacheCompression.GZIP, null) >> { OutputStream output, BuildCacheCompression compression, BuildCacheBlobStore blobStore ->
+            output.close()
+            Stub(BuildCacheStoreCommand.Result)
+        }
+        1 * remote.store(key, _)
+
+        then:
+        1 * command.store(_, BuildCacheCompression.LZ4, null) >> { OutputStream output, BuildCacheCompression compression, BuildCacheBlobStore blobStore ->
+            output.close()
+            Stub(BuildCacheStoreCommand.Result)
+        }
+        1 * local.storeLocally(key, _)
+    }
+
+    def "packs entry separately for local build cache which deduplicates files"() {
+        given:
+        def blobStore = Mock(BuildCacheBlobStore)
+        _ * local.getBlobStore() >> blobStore
+        def command = Mock(BuildCacheStoreCommand) {
+            getKey() >> key
+        }
+
+        when:
+        controller.store(command)
+
+        then:
+        1 * command.store(_, BuildCacheCompression.LZ4, null) >> { OutputStream output, BuildCacheCompression compression, BuildCacheBlobStore store ->
+            output.close()
+            Stub(BuildCacheStoreCommand.Result)
+        }
+        1 * remote.store(key, _)
+
+        then:
+        1 * command.store(_, BuildCacheCompression.LZ4, blobStore) >> { OutputStream output, BuildCacheCompression compression, BuildCacheBlobStore store ->
+            output.close()
+            Stub(BuildCacheStoreCommand.Result)
+        }
+        1 * local.storeLocally(key, _)
+    }
+
+    def "unpacks local entry using local blob store"() {
+        given:
+        def blobStore = Mock(BuildCacheBlobStore)
+        _ * local.getBlobStore() >> blobStore
+        def command = Mock(BuildCacheLoadCommand) {
+            getKey() >> key
+        }
+        1 * local.loadLocally(key, _) >> { BuildCacheKey key, Action<File> reader ->
+            reader.execute(tmpDir.file("entry") << "foo")
+        }
+
+        when:
+        controller.load(command)
+
+        then:
+        1 * command.load(_, blobStore) >> { InputStream input, BuildCacheBlobStore store ->
+            input.close()
+            Stub(BuildCacheLoadCommand.Result)
+        }
+        0 * remote.load(key, _)
+    }
+
     def "does not store to local if local push is disabled"() {
         given:
         localPush = false
@@ -205,6 +313,71 @@ class DefaultBuildCacheControllerTest extends Specification {
         0 * local.storeLocally(key, _)
     }
 
+    def "streaming remote load unpacks entry and stores to local"() {
+        given:
+        streamingLoad = true
+        def unpacked = null
+        def command = Stub(BuildCacheLoadCommand) {
+            getKey() >> key
+            load(_, _) >> { InputStream input, BuildCacheBlobStore blobStore ->
+                unpacked = input.text
+                input.close()
+                Stub(BuildCacheLoadCommand.Result)
+            }
+        }
+        1 * local.loadLocally(key, _) // miss
+        1 * remote.load(key, _) >> { BuildCacheKey key, BuildCacheEntryReader reader ->
+            reader.readFrom(new ByteArrayInputStream("foo".bytes))
+            true
+        }
+
+        when:
+        controller.load(command)
+
+        then:
+        unpacked == "foo"
+        1 * local.storeLocally(key, { it.text == "foo" })
+        operations.log.descriptors.find { it.displayName == "Unpack build cache entry $key" }.details.archiveSize == -1
+    }
+
+    def "streaming remote load counts a miss and disables remote when loading fails while unpacking"() {
+        given:
+        streamingLoad = true
+        def command = Stub(BuildCacheLoadCommand) {
+            getKey() >> key
+            load(_, _) >> { InputStream input, BuildCacheBlobStore blobStore ->
+                input.bytes
+                Stub(BuildCacheLoadCommand.Result)
+            }
+        }
+        1 * local.loadLocally(key, _) // miss
+        1 * remote.load(key, _) >> { BuildCacheKey key, BuildCacheEntryReader reader ->
+            reader.readFrom(new SequenceInputStream(new ByteArrayInputStream("foo".bytes), new InputStream() {
+                @Override
+                int read() throws IOException {
+                    throw new IOException("broken")
+                }
+            }))
+            true
+        }
+
+        when:
+        def controller = getController()
+        def result = controller.load(command)
+
+        then:
+        result == null
+        0 * local.storeLocally(key, _)
+
+        when:
+        result = controller.load(command)
+
+        then:
+        result == null
+        1 * local.loadLocally(key, _) // miss
+        0 * remote.load(key, _)
+    }
+
     def "stops calling through after read error"() {
         local = null
 
@@ -237,6 +410,70 @@ class DefaultBuildCacheControllerTest extends Specification {
         0 * remote.store(key, _)
     }
 
+    def "uploads entry to remote in the background and waits for the upload on close"() {
+        given:
+        asyncRemoteStore = true
+        def controller = getController()
+
+        when:
+        controller.store(storeCommand)
+        controller.close()
+
+        then:
+        1 * remote.store(key, _) >> { BuildCacheKey key, BuildCacheEntryWriter writer ->
+            writer.writeTo(new ByteArrayOutputStream())
+        }
+        1 * local.storeLocally(key, _)
+
+        then:
+        1 * remote.close()
+        def result = operations.log.mostRecentResult(BuildCacheRemoteStoreDrainBuildOperationType)
+        result.uploadedCount == 1
+        result.droppedCount == 0
+        !tmpDir.file("dir/build-cache-upload").list()
+    }
+
+    def "retries failed background upload to remote"() {
+        given:
+        asyncRemoteStore = true
+        local = null
+        def controller = getController()
+
+        when:
+        controller.store(storeCommand)
+        controller.store(storeCommand)
+        controller.close()
+
+        then:
+        1 * remote.store(key, _) >> { throw new RuntimeException() }
+        2 * remote.store(key, _)
+
+        then:
+        def result = operations.log.mostRecentResult(BuildCacheRemoteStoreDrainBuildOperationType)
+        result.uploadedCount == 2
+        result.droppedCount == 0
+    }
+
+    def "drops background uploads after remote fails repeatedly"() {
+        given:
+        asyncRemoteStore = true
+        local = null
+        def controller = getController()
+
+        when:
+        controller.store(storeCommand)
+        controller.close()
+
+        then:
+        3 * remote.store(key, _) >> { throw new RuntimeException() }
+        0 * remote.store(key, _)
+
+        and:
+        def result = operations.log.mostRecentResult(BuildCacheRemoteStoreDrainBuildOperationType)
+        result.uploadedCount == 0
+        result.droppedCount == 1
+    }
+
     def "close only closes once"() {
         when:
         def controller = getController()
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller.service
+
+import org.gradle.test.fixtures.concurrent.ConcurrentSpec
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+
+class StreamingLoadTargetTest extends ConcurrentSpec {
+
+    @Rule
+    final TestNameTestDirectoryProvider temporaryFolder = new TestNameTestDirectoryProvider()
+
+    def file = temporaryFolder.file("file")
+    def target = new StreamingLoadTarget(file, 1024)
+    def content = (0..<100000).collect { (byte) it } as byte[]
+
+    def "returns no entry when the service does not read one"() {
+        when:
+        target.loadCompleted()
+
+        then:
+        target.awaitEntry() == null
+        !target.loaded
+    }
+
+    def "streams the entry to the reader while writing it to the file"() {
+        def read = null
+
+        when:
+        async {
+            start {
+                target.readFrom(new ByteArrayInputStream(content))
+                target.loadCompleted()
+            }
+            def input = target.awaitEntry()
+            read = input.bytes
+            input.close()
+        }
+
+        then:
+        read == content
+        file.bytes == content
+        target.loaded
+        target.loadedSize == content.length
+    }
+
+    def "writes the rest of the entry to the file when the reader stops early"() {
+        when:
+        async {
+            start {
+                target.readFrom(new ByteArrayInputStream(content))
+                target.loadCompleted()
+            }
+            def input = target.awaitEntry()
+            input.read()
+            input.close()
+        }
+
+        then:
+        file.bytes == content
+        target.loaded
+    }
+
+    def "fails the reader when the entry cannot be read"() {
+        def failing = new SequenceInputStream(new ByteArrayInputStream(content), new InputStream() {
+            @Override
+            int read() throws IOException {
+                throw new IOException("broken")
+            }
+        })
+        IOException failure = null
+
+        when:
+        async {
+            start {
+                try {
+                    target.readFrom(failing)
+                } catch (IOException ignored) {
+                    // Expected
+                }
+                target.loadCompleted()
+            }
+            def input = target.awaitEntry()
+            try {
+                input.bytes
+            } catch (IOException e) {
+                failure = e
+            } finally {
+                input.close()
+            }
+        }
+
+        then:
+        failure.cause.message == "broken"
+        !target.loaded
+    }
+}
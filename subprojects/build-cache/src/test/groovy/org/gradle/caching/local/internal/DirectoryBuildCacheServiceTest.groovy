@@ -20,6 +20,8 @@ import org.gradle.cache.PersistentCache
 import org.gradle.caching.BuildCacheEntryReader
 import org.gradle.caching.BuildCacheEntryWriter
 import org.gradle.caching.BuildCacheKey
+import org.gradle.internal.Factory
+import org.gradle.internal.hash.HashCode
 import org.gradle.internal.resource.local.DefaultPathKeyFileStore
 import org.gradle.internal.resource.local.FileAccessTracker
 import org.gradle.test.fixtures.file.CleanupTestDirectory
@@ -36,11 +38,12 @@ class DirectoryBuildCacheServiceTest extends Specification {
     def fileStore = new DefaultPathKeyFileStore(cacheDir)
     def persistentCache = Mock(PersistentCache) {
         getBaseDir() >> cacheDir
-        withFileLock(_) >> { Runnable r -> r.run() }
+        withFileLock(_ as Runnable) >> { Runnable r -> r.run() }
+        withFileLock(_ as Factory) >> { Factory f -> f.create() }
     }
     def tempFileStore = new DefaultBuildCacheTempFileStore(cacheDir)
     def fileAccessTracker = Mock(FileAccessTracker)
-    def service = new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, ".failed")
+    def service = new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, ".failed", false)
     def hashCode = "1234abcd"
     def key = Mock(BuildCacheKey) {
         getHashCode() >> hashCode
@@ -132,4 +135,54 @@ class DirectoryBuildCacheServiceTest extends Specification {
         1 * fileAccessTracker.markAccessed(cachedFile)
         loaded
     }
+
+    def "does not provide blob store when not deduplicating files"() {
+        expect:
+        service.blobStore == null
+    }
+
+    def "stores blob only once and restores it"() {
+        def deduplicatingService = new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, ".failed", true)
+        def blobStore = deduplicatingService.blobStore
+        def contentHash = HashCode.fromInt(1234)
+        def target = temporaryFolder.file("target")
+        File blobFile = null
+
+        when:
+        blobStore.storeBlob(contentHash, { File file -> file.text = "foo" })
+
+        then:
+        1 * fileAccessTracker.markAccessed(_) >> { File file -> blobFile = file }
+        blobFile.absolutePath.startsWith(cacheDir.absolutePath)
+        blobStore.containsBlob(contentHash)
+        !cacheDir.listFiles().any { it.name.endsWith(BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX) }
+
+        when:
+        blobStore.storeBlob(contentHash, { File file -> throw new AssertionError("Should not store blob twice") })
+
+        then:
+        1 * fileAccessTracker.markAccessed(blobFile)
+
+        when:
+        def restored = blobStore.restoreBlob(contentHash, target)
+
+        then:
+        restored
+        target.text == "foo"
+        1 * fileAccessTracker.markAccessed(blobFile)
+    }
+
+    def "does not restore missing blob"() {
+        def deduplicatingService = new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, ".failed", true)
+        def target = temporaryFolder.file("target")
+
+        when:
+        def restored = deduplicatingService.blobStore.restoreBlob(HashCode.fromInt(1234), target)
+
+        then:
+        !restored
+        !deduplicatingService.blobStore.containsBlob(HashCode.fromInt(1234))
+        !target.exists()
+        0 * fileAccessTracker.markAccessed(_)
+    }
 }
@@ -26,7 +26,10 @@ import org.gradle.api.artifacts.DependencyResolutionListener;
 import org.gradle.api.artifacts.ResolvableDependencies;
 import org.gradle.api.execution.TaskExecutionListener;
 import org.gradle.api.initialization.Settings;
+import org.gradle.api.internal.TaskInternal;
 import org.gradle.api.internal.artifacts.transform.ArtifactTransformListener;
+import org.gradle.api.internal.project.ProjectInternal;
+import org.gradle.api.internal.tasks.execution.statistics.TaskDurationHistory;
 import org.gradle.api.invocation.Gradle;
 import org.gradle.api.tasks.TaskState;
 import org.gradle.initialization.BuildCompletionListener;
@@ -121,6 +124,8 @@ public class ProfileEventAdapter implements BuildListener, ProjectEvaluationList
         TaskExecution taskExecution = projectProfile.getTaskProfile(task.getPath());
         taskExecution.setFinish(now);
         taskExecution.completed(state);
+        TaskDurationHistory taskDurationHistory = ((ProjectInternal) project).getServices().get(TaskDurationHistory.class);
+        taskExecution.previously(taskDurationHistory.getPreviousExecution(((TaskInternal) task).getIdentityPath().getPath()));
     }
 
     // DependencyResolutionListener
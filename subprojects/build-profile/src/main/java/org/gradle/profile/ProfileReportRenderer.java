@@ -15,12 +15,14 @@
  */
 package org.gradle.profile;
 
+import org.gradle.api.internal.tasks.execution.statistics.HistoricalTaskExecution;
 import org.gradle.internal.html.SimpleHtmlWriter;
 import org.gradle.internal.time.TimeFormatting;
 import org.gradle.reporting.HtmlReportRenderer;
 import org.gradle.reporting.ReportRenderer;
 import org.gradle.reporting.TabbedPageRenderer;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
@@ -185,6 +187,8 @@ public class ProfileReportRenderer {
                                         .startElement("th").characters("Task").endElement()
                                         .startElement("th").attribute("class", "numeric").characters("Duration").endElement()
                                         .startElement("th").characters("Result").endElement()
+                                        .startElement("th").attribute("class", "numeric").characters("Previous Duration").endElement()
+                                        .startElement("th").attribute("class", "numeric").characters("Change").endElement()
                                     .endElement()
                                 .endElement();
                                 for (ProjectProfile project : model.getProjects()) {
@@ -192,12 +196,16 @@ public class ProfileReportRenderer {
                                         .startElement("td").characters(project.getPath()).endElement()
                                         .startElement("td").attribute("class", "numeric").characters(TimeFormatting.formatDurationVeryTerse(project.getElapsedTime())).endElement()
                                         .startElement("td").characters("(total)").endElement()
+                                        .startElement("td").attribute("class", "numeric").characters("").endElement()
+                                        .startElement("td").attribute("class", "numeric").characters("").endElement()
                                     .endElement();
                                     for (TaskExecution taskExecution : project.getTasks()) {
                                         htmlWriter.startElement("tr")
                                             .startElement("td").attribute("class", "indentPath").characters(taskExecution.getPath()).endElement()
                                             .startElement("td").attribute("class", "numeric").characters(TimeFormatting.formatDurationVeryTerse(taskExecution.getElapsedTime())).endElement()
                                             .startElement("td").characters(taskExecution.getStatus()).endElement()
+                                            .startElement("td").attribute("class", "numeric").characters(formatPreviousDuration(taskExecution.getPreviousExecution())).endElement()
+                                            .startElement("td").attribute("class", "numeric").characters(formatDurationChange(taskExecution.getElapsedTimeChange())).endElement()
                                         .endElement();
                                     }
                                 }
@@ -207,5 +215,16 @@ public class ProfileReportRenderer {
                 }
             };
         }
+
+        private static String formatPreviousDuration(@Nullable HistoricalTaskExecution previousExecution) {
+            return previousExecution == null ? "" : TimeFormatting.formatDurationVeryTerse(previousExecution.getDurationMillis());
+        }
+
+        private static String formatDurationChange(@Nullable Long change) {
+            if (change == null) {
+                return "";
+            }
+            return (change < 0 ? "-" : "+") + TimeFormatting.formatDurationVeryTerse(Math.abs(change));
+        }
     }
 }
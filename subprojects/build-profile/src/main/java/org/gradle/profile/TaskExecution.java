@@ -15,8 +15,12 @@
  */
 package org.gradle.profile;
 
+import org.gradle.api.internal.tasks.TaskStateInternal;
+import org.gradle.api.internal.tasks.execution.statistics.HistoricalTaskExecution;
 import org.gradle.api.tasks.TaskState;
 
+import javax.annotation.Nullable;
+
 /**
  * Container for task profiling information.
  * This includes timestamps around task execution and the resulting task status.
@@ -27,6 +31,7 @@ public class TaskExecution extends ContinuousOperation {
 
     private final String path;
     private TaskState state;
+    private HistoricalTaskExecution previousExecution;
 
     public TaskExecution(String taskPath) {
         super(taskPath);
@@ -52,4 +57,29 @@ public class TaskExecution extends ContinuousOperation {
         this.state = state;
         return this;
     }
+
+    /**
+     * Gets the execution of the task in the previous build, if any.
+     */
+    @Nullable
+    public HistoricalTaskExecution getPreviousExecution() {
+        return previousExecution;
+    }
+
+    public TaskExecution previously(@Nullable HistoricalTaskExecution previousExecution) {
+        this.previousExecution = previousExecution;
+        return this;
+    }
+
+    /**
+     * Returns how much longer the task took than in the previous build, or {@code null} when the previous build didn't do the same work.
+     * Only executions with the same outcome are compared, as an up-to-date task is not comparable with one which executed its actions.
+     */
+    @Nullable
+    public Long getElapsedTimeChange() {
+        if (previousExecution == null || !(state instanceof TaskStateInternal) || previousExecution.getOutcome() != ((TaskStateInternal) state).getOutcome()) {
+            return null;
+        }
+        return getElapsedTime() - previousExecution.getDurationMillis();
+    }
 }
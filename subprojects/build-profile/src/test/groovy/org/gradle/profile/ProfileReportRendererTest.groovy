@@ -214,37 +214,51 @@ class ProfileReportRendererTest extends Specification {
 <th>Task</th>
 <th class="numeric">Duration</th>
 <th>Result</th>
+<th class="numeric">Previous Duration</th>
+<th class="numeric">Change</th>
 </tr>
 </thead>
 <tr>
 <td>b</td>
 <td class="numeric">4m30.00s</td>
 <td>(total)</td>
+<td class="numeric"></td>
+<td class="numeric"></td>
 </tr>
 <tr>
 <td class="indentPath">b:foo</td>
 <td class="numeric">2m30.00s</td>
 <td>Did No Work</td>
+<td class="numeric"></td>
+<td class="numeric"></td>
 </tr>
 <tr>
 <td class="indentPath">b:bar</td>
 <td class="numeric">2m0.00s</td>
 <td>Did No Work</td>
+<td class="numeric"></td>
+<td class="numeric"></td>
 </tr>
 <tr>
 <td>a</td>
 <td class="numeric">2m0.00s</td>
 <td>(total)</td>
+<td class="numeric"></td>
+<td class="numeric"></td>
 </tr>
 <tr>
 <td class="indentPath">a:foo</td>
 <td class="numeric">1m30.00s</td>
 <td>Did No Work</td>
+<td class="numeric"></td>
+<td class="numeric"></td>
 </tr>
 <tr>
 <td class="indentPath">a:bar</td>
 <td class="numeric">30.000s</td>
 <td>Did No Work</td>
+<td class="numeric"></td>
+<td class="numeric"></td>
 </tr>
 </table>
 </div>
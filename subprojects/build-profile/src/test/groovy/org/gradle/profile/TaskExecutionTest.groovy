@@ -16,6 +16,9 @@
 
 package org.gradle.profile
 
+import org.gradle.api.internal.tasks.TaskExecutionOutcome
+import org.gradle.api.internal.tasks.TaskStateInternal
+import org.gradle.api.internal.tasks.execution.statistics.HistoricalTaskExecution
 import org.gradle.api.tasks.TaskState
 import spock.lang.Specification
 
@@ -40,4 +43,24 @@ class TaskExecutionTest extends Specification {
         new TaskExecution("a").completed(busy).status == ""
         new TaskExecution("a").completed(noWork).status == TaskExecution.NO_WORK_MESSAGE
     }
+
+    def "compares elapsed time with previous execution with the same outcome"() {
+        def executed = new TaskStateInternal()
+        executed.setOutcome(TaskExecutionOutcome.EXECUTED)
+        def upToDate = new TaskStateInternal()
+        upToDate.setOutcome(TaskExecutionOutcome.UP_TO_DATE)
+        def previousExecution = new HistoricalTaskExecution(TaskExecutionOutcome.EXECUTED, false, 300, 300)
+
+        expect:
+        execution(executed, 1000).previously(previousExecution).elapsedTimeChange == 700
+        execution(executed, 100).previously(previousExecution).elapsedTimeChange == -200
+        execution(upToDate, 100).previously(previousExecution).elapsedTimeChange == null
+        execution(executed, 100).previously(null).elapsedTimeChange == null
+    }
+
+    private static TaskExecution execution(TaskState state, long elapsedTime) {
+        def execution = new TaskExecution("a").completed(state)
+        execution.setStart(100).setFinish(100 + elapsedTime)
+        execution
+    }
 }
@@ -31,6 +31,10 @@ class CacheTaskArchiveErrorIntegrationTest extends AbstractIntegrationSpec {
     def setup() {
         executer.beforeExecute { it.withBuildCacheEnabled() }
         settingsFile << localCache.localCacheConfiguration()
+        // Entries are unpacked and repacked as tar.gz by the tests
+        settingsFile << """
+            buildCache.local.compression = org.gradle.caching.configuration.BuildCacheCompression.GZIP
+        """
     }
 
     def "describes error while packing archive"() {
@@ -32,6 +32,9 @@ class CachedTaskIntegrationTest extends AbstractIntegrationSpec implements Direc
     }
 
     def "cache entry contains expected contents"() {
+        settingsFile << """
+            buildCache.local.compression = org.gradle.caching.configuration.BuildCacheCompression.GZIP
+        """
         buildFile << defineCacheableTask()
         when:
         withBuildCache().run("cacheable")
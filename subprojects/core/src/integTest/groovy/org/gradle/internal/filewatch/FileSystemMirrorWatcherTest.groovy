@@ -0,0 +1,132 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.filewatch
+
+import org.gradle.api.internal.file.TemporaryFileProvider
+import org.gradle.internal.concurrent.DefaultExecutorFactory
+import org.gradle.internal.file.FileMetadataSnapshot
+import org.gradle.internal.nativeintegration.filesystem.FileSystem
+import org.gradle.internal.snapshot.WellKnownFileLocations
+import org.gradle.internal.snapshot.impl.DefaultFileSystemMirror
+import org.gradle.util.UsesNativeServices
+
+@UsesNativeServices
+class FileSystemMirrorWatcherTest extends AbstractFileWatcherTest {
+    def fileWatcherFactory = new DefaultFileWatcherFactory(new DefaultExecutorFactory(), Stub(FileSystem))
+    def mirror = new DefaultFileSystemMirror(Stub(WellKnownFileLocations))
+    def temporaryFileProvider = Stub(TemporaryFileProvider) {
+        createTemporaryDirectory(*_) >> { testDir.createDir("markers") }
+    }
+    def watcher = new FileSystemMirrorWatcher(mirror, fileWatcherFactory, temporaryFileProvider)
+    def projectDir = testDir.createDir("project")
+    def file = projectDir.createFile("build.gradle")
+    def metadata = Stub(FileMetadataSnapshot)
+
+    void setup() {
+        System.setProperty(FileSystemMirrorWatcher.WATCH_FILE_SYSTEM_PROPERTY, "true")
+    }
+
+    void cleanup() {
+        System.clearProperty(FileSystemMirrorWatcher.WATCH_FILE_SYSTEM_PROPERTY)
+        watcher.stop()
+        fileWatcherFactory.stop()
+    }
+
+    def "retains state for locations which were watched since the start of the build"() {
+        when:
+        build {
+            mirror.putMetadata(file.path, metadata)
+        }
+
+        then:
+        mirror.getMetadata(file.path) == null
+
+        when:
+        build {
+            mirror.putMetadata(file.path, metadata)
+        }
+
+        then:
+        mirror.getMetadata(file.path) == metadata
+
+        when:
+        build {}
+
+        then:
+        mirror.getMetadata(file.path) == metadata
+    }
+
+    def "discards retained state when a watched location changes"() {
+        given:
+        build {
+            mirror.putMetadata(file.path, metadata)
+        }
+        build {
+            mirror.putMetadata(file.path, metadata)
+        }
+
+        when:
+        file.text = "changed"
+
+        then:
+        await {
+            assert mirror.getMetadata(file.path) == null
+        }
+    }
+
+    def "does not retain state which was read before a change was reported"() {
+        given:
+        build {
+            mirror.putMetadata(file.path, metadata)
+        }
+
+        when:
+        build {
+            def invalidationCount = mirror.invalidationCount
+            file.text = "changed"
+            await {
+                assert mirror.invalidationCount != invalidationCount
+            }
+            mirror.putMetadata(file.path, metadata, invalidationCount)
+        }
+
+        then:
+        mirror.getMetadata(file.path) == null
+    }
+
+    def "does not retain state when watching is disabled"() {
+        given:
+        System.clearProperty(FileSystemMirrorWatcher.WATCH_FILE_SYSTEM_PROPERTY)
+
+        when:
+        build {
+            mirror.putMetadata(file.path, metadata)
+        }
+        build {
+            mirror.putMetadata(file.path, metadata)
+        }
+
+        then:
+        mirror.getMetadata(file.path) == null
+    }
+
+    private void build(Closure<?> action) {
+        watcher.afterStart()
+        action.call()
+        watcher.beforeComplete()
+    }
+}
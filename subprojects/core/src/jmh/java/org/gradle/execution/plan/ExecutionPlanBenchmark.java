@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.Transformer;
+import org.gradle.api.internal.GradleInternal;
+import org.gradle.api.internal.project.ProjectInternal;
+import org.gradle.api.internal.tasks.execution.statistics.TaskDurationHistory;
+import org.gradle.initialization.DefaultParallelismConfigurationManager;
+import org.gradle.internal.MutableReference;
+import org.gradle.internal.concurrent.DefaultParallelismConfiguration;
+import org.gradle.internal.event.DefaultListenerManager;
+import org.gradle.internal.resources.DefaultResourceLockCoordinationService;
+import org.gradle.internal.resources.ResourceLockCoordinationService;
+import org.gradle.internal.resources.ResourceLockState;
+import org.gradle.internal.work.DefaultWorkerLeaseService;
+import org.gradle.internal.work.WorkerLeaseRegistry;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Measures how long it takes to schedule every node of a synthetic plan of 100k tasks.
+ * The tasks form a grid of chains, one per project, where each task also depends on the task at the same position in the previous project,
+ * so most of the plan is waiting for its dependencies while a fixed number of nodes is running.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.SingleShotTime)
+@State(Scope.Thread)
+public class ExecutionPlanBenchmark {
+    private static final int PROJECT_COUNT = 100;
+    private static final int TASKS_PER_PROJECT = 1000;
+    private static final int WORKERS = 16;
+
+    @Param({"false", "true"})
+    boolean prioritizeCriticalPath;
+
+    File tempDir;
+    List<Task> entryTasks;
+    ResourceLockCoordinationService coordinationService;
+    WorkerLeaseRegistry.WorkerLease workerLease;
+    DefaultExecutionPlan executionPlan;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        tempDir = File.createTempFile("plan", "benchmark");
+        FileUtils.forceDelete(tempDir);
+        FileUtils.forceMkdir(tempDir);
+
+        Project root = ProjectBuilder.builder().withProjectDir(tempDir).build();
+        entryTasks = new ArrayList<Task>(PROJECT_COUNT);
+        List<Task> previousProjectTasks = null;
+        for (int projectIndex = 0; projectIndex < PROJECT_COUNT; projectIndex++) {
+            Project project = ProjectBuilder.builder().withParent(root).withName("project" + projectIndex).build();
+            List<Task> projectTasks = new ArrayList<Task>(TASKS_PER_PROJECT);
+            for (int taskIndex = 0; taskIndex < TASKS_PER_PROJECT; taskIndex++) {
+                Task task = project.getTasks().create("task" + taskIndex);
+                if (taskIndex > 0) {
+                    task.dependsOn(projectTasks.get(taskIndex - 1));
+                }
+                if (previousProjectTasks != null) {
+                    task.dependsOn(previousProjectTasks.get(taskIndex));
+                }
+                projectTasks.add(task);
+            }
+            entryTasks.add(projectTasks.get(TASKS_PER_PROJECT - 1));
+            previousProjectTasks = projectTasks;
+        }
+
+        // Use a worker lease service with parallel project execution, so that nodes of different projects can run at the same time
+        DefaultParallelismConfigurationManager parallelismConfigurationManager = new DefaultParallelismConfigurationManager(new DefaultListenerManager());
+        parallelismConfigurationManager.setParallelismConfiguration(new DefaultParallelismConfiguration(true, WORKERS));
+        coordinationService = new DefaultResourceLockCoordinationService();
+        DefaultWorkerLeaseService workerLeaseService = new DefaultWorkerLeaseService(coordinationService, parallelismConfigurationManager);
+        workerLease = workerLeaseService.getWorkerLease();
+        coordinationService.withStateLock(DefaultResourceLockCoordinationService.lock(workerLease));
+
+        GradleInternal gradle = ((ProjectInternal) root).getGradle();
+        executionPlan = new DefaultExecutionPlan(
+            workerLeaseService,
+            gradle,
+            gradle.getServices().get(TaskNodeFactory.class),
+            gradle.getServices().get(TaskDependencyResolver.class),
+            gradle.getServices().get(TaskDurationHistory.class),
+            prioritizeCriticalPath
+        );
+    }
+
+    @Setup(Level.Iteration)
+    public void createPlan() {
+        executionPlan.clear();
+        executionPlan.addEntryTasks(entryTasks);
+        executionPlan.determineExecutionPlan();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.forceDelete(tempDir);
+    }
+
+    @Benchmark
+    public int executeAllNodes() {
+        Deque<Node> runningNodes = new ArrayDeque<Node>(WORKERS);
+        int executed = 0;
+        while (true) {
+            if (runningNodes.size() < WORKERS) {
+                Node node = selectNext();
+                if (node != null) {
+                    runningNodes.add(node);
+                    continue;
+                }
+            }
+            Node completed = runningNodes.poll();
+            if (completed == null) {
+                return executed;
+            }
+            nodeComplete(completed);
+            executed++;
+        }
+    }
+
+    private Node selectNext() {
+        final MutableReference<Node> selected = MutableReference.empty();
+        coordinationService.withStateLock(new Transformer<ResourceLockState.Disposition, ResourceLockState>() {
+            @Override
+            public ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
+                selected.set(executionPlan.selectNext(workerLease, resourceLockState));
+                return ResourceLockState.Disposition.FINISHED;
+            }
+        });
+        return selected.get();
+    }
+
+    private void nodeComplete(final Node node) {
+        coordinationService.withStateLock(new Transformer<ResourceLockState.Disposition, ResourceLockState>() {
+            @Override
+            public ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
+                executionPlan.nodeComplete(node);
+                return ResourceLockState.Disposition.FINISHED;
+            }
+        });
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.hash;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares hashing files through a stream with hashing memory-mapped files.
+ * Each thread hashes its own file, so the results also show how well hashing of several large files scales across cores.
+ */
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Thread)
+public class FileHashingBenchmark {
+    @Param({"65536", "1048576", "16777216", "268435456"})
+    int fileSize;
+
+    File tempDir;
+    File file;
+    DefaultStreamHasher streamHasher;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        tempDir = File.createTempFile("hash", "benchmark");
+        FileUtils.forceDelete(tempDir);
+        FileUtils.forceMkdir(tempDir);
+        file = new File(tempDir, "input.bin");
+        byte[] content = new byte[fileSize];
+        new Random(1234L).nextBytes(content);
+        FileUtils.writeByteArrayToFile(file, content);
+        streamHasher = new DefaultStreamHasher();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.forceDelete(tempDir);
+    }
+
+    @Benchmark
+    public HashCode stream() throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            return streamHasher.hash(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    @Benchmark
+    public HashCode mapped() throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            return streamHasher.hashMapped(inputStream.getChannel());
+        } finally {
+            inputStream.close();
+        }
+    }
+}
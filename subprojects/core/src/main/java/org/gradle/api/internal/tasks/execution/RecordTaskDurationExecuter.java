@@ -0,0 +1,51 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.tasks.execution;
+
+import org.gradle.api.internal.TaskInternal;
+import org.gradle.api.internal.tasks.TaskExecuter;
+import org.gradle.api.internal.tasks.TaskExecuterResult;
+import org.gradle.api.internal.tasks.TaskExecutionContext;
+import org.gradle.api.internal.tasks.TaskExecutionOutcome;
+import org.gradle.api.internal.tasks.TaskStateInternal;
+import org.gradle.api.internal.tasks.execution.statistics.TaskDurationHistory;
+import org.gradle.internal.time.Time;
+import org.gradle.internal.time.Timer;
+
+/**
+ * Records the outcome and duration of each task, so that later builds can take it into account.
+ */
+public class RecordTaskDurationExecuter implements TaskExecuter {
+    private final TaskDurationHistory taskDurationHistory;
+    private final TaskExecuter delegate;
+
+    public RecordTaskDurationExecuter(TaskDurationHistory taskDurationHistory, TaskExecuter delegate) {
+        this.taskDurationHistory = taskDurationHistory;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public TaskExecuterResult execute(TaskInternal task, TaskStateInternal state, TaskExecutionContext context) {
+        Timer timer = Time.startTimer();
+        TaskExecuterResult result = delegate.execute(task, state, context);
+        TaskExecutionOutcome outcome = state.getOutcome();
+        if (outcome != null) {
+            taskDurationHistory.recordExecution(task.getIdentityPath().getPath(), outcome, state.getFailure() != null, timer.getElapsedMillis());
+        }
+        return result;
+    }
+}
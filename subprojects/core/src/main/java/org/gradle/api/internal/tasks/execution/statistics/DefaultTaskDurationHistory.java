@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.tasks.execution.statistics;
+
+import org.gradle.api.internal.tasks.TaskExecutionOutcome;
+import org.gradle.cache.CacheRepository;
+import org.gradle.cache.FileLockManager;
+import org.gradle.cache.PersistentCache;
+import org.gradle.cache.PersistentIndexedCache;
+import org.gradle.cache.PersistentIndexedCacheParameters;
+import org.gradle.cache.internal.InMemoryCacheDecoratorFactory;
+import org.gradle.internal.serialize.AbstractSerializer;
+import org.gradle.internal.serialize.Decoder;
+import org.gradle.internal.serialize.Encoder;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.gradle.cache.internal.filelock.LockOptionsBuilder.mode;
+
+/**
+ * Stores the history of tasks in the cache directory of the build, and writes the executions of the current build when the build finishes.
+ */
+public class DefaultTaskDurationHistory implements TaskDurationHistory, Closeable {
+    private final PersistentCache cache;
+    private final PersistentIndexedCache<String, HistoricalTaskExecution> store;
+    private final Map<String, HistoricalTaskExecution> currentExecutions = new ConcurrentHashMap<String, HistoricalTaskExecution>();
+
+    public DefaultTaskDurationHistory(@Nullable Object scope, CacheRepository cacheRepository, InMemoryCacheDecoratorFactory inMemoryCacheDecoratorFactory) {
+        cache = cacheRepository
+            .cache(scope, "taskHistory")
+            .withDisplayName("task history cache")
+            .withLockOptions(mode(FileLockManager.LockMode.None)) // Lock on demand
+            .open();
+        store = cache.createCache(PersistentIndexedCacheParameters.of("taskDurations", String.class, new HistoricalTaskExecutionSerializer())
+            .withCacheDecorator(inMemoryCacheDecoratorFactory.decorator(10000, true)));
+    }
+
+    @Nullable
+    @Override
+    public HistoricalTaskExecution getPreviousExecution(String taskPath) {
+        return store.get(taskPath);
+    }
+
+    @Override
+    public void recordExecution(String taskPath, TaskExecutionOutcome outcome, boolean failed, long durationMillis) {
+        long executedDurationMillis;
+        if (outcome == TaskExecutionOutcome.EXECUTED) {
+            executedDurationMillis = durationMillis;
+        } else {
+            HistoricalTaskExecution previousExecution = store.get(taskPath);
+            executedDurationMillis = previousExecution == null ? HistoricalTaskExecution.UNKNOWN_DURATION : previousExecution.getExecutedDurationMillis();
+        }
+        currentExecutions.put(taskPath, new HistoricalTaskExecution(outcome, failed, durationMillis, executedDurationMillis));
+    }
+
+    @Override
+    public void close() {
+        try {
+            for (Map.Entry<String, HistoricalTaskExecution> entry : currentExecutions.entrySet()) {
+                store.put(entry.getKey(), entry.getValue());
+            }
+            currentExecutions.clear();
+        } finally {
+            cache.close();
+        }
+    }
+
+    private static class HistoricalTaskExecutionSerializer extends AbstractSerializer<HistoricalTaskExecution> {
+        private static final TaskExecutionOutcome[] OUTCOMES = TaskExecutionOutcome.values();
+
+        @Override
+        public HistoricalTaskExecution read(Decoder decoder) throws Exception {
+            TaskExecutionOutcome outcome = OUTCOMES[decoder.readSmallInt()];
+            boolean failed = decoder.readBoolean();
+            long durationMillis = decoder.readLong();
+            long executedDurationMillis = decoder.readLong();
+            return new HistoricalTaskExecution(outcome, failed, durationMillis, executedDurationMillis);
+        }
+
+        @Override
+        public void write(Encoder encoder, HistoricalTaskExecution value) throws Exception {
+            encoder.writeSmallInt(value.getOutcome().ordinal());
+            encoder.writeBoolean(value.isFailed());
+            encoder.writeLong(value.getDurationMillis());
+            encoder.writeLong(value.getExecutedDurationMillis());
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.tasks.execution.statistics;
+
+import org.gradle.api.internal.tasks.TaskExecutionOutcome;
+
+/**
+ * The outcome and duration of a task in a previous build.
+ */
+public class HistoricalTaskExecution {
+    /**
+     * Used as the executed duration of tasks which have never executed their actions.
+     */
+    public static final long UNKNOWN_DURATION = -1;
+
+    private final TaskExecutionOutcome outcome;
+    private final boolean failed;
+    private final long durationMillis;
+    private final long executedDurationMillis;
+
+    public HistoricalTaskExecution(TaskExecutionOutcome outcome, boolean failed, long durationMillis, long executedDurationMillis) {
+        this.outcome = outcome;
+        this.failed = failed;
+        this.durationMillis = durationMillis;
+        this.executedDurationMillis = executedDurationMillis;
+    }
+
+    public TaskExecutionOutcome getOutcome() {
+        return outcome;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * Returns how long the task took the last time it executed its actions, which may have been in an earlier build than the previous execution.
+     * This is what the task is expected to take when it is out of date, or {@link #UNKNOWN_DURATION} when it has never executed its actions.
+     */
+    public long getExecutedDurationMillis() {
+        return executedDurationMillis;
+    }
+}
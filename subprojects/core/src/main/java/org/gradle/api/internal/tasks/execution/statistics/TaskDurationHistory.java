@@ -0,0 +1,39 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.tasks.execution.statistics;
+
+import org.gradle.api.internal.tasks.TaskExecutionOutcome;
+
+import javax.annotation.Nullable;
+
+/**
+ * Keeps track of how long tasks took and what their outcome was in previous builds.
+ *
+ * Executions recorded during a build only become visible to the next build, so that all decisions taken during a build are based on the same history.
+ */
+public interface TaskDurationHistory {
+    /**
+     * Returns the most recent execution of the task with the given identity path in a previous build, or {@code null} when it hasn't been executed before.
+     */
+    @Nullable
+    HistoricalTaskExecution getPreviousExecution(String taskPath);
+
+    /**
+     * Records an execution of the task with the given identity path in the current build.
+     */
+    void recordExecution(String taskPath, TaskExecutionOutcome outcome, boolean failed, long durationMillis);
+}
@@ -30,10 +30,10 @@ import org.gradle.caching.internal.controller.BuildCacheControllerFactory.Remote
 import org.gradle.caching.internal.controller.RootBuildCacheControllerRef;
 import org.gradle.caching.internal.origin.OriginMetadataFactory;
 import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
-import org.gradle.caching.internal.packaging.impl.GZipBuildCacheEntryPacker;
 import org.gradle.caching.internal.packaging.impl.TarBuildCacheEntryPacker;
 import org.gradle.initialization.buildsrc.BuildSourceBuilder;
 import org.gradle.internal.SystemProperties;
+import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.hash.StreamHasher;
 import org.gradle.internal.nativeplatform.filesystem.FileSystem;
 import org.gradle.internal.operations.BuildOperationExecutor;
@@ -57,8 +57,8 @@ public class BuildCacheServices {
 
     private static final Path ROOT_BUILD_SRC_PATH = Path.path(":" + BuildSourceBuilder.BUILD_SRC);
 
-    BuildCacheEntryPacker createResultPacker(FileSystem fileSystem, StreamHasher fileHasher, StringInterner stringInterner) {
-        return new GZipBuildCacheEntryPacker(new TarBuildCacheEntryPacker(fileSystem, fileHasher, stringInterner));
+    BuildCacheEntryPacker createResultPacker(FileSystem fileSystem, StreamHasher fileHasher, StringInterner stringInterner, ExecutorFactory executorFactory) {
+        return new TarBuildCacheEntryPacker(fileSystem, fileHasher, stringInterner, executorFactory);
     }
 
     OriginMetadataFactory createOriginMetadataFactory(
@@ -84,12 +84,13 @@ public class BuildCacheServices {
         ServiceRegistry serviceRegistry,
         BuildCacheConfigurationInternal buildCacheConfiguration,
         BuildOperationExecutor buildOperationExecutor,
+        ExecutorFactory executorFactory,
         InstantiatorFactory instantiatorFactory,
         GradleInternal gradle,
         RootBuildCacheControllerRef rootControllerRef
     ) {
         if (isRoot(gradle) || isRootBuildSrc(gradle) || isGradleBuildTaskRoot(rootControllerRef)) {
-            return doCreateBuildCacheController(serviceRegistry, buildCacheConfiguration, buildOperationExecutor, instantiatorFactory, gradle);
+            return doCreateBuildCacheController(serviceRegistry, buildCacheConfiguration, buildOperationExecutor, executorFactory, instantiatorFactory, gradle);
         } else {
             // must be an included build
             return rootControllerRef.getForNonRootBuild();
@@ -113,7 +114,7 @@ public class BuildCacheServices {
         return gradle.getParent() == null;
     }
 
-    private BuildCacheController doCreateBuildCacheController(ServiceRegistry serviceRegistry, BuildCacheConfigurationInternal buildCacheConfiguration, BuildOperationExecutor buildOperationExecutor, InstantiatorFactory instantiatorFactory, GradleInternal gradle) {
+    private BuildCacheController doCreateBuildCacheController(ServiceRegistry serviceRegistry, BuildCacheConfigurationInternal buildCacheConfiguration, BuildOperationExecutor buildOperationExecutor, ExecutorFactory executorFactory, InstantiatorFactory instantiatorFactory, GradleInternal gradle) {
         StartParameter startParameter = gradle.getStartParameter();
         Path buildIdentityPath = gradle.getIdentityPath();
         File gradleUserHomeDir = gradle.getGradleUserHomeDir();
@@ -124,6 +125,7 @@ public class BuildCacheServices {
 
         return BuildCacheControllerFactory.create(
             buildOperationExecutor,
+            executorFactory,
             buildIdentityPath,
             gradleUserHomeDir,
             buildCacheConfiguration,
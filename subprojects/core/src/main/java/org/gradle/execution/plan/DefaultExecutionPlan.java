@@ -25,6 +25,10 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.collect.SortedMultiset;
+import com.google.common.collect.TreeMultiset;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
 import org.gradle.api.Action;
 import org.gradle.api.BuildCancelledException;
 import org.gradle.api.CircularReferenceException;
@@ -40,6 +44,8 @@ import org.gradle.api.internal.TaskInternal;
 import org.gradle.api.internal.project.ProjectInternal;
 import org.gradle.api.internal.tasks.execution.DefaultTaskProperties;
 import org.gradle.api.internal.tasks.execution.TaskProperties;
+import org.gradle.api.internal.tasks.execution.statistics.HistoricalTaskExecution;
+import org.gradle.api.internal.tasks.execution.statistics.TaskDurationHistory;
 import org.gradle.api.internal.tasks.properties.PropertyWalker;
 import org.gradle.api.specs.Spec;
 import org.gradle.api.specs.Specs;
@@ -68,22 +74,32 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * A reusable implementation of ExecutionPlan. The {@link #addEntryTasks(java.util.Collection)} and {@link #clear()} methods are NOT threadsafe, and callers must synchronize access to these methods.
  */
 @NonNullApi
 public class DefaultExecutionPlan implements ExecutionPlan {
+    /**
+     * When set to {@code true}, nodes which are ready to run are started in order of the longest chain of nodes which depend on them,
+     * instead of in the order of the plan, so that long chains of dependent nodes are started as early as possible.
+     * Tasks count with the time they took to execute in previous builds, when known.
+     */
+    public static final String CRITICAL_PATH_PROPERTY = "org.gradle.internal.plan.criticalPath";
+
     private final Set<Node> nodesInUnknownState = Sets.newLinkedHashSet();
     private final Set<TaskNode> entryTasks = new LinkedHashSet<TaskNode>();
     private final NodeMapping nodeMapping = new NodeMapping();
-    private final List<Node> executionQueue = Lists.newLinkedList();
+    private final Set<Node> executionQueue = Sets.newLinkedHashSet();
     private final Map<Project, ResourceLock> projectLocks = Maps.newHashMap();
     private final FailureCollector failureCollector = new FailureCollector();
     private final TaskNodeFactory taskNodeFactory;
@@ -97,17 +113,36 @@ public class DefaultExecutionPlan implements ExecutionPlan {
     private final Map<Node, MutationInfo> mutations = Maps.newIdentityHashMap();
     private final Map<File, String> canonicalizedFileCache = Maps.newIdentityHashMap();
     private final Map<Pair<Node, Node>, Boolean> reachableCache = Maps.newHashMap();
-    private final Set<Node> dependenciesCompleteCache = Sets.newHashSet();
+    private final Map<Node, Integer> planPositions = Maps.newIdentityHashMap();
+    private final NavigableSet<Node> readyQueue = new TreeSet<Node>(new Comparator<Node>() {
+        @Override
+        public int compare(Node node1, Node node2) {
+            return Ints.compare(planPositions.get(node1), planPositions.get(node2));
+        }
+    });
+    private final Map<Node, List<Node>> waitingNodes = Maps.newIdentityHashMap();
+    private final Set<Node> dependenciesCompletedElsewhere = Sets.newIdentityHashSet();
+    private final SortedMultiset<String> runningMutationPaths = TreeMultiset.create();
+    private final Map<Node, Long> remainingPathLengths = Maps.newIdentityHashMap();
     private final WorkerLeaseService workerLeaseService;
     private final GradleInternal gradle;
+    private final TaskDurationHistory taskDurationHistory;
+    private final boolean prioritizeCriticalPath;
 
     private boolean buildCancelled;
 
-    public DefaultExecutionPlan(WorkerLeaseService workerLeaseService, GradleInternal gradle, TaskNodeFactory taskNodeFactory, TaskDependencyResolver dependencyResolver) {
+    public DefaultExecutionPlan(WorkerLeaseService workerLeaseService, GradleInternal gradle, TaskNodeFactory taskNodeFactory, TaskDependencyResolver dependencyResolver, TaskDurationHistory taskDurationHistory) {
+        this(workerLeaseService, gradle, taskNodeFactory, dependencyResolver, taskDurationHistory, Boolean.getBoolean(CRITICAL_PATH_PROPERTY));
+    }
+
+    @VisibleForTesting
+    DefaultExecutionPlan(WorkerLeaseService workerLeaseService, GradleInternal gradle, TaskNodeFactory taskNodeFactory, TaskDependencyResolver dependencyResolver, TaskDurationHistory taskDurationHistory, boolean prioritizeCriticalPath) {
         this.workerLeaseService = workerLeaseService;
         this.gradle = gradle;
         this.taskNodeFactory = taskNodeFactory;
         this.dependencyResolver = dependencyResolver;
+        this.taskDurationHistory = taskDurationHistory;
+        this.prioritizeCriticalPath = prioritizeCriticalPath;
     }
 
     @Override
@@ -330,6 +365,104 @@ public class DefaultExecutionPlan implements ExecutionPlan {
         }
         executionQueue.clear();
         Iterables.addAll(executionQueue, nodeMapping);
+        if (prioritizeCriticalPath) {
+            determineRemainingPathLengths();
+        }
+        determineReadyNodes();
+    }
+
+    /**
+     * Determines for each node the length of the longest chain of nodes which can only run after it, including the node itself.
+     * The nodes which depend on a node or finalize it come after it in the plan, so the plan is walked backwards.
+     */
+    private void determineRemainingPathLengths() {
+        remainingPathLengths.clear();
+        for (Node node : Lists.reverse(Lists.newArrayList(executionQueue))) {
+            long longestDependentPath = 0;
+            for (Node dependent : Iterables.concat(node.getDependencyPredecessors(), node.getFinalizers())) {
+                Long pathLength = remainingPathLengths.get(dependent);
+                if (pathLength != null) {
+                    longestDependentPath = Math.max(longestDependentPath, pathLength);
+                }
+            }
+            remainingPathLengths.put(node, longestDependentPath + getExpectedDuration(node));
+        }
+    }
+
+    /**
+     * Returns how many milliseconds the task took when it last executed its actions, or a single millisecond for nodes without any history.
+     */
+    private long getExpectedDuration(Node node) {
+        if (node instanceof LocalTaskNode) {
+            HistoricalTaskExecution previousExecution = taskDurationHistory.getPreviousExecution(((LocalTaskNode) node).getTask().getIdentityPath().getPath());
+            if (previousExecution != null) {
+                return Math.max(1, previousExecution.getExecutedDurationMillis());
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Queues the nodes whose dependencies are complete, and parks every other node on one of its incomplete dependencies.
+     * A parked node is only looked at again when that dependency completes, so selecting the next node doesn't need to visit waiting nodes.
+     */
+    private void determineReadyNodes() {
+        planPositions.clear();
+        readyQueue.clear();
+        waitingNodes.clear();
+        dependenciesCompletedElsewhere.clear();
+        for (Node node : executionQueue) {
+            planPositions.put(node, planPositions.size());
+        }
+        for (Node node : executionQueue) {
+            enqueueWhenDependenciesComplete(node);
+        }
+    }
+
+    private void enqueueWhenDependenciesComplete(Node node) {
+        Node dependency = node.getFirstIncompleteDependency();
+        if (dependency == null) {
+            readyQueue.add(node);
+            return;
+        }
+
+        List<Node> waiting = waitingNodes.get(dependency);
+        if (waiting == null) {
+            waiting = Lists.newArrayList();
+            waitingNodes.put(dependency, waiting);
+            if (!dependency.isReady() && !runningNodes.contains(dependency)) {
+                // The dependency isn't run by this plan, e.g. it's a task in another build, so it needs to be polled
+                dependenciesCompletedElsewhere.add(dependency);
+            }
+        }
+        waiting.add(node);
+    }
+
+    private void dependencyComplete(Node dependency) {
+        List<Node> waiting = waitingNodes.remove(dependency);
+        if (waiting != null) {
+            for (Node node : waiting) {
+                enqueueWhenDependenciesComplete(node);
+            }
+        }
+    }
+
+    private void pollDependenciesCompletedElsewhere() {
+        if (dependenciesCompletedElsewhere.isEmpty()) {
+            return;
+        }
+        List<Node> completed = Lists.newArrayList();
+        Iterator<Node> iterator = dependenciesCompletedElsewhere.iterator();
+        while (iterator.hasNext()) {
+            Node dependency = iterator.next();
+            if (dependency.isComplete()) {
+                iterator.remove();
+                completed.add(dependency);
+            }
+        }
+        for (Node dependency : completed) {
+            dependencyComplete(dependency);
+        }
     }
 
     @Override
@@ -510,8 +643,13 @@ public class DefaultExecutionPlan implements ExecutionPlan {
         mutations.clear();
         canonicalizedFileCache.clear();
         reachableCache.clear();
-        dependenciesCompleteCache.clear();
+        remainingPathLengths.clear();
+        planPositions.clear();
+        readyQueue.clear();
+        waitingNodes.clear();
+        dependenciesCompletedElsewhere.clear();
         runningNodes.clear();
+        runningMutationPaths.clear();
     }
 
     @Override
@@ -545,34 +683,133 @@ public class DefaultExecutionPlan implements ExecutionPlan {
             return null;
         }
 
-        Iterator<Node> iterator = executionQueue.iterator();
+        pollDependenciesCompletedElsewhere();
+
+        if (prioritizeCriticalPath) {
+            return selectNextOnCriticalPath(workerLease, resourceLockState);
+        }
+
+        Iterator<Node> iterator = readyQueue.iterator();
         while (iterator.hasNext()) {
             Node node = iterator.next();
-            if (node.isReady() && allDependenciesComplete(node)) {
-                MutationInfo mutations = getResolvedMutationInfo(node);
-
-                // TODO: convert output file checks to a resource lock
-                if (!tryLockProjectFor(node)
-                    || !workerLease.tryLock()
-                    || !canRunWithCurrentlyExecutedNodes(node, mutations)) {
-                    resourceLockState.releaseLocks();
-                    continue;
+            if (isSkippedOrExecuted(node)) {
+                iterator.remove();
+                executionQueue.remove(node);
+            } else if (node.isReady()) {
+                if (parkOnIncompleteDependency(node)) {
+                    iterator.remove();
+                } else if (tryStart(node, workerLease, resourceLockState)) {
+                    iterator.remove();
+                    executionQueue.remove(node);
+                    return node;
                 }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Nodes which are only reachable through a finalizer are queued as soon as their dependencies must not run, as those count as complete.
+     * Once the finalizer is enforced, these dependencies must run after all, so the node is parked again on the first one that is incomplete.
+     * The node has to be removed from the ready queue by the caller when this returns true.
+     */
+    private boolean parkOnIncompleteDependency(Node node) {
+        if (node.getFirstIncompleteDependency() == null) {
+            return false;
+        }
+        enqueueWhenDependenciesComplete(node);
+        return true;
+    }
+
+    /**
+     * Nodes which have been skipped or have executed can't become ready again, unlike nodes which must not run.
+     */
+    private static boolean isSkippedOrExecuted(Node node) {
+        return node.isComplete() && !node.isMustNotRun();
+    }
 
-                if (node.allDependenciesSuccessful()) {
-                    recordNodeStarted(node);
-                    node.startExecution();
+    @Nullable
+    private Node selectNextOnCriticalPath(WorkerLeaseRegistry.WorkerLease workerLease, ResourceLockState resourceLockState) {
+        Set<Node> readyNodes = Sets.newLinkedHashSet();
+        Iterator<Node> iterator = readyQueue.iterator();
+        while (iterator.hasNext()) {
+            Node node = iterator.next();
+            if (isSkippedOrExecuted(node)) {
+                iterator.remove();
+                executionQueue.remove(node);
+            } else if (node.isReady()) {
+                if (parkOnIncompleteDependency(node)) {
+                    iterator.remove();
                 } else {
-                    node.skipExecution();
+                    readyNodes.add(node);
                 }
-                iterator.remove();
+            }
+        }
 
+        List<Node> candidates = Lists.newArrayListWithCapacity(readyNodes.size());
+        for (Node node : readyNodes) {
+            if (!hasReadyShouldSuccessor(node, readyNodes)) {
+                candidates.add(node);
+            }
+        }
+        // The sort is stable, so nodes with chains of the same length are started in the order of the plan
+        Collections.sort(candidates, new Comparator<Node>() {
+            @Override
+            public int compare(Node node1, Node node2) {
+                return Longs.compare(getRemainingPathLength(node2), getRemainingPathLength(node1));
+            }
+        });
+
+        for (Node node : candidates) {
+            if (tryStart(node, workerLease, resourceLockState)) {
+                readyQueue.remove(node);
+                executionQueue.remove(node);
                 return node;
             }
         }
         return null;
     }
 
+    /**
+     * Nodes which should run after other nodes are not started before them when those are ready, too.
+     */
+    private static boolean hasReadyShouldSuccessor(Node node, Set<Node> readyNodes) {
+        if (node instanceof TaskNode) {
+            for (Node shouldSuccessor : ((TaskNode) node).getShouldSuccessors()) {
+                if (readyNodes.contains(shouldSuccessor)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private long getRemainingPathLength(Node node) {
+        Long pathLength = remainingPathLengths.get(node);
+        return pathLength == null ? 0 : pathLength;
+    }
+
+    private boolean tryStart(Node node, WorkerLeaseRegistry.WorkerLease workerLease, ResourceLockState resourceLockState) {
+        MutationInfo mutations = getResolvedMutationInfo(node);
+
+        // TODO: convert output file checks to a resource lock
+        if (!tryLockProjectFor(node)
+            || !workerLease.tryLock()
+            || !canRunWithCurrentlyExecutedNodes(node, mutations)) {
+            resourceLockState.releaseLocks();
+            return false;
+        }
+
+        if (node.allDependenciesSuccessful()) {
+            recordNodeStarted(node);
+            node.startExecution();
+        } else {
+            node.skipExecution();
+            dependencyComplete(node);
+        }
+        return true;
+    }
+
     private boolean tryLockProjectFor(Node node) {
         if (node instanceof LocalTaskNode) {
             return getProjectLock((LocalTaskNode) node).tryLock();
@@ -629,19 +866,6 @@ public class DefaultExecutionPlan implements ExecutionPlan {
         }
     }
 
-    private boolean allDependenciesComplete(Node node) {
-        if (dependenciesCompleteCache.contains(node)) {
-            return true;
-        }
-
-        boolean dependenciesComplete = node.allDependenciesComplete();
-        if (dependenciesComplete) {
-            dependenciesCompleteCache.add(node);
-        }
-
-        return dependenciesComplete;
-    }
-
     private boolean allProjectsLocked() {
         for (ResourceLock lock : projectLocks.values()) {
             if (!lock.isLocked()) {
@@ -690,18 +914,32 @@ public class DefaultExecutionPlan implements ExecutionPlan {
     }
 
     private boolean hasNodeWithOverlappingMutations(Set<String> candidateMutationPaths) {
-        if (!candidateMutationPaths.isEmpty()) {
-            for (Node runningNode : runningNodes) {
-                MutationInfo runningMutations = mutations.get(runningNode);
-                Iterable<String> runningMutationPaths = Iterables.concat(runningMutations.outputPaths, runningMutations.destroyablePaths);
-                if (hasOverlap(candidateMutationPaths, runningMutationPaths)) {
-                    return true;
-                }
+        for (String candidateMutationPath : candidateMutationPaths) {
+            if (overlapsRunningMutationPath(candidateMutationPath)) {
+                return true;
             }
         }
         return false;
     }
 
+    /**
+     * Looks up the mutation paths of the running nodes which are the same as the given path, or which contain it or are contained in it.
+     * Those are the paths for which {@link #getOverLappedPath(String, String)} finds an overlap.
+     */
+    private boolean overlapsRunningMutationPath(String path) {
+        if (runningMutationPaths.contains(path)) {
+            return true;
+        }
+        for (int separator = path.indexOf(File.separatorChar); separator >= 0; separator = path.indexOf(File.separatorChar, separator + 1)) {
+            if (runningMutationPaths.contains(path.substring(0, separator))) {
+                return true;
+            }
+        }
+        String childPathPrefix = path + File.separatorChar;
+        String firstPathAfterPrefix = runningMutationPaths.elementSet().ceiling(childPathPrefix);
+        return firstPathAfterPrefix != null && firstPathAfterPrefix.startsWith(childPathPrefix);
+    }
+
     private boolean doesDestroyNotYetConsumedOutputOfAnotherNode(Node destroyer, Set<String> destroyablePaths) {
         if (!destroyablePaths.isEmpty()) {
             for (MutationInfo producingNode : mutations.values()) {
@@ -814,11 +1052,17 @@ public class DefaultExecutionPlan implements ExecutionPlan {
 
     private void recordNodeStarted(Node node) {
         runningNodes.add(node);
+        MutationInfo mutations = this.mutations.get(node);
+        runningMutationPaths.addAll(mutations.outputPaths);
+        runningMutationPaths.addAll(mutations.destroyablePaths);
     }
 
     private void recordNodeCompleted(Node node) {
         runningNodes.remove(node);
         MutationInfo mutations = this.mutations.get(node);
+        for (String path : Iterables.concat(mutations.outputPaths, mutations.destroyablePaths)) {
+            runningMutationPaths.remove(path);
+        }
         for (Node producer : mutations.producingNodes) {
             MutationInfo producerMutations = this.mutations.get(producer);
             if (producerMutations.consumingNodes.remove(node) && canRemoveMutation(producerMutations)) {
@@ -846,6 +1090,7 @@ public class DefaultExecutionPlan implements ExecutionPlan {
 
                 node.finishExecution();
                 recordNodeCompleted(node);
+                dependencyComplete(node);
             }
         } finally {
             unlockProjectFor(node);
@@ -921,12 +1166,14 @@ public class DefaultExecutionPlan implements ExecutionPlan {
             // Allow currently executing and enforced tasks to complete, but skip everything else.
             if (node.isRequired()) {
                 node.skipExecution();
+                dependencyComplete(node);
                 aborted = true;
             }
 
             // If abortAll is set, also stop enforced tasks.
             if (abortAll && node.isReady()) {
                 node.abortExecution();
+                dependencyComplete(node);
                 aborted = true;
             }
         }
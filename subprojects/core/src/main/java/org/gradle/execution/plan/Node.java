@@ -169,15 +169,23 @@ public abstract class Node implements Comparable<Node> {
         toNode.dependencyPredecessors.add(this);
     }
 
-    @OverridingMethodsMustInvokeSuper
     public boolean allDependenciesComplete() {
+        return getFirstIncompleteDependency() == null;
+    }
+
+    /**
+     * Returns a node which has to complete before this node can start, or {@code null} when all of them are complete.
+     */
+    @Nullable
+    @OverridingMethodsMustInvokeSuper
+    public Node getFirstIncompleteDependency() {
         for (Node dependency : dependencySuccessors) {
             if (!dependency.isComplete()) {
-                return false;
+                return dependency;
             }
         }
 
-        return true;
+        return null;
     }
 
     public boolean allDependenciesSuccessful() {
@@ -21,6 +21,7 @@ import com.google.common.collect.Sets;
 import org.gradle.api.Action;
 import org.gradle.api.Task;
 
+import javax.annotation.Nullable;
 import java.util.NavigableSet;
 import java.util.Set;
 
@@ -31,24 +32,26 @@ public abstract class TaskNode extends Node {
     private final NavigableSet<Node> finalizers = Sets.newTreeSet();
     private final NavigableSet<Node> finalizingSuccessors = Sets.newTreeSet();
 
+    @Nullable
     @Override
-    public boolean allDependenciesComplete() {
-        if (!super.allDependenciesComplete()) {
-            return false;
+    public Node getFirstIncompleteDependency() {
+        Node dependency = super.getFirstIncompleteDependency();
+        if (dependency != null) {
+            return dependency;
         }
-        for (Node dependency : mustSuccessors) {
-            if (!dependency.isComplete()) {
-                return false;
+        for (Node mustSuccessor : mustSuccessors) {
+            if (!mustSuccessor.isComplete()) {
+                return mustSuccessor;
             }
         }
 
-        for (Node dependency : finalizingSuccessors) {
-            if (!dependency.isComplete()) {
-                return false;
+        for (Node finalizingSuccessor : finalizingSuccessors) {
+            if (!finalizingSuccessor.isComplete()) {
+                return finalizingSuccessor;
             }
         }
 
-        return true;
+        return null;
     }
 
     public Set<Node> getMustSuccessors() {
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.filewatch;
+
+import com.google.common.collect.ImmutableSet;
+import org.gradle.api.Action;
+import org.gradle.api.internal.file.FileSystemSubset;
+import org.gradle.api.internal.file.TemporaryFileProvider;
+import org.gradle.initialization.RootBuildLifecycleListener;
+import org.gradle.internal.concurrent.Stoppable;
+import org.gradle.internal.snapshot.impl.DefaultFileSystemMirror;
+import org.gradle.util.GFileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retains the state of a {@link DefaultFileSystemMirror} between builds, by watching the locations it knows about and invalidating its state when they change.
+ *
+ * Only the state below locations which were already watched when a build started is retained at the end of that build, as changes to other locations may have gone unnoticed.
+ * The locations which hold state at the end of a build are watched from then on, so their state can be retained after the next build.
+ *
+ * Whenever the watcher fails or reports that it may have dropped events, all state is discarded and watching starts over.
+ * Watching is opt-in via the {@value #WATCH_FILE_SYSTEM_PROPERTY} system property, and is checked at the start of each build.
+ */
+public class FileSystemMirrorWatcher implements RootBuildLifecycleListener, FileWatcherListener, Stoppable {
+    public static final String WATCH_FILE_SYSTEM_PROPERTY = "org.gradle.unsafe.watch-fs";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileSystemMirrorWatcher.class);
+    private static final int SYNC_TIMEOUT_SECONDS = 5;
+
+    private final DefaultFileSystemMirror fileSystemMirror;
+    private final FileWatcherFactory fileWatcherFactory;
+    private final TemporaryFileProvider temporaryFileProvider;
+    private final Set<String> watchedRoots = new HashSet<String>();
+    private Set<String> rootsWatchedAtBuildStart = ImmutableSet.of();
+    private boolean watchingEnabled;
+    private FileWatcher fileWatcher;
+    private File markerDir;
+    private int markerCount;
+    private volatile boolean changesMissed;
+    private volatile File pendingMarker;
+    private volatile CountDownLatch pendingMarkerReceived;
+
+    public FileSystemMirrorWatcher(DefaultFileSystemMirror fileSystemMirror, FileWatcherFactory fileWatcherFactory, TemporaryFileProvider temporaryFileProvider) {
+        this.fileSystemMirror = fileSystemMirror;
+        this.fileWatcherFactory = fileWatcherFactory;
+        this.temporaryFileProvider = temporaryFileProvider;
+    }
+
+    @Override
+    public void afterStart() {
+        watchingEnabled = Boolean.getBoolean(WATCH_FILE_SYSTEM_PROPERTY);
+        if (!watchingEnabled) {
+            stopWatching();
+            return;
+        }
+        if (fileWatcher != null && !receivedAllPendingChanges()) {
+            LOGGER.info("File system watching may have missed some changes, discarding all retained file system state.");
+            fileSystemMirror.invalidateAll();
+            stopWatching();
+        }
+        rootsWatchedAtBuildStart = ImmutableSet.copyOf(watchedRoots);
+    }
+
+    @Override
+    public void beforeComplete() {
+        if (!watchingEnabled) {
+            fileSystemMirror.beforeBuildFinished();
+            return;
+        }
+        Collection<String> roots = fileSystemMirror.getRoots();
+        if (changesMissed || fileWatcher == null || !fileWatcher.isRunning()) {
+            fileSystemMirror.beforeBuildFinished();
+            stopWatching();
+        } else {
+            fileSystemMirror.beforeBuildFinished(rootsWatchedAtBuildStart);
+        }
+        startWatching(roots);
+    }
+
+    @Override
+    public void onChange(FileWatcher watcher, FileWatcherEvent event) {
+        File file = event.getFile();
+        if (event.getType() == FileWatcherEvent.Type.UNDEFINED || file == null) {
+            onChangesMissed();
+            return;
+        }
+        fileSystemMirror.invalidate(file.getAbsolutePath());
+        if (file.equals(pendingMarker)) {
+            pendingMarkerReceived.countDown();
+        }
+    }
+
+    @Override
+    public void stop() {
+        stopWatching();
+    }
+
+    private void startWatching(Collection<String> roots) {
+        try {
+            FileSystemSubset.Builder newRoots = FileSystemSubset.builder();
+            if (fileWatcher == null) {
+                changesMissed = false;
+                markerDir = temporaryFileProvider.createTemporaryDirectory("watch-fs", null);
+                newRoots.add(markerDir);
+                fileWatcher = fileWatcherFactory.watch(new Action<Throwable>() {
+                    @Override
+                    public void execute(Throwable throwable) {
+                        LOGGER.debug("File system watching failed.", throwable);
+                        onChangesMissed();
+                    }
+                }, this);
+            }
+            for (String root : roots) {
+                if (watchedRoots.add(root)) {
+                    newRoots.add(new File(root));
+                }
+            }
+            fileWatcher.watch(newRoots.build());
+        } catch (IOException e) {
+            LOGGER.info("Could not watch the file system for changes, discarding all retained file system state.", e);
+            fileSystemMirror.invalidateAll();
+            stopWatching();
+        }
+    }
+
+    private void stopWatching() {
+        if (fileWatcher != null) {
+            fileWatcher.stop();
+            fileWatcher = null;
+            GFileUtils.deleteQuietly(markerDir);
+            markerDir = null;
+        }
+        watchedRoots.clear();
+        rootsWatchedAtBuildStart = ImmutableSet.of();
+    }
+
+    private void onChangesMissed() {
+        changesMissed = true;
+        fileSystemMirror.invalidateAll();
+    }
+
+    /**
+     * Changes are reported asynchronously, so before relying on the retained state we create a marker file and wait for the change to be reported.
+     * Changes made before the marker was created are reported before the marker itself.
+     */
+    private boolean receivedAllPendingChanges() {
+        if (changesMissed || !fileWatcher.isRunning()) {
+            return false;
+        }
+        File marker = new File(markerDir, "marker-" + markerCount++);
+        pendingMarkerReceived = new CountDownLatch(1);
+        pendingMarker = marker;
+        try {
+            if (!marker.createNewFile()) {
+                return false;
+            }
+            return pendingMarkerReceived.await(SYNC_TIMEOUT_SECONDS, TimeUnit.SECONDS) && !changesMissed;
+        } catch (IOException e) {
+            LOGGER.debug("Could not create file system watching marker {}.", marker, e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            pendingMarker = null;
+            GFileUtils.deleteQuietly(marker);
+        }
+    }
+}
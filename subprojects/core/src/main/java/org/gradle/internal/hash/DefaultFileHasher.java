@@ -15,17 +15,30 @@
  */
 package org.gradle.internal.hash;
 
+import com.google.common.annotations.VisibleForTesting;
 import org.gradle.api.UncheckedIOException;
 import org.gradle.api.file.FileTreeElement;
 import org.gradle.internal.IoActions;
 import org.gradle.internal.file.FileMetadataSnapshot;
+import org.gradle.internal.os.OperatingSystem;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.InputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
 
 public class DefaultFileHasher implements FileHasher {
+    /**
+     * Files of at least this size are hashed by mapping them into memory instead of reading them through a stream.
+     * For smaller files, setting up the mapping costs more than copying the content to the heap.
+     */
+    @VisibleForTesting
+    static final long MAPPED_HASHING_THRESHOLD = 1024 * 1024;
+
+    // On Windows, a mapped file cannot be deleted or replaced until the mapping has been garbage collected
+    private static final boolean MAPPED_HASHING_SUPPORTED = !OperatingSystem.current().isWindows();
+
     private final StreamHasher streamHasher;
 
     public DefaultFileHasher(StreamHasher streamHasher) {
@@ -35,14 +48,20 @@ public class DefaultFileHasher implements FileHasher {
     @Override
     public HashCode hash(File file) {
         try {
-            InputStream inputStream = new FileInputStream(file);
+            FileInputStream inputStream = new FileInputStream(file);
             try {
+                FileChannel channel = inputStream.getChannel();
+                if (MAPPED_HASHING_SUPPORTED && channel.size() >= MAPPED_HASHING_THRESHOLD) {
+                    return streamHasher.hashMapped(channel);
+                }
                 return streamHasher.hash(inputStream);
             } finally {
                 IoActions.closeQuietly(inputStream);
             }
         } catch (FileNotFoundException e) {
-            throw new UncheckedIOException(String.format("Failed to create MD5 hash for file '%s' as it does not exist.", file), e);
+            throw new UncheckedIOException(String.format("Failed to create hash for file '%s' as it does not exist.", file), e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Failed to create hash for file '%s'.", file), e);
         }
     }
 
@@ -21,11 +21,15 @@ import org.gradle.internal.io.NullOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
 
 public class DefaultStreamHasher implements StreamHasher {
     private static final HashCode SIGNATURE = Hashing.signature(DefaultStreamHasher.class);
+    // Map large files in regions, so we don't exhaust the address space on 32-bit JVMs
+    private static final long MAPPED_REGION_SIZE = 64 * 1024 * 1024;
 
     private final Queue<byte[]> buffers = new ArrayBlockingQueue<byte[]>(16);
 
@@ -34,7 +38,7 @@ public class DefaultStreamHasher implements StreamHasher {
         try {
             return doHash(inputStream, NullOutputStream.INSTANCE);
         } catch (IOException e) {
-            throw new UncheckedIOException("Failed to create MD5 hash for file content.", e);
+            throw new UncheckedIOException("Failed to create hash for file content.", e);
         }
     }
 
@@ -43,6 +47,21 @@ public class DefaultStreamHasher implements StreamHasher {
         return doHash(inputStream, outputStream);
     }
 
+    @Override
+    public HashCode hashMapped(FileChannel channel) throws IOException {
+        PrimitiveHasher hasher = Hashing.newPrimitiveHasher();
+        hasher.putHash(SIGNATURE);
+        long position = channel.position();
+        long size = channel.size();
+        while (position < size) {
+            long regionSize = Math.min(MAPPED_REGION_SIZE, size - position);
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, regionSize);
+            hasher.putBytes(region);
+            position += regionSize;
+        }
+        return hasher.hash();
+    }
+
     private HashCode doHash(InputStream inputStream, OutputStream outputStream) throws IOException {
         byte[] buffer = takeBuffer();
         try {
@@ -17,6 +17,8 @@ package org.gradle.internal.service.scopes;
 
 import org.gradle.api.internal.cache.StringInterner;
 import org.gradle.api.internal.changedetection.state.DefaultExecutionHistoryCacheAccess;
+import org.gradle.api.internal.tasks.execution.statistics.DefaultTaskDurationHistory;
+import org.gradle.api.internal.tasks.execution.statistics.TaskDurationHistory;
 import org.gradle.api.invocation.Gradle;
 import org.gradle.cache.CacheBuilder;
 import org.gradle.cache.CacheRepository;
@@ -73,6 +75,10 @@ public class ExecutionServices {
         return new DefaultExecutionHistoryStore(executionHistoryCacheAccess, stringInterner);
     }
 
+    TaskDurationHistory createTaskDurationHistory(Gradle gradle, CacheRepository cacheRepository, InMemoryCacheDecoratorFactory inMemoryCacheDecoratorFactory) {
+        return new DefaultTaskDurationHistory(gradle, cacheRepository, inMemoryCacheDecoratorFactory);
+    }
+
     OutputFilesRepository createOutputFilesRepository(CacheRepository cacheRepository, Gradle gradle, InMemoryCacheDecoratorFactory inMemoryCacheDecoratorFactory) {
         PersistentCache cacheAccess = cacheRepository
             .cache(gradle, "buildOutputCleanup")
@@ -18,6 +18,7 @@ package org.gradle.api.internal.changedetection.state
 
 import org.gradle.internal.hash.HashCode
 import org.gradle.internal.serialize.HashCodeSerializer
+import org.gradle.internal.snapshot.DefaultRegularFileSnapshot
 import org.gradle.internal.snapshot.RegularFileSnapshot
 import org.gradle.testfixtures.internal.InMemoryIndexedCache
 import spock.lang.Specification
@@ -28,7 +29,7 @@ class CachingResourceHasherTest extends Specification {
     def delegate = Mock(ResourceHasher)
     def path = "some"
     def relativePath = ["relative", "path"]
-    private RegularFileSnapshot snapshot = new RegularFileSnapshot(path, "path", HashCode.fromInt(456), 456)
+    private RegularFileSnapshot snapshot = new DefaultRegularFileSnapshot(path, "path", HashCode.fromInt(456), 456)
     def cachingHasher = new CachingResourceHasher(delegate, new DefaultResourceSnapshotterCacheService(new InMemoryIndexedCache(new HashCodeSerializer())))
 
     def "returns result from delegate"() {
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.tasks.execution
+
+import org.gradle.api.internal.TaskInternal
+import org.gradle.api.internal.tasks.TaskExecuter
+import org.gradle.api.internal.tasks.TaskExecutionContext
+import org.gradle.api.internal.tasks.TaskExecutionOutcome
+import org.gradle.api.internal.tasks.TaskStateInternal
+import org.gradle.api.internal.tasks.execution.statistics.TaskDurationHistory
+import org.gradle.util.Path
+import spock.lang.Specification
+
+class RecordTaskDurationExecuterTest extends Specification {
+    private TaskExecuter delegate = Mock(TaskExecuter)
+    private TaskDurationHistory taskDurationHistory = Mock(TaskDurationHistory)
+    private RecordTaskDurationExecuter executer = new RecordTaskDurationExecuter(taskDurationHistory, delegate)
+    private TaskInternal task = Stub(TaskInternal) {
+        getIdentityPath() >> Path.path(":project:task")
+    }
+    private TaskStateInternal state = new TaskStateInternal()
+    private TaskExecutionContext context = Mock(TaskExecutionContext)
+
+    def 'records outcome of task'() {
+        when:
+        executer.execute(task, state, context)
+
+        then:
+        1 * delegate.execute(task, state, context) >> {
+            state.setOutcome(TaskExecutionOutcome.UP_TO_DATE)
+        }
+
+        then:
+        1 * taskDurationHistory.recordExecution(":project:task", TaskExecutionOutcome.UP_TO_DATE, false, { it >= 0 })
+        0 * _
+    }
+
+    def 'records failure of task'() {
+        when:
+        executer.execute(task, state, context)
+
+        then:
+        1 * delegate.execute(task, state, context) >> {
+            state.setOutcome(new RuntimeException("Failure"))
+        }
+
+        then:
+        1 * taskDurationHistory.recordExecution(":project:task", TaskExecutionOutcome.EXECUTED, true, _)
+        0 * _
+    }
+
+    def 'does not record task without outcome'() {
+        when:
+        executer.execute(task, state, context)
+
+        then:
+        1 * delegate.execute(task, state, context)
+        0 * _
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.tasks.execution.statistics
+
+import org.gradle.cache.CacheDecorator
+import org.gradle.cache.internal.DefaultCacheRepository
+import org.gradle.cache.internal.DefaultCacheScopeMapping
+import org.gradle.cache.internal.InMemoryCacheDecoratorFactory
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.testfixtures.internal.InMemoryCacheFactory
+import org.gradle.util.GradleVersion
+import org.junit.Rule
+import spock.lang.Specification
+
+import static org.gradle.api.internal.tasks.TaskExecutionOutcome.EXECUTED
+import static org.gradle.api.internal.tasks.TaskExecutionOutcome.UP_TO_DATE
+
+class DefaultTaskDurationHistoryTest extends Specification {
+
+    @Rule TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+
+    def cacheScopeMapping = new DefaultCacheScopeMapping(tmpDir.createDir("user-home"), tmpDir.createDir("project-cache"), GradleVersion.current())
+    def cacheRepository = new DefaultCacheRepository(cacheScopeMapping, new InMemoryCacheFactory())
+    def cacheDecoratorFactory = Stub(InMemoryCacheDecoratorFactory) {
+        decorator(_, _) >> Stub(CacheDecorator) {
+            decorate(_, _, _, _, _) >> { cacheId, cacheName, persistentCache, crossProcessCacheAccess, asyncCacheAccess ->
+                persistentCache
+            }
+        }
+    }
+
+    def history = newHistory()
+
+    def "task without history has no previous execution"() {
+        expect:
+        history.getPreviousExecution(":a") == null
+    }
+
+    def "executions become visible to the next build"() {
+        when:
+        history.recordExecution(":a", EXECUTED, false, 1234)
+
+        then:
+        history.getPreviousExecution(":a") == null
+
+        when:
+        history.close()
+        history = newHistory()
+        def previousExecution = history.getPreviousExecution(":a")
+
+        then:
+        previousExecution.outcome == EXECUTED
+        !previousExecution.failed
+        previousExecution.durationMillis == 1234
+        previousExecution.executedDurationMillis == 1234
+    }
+
+    def "keeps the duration of the last execution which did work"() {
+        given:
+        history.recordExecution(":a", EXECUTED, true, 1234)
+        history.close()
+        history = newHistory()
+
+        when:
+        history.recordExecution(":a", UP_TO_DATE, false, 12)
+        history.close()
+        history = newHistory()
+        def previousExecution = history.getPreviousExecution(":a")
+
+        then:
+        previousExecution.outcome == UP_TO_DATE
+        !previousExecution.failed
+        previousExecution.durationMillis == 12
+        previousExecution.executedDurationMillis == 1234
+    }
+
+    def "duration of task which never did work is unknown"() {
+        when:
+        history.recordExecution(":a", UP_TO_DATE, false, 12)
+        history.close()
+        history = newHistory()
+
+        then:
+        history.getPreviousExecution(":a").executedDurationMillis == HistoricalTaskExecution.UNKNOWN_DURATION
+    }
+
+    private DefaultTaskDurationHistory newHistory() {
+        new DefaultTaskDurationHistory(null, cacheRepository, cacheDecoratorFactory)
+    }
+}
@@ -24,8 +24,11 @@ import org.gradle.api.internal.TaskInternal
 import org.gradle.api.internal.TaskOutputsInternal
 import org.gradle.api.internal.project.ProjectInternal
 import org.gradle.api.internal.tasks.TaskDestroyablesInternal
+import org.gradle.api.internal.tasks.TaskExecutionOutcome
 import org.gradle.api.internal.tasks.TaskLocalStateInternal
 import org.gradle.api.internal.tasks.TaskStateInternal
+import org.gradle.api.internal.tasks.execution.statistics.HistoricalTaskExecution
+import org.gradle.api.internal.tasks.execution.statistics.TaskDurationHistory
 import org.gradle.api.specs.Spec
 import org.gradle.api.tasks.TaskDependency
 import org.gradle.api.tasks.TaskDestroyables
@@ -50,12 +53,13 @@ class DefaultExecutionPlanTest extends AbstractProjectBuilderSpec {
     ProjectInternal root
     def workerLeaseService = Mock(WorkerLeaseService)
     def workerLease = Mock(WorkerLeaseRegistry.WorkerLease)
+    def taskDurationHistory = Mock(TaskDurationHistory)
 
     def setup() {
         root = createRootProject(temporaryFolder.testDirectory)
         def taskNodeFactory = new TaskNodeFactory(root.gradle, Stub(IncludedBuildTaskGraph))
         def dependencyResolver = new TaskDependencyResolver([new TaskNodeDependencyResolver(taskNodeFactory)])
-        executionPlan = new DefaultExecutionPlan(workerLeaseService, root.gradle, taskNodeFactory, dependencyResolver)
+        executionPlan = new DefaultExecutionPlan(workerLeaseService, root.gradle, taskNodeFactory, dependencyResolver, taskDurationHistory)
         _ * workerLeaseService.getProjectLock(_, _) >> Mock(ResourceLock) {
             _ * isLocked() >> false
             _ * tryLock() >> true
@@ -848,6 +852,150 @@ class DefaultExecutionPlanTest extends AbstractProjectBuilderSpec {
         filtered(b)
     }
 
+    def "starts a task once all of its dependencies have completed"() {
+        given:
+        Task a = task("a")
+        Task b = task("b")
+        Task c = task("c", dependsOn: [a, b])
+        addToGraphAndPopulate([c])
+
+        when:
+        def nodeA = selectNext()
+        def nodeB = selectNext()
+
+        then:
+        nodeA.task == a
+        nodeB.task == b
+        selectNext() == null
+
+        when:
+        executionPlan.nodeComplete(nodeB)
+
+        then:
+        selectNext() == null
+
+        when:
+        executionPlan.nodeComplete(nodeA)
+
+        then:
+        selectNext().task == c
+        selectNext() == null
+    }
+
+    def "starts tasks which become ready at the same time in plan order"() {
+        given:
+        Task a = task("a")
+        Task b = task("b", dependsOn: [a])
+        Task c = task("c", dependsOn: [a])
+        Task d = task("d")
+        addToGraphAndPopulate([c, b, d])
+
+        when:
+        def nodeA = selectNext()
+
+        then:
+        nodeA.task == a
+        selectNext().task == d
+
+        when:
+        executionPlan.nodeComplete(nodeA)
+
+        then:
+        selectNext().task == b
+        selectNext().task == c
+        selectNext() == null
+    }
+
+    def "starts the dependencies of a finalizer in order once the finalizer is enforced"() {
+        given:
+        Task e = task("e")
+        Task d = task("d", dependsOn: [e])
+        Task finalizer = task("finalizer", dependsOn: [d])
+        Task finalized = task("finalized", finalizedBy: [finalizer])
+        addToGraphAndPopulate([finalized])
+
+        when:
+        def nodeFinalized = selectNext()
+
+        then:
+        nodeFinalized.task == finalized
+        selectNext() == null
+
+        when:
+        executionPlan.nodeComplete(nodeFinalized)
+        def nodeE = selectNext()
+
+        then:
+        nodeE.task == e
+        selectNext() == null
+
+        when:
+        executionPlan.nodeComplete(nodeE)
+        def nodeD = selectNext()
+
+        then:
+        nodeD.task == d
+        selectNext() == null
+
+        when:
+        executionPlan.nodeComplete(nodeD)
+
+        then:
+        selectNext().task == finalizer
+        selectNext() == null
+    }
+
+    def "starts tasks on the longest chain of dependent tasks first when prioritizing the critical path"() {
+        given:
+        prioritizeCriticalPath()
+        Task a = task("a")
+        Task b = task("b")
+        Task c = task("c", dependsOn: [b])
+        Task d = task("d", dependsOn: [c])
+
+        when:
+        addToGraphAndPopulate([a, d])
+
+        then:
+        executionPlan.tasks as List == [a, b, c, d]
+        executedTasks == [b, c, a, d]
+    }
+
+    def "starts tasks which took longest in previous builds first when prioritizing the critical path"() {
+        given:
+        prioritizeCriticalPath()
+        Task a = task("a")
+        Task b = task("b")
+        Task c = task("c", dependsOn: [b])
+        taskDurationHistory.getPreviousExecution(":a") >> new HistoricalTaskExecution(TaskExecutionOutcome.EXECUTED, false, 100, 100)
+
+        when:
+        addToGraphAndPopulate([a, c])
+
+        then:
+        executedTasks == [a, b, c]
+    }
+
+    def "honors shouldRunAfter when prioritizing the critical path"() {
+        given:
+        prioritizeCriticalPath()
+        Task a = task("a")
+        Task b = task("b", shouldRunAfter: [a])
+        Task c = task("c", dependsOn: [b])
+
+        when:
+        addToGraphAndPopulate([a, c])
+
+        then:
+        executes(a, b, c)
+    }
+
+    private void prioritizeCriticalPath() {
+        def taskNodeFactory = new TaskNodeFactory(root.gradle, Stub(IncludedBuildTaskGraph))
+        def dependencyResolver = new TaskDependencyResolver([new TaskNodeDependencyResolver(taskNodeFactory)])
+        executionPlan = new DefaultExecutionPlan(workerLeaseService, root.gradle, taskNodeFactory, dependencyResolver, taskDurationHistory, true)
+    }
+
     private void addToGraphAndPopulate(List tasks) {
         executionPlan.addEntryTasks(tasks)
         executionPlan.determineExecutionPlan()
@@ -862,6 +1010,10 @@ class DefaultExecutionPlanTest extends AbstractProjectBuilderSpec {
         assert executionPlan.filteredTasks == expectedTasks as Set
     }
 
+    private Node selectNext() {
+        executionPlan.selectNext(workerLease, Mock(ResourceLockState))
+    }
+
     def getExecutedTasks() {
         def tasks = []
         while (executionPlan.hasNodesRemaining()) {
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.hash
+
+import org.gradle.api.UncheckedIOException
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class DefaultFileHasherTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+
+    @Unroll
+    def "hashes #size byte file the same as a stream with the same content"() {
+        def streamHasher = new DefaultStreamHasher()
+        def hasher = new DefaultFileHasher(streamHasher)
+        def content = new byte[size as int]
+        new Random(size).nextBytes(content)
+        def file = tmpDir.file("file.bin")
+        file.bytes = content
+
+        expect:
+        hasher.hash(file) == streamHasher.hash(new ByteArrayInputStream(content))
+
+        where:
+        size << [0, 1, 100, DefaultFileHasher.MAPPED_HASHING_THRESHOLD - 1, DefaultFileHasher.MAPPED_HASHING_THRESHOLD, 3 * DefaultFileHasher.MAPPED_HASHING_THRESHOLD + 7]
+    }
+
+    def "reports missing file"() {
+        def file = tmpDir.file("missing")
+
+        when:
+        new DefaultFileHasher(new DefaultStreamHasher()).hash(file)
+
+        then:
+        def e = thrown(UncheckedIOException)
+        e.message == "Failed to create hash for file '$file' as it does not exist."
+    }
+}
@@ -26,8 +26,8 @@ import org.gradle.internal.execution.impl.steps.CreateOutputsStep
 import org.gradle.internal.execution.impl.steps.Step
 import org.gradle.internal.execution.impl.steps.UpToDateResult
 import org.gradle.internal.hash.HashCode
+import org.gradle.internal.snapshot.DefaultRegularFileSnapshot
 import org.gradle.internal.snapshot.FileSystemSnapshotter
-import org.gradle.internal.snapshot.RegularFileSnapshot
 import org.gradle.test.fixtures.concurrent.ConcurrentSpec
 import org.gradle.test.fixtures.file.TestFile
 import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
@@ -426,6 +426,6 @@ class DefaultTransformerInvokerTest extends ConcurrentSpec {
     }
 
     def snapshot(HashCode hashCode) {
-        return new RegularFileSnapshot("/path/to/some.txt", "some.txt", hashCode, 0)
+        return new DefaultRegularFileSnapshot("/path/to/some.txt", "some.txt", hashCode, 0)
     }
 }
@@ -44,7 +44,9 @@ public class DefaultExecutionHistoryStore implements ExecutionHistoryStore {
             new FileCollectionFingerprintSerializer(stringInterner));
 
         this.store = executionHistoryCacheAccess.createCache(
-            PersistentIndexedCacheParameters.of("executionHistory", String.class, serializer),
+            // Every execution replaces its previous state, so appending the changes to a log is cheaper than updating a B-tree in place
+            PersistentIndexedCacheParameters.of("executionHistory", String.class, serializer)
+                .withStorage(PersistentIndexedCacheParameters.Storage.LogStructured),
             10000,
             false
         );
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.btree;
+
+import org.gradle.internal.serialize.BaseSerializerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Measures random lookups against a B-tree cache of about the size of a large execution history cache, with blocks read through {@link java.io.RandomAccessFile} or through memory-mapped regions.
+ *
+ * The cache file is generated once and kept in the temporary directory, since generating it takes a while.
+ * For the {@code cold} state the cache file is evicted from the page cache before each iteration using GNU {@code dd} with {@code iflag=nocache}, which only works on Linux.
+ * For the {@code warm} state the whole file is read once before the measurements start.
+ */
+@Fork(1)
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@State(Scope.Benchmark)
+public class BTreeLookupBenchmark {
+    private static final int VALUE_SIZE = 4096;
+    private static final int LOOKUPS = 10000;
+
+    @Param({"128000"})
+    int entryCount;
+
+    @Param({"false", "true"})
+    boolean memoryMapped;
+
+    @Param({"warm", "cold"})
+    String pageCache;
+
+    File cacheFile;
+    BTreePersistentIndexedCache<String, byte[]> cache;
+    Random random;
+
+    @Setup(Level.Trial)
+    public void createCache() throws IOException {
+        cacheFile = new File(System.getProperty("java.io.tmpdir"), "btree-lookup-benchmark/cache-" + entryCount + ".bin");
+        if (!cacheFile.isFile()) {
+            File tempFile = new File(cacheFile.getParentFile(), cacheFile.getName() + ".tmp");
+            tempFile.delete();
+            BTreePersistentIndexedCache<String, byte[]> cache = open(tempFile);
+            Random random = new Random(1234L);
+            byte[] value = new byte[VALUE_SIZE];
+            for (int i = 0; i < entryCount; i++) {
+                random.nextBytes(value);
+                cache.put(key(i), value);
+            }
+            cache.close();
+            Files.move(tempFile.toPath(), cacheFile.toPath());
+        }
+        if (pageCache.equals("warm")) {
+            readFully(cacheFile);
+        }
+        random = new Random(5678L);
+    }
+
+    @Setup(Level.Iteration)
+    public void openCache() throws Exception {
+        if (pageCache.equals("cold")) {
+            evictFromPageCache(cacheFile);
+        }
+        cache = open(cacheFile);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeCache() {
+        cache.close();
+        cache = null;
+        // Mapped regions are only unmapped once they have been garbage collected, and mapped pages cannot be evicted
+        System.gc();
+    }
+
+    @Benchmark
+    public void lookup(Blackhole blackhole) {
+        for (int i = 0; i < LOOKUPS; i++) {
+            blackhole.consume(cache.get(key(random.nextInt(entryCount))));
+        }
+    }
+
+    private BTreePersistentIndexedCache<String, byte[]> open(File file) {
+        return new BTreePersistentIndexedCache<String, byte[]>(file, BaseSerializerFactory.STRING_SERIALIZER, BaseSerializerFactory.BYTE_ARRAY_SERIALIZER, (short) 512, 512, memoryMapped);
+    }
+
+    private static String key(int index) {
+        return "task-" + index + ":outputs";
+    }
+
+    private static void readFully(File file) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        InputStream inputStream = Files.newInputStream(file.toPath());
+        try {
+            while (inputStream.read(buffer) >= 0) {
+                // Only touch the pages
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static void evictFromPageCache(File file) throws Exception {
+        Process process = new ProcessBuilder("dd", "if=" + file.getAbsolutePath(), "iflag=nocache", "count=0").redirectErrorStream(true).start();
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException("Could not evict " + file + " from the page cache.");
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.cache;
+
+/**
+ * A {@link PersistentIndexedCache} which stores its entries directly in one or more files, and is used as the backing store of a {@link MultiProcessSafePersistentIndexedCache}.
+ *
+ * Access to the files is coordinated by the caller, which holds the appropriate file lock while using this cache.
+ */
+public interface FileBackedPersistentIndexedCache<K, V> extends PersistentIndexedCache<K, V> {
+    /**
+     * Runs the given action, which writes entries of this cache, and then writes the changes it made to the files at once, rather than after each write.
+     */
+    void writeBatch(Runnable writes);
+
+    /**
+     * Closes the files of this cache, writing any pending changes.
+     */
+    void close();
+}
@@ -21,30 +21,49 @@ import org.gradle.internal.serialize.Serializer;
 import javax.annotation.Nullable;
 
 public class PersistentIndexedCacheParameters<K, V> {
+    /**
+     * The format in which the entries of a cache are stored on disk.
+     */
+    public enum Storage {
+        /**
+         * Stores the entries in a B-tree, which is updated in place.
+         */
+        BTree,
+        /**
+         * Appends changes to a log, which is compacted from time to time, and keeps an index of the log in memory.
+         * Writes are cheaper than for a B-tree, at the cost of memory for the index.
+         */
+        LogStructured
+    }
+
     private static final BaseSerializerFactory SERIALIZER_FACTORY = new BaseSerializerFactory();
 
     private final String cacheName;
     private final Serializer<K> keySerializer;
     private final Serializer<V> valueSerializer;
     private final CacheDecorator cacheDecorator;
+    private final int concurrencyLevel;
+    private final Storage storage;
 
     public static <K, V> PersistentIndexedCacheParameters<K, V> of(String cacheName, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
-        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, null);
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, null, 1, Storage.BTree);
     }
 
     public static <K, V> PersistentIndexedCacheParameters<K, V> of(String cacheName, Class<K> keyType, Serializer<V> valueSerializer) {
-        return new PersistentIndexedCacheParameters<K, V>(cacheName, SERIALIZER_FACTORY.getSerializerFor(keyType), valueSerializer, null);
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, SERIALIZER_FACTORY.getSerializerFor(keyType), valueSerializer, null, 1, Storage.BTree);
     }
 
     public static <K, V> PersistentIndexedCacheParameters<K, V> of(String cacheName, Class<K> keyType, Class<V> valueType) {
-        return new PersistentIndexedCacheParameters<K, V>(cacheName, SERIALIZER_FACTORY.getSerializerFor(keyType), SERIALIZER_FACTORY.getSerializerFor(valueType), null);
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, SERIALIZER_FACTORY.getSerializerFor(keyType), SERIALIZER_FACTORY.getSerializerFor(valueType), null, 1, Storage.BTree);
     }
 
-    private PersistentIndexedCacheParameters(String cacheName, Serializer<K> keySerializer, Serializer<V> valueSerializer, @Nullable CacheDecorator cacheDecorator) {
+    private PersistentIndexedCacheParameters(String cacheName, Serializer<K> keySerializer, Serializer<V> valueSerializer, @Nullable CacheDecorator cacheDecorator, int concurrencyLevel, Storage storage) {
         this.cacheName = cacheName;
         this.keySerializer = keySerializer;
         this.valueSerializer = valueSerializer;
         this.cacheDecorator = cacheDecorator;
+        this.concurrencyLevel = concurrencyLevel;
+        this.storage = storage;
     }
 
     public String getCacheName() {
@@ -65,6 +84,32 @@ public class PersistentIndexedCacheParameters<K, V> {
     }
 
     public PersistentIndexedCacheParameters<K, V> withCacheDecorator(CacheDecorator cacheDecorator) {
-        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, cacheDecorator);
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, cacheDecorator, concurrencyLevel, storage);
+    }
+
+    public int getConcurrencyLevel() {
+        return concurrencyLevel;
+    }
+
+    /**
+     * Spreads the entries of the cache over the given number of independently locked segments, so that several threads can access the backing store at the same time.
+     * Defaults to 1, which stores all entries in a single file. Only applies to {@link Storage#BTree} storage.
+     */
+    public PersistentIndexedCacheParameters<K, V> withConcurrencyLevel(int concurrencyLevel) {
+        if (concurrencyLevel < 1) {
+            throw new IllegalArgumentException("The concurrency level must be at least 1, but was " + concurrencyLevel + ".");
+        }
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, cacheDecorator, concurrencyLevel, storage);
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Specifies the format in which the entries of the cache are stored. Defaults to {@link Storage#BTree}.
+     */
+    public PersistentIndexedCacheParameters<K, V> withStorage(Storage storage) {
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, cacheDecorator, concurrencyLevel, storage);
     }
 }
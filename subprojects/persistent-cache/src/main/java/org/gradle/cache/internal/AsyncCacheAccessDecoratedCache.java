@@ -24,6 +24,11 @@ import org.gradle.internal.Factory;
 
 import javax.annotation.Nullable;
 
+/**
+ * Applies the writes to a cache on the thread of the {@link AsyncCacheAccess}.
+ *
+ * Reads are applied on the same thread, so that they see the writes queued before them.
+ */
 public class AsyncCacheAccessDecoratedCache<K, V> implements MultiProcessSafeAsyncPersistentIndexedCache<K, V> {
     private final AsyncCacheAccess asyncCacheAccess;
     private final MultiProcessSafePersistentIndexedCache<K, V> persistentCache;
@@ -56,15 +61,12 @@ public class AsyncCacheAccessDecoratedCache<K, V> implements MultiProcessSafeAsy
 
     @Override
     public void putLater(final K key, final V value, final Runnable completion) {
+        long keyHash = hashKey(key);
         try {
-            asyncCacheAccess.enqueue(new Runnable() {
+            asyncCacheAccess.enqueue(new CacheWriteOperation(persistentCache, key, keyHash, completion) {
                 @Override
-                public void run() {
-                    try {
-                        persistentCache.put(key, value);
-                    } finally {
-                        completion.run();
-                    }
+                protected void write() {
+                    persistentCache.put(key, value);
                 }
             });
         } catch (RuntimeException e) {
@@ -75,15 +77,12 @@ public class AsyncCacheAccessDecoratedCache<K, V> implements MultiProcessSafeAsy
 
     @Override
     public void removeLater(final K key, final Runnable completion) {
+        long keyHash = hashKey(key);
         try {
-            asyncCacheAccess.enqueue(new Runnable() {
+            asyncCacheAccess.enqueue(new CacheWriteOperation(persistentCache, key, keyHash, completion) {
                 @Override
-                public void run() {
-                    try {
-                        persistentCache.remove(key);
-                    } finally {
-                        completion.run();
-                    }
+                protected void write() {
+                    persistentCache.remove(key);
                 }
             });
         } catch (RuntimeException e) {
@@ -92,6 +91,16 @@ public class AsyncCacheAccessDecoratedCache<K, V> implements MultiProcessSafeAsy
         }
     }
 
+    /**
+     * Hashes the key on the calling thread, so that the worker thread only has to sort the queued writes.
+     */
+    private long hashKey(K key) {
+        if (persistentCache instanceof DefaultMultiProcessSafePersistentIndexedCache) {
+            return ((DefaultMultiProcessSafePersistentIndexedCache<K, V>) persistentCache).hashKey(key);
+        }
+        return 0;
+    }
+
     @Override
     public void afterLockAcquire(FileLock.State currentCacheState) {
         persistentCache.afterLockAcquire(currentCacheState);
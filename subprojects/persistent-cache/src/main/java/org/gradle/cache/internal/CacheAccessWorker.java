@@ -22,11 +22,23 @@ import org.gradle.internal.Factory;
 import org.gradle.internal.UncheckedException;
 import org.gradle.internal.concurrent.ExecutorPolicy;
 import org.gradle.internal.concurrent.Stoppable;
+import org.gradle.internal.logging.progress.ProgressLogger;
+import org.gradle.internal.logging.progress.ProgressLoggerFactory;
+import org.gradle.internal.operations.CurrentBuildOperationRef;
 import org.gradle.internal.time.CountdownTimer;
 import org.gradle.internal.time.Time;
+import org.gradle.internal.time.Timer;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
@@ -34,22 +46,49 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Applies the operations queued for a cache on a single thread.
+ *
+ * <p>Queued operations are taken from the queue in batches, and each batch is applied while holding the cache lock. The lock is held
+ * for as long as more operations arrive within the batch window, so that many batches share a single lock acquisition and flush of the cache.
+ * Runs of {@link CacheWriteOperation}s within a batch are applied grouped by cache and in the order of their key hash, so that they walk the index of the cache in order,
+ * and writes which are superseded by a later write of the same entry are discarded. The writes to a {@link DefaultMultiProcessSafePersistentIndexedCache} are applied
+ * as a {@link DefaultMultiProcessSafePersistentIndexedCache#writeBatch(Runnable) batch}, which flushes the cache once. Any other operation is applied in queue order,
+ * after the writes queued before it.</p>
+ *
+ * <p>Each batch which writes to a cache is reported as a progress operation. The worker thread runs outside of any build operation,
+ * so the batch is reported as part of the build operation which queued its first write.</p>
+ */
 class CacheAccessWorker implements Runnable, Stoppable, AsyncCacheAccess {
+    private static final int MAX_BATCH_SIZE = 1000;
+    // The B-tree index orders its entries by key hash as a signed long
+    private static final Comparator<CacheWriteOperation> KEY_HASH_ORDER = new Comparator<CacheWriteOperation>() {
+        @Override
+        public int compare(CacheWriteOperation o1, CacheWriteOperation o2) {
+            return Long.compare(o1.getKeyHash(), o2.getKeyHash());
+        }
+    };
+
     private final BlockingQueue<Runnable> workQueue;
     private final String displayName;
     private final CacheAccess cacheAccess;
+    private final ProgressLoggerFactory progressLoggerFactory;
+    private final AtomicLong blockedTimeMillis = new AtomicLong();
     private final long batchWindowMillis;
     private final long maximumLockingTimeMillis;
     private boolean closed;
     private boolean workerCompleted;
     private boolean stopSeen;
+    private int discardedWrites;
     private final CountDownLatch doneSignal = new CountDownLatch(1);
     private final ExecutorPolicy.CatchAndRecordFailures failureHandler = new ExecutorPolicy.CatchAndRecordFailures();
 
-    CacheAccessWorker(String displayName, CacheAccess cacheAccess) {
+    CacheAccessWorker(String displayName, CacheAccess cacheAccess, ProgressLoggerFactory progressLoggerFactory) {
         this.displayName = displayName;
         this.cacheAccess = cacheAccess;
+        this.progressLoggerFactory = progressLoggerFactory;
         this.batchWindowMillis = 200;
         this.maximumLockingTimeMillis = 5000;
         HeapProportionalCacheSizer heapProportionalCacheSizer = new HeapProportionalCacheSizer();
@@ -66,10 +105,16 @@ class CacheAccessWorker implements Runnable, Stoppable, AsyncCacheAccess {
         if (closed) {
             throw new IllegalStateException("The worker has already been closed. Cannot add more work to queue.");
         }
+        if (workQueue.offer(task)) {
+            return;
+        }
+        Timer timer = Time.startTimer();
         try {
             workQueue.put(task);
         } catch (InterruptedException e) {
             throw UncheckedException.throwAsUncheckedException(e);
+        } finally {
+            blockedTimeMillis.addAndGet(timer.getElapsedMillis());
         }
     }
 
@@ -168,32 +213,29 @@ class CacheAccessWorker implements Runnable, Stoppable, AsyncCacheAccess {
         return workQueue.take();
     }
 
-    private void flushOperations(final Runnable updateOperation) {
+    private void flushOperations(final Runnable firstOperation) {
         final List<FlushOperationsCommand> flushOperations = new ArrayList<FlushOperationsCommand>();
         try {
             cacheAccess.useCache(new Runnable() {
                 @Override
                 public void run() {
                     CountdownTimer timer = Time.startCountdownTimer(maximumLockingTimeMillis, TimeUnit.MILLISECONDS);
-                    if (updateOperation != null) {
-                        failureHandler.onExecute(updateOperation);
-                    }
-                    Runnable otherOperation;
+                    List<Runnable> batch = new ArrayList<Runnable>();
+                    batch.add(firstOperation);
                     try {
-                        while ((otherOperation = workQueue.poll(batchWindowMillis, TimeUnit.MILLISECONDS)) != null) {
-                            failureHandler.onExecute(otherOperation);
-                            final Class<? extends Runnable> runnableClass = otherOperation.getClass();
-                            if (runnableClass == FlushOperationsCommand.class) {
-                                flushOperations.add((FlushOperationsCommand) otherOperation);
-                            }
-                            if (runnableClass == ShutdownOperationsCommand.class) {
-                                stopSeen = true;
+                        while (true) {
+                            int queueDepth = workQueue.size();
+                            workQueue.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+                            boolean stopBatching = applyReportedBatch(batch, queueDepth, flushOperations);
+                            batch.clear();
+                            if (stopBatching || timer.hasExpired()) {
+                                break;
                             }
-                            if (runnableClass == ShutdownOperationsCommand.class
-                                    || runnableClass == FlushOperationsCommand.class
-                                    || timer.hasExpired()) {
+                            Runnable nextOperation = workQueue.poll(batchWindowMillis, TimeUnit.MILLISECONDS);
+                            if (nextOperation == null) {
                                 break;
                             }
+                            batch.add(nextOperation);
                         }
                     } catch (InterruptedException e) {
                         throw UncheckedException.throwAsUncheckedException(e);
@@ -207,6 +249,140 @@ class CacheAccessWorker implements Runnable, Stoppable, AsyncCacheAccess {
         }
     }
 
+    private boolean applyReportedBatch(List<Runnable> batch, int queueDepth, List<FlushOperationsCommand> flushOperations) {
+        CacheWriteOperation firstWrite = findFirstWrite(batch);
+        if (firstWrite == null) {
+            return applyBatch(batch, flushOperations);
+        }
+        ProgressLogger progressLogger = newProgressLogger(firstWrite);
+        progressLogger.start("Write batch to " + displayName, queueDepth + " queued operations, blocked for " + blockedTimeMillis.getAndSet(0) + "ms");
+        discardedWrites = 0;
+        try {
+            return applyBatch(batch, flushOperations);
+        } finally {
+            progressLogger.completed(batch.size() + " operations applied, " + discardedWrites + " superseded writes discarded", false);
+        }
+    }
+
+    private ProgressLogger newProgressLogger(CacheWriteOperation write) {
+        CurrentBuildOperationRef currentBuildOperation = CurrentBuildOperationRef.instance();
+        currentBuildOperation.set(write.getBuildOperation());
+        try {
+            return progressLoggerFactory.newOperation(CacheAccessWorker.class);
+        } finally {
+            currentBuildOperation.clear();
+        }
+    }
+
+    @Nullable
+    private static CacheWriteOperation findFirstWrite(List<Runnable> batch) {
+        for (Runnable operation : batch) {
+            if (operation instanceof CacheWriteOperation) {
+                return (CacheWriteOperation) operation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Applies the given operations, returning true when the cache lock should be released once they are done.
+     */
+    private boolean applyBatch(List<Runnable> batch, List<FlushOperationsCommand> flushOperations) {
+        boolean stopBatching = false;
+        List<CacheWriteOperation> writes = new ArrayList<CacheWriteOperation>();
+        for (Runnable operation : batch) {
+            if (operation instanceof CacheWriteOperation) {
+                writes.add((CacheWriteOperation) operation);
+                continue;
+            }
+            applyWrites(writes);
+            writes.clear();
+            failureHandler.onExecute(operation);
+            Class<? extends Runnable> operationClass = operation.getClass();
+            if (operationClass == FlushOperationsCommand.class) {
+                flushOperations.add((FlushOperationsCommand) operation);
+                stopBatching = true;
+            } else if (operationClass == ShutdownOperationsCommand.class) {
+                stopSeen = true;
+                stopBatching = true;
+            }
+        }
+        applyWrites(writes);
+        return stopBatching;
+    }
+
+    private void applyWrites(List<CacheWriteOperation> writes) {
+        if (writes.isEmpty()) {
+            return;
+        }
+        Map<Object, List<CacheWriteOperation>> writesByCache = new LinkedHashMap<Object, List<CacheWriteOperation>>();
+        for (CacheWriteOperation write : writes) {
+            List<CacheWriteOperation> cacheWrites = writesByCache.get(write.getCache());
+            if (cacheWrites == null) {
+                cacheWrites = new ArrayList<CacheWriteOperation>();
+                writesByCache.put(write.getCache(), cacheWrites);
+            }
+            cacheWrites.add(write);
+        }
+        List<CacheWriteOperation> discarded = new ArrayList<CacheWriteOperation>();
+        for (List<CacheWriteOperation> cacheWrites : writesByCache.values()) {
+            List<CacheWriteOperation> latestWrites = discardSupersededWrites(cacheWrites, discarded);
+            Collections.sort(latestWrites, KEY_HASH_ORDER);
+            writeBatch(latestWrites);
+        }
+        discardedWrites += discarded.size();
+        discard(discarded.iterator());
+    }
+
+    private void writeBatch(List<CacheWriteOperation> writes) {
+        Object cache = writes.get(0).getCache();
+        final Iterator<CacheWriteOperation> pending = writes.iterator();
+        Runnable applyWrites = new Runnable() {
+            @Override
+            public void run() {
+                while (pending.hasNext()) {
+                    failureHandler.onExecute(pending.next());
+                }
+            }
+        };
+        if (!(cache instanceof DefaultMultiProcessSafePersistentIndexedCache)) {
+            applyWrites.run();
+            return;
+        }
+        try {
+            ((DefaultMultiProcessSafePersistentIndexedCache<?, ?>) cache).writeBatch(applyWrites);
+        } catch (Throwable t) {
+            failureHandler.onFailure("Failed to write batch to " + cache + ".", t);
+            // Complete the writes which were not applied
+            discard(pending);
+        }
+    }
+
+    private void discard(Iterator<CacheWriteOperation> writes) {
+        while (writes.hasNext()) {
+            CacheWriteOperation write = writes.next();
+            try {
+                write.discard();
+            } catch (Throwable t) {
+                failureHandler.onFailure("Failed to execute " + write + ".", t);
+            }
+        }
+    }
+
+    private static List<CacheWriteOperation> discardSupersededWrites(List<CacheWriteOperation> writes, List<CacheWriteOperation> discarded) {
+        Set<Object> writtenKeys = new HashSet<Object>();
+        List<CacheWriteOperation> latestWrites = new ArrayList<CacheWriteOperation>(writes.size());
+        for (int i = writes.size() - 1; i >= 0; i--) {
+            CacheWriteOperation write = writes.get(i);
+            if (writtenKeys.add(write.getKey())) {
+                latestWrites.add(write);
+            } else {
+                discarded.add(write);
+            }
+        }
+        return latestWrites;
+    }
+
     public synchronized void stop() {
         if (!closed && !workerCompleted) {
             closed = true;
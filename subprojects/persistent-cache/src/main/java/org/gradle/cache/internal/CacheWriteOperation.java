@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import org.gradle.internal.operations.BuildOperationRef;
+import org.gradle.internal.operations.CurrentBuildOperationRef;
+
+import javax.annotation.Nullable;
+
+/**
+ * A queued write of a single entry of an indexed cache.
+ *
+ * Unlike other queued operations, consecutive writes do not depend on each other, except for writes of the same entry.
+ * This allows the {@link CacheAccessWorker} to apply them in the order of their key hash, and to discard writes which are superseded by a later write of the same entry.
+ */
+abstract class CacheWriteOperation implements Runnable {
+    private final Object cache;
+    private final Object key;
+    private final long keyHash;
+    private final Runnable completion;
+    private final BuildOperationRef buildOperation;
+
+    CacheWriteOperation(Object cache, Object key, long keyHash, Runnable completion) {
+        this.cache = cache;
+        this.key = key;
+        this.keyHash = keyHash;
+        this.completion = completion;
+        this.buildOperation = CurrentBuildOperationRef.instance().get();
+    }
+
+    Object getCache() {
+        return cache;
+    }
+
+    Object getKey() {
+        return key;
+    }
+
+    /**
+     * The hash under which the cache indexes the entry, or 0 when the cache does not hash its keys.
+     */
+    long getKeyHash() {
+        return keyHash;
+    }
+
+    /**
+     * The build operation which queued this write, if any.
+     */
+    @Nullable
+    BuildOperationRef getBuildOperation() {
+        return buildOperation;
+    }
+
+    protected abstract void write();
+
+    @Override
+    public void run() {
+        try {
+            write();
+        } finally {
+            completion.run();
+        }
+    }
+
+    /**
+     * Completes this operation without writing, as it has been superseded by a later write of the same entry.
+     */
+    void discard() {
+        completion.run();
+    }
+}
@@ -23,6 +23,7 @@ import org.gradle.api.GradleException;
 import org.gradle.cache.AsyncCacheAccess;
 import org.gradle.cache.CacheDecorator;
 import org.gradle.cache.FileAccess;
+import org.gradle.cache.FileBackedPersistentIndexedCache;
 import org.gradle.cache.FileLock;
 import org.gradle.cache.FileLockManager;
 import org.gradle.cache.LockOptions;
@@ -30,7 +31,9 @@ import org.gradle.cache.LockTimeoutException;
 import org.gradle.cache.MultiProcessSafePersistentIndexedCache;
 import org.gradle.cache.PersistentIndexedCacheParameters;
 import org.gradle.cache.internal.btree.BTreePersistentIndexedCache;
+import org.gradle.cache.internal.btree.StripedBTreePersistentIndexedCache;
 import org.gradle.cache.internal.cacheops.CacheAccessOperationsStack;
+import org.gradle.cache.internal.logstructured.LogStructuredPersistentIndexedCache;
 import org.gradle.internal.Cast;
 import org.gradle.internal.Factories;
 import org.gradle.internal.Factory;
@@ -38,6 +41,7 @@ import org.gradle.internal.SystemProperties;
 import org.gradle.internal.UncheckedException;
 import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.concurrent.ManagedExecutor;
+import org.gradle.internal.logging.progress.ProgressLoggerFactory;
 import org.gradle.internal.serialize.Serializer;
 import org.gradle.util.CollectionUtils;
 import org.slf4j.Logger;
@@ -69,6 +73,7 @@ public class DefaultCacheAccess implements CacheCoordinator {
     private final File baseDir;
     private final CacheCleanupAction cleanupAction;
     private final ExecutorFactory executorFactory;
+    private final ProgressLoggerFactory progressLoggerFactory;
     private final FileAccess fileAccess = new UnitOfWorkFileAccess();
     private final Map<String, IndexedCacheEntry<?, ?>> caches = new HashMap<String, IndexedCacheEntry<?, ?>>();
     private final AbstractCrossProcessCacheAccess crossProcessCacheAccess;
@@ -86,11 +91,12 @@ public class DefaultCacheAccess implements CacheCoordinator {
     private Runnable fileLockHeldByOwner;
     private int cacheClosedCount;
 
-    public DefaultCacheAccess(String cacheDisplayName, File lockTarget, LockOptions lockOptions, File baseDir, FileLockManager lockManager, CacheInitializationAction initializationAction, CacheCleanupAction cleanupAction, ExecutorFactory executorFactory) {
+    public DefaultCacheAccess(String cacheDisplayName, File lockTarget, LockOptions lockOptions, File baseDir, FileLockManager lockManager, CacheInitializationAction initializationAction, CacheCleanupAction cleanupAction, ExecutorFactory executorFactory, ProgressLoggerFactory progressLoggerFactory) {
         this.cacheDisplayName = cacheDisplayName;
         this.baseDir = baseDir;
         this.cleanupAction = cleanupAction;
         this.executorFactory = executorFactory;
+        this.progressLoggerFactory = progressLoggerFactory;
         this.operations = new CacheAccessOperationsStack();
 
         Action<FileLock> onFileLockAcquireAction = new Action<FileLock>() {
@@ -123,7 +129,7 @@ public class DefaultCacheAccess implements CacheCoordinator {
 
     private synchronized AsyncCacheAccess getCacheAccessWorker() {
         if (cacheAccessWorker == null) {
-            cacheAccessWorker = new CacheAccessWorker(cacheDisplayName, this);
+            cacheAccessWorker = new CacheAccessWorker(cacheDisplayName, this, progressLoggerFactory);
             cacheUpdateExecutor = executorFactory.create("Cache worker for " + cacheDisplayName);
             cacheUpdateExecutor.execute(cacheAccessWorker);
         }
@@ -285,13 +291,19 @@ public class DefaultCacheAccess implements CacheCoordinator {
             if (entry == null) {
                 final File cacheFile = new File(baseDir, parameters.getCacheName() + ".bin");
                 LOG.debug("Creating new cache for {}, path {}, access {}", parameters.getCacheName(), cacheFile, this);
-                Factory<BTreePersistentIndexedCache<K, V>> indexedCacheFactory = new Factory<BTreePersistentIndexedCache<K, V>>() {
-                    public BTreePersistentIndexedCache<K, V> create() {
+                Factory<FileBackedPersistentIndexedCache<K, V>> indexedCacheFactory = new Factory<FileBackedPersistentIndexedCache<K, V>>() {
+                    public FileBackedPersistentIndexedCache<K, V> create() {
+                        if (parameters.getStorage() == PersistentIndexedCacheParameters.Storage.LogStructured) {
+                            return doCreateLogStructuredCache(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer());
+                        }
+                        if (parameters.getConcurrencyLevel() > 1) {
+                            return doCreateStripedCache(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer(), parameters.getConcurrencyLevel());
+                        }
                         return doCreateCache(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer());
                     }
                 };
 
-                MultiProcessSafePersistentIndexedCache<K, V> indexedCache = new DefaultMultiProcessSafePersistentIndexedCache<K, V>(indexedCacheFactory, fileAccess);
+                MultiProcessSafePersistentIndexedCache<K, V> indexedCache = new DefaultMultiProcessSafePersistentIndexedCache<K, V>(indexedCacheFactory, fileAccess, parameters.getKeySerializer());
                 CacheDecorator decorator = parameters.getCacheDecorator();
                 if (decorator != null) {
                     indexedCache = decorator.decorate(cacheFile.getAbsolutePath(), parameters.getCacheName(), indexedCache, crossProcessCacheAccess, getCacheAccessWorker());
@@ -317,6 +329,14 @@ public class DefaultCacheAccess implements CacheCoordinator {
         return new BTreePersistentIndexedCache<K, V>(cacheFile, keySerializer, valueSerializer);
     }
 
+    <K, V> StripedBTreePersistentIndexedCache<K, V> doCreateStripedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer, int segmentCount) {
+        return new StripedBTreePersistentIndexedCache<K, V>(cacheFile, keySerializer, valueSerializer, segmentCount);
+    }
+
+    <K, V> LogStructuredPersistentIndexedCache<K, V> doCreateLogStructuredCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        return new LogStructuredPersistentIndexedCache<K, V>(cacheFile, keySerializer, valueSerializer);
+    }
+
     /**
      * Called just after the file lock has been acquired.
      */
@@ -445,6 +465,8 @@ public class DefaultCacheAccess implements CacheCoordinator {
             checkCompatibleKeySerializer(faultMessages, parameters.getKeySerializer());
             checkCompatibleValueSerializer(faultMessages, parameters.getValueSerializer());
             checkCompatibleCacheDecorator(faultMessages, parameters.getCacheDecorator());
+            checkCompatibleConcurrencyLevel(faultMessages, parameters.getConcurrencyLevel());
+            checkCompatibleStorage(faultMessages, parameters.getStorage());
 
             if (!faultMessages.isEmpty()) {
                 String lineSeparator = SystemProperties.getInstance().getLineSeparator();
@@ -487,6 +509,22 @@ public class DefaultCacheAccess implements CacheCoordinator {
                         cacheDecorator, parameters.getCacheDecorator()));
             }
         }
+
+        private void checkCompatibleConcurrencyLevel(Collection<String> faultMessages, int concurrencyLevel) {
+            if (concurrencyLevel != parameters.getConcurrencyLevel()) {
+                faultMessages.add(
+                    String.format(" * Requested concurrency level (%d) doesn't match current concurrency level (%d)",
+                        concurrencyLevel, parameters.getConcurrencyLevel()));
+            }
+        }
+
+        private void checkCompatibleStorage(Collection<String> faultMessages, PersistentIndexedCacheParameters.Storage storage) {
+            if (storage != parameters.getStorage()) {
+                faultMessages.add(
+                    String.format(" * Requested storage (%s) doesn't match current storage (%s)",
+                        storage, parameters.getStorage()));
+            }
+        }
     }
 
     @VisibleForTesting
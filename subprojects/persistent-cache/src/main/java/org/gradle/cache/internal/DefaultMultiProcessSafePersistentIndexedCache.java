@@ -16,21 +16,81 @@
 package org.gradle.cache.internal;
 
 import org.gradle.api.Transformer;
+import org.gradle.api.UncheckedIOException;
 import org.gradle.cache.FileAccess;
+import org.gradle.cache.FileBackedPersistentIndexedCache;
 import org.gradle.cache.FileIntegrityViolationException;
 import org.gradle.cache.FileLock;
 import org.gradle.cache.MultiProcessSafePersistentIndexedCache;
-import org.gradle.cache.internal.btree.BTreePersistentIndexedCache;
+import org.gradle.cache.internal.btree.KeyHasher;
 import org.gradle.internal.Factory;
+import org.gradle.internal.serialize.Serializer;
 
+import javax.annotation.Nullable;
+
+/**
+ * Opens the backing cache on first use while holding the file lock, and closes it when the work with the cache is finished.
+ *
+ * The backing cache can be opened, written to and closed from any thread.
+ * Several writes can be {@link #writeBatch(Runnable) applied as a batch}, which marks the cache dirty once and flushes the backing cache once for all of them.
+ */
 public class DefaultMultiProcessSafePersistentIndexedCache<K, V> implements MultiProcessSafePersistentIndexedCache<K, V> {
     private final FileAccess fileAccess;
-    private final Factory<BTreePersistentIndexedCache<K, V>> factory;
-    private BTreePersistentIndexedCache<K, V> cache;
+    private final Factory<? extends FileBackedPersistentIndexedCache<K, V>> factory;
+    private final ThreadLocal<KeyHasher<K>> keyHasher;
+    // Marking the lock file dirty and clean around a write is not thread-safe, so writes hold this lock
+    private final Object writeLock = new Object();
+    private volatile FileBackedPersistentIndexedCache<K, V> cache;
+    // Guarded by writeLock
+    private boolean batching;
+
+    public DefaultMultiProcessSafePersistentIndexedCache(Factory<? extends FileBackedPersistentIndexedCache<K, V>> factory, FileAccess fileAccess) {
+        this(factory, fileAccess, null);
+    }
 
-    public DefaultMultiProcessSafePersistentIndexedCache(Factory<BTreePersistentIndexedCache<K, V>> factory, FileAccess fileAccess) {
+    public DefaultMultiProcessSafePersistentIndexedCache(Factory<? extends FileBackedPersistentIndexedCache<K, V>> factory, FileAccess fileAccess, @Nullable final Serializer<K> keySerializer) {
         this.factory = factory;
         this.fileAccess = fileAccess;
+        this.keyHasher = keySerializer == null ? null : new ThreadLocal<KeyHasher<K>>() {
+            @Override
+            protected KeyHasher<K> initialValue() {
+                return new KeyHasher<K>(keySerializer);
+            }
+        };
+    }
+
+    /**
+     * Returns the hash under which the backing cache indexes the given key, or 0 when the serializer of the keys is not known.
+     * Writes applied in the order of this hash touch the index of the backing cache in order.
+     */
+    public long hashKey(K key) {
+        if (keyHasher == null) {
+            return 0;
+        }
+        try {
+            return keyHasher.get().getHashCode(key);
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not hash entry '%s' of %s.", key, this), e);
+        }
+    }
+
+    /**
+     * Runs the given writes to this cache as a single batch, marking the cache dirty once and flushing the backing cache once they are done.
+     */
+    public void writeBatch(final Runnable writes) {
+        final FileBackedPersistentIndexedCache<K, V> cache = getCache();
+        synchronized (writeLock) {
+            fileAccess.writeFile(new Runnable() {
+                public void run() {
+                    batching = true;
+                    try {
+                        cache.writeBatch(writes);
+                    } finally {
+                        batching = false;
+                    }
+                }
+            });
+        }
     }
 
     @Override
@@ -40,7 +100,7 @@ public class DefaultMultiProcessSafePersistentIndexedCache<K, V> implements Mult
 
     @Override
     public V get(final K key) {
-        final BTreePersistentIndexedCache<K, V> cache = getCache();
+        final FileBackedPersistentIndexedCache<K, V> cache = getCache();
         try {
             return fileAccess.readFile(new Factory<V>() {
                 public V create() {
@@ -64,10 +124,10 @@ public class DefaultMultiProcessSafePersistentIndexedCache<K, V> implements Mult
 
     @Override
     public void put(final K key, final V value) {
-        final BTreePersistentIndexedCache<K, V> cache = getCache();
+        final FileBackedPersistentIndexedCache<K, V> cache = getCache();
         // Use writeFile because the cache can internally recover from datafile
         // corruption, so we don't care at this level if it's corrupt
-        fileAccess.writeFile(new Runnable() {
+        writeFile(new Runnable() {
             public void run() {
                 cache.put(key, value);
             }
@@ -76,10 +136,10 @@ public class DefaultMultiProcessSafePersistentIndexedCache<K, V> implements Mult
 
     @Override
     public void remove(final K key) {
-        final BTreePersistentIndexedCache<K, V> cache = getCache();
+        final FileBackedPersistentIndexedCache<K, V> cache = getCache();
         // Use writeFile because the cache can internally recover from datafile
         // corruption, so we don't care at this level if it's corrupt
-        fileAccess.writeFile(new Runnable() {
+        writeFile(new Runnable() {
             public void run() {
                 cache.remove(key);
             }
@@ -92,33 +152,53 @@ public class DefaultMultiProcessSafePersistentIndexedCache<K, V> implements Mult
 
     @Override
     public void finishWork() {
+        synchronized (writeLock) {
+            final FileBackedPersistentIndexedCache<K, V> cache = this.cache;
+            if (cache != null) {
+                try {
+                    fileAccess.writeFile(new Runnable() {
+                        public void run() {
+                            cache.close();
+                        }
+                    });
+                } finally {
+                    this.cache = null;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void beforeLockRelease(FileLock.State currentCacheState) {
+    }
+
+    private FileBackedPersistentIndexedCache<K, V> getCache() {
+        FileBackedPersistentIndexedCache<K, V> cache = this.cache;
         if (cache != null) {
-            try {
+            return cache;
+        }
+        synchronized (writeLock) {
+            if (this.cache == null) {
+                // Use writeFile because the cache can internally recover from datafile
+                // corruption, so we don't care at this level if it's corrupt
                 fileAccess.writeFile(new Runnable() {
                     public void run() {
-                        cache.close();
+                        DefaultMultiProcessSafePersistentIndexedCache.this.cache = factory.create();
                     }
                 });
-            } finally {
-                cache = null;
             }
+            return this.cache;
         }
     }
 
-    @Override
-    public void beforeLockRelease(FileLock.State currentCacheState) {
-    }
-
-    private BTreePersistentIndexedCache<K, V> getCache() {
-        if (cache == null) {
-            // Use writeFile because the cache can internally recover from datafile
-            // corruption, so we don't care at this level if it's corrupt
-            fileAccess.writeFile(new Runnable() {
-                public void run() {
-                    cache = factory.create();
-                }
-            });
+    private void writeFile(Runnable action) {
+        synchronized (writeLock) {
+            if (batching) {
+                // Already inside writeFile, on this thread
+                action.run();
+            } else {
+                fileAccess.writeFile(action);
+            }
         }
-        return cache;
     }
 }
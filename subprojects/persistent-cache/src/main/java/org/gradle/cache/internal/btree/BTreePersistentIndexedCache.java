@@ -16,9 +16,12 @@
 package org.gradle.cache.internal.btree;
 
 import com.google.common.collect.ImmutableSet;
+import org.gradle.api.Transformer;
 import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.FileBackedPersistentIndexedCache;
 import org.gradle.internal.UncheckedException;
 import org.gradle.internal.io.StreamByteBuffer;
+import org.gradle.internal.os.OperatingSystem;
 import org.gradle.internal.serialize.Serializer;
 import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
 import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
@@ -47,7 +50,11 @@ import java.util.List;
 // todo - merge adjacent free blocks
 // todo - use more efficient lookup for free block with nearest size
 @SuppressWarnings("unchecked")
-public class BTreePersistentIndexedCache<K, V> {
+public class BTreePersistentIndexedCache<K, V> implements FileBackedPersistentIndexedCache<K, V> {
+    /**
+     * When set to {@code true}, blocks are read and written through memory-mapped regions of the cache file. Ignored on Windows, where a mapped file cannot be truncated.
+     */
+    public static final String MEMORY_MAPPED_PROPERTY = "org.gradle.cache.internal.btree.mapped";
     private static final Logger LOGGER = LoggerFactory.getLogger(BTreePersistentIndexedCache.class);
     private final File cacheFile;
     private final KeyHasher<K> keyHasher;
@@ -56,6 +63,7 @@ public class BTreePersistentIndexedCache<K, V> {
     private final int minIndexChildNodes;
     private final StateCheckBlockStore store;
     private HeaderBlock header;
+    private boolean batching;
 
     public BTreePersistentIndexedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
         this(cacheFile, keySerializer, valueSerializer, (short) 512, 512);
@@ -63,12 +71,17 @@ public class BTreePersistentIndexedCache<K, V> {
 
     public BTreePersistentIndexedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer,
                                        short maxChildIndexEntries, int maxFreeListEntries) {
+        this(cacheFile, keySerializer, valueSerializer, maxChildIndexEntries, maxFreeListEntries, isMemoryMappingEnabled());
+    }
+
+    BTreePersistentIndexedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer,
+                                short maxChildIndexEntries, int maxFreeListEntries, boolean memoryMapped) {
         this.cacheFile = cacheFile;
         this.keyHasher = new KeyHasher<K>(keySerializer);
         this.serializer = valueSerializer;
         this.maxChildIndexEntries = maxChildIndexEntries;
         this.minIndexChildNodes = maxChildIndexEntries / 2;
-        BlockStore cachingStore = new CachingBlockStore(new FileBackedBlockStore(cacheFile), ImmutableSet.of(IndexBlock.class, FreeListBlockStore.FreeListBlock.class));
+        BlockStore cachingStore = new CachingBlockStore(new FileBackedBlockStore(cacheFile, memoryMapped), ImmutableSet.of(IndexBlock.class, FreeListBlockStore.FreeListBlock.class));
         this.store = new StateCheckBlockStore(new FreeListBlockStore(cachingStore, maxFreeListEntries));
         try {
             open();
@@ -77,6 +90,10 @@ public class BTreePersistentIndexedCache<K, V> {
         }
     }
 
+    private static boolean isMemoryMappingEnabled() {
+        return Boolean.getBoolean(MEMORY_MAPPED_PROPERTY) && !OperatingSystem.current().isWindows();
+    }
+
     @Override
     public String toString() {
         return "cache " + cacheFile.getName() + " (" + cacheFile + ")";
@@ -136,6 +153,16 @@ public class BTreePersistentIndexedCache<K, V> {
         }
     }
 
+    @Override
+    public V get(K key, Transformer<? extends V, ? super K> producer) {
+        V value = get(key);
+        if (value == null) {
+            value = producer.transform(key);
+            put(key, value);
+        }
+        return value;
+    }
+
     public void put(K key, V value) {
         try {
             long hashCode = keyHasher.getHashCode(key);
@@ -155,7 +182,7 @@ public class BTreePersistentIndexedCache<K, V> {
                 store.write(newBlock);
                 lookup.indexBlock.put(hashCode, newBlock.getPos());
             }
-            store.flush();
+            flushUnlessBatching();
         } catch (Exception e) {
             throw new UncheckedIOException(String.format("Could not add entry '%s' to %s.", key, this), e);
         }
@@ -170,12 +197,40 @@ public class BTreePersistentIndexedCache<K, V> {
             lookup.indexBlock.remove(lookup.entry);
             DataBlock block = store.read(lookup.entry.dataBlock, DataBlock.class);
             store.remove(block);
-            store.flush();
+            flushUnlessBatching();
         } catch (Exception e) {
             throw new UncheckedIOException(String.format("Could not remove entry '%s' from %s.", key, this), e);
         }
     }
 
+    @Override
+    public void writeBatch(Runnable writes) {
+        startBatch();
+        try {
+            writes.run();
+        } finally {
+            finishBatch();
+        }
+    }
+
+    /**
+     * Holds back the changed blocks in the block store until {@link #finishBatch()}. Reads still see the changes.
+     */
+    void startBatch() {
+        batching = true;
+    }
+
+    void finishBatch() {
+        batching = false;
+        store.flush();
+    }
+
+    private void flushUnlessBatching() {
+        if (!batching) {
+            store.flush();
+        }
+    }
+
     private IndexBlock load(BlockPointer pos, IndexRoot root, IndexBlock parent, int index) {
         IndexBlock block = store.read(pos, IndexBlock.class);
         block.root = root;
@@ -28,7 +28,7 @@ import java.io.RandomAccessFile;
 /**
  * Allows a stream of bytes to be read from a particular location of some backing byte stream.
  */
-class ByteInput {
+class ByteInput implements PositionedInput {
     private final RandomAccessFile file;
     private final ResettableBufferedInputStream bufferedInputStream;
     private CountingInputStream countingInputStream;
@@ -41,6 +41,7 @@ class ByteInput {
     /**
      * Starts reading from the given offset.
      */
+    @Override
     public DataInputStream start(long offset) throws IOException {
         file.seek(offset);
         bufferedInputStream.clear();
@@ -51,6 +52,7 @@ class ByteInput {
     /**
      * Returns the number of bytes read since {@link #start(long)} was called.
      */
+    @Override
     public long getBytesRead() {
         return countingInputStream.getCount();
     }
@@ -58,6 +60,7 @@ class ByteInput {
     /**
      * Finishes reading, resetting any buffered state.
      */
+    @Override
     public void done() {
         countingInputStream = null;
     }
@@ -28,7 +28,7 @@ import java.io.RandomAccessFile;
 /**
  * Allows a stream of bytes to be written to a particular location of some backing byte stream.
  */
-class ByteOutput {
+class ByteOutput implements PositionedOutput {
     private final RandomAccessFile file;
     private final ResettableBufferedOutputStream bufferedOutputStream;
     private CountingOutputStream countingOutputStream;
@@ -41,6 +41,7 @@ class ByteOutput {
     /**
      * Starts writing to the given offset. Can be beyond the current length of the file.
      */
+    @Override
     public DataOutputStream start(long offset) throws IOException {
         file.seek(offset);
         bufferedOutputStream.clear();
@@ -51,6 +52,7 @@ class ByteOutput {
     /**
      * Returns the number of byte written since {@link #start(long)} was called.
      */
+    @Override
     public long getBytesWritten() {
         return countingOutputStream.getCount();
     }
@@ -58,6 +60,7 @@ class ByteOutput {
     /**
      * Finishes writing, flushing and resetting any buffered state
      */
+    @Override
     public void done() throws IOException {
         countingOutputStream.flush();
         countingOutputStream = null;
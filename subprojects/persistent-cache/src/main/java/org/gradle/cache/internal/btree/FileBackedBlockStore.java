@@ -25,15 +25,25 @@ import java.io.RandomAccessFile;
 
 public class FileBackedBlockStore implements BlockStore {
     private final File cacheFile;
+    private final boolean memoryMapped;
     private RandomAccessFile file;
-    private ByteOutput output;
-    private ByteInput input;
+    private MappedFile mappedFile;
+    private PositionedOutput output;
+    private PositionedInput input;
     private long nextBlock;
     private Factory factory;
     private long currentFileSize;
 
     public FileBackedBlockStore(File cacheFile) {
+        this(cacheFile, false);
+    }
+
+    /**
+     * @param memoryMapped when true, blocks are read and written in place through memory-mapped regions of the cache file, rather than through {@link RandomAccessFile}.
+     */
+    public FileBackedBlockStore(File cacheFile, boolean memoryMapped) {
         this.cacheFile = cacheFile;
+        this.memoryMapped = memoryMapped;
     }
 
     @Override
@@ -46,9 +56,16 @@ public class FileBackedBlockStore implements BlockStore {
         try {
             cacheFile.getParentFile().mkdirs();
             file = new RandomAccessFile(cacheFile, "rw");
-            output = new ByteOutput(file);
-            input = new ByteInput(file);
             currentFileSize = file.length();
+            if (memoryMapped) {
+                mappedFile = new MappedFile(file.getChannel());
+                mappedFile.lengthChanged(currentFileSize);
+                output = new MappedByteOutput(mappedFile);
+                input = new MappedByteInput(mappedFile);
+            } else {
+                output = new ByteOutput(file);
+                input = new ByteInput(file);
+            }
             nextBlock = currentFileSize;
             if (currentFileSize == 0) {
                 runnable.run();
@@ -60,6 +77,10 @@ public class FileBackedBlockStore implements BlockStore {
 
     public void close() {
         try {
+            if (mappedFile != null) {
+                mappedFile.release();
+                mappedFile = null;
+            }
             file.close();
         } catch (IOException e) {
             throw new UncheckedIOException(e);
@@ -68,6 +89,9 @@ public class FileBackedBlockStore implements BlockStore {
 
     public void clear() {
         try {
+            if (mappedFile != null) {
+                mappedFile.release();
+            }
             file.setLength(0);
             currentFileSize = 0;
         } catch (IOException e) {
@@ -203,6 +227,9 @@ public class FileBackedBlockStore implements BlockStore {
             if (currentFileSize < finalSize) {
                 file.setLength(finalSize);
                 currentFileSize = finalSize;
+                if (mappedFile != null) {
+                    mappedFile.lengthChanged(finalSize);
+                }
             }
         }
 
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.cache.internal.btree;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Allows a stream of bytes to be read from a particular location of a {@link MappedFile}.
+ */
+class MappedByteInput implements PositionedInput {
+    private final MappedFile file;
+    private final PositionedInputStream inputStream = new PositionedInputStream();
+    private long start;
+
+    MappedByteInput(MappedFile file) {
+        this.file = file;
+    }
+
+    @Override
+    public DataInputStream start(long offset) {
+        start = offset;
+        inputStream.position = offset;
+        return new DataInputStream(inputStream);
+    }
+
+    @Override
+    public long getBytesRead() {
+        return inputStream.position - start;
+    }
+
+    @Override
+    public void done() {
+    }
+
+    private class PositionedInputStream extends InputStream {
+        private long position;
+
+        @Override
+        public int read() throws IOException {
+            int value = file.read(position);
+            if (value >= 0) {
+                position++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = file.read(position, bytes, offset, length);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+    }
+}
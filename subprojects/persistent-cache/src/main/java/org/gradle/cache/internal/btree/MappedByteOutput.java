@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.cache.internal.btree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Allows a stream of bytes to be written to a particular location of a {@link MappedFile}.
+ * Bytes which fall into a mapped region are written in place. Bytes beyond the mapped regions are collected and written when writing is finished.
+ */
+class MappedByteOutput implements PositionedOutput {
+    private final MappedFile file;
+    private final PositionedOutputStream outputStream = new PositionedOutputStream();
+    private final ByteArrayOutputStream tail = new ByteArrayOutputStream();
+    private long start;
+    private long tailStart;
+
+    MappedByteOutput(MappedFile file) {
+        this.file = file;
+    }
+
+    @Override
+    public DataOutputStream start(long offset) {
+        start = offset;
+        tailStart = -1;
+        tail.reset();
+        outputStream.position = offset;
+        return new DataOutputStream(outputStream);
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return outputStream.position - start;
+    }
+
+    @Override
+    public void done() throws IOException {
+        if (tailStart >= 0) {
+            file.writeTail(tailStart, ByteBuffer.wrap(tail.toByteArray()));
+            tail.reset();
+            tailStart = -1;
+        }
+    }
+
+    private class PositionedOutputStream extends OutputStream {
+        private long position;
+
+        @Override
+        public void write(int value) {
+            if (tailStart < 0 && file.isMapped(position)) {
+                file.writeMapped(position, value);
+            } else {
+                appendToTail(position);
+                tail.write(value);
+            }
+            position++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            int written = tailStart < 0 ? file.writeMapped(position, bytes, offset, length) : 0;
+            if (written < length) {
+                appendToTail(position + written);
+                tail.write(bytes, offset + written, length - written);
+            }
+            position += length;
+        }
+
+        private void appendToTail(long position) {
+            if (tailStart < 0) {
+                tailStart = position;
+            }
+        }
+    }
+}
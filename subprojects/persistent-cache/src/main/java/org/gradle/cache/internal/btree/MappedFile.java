@@ -0,0 +1,190 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.cache.internal.btree;
+
+import org.gradle.internal.io.BufferCaster;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Provides access to the content of a file through memory-mapped regions, so that bytes can be read and written in place without system calls.
+ *
+ * <p>The file is mapped in regions of a fixed size. The end of the file which has been added since the file was last mapped is accessed through the file channel instead,
+ * and is mapped once it has grown large enough. This keeps the number of mappings low while a file grows one block at a time.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ */
+class MappedFile {
+    private static final int DEFAULT_REGION_SIZE = 64 * 1024 * 1024;
+    private static final int DEFAULT_REMAP_THRESHOLD = 1024 * 1024;
+    private static final int TAIL_BUFFER_SIZE = 8 * 1024;
+
+    private final FileChannel channel;
+    private final int regionSize;
+    private final int remapThreshold;
+    private final List<MappedByteBuffer> regions = new ArrayList<MappedByteBuffer>();
+    private final ByteBuffer tailBuffer = ByteBuffer.allocate(TAIL_BUFFER_SIZE);
+    private long tailBufferStart;
+    private long mappedLength;
+
+    MappedFile(FileChannel channel) {
+        this(channel, DEFAULT_REGION_SIZE, DEFAULT_REMAP_THRESHOLD);
+    }
+
+    MappedFile(FileChannel channel, int regionSize, int remapThreshold) {
+        this.channel = channel;
+        this.regionSize = regionSize;
+        this.remapThreshold = remapThreshold;
+        BufferCaster.cast(tailBuffer).limit(0);
+    }
+
+    /**
+     * Notifies this file that the length of the underlying file has changed.
+     */
+    void lengthChanged(long length) throws IOException {
+        invalidateTailBuffer();
+        if (length < mappedLength) {
+            release();
+        }
+        if (length - mappedLength >= remapThreshold) {
+            map(length);
+        }
+    }
+
+    /**
+     * Discards all mapped regions. The regions are unmapped once they have been garbage collected.
+     */
+    void release() {
+        regions.clear();
+        mappedLength = 0;
+        invalidateTailBuffer();
+    }
+
+    int read(long position) throws IOException {
+        if (position < mappedLength) {
+            return regions.get(regionIndex(position)).get(regionOffset(position)) & 0xff;
+        }
+        if (!fillTailBuffer(position)) {
+            return -1;
+        }
+        return tailBuffer.get((int) (position - tailBufferStart)) & 0xff;
+    }
+
+    int read(long position, byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (position < mappedLength) {
+            MappedByteBuffer region = regions.get(regionIndex(position));
+            int regionOffset = regionOffset(position);
+            int count = (int) Math.min(length, Math.min(region.capacity() - regionOffset, mappedLength - position));
+            BufferCaster.cast(region).position(regionOffset);
+            region.get(bytes, offset, count);
+            return count;
+        }
+        if (!fillTailBuffer(position)) {
+            return -1;
+        }
+        int bufferOffset = (int) (position - tailBufferStart);
+        int count = Math.min(length, tailBuffer.limit() - bufferOffset);
+        for (int i = 0; i < count; i++) {
+            bytes[offset + i] = tailBuffer.get(bufferOffset + i);
+        }
+        return count;
+    }
+
+    /**
+     * Writes the given bytes, returning the number of bytes written to mapped regions. The remaining bytes must be written through {@link #writeTail(long, ByteBuffer)}.
+     */
+    int writeMapped(long position, byte[] bytes, int offset, int length) {
+        int written = 0;
+        while (written < length && position + written < mappedLength) {
+            long current = position + written;
+            MappedByteBuffer region = regions.get(regionIndex(current));
+            int regionOffset = regionOffset(current);
+            int count = (int) Math.min(length - written, Math.min(region.capacity() - regionOffset, mappedLength - current));
+            BufferCaster.cast(region).position(regionOffset);
+            region.put(bytes, offset + written, count);
+            written += count;
+        }
+        return written;
+    }
+
+    boolean isMapped(long position) {
+        return position < mappedLength;
+    }
+
+    void writeMapped(long position, int value) {
+        regions.get(regionIndex(position)).put(regionOffset(position), (byte) value);
+    }
+
+    void writeTail(long position, ByteBuffer bytes) throws IOException {
+        invalidateTailBuffer();
+        long current = position;
+        while (bytes.hasRemaining()) {
+            current += channel.write(bytes, current);
+        }
+    }
+
+    private void map(long length) throws IOException {
+        // Replace the last region when it was only partially mapped
+        while (mappedLength < length) {
+            int index = regionIndex(mappedLength);
+            long regionStart = (long) index * regionSize;
+            long regionLength = Math.min(regionSize, length - regionStart);
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, regionLength);
+            if (index < regions.size()) {
+                regions.set(index, region);
+            } else {
+                regions.add(region);
+            }
+            mappedLength = regionStart + regionLength;
+        }
+    }
+
+    private boolean fillTailBuffer(long position) throws IOException {
+        if (position >= tailBufferStart && position < tailBufferStart + tailBuffer.limit()) {
+            return true;
+        }
+        BufferCaster.cast(tailBuffer).clear();
+        tailBufferStart = position;
+        while (tailBuffer.hasRemaining()) {
+            int read = channel.read(tailBuffer, position + tailBuffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        BufferCaster.cast(tailBuffer).flip();
+        return tailBuffer.hasRemaining();
+    }
+
+    private void invalidateTailBuffer() {
+        BufferCaster.cast(tailBuffer).limit(0);
+    }
+
+    private int regionIndex(long position) {
+        return (int) (position / regionSize);
+    }
+
+    private int regionOffset(long position) {
+        return (int) (position % regionSize);
+    }
+}
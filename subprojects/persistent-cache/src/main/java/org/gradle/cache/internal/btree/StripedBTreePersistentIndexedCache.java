@@ -0,0 +1,159 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.cache.internal.btree;
+
+import com.google.common.io.Files;
+import org.gradle.api.Transformer;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.FileBackedPersistentIndexedCache;
+import org.gradle.internal.concurrent.CompositeStoppable;
+import org.gradle.internal.concurrent.Stoppable;
+import org.gradle.internal.serialize.Serializer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link FileBackedPersistentIndexedCache} which spreads its entries over a fixed number of segments, each of them a {@link BTreePersistentIndexedCache} in its own file.
+ *
+ * Each segment is guarded by its own lock, so threads which read or write entries in different segments do not block each other.
+ * The segment of an entry is chosen from the hash of the serialized key, so an entry is found in the same segment by every process using the cache.
+ */
+public class StripedBTreePersistentIndexedCache<K, V> implements FileBackedPersistentIndexedCache<K, V> {
+    private final File cacheFile;
+    private final List<Segment<K, V>> segments;
+    private final ThreadLocal<KeyHasher<K>> keyHasher;
+
+    public StripedBTreePersistentIndexedCache(File cacheFile, final Serializer<K> keySerializer, Serializer<V> valueSerializer, int segmentCount) {
+        if (segmentCount < 1) {
+            throw new IllegalArgumentException("The number of segments must be at least 1, but was " + segmentCount + ".");
+        }
+        this.cacheFile = cacheFile;
+        this.keyHasher = new ThreadLocal<KeyHasher<K>>() {
+            @Override
+            protected KeyHasher<K> initialValue() {
+                return new KeyHasher<K>(keySerializer);
+            }
+        };
+        this.segments = new ArrayList<Segment<K, V>>(segmentCount);
+        try {
+            for (int i = 0; i < segmentCount; i++) {
+                segments.add(new Segment<K, V>(new BTreePersistentIndexedCache<K, V>(segmentFile(cacheFile, i), keySerializer, valueSerializer)));
+            }
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the file which holds the given segment of the cache with the given file.
+     */
+    public static File segmentFile(File cacheFile, int segment) {
+        String extension = Files.getFileExtension(cacheFile.getName());
+        String name = Files.getNameWithoutExtension(cacheFile.getName()) + "-" + segment;
+        return new File(cacheFile.getParentFile(), extension.isEmpty() ? name : name + "." + extension);
+    }
+
+    @Override
+    public String toString() {
+        return "cache " + cacheFile.getName() + " (" + cacheFile + ", " + segments.size() + " segments)";
+    }
+
+    @Override
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.cache.get(key);
+        }
+    }
+
+    @Override
+    public V get(K key, Transformer<? extends V, ? super K> producer) {
+        V value = get(key);
+        if (value == null) {
+            value = producer.transform(key);
+            put(key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.cache.put(key, value);
+        }
+    }
+
+    @Override
+    public void remove(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.cache.remove(key);
+        }
+    }
+
+    /**
+     * Batches the writes of each segment separately, so that threads reading entries are only blocked by the write of an entry of the same segment.
+     */
+    @Override
+    public void writeBatch(Runnable writes) {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.cache.startBatch();
+            }
+        }
+        try {
+            writes.run();
+        } finally {
+            for (Segment<K, V> segment : segments) {
+                synchronized (segment) {
+                    segment.cache.finishBatch();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        CompositeStoppable.stoppable(segments).stop();
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        long hashCode;
+        try {
+            hashCode = keyHasher.get().getHashCode(key);
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not hash entry '%s' of %s.", key, this), e);
+        }
+        return segments.get((int) ((hashCode & Long.MAX_VALUE) % segments.size()));
+    }
+
+    private static class Segment<K, V> implements Stoppable {
+        private final BTreePersistentIndexedCache<K, V> cache;
+
+        Segment(BTreePersistentIndexedCache<K, V> cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public synchronized void stop() {
+            cache.close();
+        }
+    }
+}
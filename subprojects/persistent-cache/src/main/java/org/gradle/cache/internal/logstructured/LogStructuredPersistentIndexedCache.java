@@ -0,0 +1,597 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.cache.internal.logstructured;
+
+import com.google.common.hash.Hashing;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import org.apache.commons.io.FilenameUtils;
+import org.gradle.api.Transformer;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.FileBackedPersistentIndexedCache;
+import org.gradle.internal.serialize.Serializer;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link FileBackedPersistentIndexedCache} which appends every change to a log file, and keeps an index from the hash of each key to the position of its latest record in memory.
+ *
+ * <p>Each record holds the serialized key, followed by either the serialized value or a marker that the entry has been removed, and a checksum of its contents.
+ * Changes are only ever appended to the end of the log, and a lookup reads a single record. When the hashes of two keys collide, the later entry replaces the earlier one.
+ * A record whose checksum does not match is treated as a miss when it is read. When the log is replayed, it is truncated at the first such record, keeping the records before it.</p>
+ *
+ * <p>When the cache is closed after changes, the index is written to a checkpoint file, so that opening the cache only reads the checkpoint and does not depend on the length
+ * of the log. Only records appended by a process which did not close the cache have to be replayed. If most of the log is taken up by replaced or removed entries,
+ * closing the cache also compacts the log by copying the live records to a new log file.</p>
+ *
+ * <p>The cache replaces a {@link org.gradle.cache.internal.btree.BTreePersistentIndexedCache} with the same cache file, which is deleted when the cache is opened.</p>
+ */
+public class LogStructuredPersistentIndexedCache<K, V> implements FileBackedPersistentIndexedCache<K, V> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogStructuredPersistentIndexedCache.class);
+    private static final int LOG_MAGIC = 0x474c4f47;
+    private static final int CHECKPOINT_MAGIC = 0x4743484b;
+    private static final int FORMAT_VERSION = 2;
+    // Magic, format version and generation
+    private static final int LOG_HEADER_SIZE = 16;
+    // Key length, value length and checksum
+    private static final int RECORD_HEADER_SIZE = 12;
+    private static final int REMOVED = -1;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final long MIN_COMPACTION_LENGTH = 1024 * 1024;
+    // Each index entry holds the position of a record in the upper bits and its size, capped to fit, in the lower bits
+    private static final int SIZE_BITS = 24;
+    private static final long MAX_SIZE = (1L << SIZE_BITS) - 1;
+    private static final long NO_ENTRY = -1;
+
+    private final File cacheFile;
+    private final File logFile;
+    private final File checkpointFile;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+    private final KryoBackedEncoder encoder = new KryoBackedEncoder(serialized);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+    private final CRC32 checksum = new CRC32();
+    private Long2LongOpenHashMap index;
+    private FileChannel log;
+    private long generation;
+    private long flushedLength;
+    private long checkpointLength;
+    private long garbageBytes;
+
+    public LogStructuredPersistentIndexedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        this.cacheFile = cacheFile;
+        String baseName = FilenameUtils.getBaseName(cacheFile.getName());
+        this.logFile = new File(cacheFile.getParentFile(), baseName + ".log");
+        this.checkpointFile = new File(cacheFile.getParentFile(), baseName + ".checkpoint");
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        try {
+            open();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not open %s.", this), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "cache " + logFile.getName() + " (" + logFile + ")";
+    }
+
+    @Override
+    public synchronized V get(K key) {
+        try {
+            byte[] keyBytes = serialize(keySerializer, key);
+            long entry = index.get(hash(keyBytes));
+            if (entry == NO_ENTRY) {
+                return null;
+            }
+            Record record = readRecord(position(entry));
+            if (record == null) {
+                discardCorruptEntry(hash(keyBytes), entry);
+                return null;
+            }
+            if (!Arrays.equals(record.key, keyBytes)) {
+                return null;
+            }
+            return valueSerializer.read(new KryoBackedDecoder(new ByteArrayInputStream(record.value)));
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not read entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public V get(K key, Transformer<? extends V, ? super K> producer) {
+        V value = get(key);
+        if (value == null) {
+            value = producer.transform(key);
+            put(key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public synchronized void put(K key, V value) {
+        try {
+            byte[] keyBytes = serialize(keySerializer, key);
+            byte[] valueBytes = serialize(valueSerializer, value);
+            long position = append(keyBytes, valueBytes);
+            long previous = index.put(hash(keyBytes), entry(position, recordLength(keyBytes, valueBytes)));
+            if (previous != NO_ENTRY) {
+                garbageBytes += size(previous);
+            }
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not add entry '%s' to %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public synchronized void remove(K key) {
+        try {
+            byte[] keyBytes = serialize(keySerializer, key);
+            long hash = hash(keyBytes);
+            long entry = index.get(hash);
+            if (entry == NO_ENTRY) {
+                return;
+            }
+            Record record = readRecord(position(entry));
+            if (record == null) {
+                discardCorruptEntry(hash, entry);
+                return;
+            }
+            if (!Arrays.equals(record.key, keyBytes)) {
+                return;
+            }
+            append(keyBytes, null);
+            index.remove(hash);
+            garbageBytes += size(entry) + recordLength(keyBytes, null);
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not remove entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    /**
+     * Appended records are buffered until the write buffer fills up, so a batch is written just like the same writes made one at a time.
+     */
+    @Override
+    public void writeBatch(Runnable writes) {
+        writes.run();
+    }
+
+    @Override
+    public synchronized void close() {
+        LOGGER.debug("Closing {}", this);
+        try {
+            try {
+                flushWriteBuffer();
+                if (flushedLength >= MIN_COMPACTION_LENGTH && garbageBytes * 2 > flushedLength) {
+                    compact();
+                }
+                if (flushedLength != checkpointLength) {
+                    writeCheckpoint();
+                }
+            } finally {
+                log.close();
+            }
+        } catch (Exception e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void open() throws IOException {
+        LOGGER.debug("Opening {}", this);
+        if (Files.deleteIfExists(cacheFile.toPath())) {
+            LOGGER.debug("Deleted {} written with a different storage for {}.", cacheFile, this);
+        }
+        index = newIndex(0);
+        log = new RandomAccessFile(logFile, "rw").getChannel();
+        if (!readLogHeader()) {
+            if (log.size() > 0) {
+                LOGGER.warn("{} is corrupt. Discarding.", this);
+            }
+            startNewLog();
+            return;
+        }
+        replay(readCheckpoint());
+    }
+
+    private boolean readLogHeader() throws IOException {
+        if (log.size() < LOG_HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+        readFully(header, 0);
+        if (header.getInt(0) != LOG_MAGIC || header.getInt(4) != FORMAT_VERSION) {
+            return false;
+        }
+        generation = header.getLong(8);
+        return true;
+    }
+
+    private void startNewLog() throws IOException {
+        generation = new Random().nextLong();
+        log.truncate(0);
+        ByteBuffer header = logHeader(generation);
+        while (header.hasRemaining()) {
+            log.write(header, header.position());
+        }
+        log.position(LOG_HEADER_SIZE);
+        flushedLength = LOG_HEADER_SIZE;
+        garbageBytes = 0;
+        checkpointLength = 0;
+        deleteCheckpoint();
+    }
+
+    private static ByteBuffer logHeader(long generation) {
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+        header.putInt(LOG_MAGIC).putInt(FORMAT_VERSION).putLong(generation);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Loads the index from the checkpoint, if it matches the log, and returns the position in the log up to which the checkpoint is valid.
+     */
+    private long readCheckpoint() {
+        if (!checkpointFile.isFile()) {
+            return LOG_HEADER_SIZE;
+        }
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)));
+            try {
+                if (input.readInt() != CHECKPOINT_MAGIC || input.readInt() != FORMAT_VERSION || input.readLong() != generation) {
+                    return LOG_HEADER_SIZE;
+                }
+                long length = input.readLong();
+                long garbage = input.readLong();
+                int size = input.readInt();
+                if (length < LOG_HEADER_SIZE || length > log.size()) {
+                    return LOG_HEADER_SIZE;
+                }
+                Long2LongOpenHashMap checkpointIndex = newIndex(size);
+                for (int i = 0; i < size; i++) {
+                    checkpointIndex.put(input.readLong(), input.readLong());
+                }
+                index = checkpointIndex;
+                garbageBytes = garbage;
+                checkpointLength = length;
+                return length;
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Could not read checkpoint for {}. Replaying the whole log.", this, e);
+            return LOG_HEADER_SIZE;
+        }
+    }
+
+    private void replay(long start) throws IOException {
+        long size = log.size();
+        long position = start;
+        log.position(start);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(log), WRITE_BUFFER_SIZE));
+        byte[] value = new byte[0];
+        while (size - position >= RECORD_HEADER_SIZE) {
+            int keyLength = input.readInt();
+            int valueLength = input.readInt();
+            int expectedChecksum = input.readInt();
+            long recordLength = RECORD_HEADER_SIZE + (long) keyLength + Math.max(valueLength, 0);
+            if (keyLength < 0 || valueLength < REMOVED || position + recordLength > size) {
+                break;
+            }
+            byte[] key = new byte[keyLength];
+            input.readFully(key);
+            if (valueLength > value.length) {
+                value = new byte[valueLength];
+            }
+            input.readFully(value, 0, Math.max(valueLength, 0));
+            if (checksum(key, valueLength, value) != expectedChecksum) {
+                break;
+            }
+            long hash = hash(key);
+            long previous;
+            if (valueLength == REMOVED) {
+                previous = index.remove(hash);
+                garbageBytes += recordLength;
+            } else {
+                previous = index.put(hash, entry(position, recordLength));
+            }
+            if (previous != NO_ENTRY) {
+                garbageBytes += size(previous);
+            }
+            position += recordLength;
+        }
+        if (position < size) {
+            LOGGER.warn("{} contains an incomplete or corrupt record at position {}. Discarding the log from this record on.", this, position);
+            log.truncate(position);
+            deleteCheckpoint();
+            checkpointLength = 0;
+        }
+        log.position(position);
+        flushedLength = position;
+    }
+
+    private void compact() throws IOException {
+        LOGGER.debug("Compacting {}", this);
+        File compactedFile = new File(logFile.getParentFile(), logFile.getName() + ".compacting");
+        long compactedGeneration = new Random().nextLong();
+        Long2LongOpenHashMap compactedIndex = newIndex(index.size());
+
+        // Copy the live records in the order in which they appear in the log, so that runs of adjacent records can be copied at once
+        long[] entries = new long[index.size()];
+        long[] hashes = new long[index.size()];
+        int count = 0;
+        for (Long2LongMap.Entry indexEntry : index.long2LongEntrySet()) {
+            entries[count] = indexEntry.getLongValue();
+            hashes[count] = indexEntry.getLongKey();
+            count++;
+        }
+        LongArrays.quickSort(entries, hashes);
+
+        FileChannel compacted = new RandomAccessFile(compactedFile, "rw").getChannel();
+        long compactedLength;
+        try {
+            compacted.truncate(0);
+            ByteBuffer header = logHeader(compactedGeneration);
+            while (header.hasRemaining()) {
+                compacted.write(header);
+            }
+            long target = LOG_HEADER_SIZE;
+            long runStart = -1;
+            long runEnd = -1;
+            for (int i = 0; i < count; i++) {
+                long position = position(entries[i]);
+                long length = recordLength(entries[i]);
+                if (position != runEnd) {
+                    transferFully(runStart, runEnd - runStart, compacted);
+                    runStart = position;
+                }
+                runEnd = position + length;
+                compactedIndex.put(hashes[i], entry(target, length));
+                target += length;
+            }
+            transferFully(runStart, runEnd - runStart, compacted);
+            compacted.force(true);
+            compactedLength = target;
+        } finally {
+            compacted.close();
+        }
+
+        log.close();
+        Files.move(compactedFile.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log = new RandomAccessFile(logFile, "rw").getChannel();
+        log.position(compactedLength);
+        generation = compactedGeneration;
+        index = compactedIndex;
+        flushedLength = compactedLength;
+        garbageBytes = 0;
+        checkpointLength = 0;
+        deleteCheckpoint();
+    }
+
+    private void writeCheckpoint() throws IOException {
+        File tempFile = new File(checkpointFile.getParentFile(), checkpointFile.getName() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            output.writeInt(CHECKPOINT_MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.writeLong(generation);
+            output.writeLong(flushedLength);
+            output.writeLong(garbageBytes);
+            output.writeInt(index.size());
+            for (Long2LongMap.Entry entry : index.long2LongEntrySet()) {
+                output.writeLong(entry.getLongKey());
+                output.writeLong(entry.getLongValue());
+            }
+        } finally {
+            output.close();
+        }
+        Files.move(tempFile.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        checkpointLength = flushedLength;
+    }
+
+    private void deleteCheckpoint() throws IOException {
+        Files.deleteIfExists(checkpointFile.toPath());
+    }
+
+    private long append(byte[] keyBytes, byte[] valueBytes) throws IOException {
+        int recordLength = recordLength(keyBytes, valueBytes);
+        if (recordLength > writeBuffer.remaining()) {
+            flushWriteBuffer();
+        }
+        long position = flushedLength + writeBuffer.position();
+        int valueLength = valueBytes == null ? REMOVED : valueBytes.length;
+        int recordChecksum = checksum(keyBytes, valueLength, valueBytes);
+        if (recordLength > writeBuffer.capacity()) {
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            header.putInt(keyBytes.length).putInt(valueLength).putInt(recordChecksum);
+            header.flip();
+            writeFully(header, ByteBuffer.wrap(keyBytes), ByteBuffer.wrap(valueBytes == null ? new byte[0] : valueBytes));
+            flushedLength += recordLength;
+        } else {
+            writeBuffer.putInt(keyBytes.length).putInt(valueLength).putInt(recordChecksum).put(keyBytes);
+            if (valueBytes != null) {
+                writeBuffer.put(valueBytes);
+            }
+        }
+        return position;
+    }
+
+    private void flushWriteBuffer() throws IOException {
+        if (writeBuffer.position() == 0) {
+            return;
+        }
+        writeBuffer.flip();
+        int length = writeBuffer.remaining();
+        writeFully(writeBuffer);
+        writeBuffer.clear();
+        flushedLength += length;
+    }
+
+    private void writeFully(ByteBuffer... buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= log.write(buffers);
+        }
+    }
+
+    /**
+     * Reads the record at the given position, or returns null when the record is corrupt.
+     */
+    @Nullable
+    private Record readRecord(long position) throws IOException {
+        if (position >= flushedLength) {
+            flushWriteBuffer();
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        readFully(header, position);
+        int keyLength = header.getInt(0);
+        int valueLength = header.getInt(4);
+        if (keyLength < 0 || valueLength < REMOVED || position + RECORD_HEADER_SIZE + (long) keyLength + Math.max(valueLength, 0) > flushedLength) {
+            return null;
+        }
+        ByteBuffer key = ByteBuffer.allocate(keyLength);
+        readFully(key, position + RECORD_HEADER_SIZE);
+        ByteBuffer value = ByteBuffer.allocate(Math.max(valueLength, 0));
+        readFully(value, position + RECORD_HEADER_SIZE + keyLength);
+        if (checksum(key.array(), valueLength, value.array()) != header.getInt(8)) {
+            return null;
+        }
+        return new Record(key.array(), value.array());
+    }
+
+    private void discardCorruptEntry(long hash, long entry) {
+        LOGGER.warn("{} contains a corrupt record at position {}. Discarding the entry.", this, position(entry));
+        index.remove(hash);
+        garbageBytes += size(entry);
+    }
+
+    /**
+     * Calculates the checksum of a record from its key, the length of its value, which marks removed entries, and its value.
+     */
+    private int checksum(byte[] keyBytes, int valueLength, @Nullable byte[] valueBytes) {
+        checksum.reset();
+        checksum.update(keyBytes, 0, keyBytes.length);
+        checksum.update(valueLength >>> 24);
+        checksum.update(valueLength >>> 16);
+        checksum.update(valueLength >>> 8);
+        checksum.update(valueLength);
+        if (valueBytes != null && valueLength > 0) {
+            checksum.update(valueBytes, 0, valueLength);
+        }
+        return (int) checksum.getValue();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            int read = log.read(buffer, current);
+            if (read < 0) {
+                throw new EOFException(String.format("Unexpected end of file while reading %s at position %s.", this, current));
+            }
+            current += read;
+        }
+    }
+
+    private void transferFully(long position, long length, FileChannel target) throws IOException {
+        long transferred = 0;
+        while (transferred < length) {
+            transferred += log.transferTo(position + transferred, length - transferred, target);
+        }
+    }
+
+    private long recordLength(long entry) throws IOException {
+        long size = size(entry);
+        if (size < MAX_SIZE) {
+            return size;
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        readFully(header, position(entry));
+        return RECORD_HEADER_SIZE + header.getInt(0) + Math.max(header.getInt(4), 0);
+    }
+
+    private <T> byte[] serialize(Serializer<T> serializer, T value) throws Exception {
+        serialized.reset();
+        serializer.write(encoder, value);
+        encoder.flush();
+        return serialized.toByteArray();
+    }
+
+    private static int recordLength(byte[] keyBytes, byte[] valueBytes) {
+        return RECORD_HEADER_SIZE + keyBytes.length + (valueBytes == null ? 0 : valueBytes.length);
+    }
+
+    private static long hash(byte[] keyBytes) {
+        return Hashing.murmur3_128().hashBytes(keyBytes).asLong();
+    }
+
+    private static long entry(long position, long size) {
+        return (position << SIZE_BITS) | Math.min(size, MAX_SIZE);
+    }
+
+    private static long position(long entry) {
+        return entry >>> SIZE_BITS;
+    }
+
+    private static long size(long entry) {
+        return entry & MAX_SIZE;
+    }
+
+    private static Long2LongOpenHashMap newIndex(int expectedSize) {
+        Long2LongOpenHashMap index = new Long2LongOpenHashMap(expectedSize);
+        index.defaultReturnValue(NO_ENTRY);
+        return index;
+    }
+
+    private static class Record {
+        final byte[] key;
+        final byte[] value;
+
+        Record(byte[] key, byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
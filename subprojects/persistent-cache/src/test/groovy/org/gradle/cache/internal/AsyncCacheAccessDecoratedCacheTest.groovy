@@ -0,0 +1,39 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal
+
+import org.gradle.cache.AsyncCacheAccess
+import org.gradle.cache.MultiProcessSafePersistentIndexedCache
+import org.gradle.internal.Factory
+import spock.lang.Specification
+
+class AsyncCacheAccessDecoratedCacheTest extends Specification {
+    def asyncCacheAccess = Mock(AsyncCacheAccess)
+    def persistentCache = Mock(MultiProcessSafePersistentIndexedCache)
+
+    def "reads entries on the thread of the async cache access"() {
+        def cache = new AsyncCacheAccessDecoratedCache<String, String>(asyncCacheAccess, persistentCache)
+
+        when:
+        def result = cache.get("key")
+
+        then:
+        result == "value"
+        1 * asyncCacheAccess.read(_) >> { Factory task -> task.create() }
+        1 * persistentCache.get("key") >> "value"
+    }
+}
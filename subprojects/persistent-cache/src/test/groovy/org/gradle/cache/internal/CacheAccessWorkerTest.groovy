@@ -17,17 +17,20 @@
 package org.gradle.cache.internal
 
 import org.gradle.cache.CacheAccess
+import org.gradle.internal.logging.progress.ProgressLogger
+import org.gradle.internal.logging.progress.ProgressLoggerFactory
 import org.gradle.test.fixtures.concurrent.ConcurrentSpec
 
 class CacheAccessWorkerTest extends ConcurrentSpec {
     CacheAccess cacheAccess
+    ProgressLoggerFactory progressLoggerFactory = Mock()
     CacheAccessWorker cacheAccessWorker
 
     def setup() {
         cacheAccess = Stub(CacheAccess) {
             useCache(_) >> { Runnable action -> action.run() }
         }
-        cacheAccessWorker = new CacheAccessWorker("<cache>", cacheAccess)
+        cacheAccessWorker = new CacheAccessWorker("<cache>", cacheAccess, progressLoggerFactory)
     }
 
     def "read runs after queued writes are processed"() {
@@ -198,4 +201,201 @@ class CacheAccessWorkerTest extends ConcurrentSpec {
         def e = thrown(RuntimeException)
         e == failure
     }
+
+    def "applies queued writes grouped by cache and in key hash order"() {
+        given:
+        def cache1 = new Object()
+        def cache2 = new Object()
+        def written = []
+        def completed = 0
+        def write = { cache, key, long keyHash ->
+            new CacheWriteOperation(cache, key, keyHash, { completed++ }) {
+                @Override
+                protected void write() {
+                    written << "$key".toString()
+                }
+            }
+        }
+        cacheAccessWorker.enqueue {}
+        cacheAccessWorker.enqueue(write(cache1, "c", Long.MAX_VALUE))
+        cacheAccessWorker.enqueue(write(cache2, "z", 2))
+        cacheAccessWorker.enqueue(write(cache1, "a", Long.MIN_VALUE))
+        cacheAccessWorker.enqueue(write(cache2, "y", 1))
+        cacheAccessWorker.enqueue(write(cache1, "b", 0))
+
+        when:
+        start(cacheAccessWorker)
+        cacheAccessWorker.flush()
+
+        then:
+        written == ["a", "b", "c", "y", "z"]
+        completed == 5
+
+        cleanup:
+        cacheAccessWorker?.stop()
+    }
+
+    def "discards writes superseded by a later write of the same entry"() {
+        given:
+        def cache = new Object()
+        def written = []
+        def completed = 0
+        def write = { key, value ->
+            new CacheWriteOperation(cache, key, 0, { completed++ }) {
+                @Override
+                protected void write() {
+                    written << "$key=$value".toString()
+                }
+            }
+        }
+        cacheAccessWorker.enqueue {}
+        cacheAccessWorker.enqueue(write("a", 1))
+        cacheAccessWorker.enqueue(write("b", 2))
+        cacheAccessWorker.enqueue(write("a", 3))
+
+        when:
+        start(cacheAccessWorker)
+        cacheAccessWorker.flush()
+
+        then:
+        written == ["a=3", "b=2"]
+        completed == 3
+
+        cleanup:
+        cacheAccessWorker?.stop()
+    }
+
+    def "does not reorder writes across other operations"() {
+        given:
+        def cache = new Object()
+        def events = []
+        def write = { key ->
+            new CacheWriteOperation(cache, key, 0, {}) {
+                @Override
+                protected void write() {
+                    events << key
+                }
+            }
+        }
+        cacheAccessWorker.enqueue {}
+        cacheAccessWorker.enqueue(write("b"))
+        cacheAccessWorker.enqueue { events << "other" }
+        cacheAccessWorker.enqueue(write("a"))
+
+        when:
+        start(cacheAccessWorker)
+        cacheAccessWorker.flush()
+
+        then:
+        events == ["b", "other", "a"]
+
+        cleanup:
+        cacheAccessWorker?.stop()
+    }
+
+    def "applies queued writes to a cache as a batch"() {
+        given:
+        def cache = Mock(DefaultMultiProcessSafePersistentIndexedCache)
+        def events = []
+        def write = { key ->
+            new CacheWriteOperation(cache, key, 0, {}) {
+                @Override
+                protected void write() {
+                    events << key
+                }
+            }
+        }
+        cacheAccessWorker.enqueue {}
+        cacheAccessWorker.enqueue(write("a"))
+        cacheAccessWorker.enqueue(write("b"))
+
+        when:
+        start(cacheAccessWorker)
+        cacheAccessWorker.flush()
+
+        then:
+        1 * cache.writeBatch(_) >> { Runnable writes ->
+            events << "start"
+            writes.run()
+            events << "finish"
+        }
+        events == ["start", "a", "b", "finish"]
+
+        cleanup:
+        cacheAccessWorker?.stop()
+    }
+
+    def "completes queued writes when the batch cannot be written"() {
+        given:
+        def failure = new RuntimeException()
+        def cache = Mock(DefaultMultiProcessSafePersistentIndexedCache)
+        def completed = 0
+        def write = { key ->
+            new CacheWriteOperation(cache, key, 0, { completed++ }) {
+                @Override
+                protected void write() {
+                }
+            }
+        }
+        cacheAccessWorker.enqueue {}
+        cacheAccessWorker.enqueue(write("a"))
+        cacheAccessWorker.enqueue(write("b"))
+
+        when:
+        start(cacheAccessWorker)
+        cacheAccessWorker.flush()
+
+        then:
+        1 * cache.writeBatch(_) >> { throw failure }
+        def e = thrown(RuntimeException)
+        e == failure
+        completed == 2
+
+        cleanup:
+        cacheAccessWorker?.stop()
+    }
+
+    def "reports each batch which writes as a progress operation"() {
+        given:
+        def cache = new Object()
+        def progressLogger = Mock(ProgressLogger)
+        def write = { key ->
+            new CacheWriteOperation(cache, key, 0, {}) {
+                @Override
+                protected void write() {
+                }
+            }
+        }
+        cacheAccessWorker.enqueue {}
+        cacheAccessWorker.enqueue(write("a"))
+        cacheAccessWorker.enqueue(write("a"))
+
+        when:
+        start(cacheAccessWorker)
+        cacheAccessWorker.flush()
+
+        then:
+        1 * progressLoggerFactory.newOperation(CacheAccessWorker) >> progressLogger
+        1 * progressLogger.start("Write batch to <cache>", _)
+        1 * progressLogger.completed({ it.contains("1 superseded writes discarded") }, false)
+
+        cleanup:
+        cacheAccessWorker?.stop()
+    }
+
+    def "does not report batches which do not write"() {
+        given:
+        cacheAccessWorker.enqueue {}
+        cacheAccessWorker.enqueue {}
+
+        when:
+        start(cacheAccessWorker)
+        cacheAccessWorker.flush()
+
+        then:
+        0 * progressLoggerFactory._
+
+        cleanup:
+        cacheAccessWorker?.stop()
+    }
 }
@@ -26,11 +26,15 @@ import org.gradle.cache.LockOptions
 import org.gradle.cache.MultiProcessSafePersistentIndexedCache
 import org.gradle.cache.PersistentIndexedCacheParameters
 import org.gradle.cache.internal.btree.BTreePersistentIndexedCache
+import org.gradle.cache.internal.locklistener.NoOpFileLockContentionHandler
 import org.gradle.internal.Factory
+import org.gradle.internal.nativeintegration.ProcessEnvironment
+import org.gradle.internal.progress.NoOpProgressLoggerFactory
 import org.gradle.internal.serialize.BaseSerializerFactory
 import org.gradle.internal.serialize.Serializer
 import org.gradle.test.fixtures.concurrent.ConcurrentSpec
 import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.testfixtures.internal.NativeServicesTestFixture
 import org.junit.Rule
 import spock.lang.Unroll
 
@@ -50,7 +54,7 @@ class DefaultCacheAccessTest extends ConcurrentSpec {
     final BTreePersistentIndexedCache<String, Integer> backingCache = Mock()
 
     private DefaultCacheAccess newAccess(FileLockManager.LockMode lockMode) {
-        new DefaultCacheAccess("<display-name>", lockFile, mode(lockMode), cacheDir, lockManager, initializationAction, cleanupAction, executorFactory) {
+        new DefaultCacheAccess("<display-name>", lockFile, mode(lockMode), cacheDir, lockManager, initializationAction, cleanupAction, executorFactory, new NoOpProgressLoggerFactory()) {
             @Override
             <K, V> BTreePersistentIndexedCache<K, V> doCreateCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
                 return backingCache
@@ -620,6 +624,46 @@ class DefaultCacheAccessTest extends ConcurrentSpec {
         access?.close()
     }
 
+    def "reads entries from several threads while writes are queued"() {
+        def fileLockManager = new DefaultFileLockManager(new DefaultProcessMetaDataProvider(NativeServicesTestFixture.getInstance().get(ProcessEnvironment)), new NoOpFileLockContentionHandler())
+        def access = new DefaultCacheAccess("<display-name>", lockFile, mode(None), tmpDir.createDir('caches'), fileLockManager, initializationAction, cleanupAction, executorFactory, new NoOpProgressLoggerFactory())
+        def decorator = new CacheDecorator() {
+            @Override
+            <K, V> MultiProcessSafePersistentIndexedCache<K, V> decorate(String cacheId, String cacheName, MultiProcessSafePersistentIndexedCache<K, V> persistentCache, CrossProcessCacheAccess crossProcessCacheAccess, AsyncCacheAccess asyncCacheAccess) {
+                return new CrossProcessSynchronizingCache<K, V>(new AsyncCacheAccessDecoratedCache<K, V>(asyncCacheAccess, persistentCache), crossProcessCacheAccess)
+            }
+        }
+
+        given:
+        access.open()
+        def cache = access.newCache(PersistentIndexedCacheParameters.of('cache', String.class, Integer.class).withCacheDecorator(decorator))
+
+        when:
+        async {
+            start {
+                1000.times {
+                    cache.put("key$it", it)
+                }
+            }
+            4.times {
+                start {
+                    1000.times {
+                        def value = cache.get("key$it")
+                        assert value == null || value == it
+                    }
+                }
+            }
+        }
+
+        then:
+        1000.times {
+            assert cache.get("key$it") == it
+        }
+
+        cleanup:
+        access?.close()
+    }
+
     def "does not acquire file lock for cleanup"() {
         given:
         def access = newAccess(None)
@@ -697,6 +741,34 @@ class DefaultCacheAccessTest extends ConcurrentSpec {
         access?.close()
     }
 
+    def "throws InvalidCacheReuseException when cache concurrency level differs"() {
+        def access = newAccess(None)
+
+        when:
+        access.newCache(PersistentIndexedCacheParameters.of('cache', String.class, Integer.class))
+        access.newCache(PersistentIndexedCacheParameters.of('cache', String.class, Integer.class).withConcurrencyLevel(4))
+
+        then:
+        thrown(DefaultCacheAccess.InvalidCacheReuseException)
+
+        cleanup:
+        access?.close()
+    }
+
+    def "throws InvalidCacheReuseException when cache storage differs"() {
+        def access = newAccess(None)
+
+        when:
+        access.newCache(PersistentIndexedCacheParameters.of('cache', String.class, Integer.class))
+        access.newCache(PersistentIndexedCacheParameters.of('cache', String.class, Integer.class).withStorage(PersistentIndexedCacheParameters.Storage.LogStructured))
+
+        then:
+        thrown(DefaultCacheAccess.InvalidCacheReuseException)
+
+        cleanup:
+        access?.close()
+    }
+
     def "throws InvalidCacheReuseException when cache decorator differs"() {
         def access = newAccess(None)
         def decorator = Mock(CacheDecorator)
@@ -77,6 +77,24 @@ class MultiProcessSafePersistentIndexedCacheTest extends Specification {
         0 * _._
     }
 
+    def "holds write lock once while writing a batch of entries"() {
+        given:
+        cacheOpened()
+
+        when:
+        cache.writeBatch {
+            cache.put("key", "value")
+            cache.remove("other")
+        }
+
+        then:
+        1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
+        1 * backingCache.writeBatch(!null) >> { Runnable action -> action.run() }
+        1 * backingCache.put("key", "value")
+        1 * backingCache.remove("other")
+        0 * _._
+    }
+
     def "holds write lock while closing cache"() {
         given:
         cacheOpened()
@@ -259,6 +259,41 @@ public class BTreePersistentIndexedCacheTest {
         cache.close();
     }
 
+    @Test
+    public void canHandleLargeNumberOfEntriesWhenMemoryMapped() {
+        cache = new BTreePersistentIndexedCache<String, Integer>(cacheFile, stringSerializer, integerSerializer, (short) 4, 100, true);
+        int count = 20000;
+        List<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            values.add(i);
+        }
+
+        checkAddsAndRemoves(null, values);
+        checkAdds(values);
+        checkUpdates(values.subList(0, 100));
+
+        verifyAndCloseCache();
+    }
+
+    @Test
+    public void persistsLargeEntriesWhenMemoryMapped() {
+        BTreePersistentIndexedCache<String, String> cache = new BTreePersistentIndexedCache<String, String>(cacheFile, stringSerializer, stringSerializer, (short) 4, 100, true);
+        char[] chars = new char[100000];
+        Arrays.fill(chars, 'a');
+        String value = new String(chars);
+
+        for (int i = 0; i < 30; i++) {
+            cache.put("key_" + i, value + i);
+        }
+        cache.reset();
+
+        for (int i = 0; i < 30; i++) {
+            assertThat(cache.get("key_" + i), equalTo(value + i));
+        }
+        cache.verify();
+        cache.close();
+    }
+
     @Test
     public void persistsRemovalOfEntries() {
         createCache();
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.btree
+
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+class MappedFileTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+    RandomAccessFile file
+    MappedFile mappedFile
+    MappedByteInput input
+    MappedByteOutput output
+
+    def setup() {
+        file = new RandomAccessFile(tmpDir.file("test.bin"), "rw")
+        mappedFile = new MappedFile(file.channel, 16, 8)
+        input = new MappedByteInput(mappedFile)
+        output = new MappedByteOutput(mappedFile)
+    }
+
+    def cleanup() {
+        mappedFile.release()
+        file.close()
+    }
+
+    def "can read content beyond the mapped regions"() {
+        given:
+        file.write(bytes(0, 4))
+        mappedFile.lengthChanged(4)
+
+        expect:
+        !mappedFile.isMapped(0)
+        def stream = input.start(1)
+        stream.readByte() == 1 as byte
+        stream.readByte() == 2 as byte
+        input.getBytesRead() == 2
+        input.done()
+    }
+
+    def "maps the file once it has grown past the threshold"() {
+        given:
+        file.write(bytes(0, 40))
+
+        when:
+        mappedFile.lengthChanged(40)
+
+        then:
+        mappedFile.isMapped(0)
+        mappedFile.isMapped(39)
+        !mappedFile.isMapped(40)
+
+        and:
+        def content = new byte[40]
+        input.start(0).readFully(content)
+        content == bytes(0, 40)
+    }
+
+    def "writes in place to mapped regions and appends beyond them"() {
+        given:
+        file.write(new byte[20])
+        mappedFile.lengthChanged(20)
+
+        when:
+        def stream = output.start(10)
+        stream.write(bytes(100, 20))
+        stream.writeByte(7)
+        output.done()
+        mappedFile.lengthChanged(file.length())
+
+        then:
+        output.getBytesWritten() == 21
+        file.length() == 31
+
+        and:
+        def content = new byte[21]
+        input.start(10).readFully(content)
+        content == bytes(100, 20) + ([7] as byte[])
+
+        and:
+        def onDisk = new byte[21]
+        file.seek(10)
+        file.readFully(onDisk)
+        onDisk == content
+    }
+
+    def "can be remapped after the file has been truncated"() {
+        given:
+        file.write(bytes(0, 40))
+        mappedFile.lengthChanged(40)
+
+        when:
+        mappedFile.release()
+        file.setLength(0)
+        file.seek(0)
+        file.write(bytes(50, 4))
+        mappedFile.lengthChanged(4)
+
+        then:
+        !mappedFile.isMapped(0)
+        input.start(0).readInt() == 0x32333435
+        input.start(4).read() == -1
+    }
+
+    private static byte[] bytes(int start, int count) {
+        def result = new byte[count]
+        count.times { result[it] = (byte) (start + it) }
+        return result
+    }
+}
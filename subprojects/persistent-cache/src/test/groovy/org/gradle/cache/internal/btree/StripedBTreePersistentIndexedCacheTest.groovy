@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.cache.internal.btree
+
+import org.gradle.internal.serialize.BaseSerializerFactory
+import org.gradle.test.fixtures.concurrent.ConcurrentSpec
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+
+class StripedBTreePersistentIndexedCacheTest extends ConcurrentSpec {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+    def serializerFactory = new BaseSerializerFactory()
+    def cacheFile = tmpDir.file("cache.bin")
+
+    def "stores entries in a file per segment"() {
+        def cache = createCache(4)
+
+        when:
+        100.times { cache.put("key-$it".toString(), it) }
+        cache.close()
+
+        then:
+        (0..3).every { StripedBTreePersistentIndexedCache.segmentFile(cacheFile, it).file }
+        !cacheFile.exists()
+
+        when:
+        cache = createCache(4)
+
+        then:
+        (0..99).every { cache.get("key-$it".toString()) == it }
+        cache.get("unknown") == null
+
+        cleanup:
+        cache?.close()
+    }
+
+    def "can update and remove entries"() {
+        def cache = createCache(3)
+
+        when:
+        cache.put("a", 1)
+        cache.put("b", 2)
+        cache.put("a", 3)
+        cache.remove("b")
+
+        then:
+        cache.get("a") == 3
+        cache.get("b") == null
+        cache.get("b") { 4 } == 4
+        cache.get("b") == 4
+
+        cleanup:
+        cache?.close()
+    }
+
+    def "can write entries in a batch"() {
+        def cache = createCache(4)
+
+        when:
+        cache.writeBatch {
+            100.times { cache.put("key-$it".toString(), it) }
+            cache.remove("key-0")
+            assert cache.get("key-1") == 1
+        }
+        cache.close()
+        cache = createCache(4)
+
+        then:
+        cache.get("key-0") == null
+        (1..99).every { cache.get("key-$it".toString()) == it }
+
+        cleanup:
+        cache?.close()
+    }
+
+    def "multiple threads can read and write entries concurrently"() {
+        def cache = createCache(8)
+
+        when:
+        async {
+            8.times { thread ->
+                start {
+                    200.times {
+                        def key = "key-$thread-$it".toString()
+                        cache.put(key, it)
+                        assert cache.get(key) == it
+                    }
+                }
+            }
+        }
+
+        then:
+        (0..7).every { thread -> (0..199).every { cache.get("key-$thread-$it".toString()) == it } }
+
+        cleanup:
+        cache?.close()
+    }
+
+    def "names segment files after the cache file"() {
+        expect:
+        StripedBTreePersistentIndexedCache.segmentFile(new File("dir", fileName), 2) == new File("dir", segmentName)
+
+        where:
+        fileName       | segmentName
+        "cache.bin"    | "cache-2.bin"
+        "cache"        | "cache-2"
+        "cache.v2.bin" | "cache.v2-2.bin"
+    }
+
+    private StripedBTreePersistentIndexedCache<String, Integer> createCache(int segments) {
+        new StripedBTreePersistentIndexedCache<String, Integer>(cacheFile, serializerFactory.getSerializerFor(String), serializerFactory.getSerializerFor(Integer), segments)
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.cache.internal.logstructured
+
+import org.gradle.internal.serialize.BaseSerializerFactory
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+class LogStructuredPersistentIndexedCacheTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+    def serializerFactory = new BaseSerializerFactory()
+    def cacheFile = tmpDir.file("cache.bin")
+    def logFile = tmpDir.file("cache.log")
+    def checkpointFile = tmpDir.file("cache.checkpoint")
+    LogStructuredPersistentIndexedCache<String, String> cache
+
+    def cleanup() {
+        cache?.close()
+    }
+
+    def "can add, update and remove entries"() {
+        cache = createCache()
+
+        when:
+        cache.put("a", "1")
+        cache.put("b", "2")
+        cache.put("a", "3")
+        cache.remove("b")
+        cache.remove("unknown")
+
+        then:
+        cache.get("a") == "3"
+        cache.get("b") == null
+        cache.get("unknown") == null
+        cache.get("b") { "4" } == "4"
+        cache.get("b") == "4"
+    }
+
+    def "can store values which are larger than the write buffer"() {
+        def value = "x" * 200000
+        cache = createCache()
+
+        when:
+        cache.put("small", "1")
+        cache.put("large", value)
+        cache.put("other", "2")
+
+        then:
+        cache.get("large") == value
+        cache.get("small") == "1"
+        cache.get("other") == "2"
+
+        when:
+        reopen()
+
+        then:
+        cache.get("large") == value
+        cache.get("other") == "2"
+    }
+
+    def "writes checkpoint on close and loads it on open"() {
+        cache = createCache()
+        5000.times { cache.put("key-$it".toString(), "value-$it".toString()) }
+        cache.remove("key-1")
+
+        when:
+        cache.close()
+
+        then:
+        logFile.file
+        checkpointFile.file
+
+        when:
+        cache = createCache()
+
+        then:
+        cache.get("key-1") == null
+        cache.get("key-99") == "value-99"
+    }
+
+    def "rewrites checkpoint on close after a few changes"() {
+        cache = createCache()
+        5000.times { cache.put("key-$it".toString(), "value-$it".toString()) }
+        cache.close()
+        def checkpoint = checkpointFile.bytes
+
+        when:
+        cache = createCache()
+        cache.put("key-1", "changed")
+        cache.remove("key-2")
+        cache.close()
+
+        then:
+        checkpointFile.bytes != checkpoint
+
+        when:
+        cache = createCache()
+
+        then:
+        cache.get("key-1") == "changed"
+        cache.get("key-2") == null
+        cache.get("key-4999") == "value-4999"
+    }
+
+    def "does not rewrite checkpoint on close without changes"() {
+        cache = createCache()
+        cache.put("a", "1")
+        cache.close()
+        def checkpoint = checkpointFile.bytes
+
+        when:
+        cache = createCache()
+        cache.get("a")
+        cache.close()
+
+        then:
+        checkpointFile.bytes == checkpoint
+    }
+
+    def "checkpoint written on close covers the whole log"() {
+        cache = createCache()
+        5000.times { cache.put("key-$it".toString(), "value-$it".toString()) }
+        cache.close()
+        cache = createCache()
+        cache.put("a", "1")
+
+        when:
+        cache.close()
+
+        then:
+        checkpointedLogLength() == logFile.length()
+    }
+
+    def "replays changes made after the checkpoint"() {
+        cache = createCache()
+        cache.put("a", "1")
+        cache.close()
+        cache = createCache()
+        cache.put("b", "2")
+        cache.remove("a")
+        // Reading an entry writes any buffered changes to the log
+        cache.get("b")
+
+        when:
+        // Abandon the cache without closing it, as a crashed process would
+        def abandoned = cache
+        cache = createCache()
+
+        then:
+        cache.get("a") == null
+        cache.get("b") == "2"
+
+        cleanup:
+        abandoned.close()
+    }
+
+    def "rebuilds index from the log when there is no checkpoint"() {
+        cache = createCache()
+        cache.put("a", "1")
+        cache.put("b", "2")
+        cache.remove("a")
+        cache.close()
+
+        when:
+        checkpointFile.delete()
+        cache = createCache()
+
+        then:
+        cache.get("a") == null
+        cache.get("b") == "2"
+    }
+
+    def "discards incomplete record at end of log"() {
+        cache = createCache()
+        cache.put("a", "1")
+        cache.close()
+
+        when:
+        def raf = new RandomAccessFile(logFile, "rw")
+        raf.seek(raf.length())
+        raf.writeInt(100)
+        raf.writeInt(10)
+        raf.write(new byte[3])
+        raf.close()
+        cache = createCache()
+        cache.put("b", "2")
+        reopen()
+
+        then:
+        cache.get("a") == "1"
+        cache.get("b") == "2"
+    }
+
+    def "discards corrupt record and the records after it when replaying the log"() {
+        cache = createCache()
+        cache.put("a", "1")
+        cache.put("b", "corrupt-value")
+        cache.put("c", "3")
+        cache.close()
+
+        when:
+        corrupt("corrupt-value")
+        cache = createCache()
+
+        then:
+        cache.get("a") == "1"
+        cache.get("b") == null
+        cache.get("c") == null
+
+        when:
+        cache.put("c", "4")
+        reopen()
+
+        then:
+        cache.get("a") == "1"
+        cache.get("c") == "4"
+    }
+
+    def "treats corrupt record covered by the checkpoint as a miss"() {
+        cache = createCache()
+        5000.times { cache.put("key-$it".toString(), "value-$it".toString()) }
+        cache.put("b", "corrupt-value")
+        cache.close()
+
+        when:
+        corrupt("corrupt-value")
+        cache = createCache()
+
+        then:
+        cache.get("b") == null
+        cache.get("key-4999") == "value-4999"
+
+        when:
+        cache.put("b", "2")
+        reopen()
+
+        then:
+        cache.get("b") == "2"
+    }
+
+    def "deletes the cache file written with a different storage"() {
+        cacheFile.text = "b-tree"
+
+        when:
+        cache = createCache()
+
+        then:
+        !cacheFile.exists()
+    }
+
+    def "discards log with unexpected header"() {
+        logFile.text = "not a log file"
+
+        when:
+        cache = createCache()
+        cache.put("a", "1")
+        reopen()
+
+        then:
+        cache.get("a") == "1"
+    }
+
+    def "compacts log on close when most of it is garbage"() {
+        cache = createCache()
+        def padding = "-" * 100
+
+        when:
+        5.times { round ->
+            2000.times { cache.put("key-$it".toString(), "value-$round-$it$padding".toString()) }
+        }
+        cache.remove("key-0")
+        def lengthBeforeCompaction = logFile.length()
+        cache.close()
+
+        then:
+        logFile.length() < lengthBeforeCompaction / 2
+
+        when:
+        cache = createCache()
+
+        then:
+        cache.get("key-0") == null
+        cache.get("key-1") == "value-4-1$padding".toString()
+        cache.get("key-1999") == "value-4-1999$padding".toString()
+
+        when:
+        cache.close()
+        checkpointFile.delete()
+        cache = createCache()
+
+        then:
+        cache.get("key-0") == null
+        cache.get("key-1") == "value-4-1$padding".toString()
+    }
+
+    private long checkpointedLogLength() {
+        def input = new DataInputStream(new FileInputStream(checkpointFile))
+        try {
+            // Skip the magic, format version and generation
+            input.skipBytes(16)
+            return input.readLong()
+        } finally {
+            input.close()
+        }
+    }
+
+    private void corrupt(String value) {
+        byte[] bytes = logFile.bytes
+        // Kryo marks the last character of an ASCII string, so look for the value without it
+        byte[] text = value.substring(0, value.length() - 1).bytes
+        int position = (0..bytes.length - text.length).find { start -> (0..<text.length).every { bytes[start + it] == text[it] } }
+        bytes[position] = (byte) (bytes[position] ^ 0xff)
+        logFile.bytes = bytes
+    }
+
+    private void reopen() {
+        cache.close()
+        cache = createCache()
+    }
+
+    private LogStructuredPersistentIndexedCache<String, String> createCache() {
+        new LogStructuredPersistentIndexedCache<String, String>(cacheFile, serializerFactory.getSerializerFor(String), serializerFactory.getSerializerFor(String))
+    }
+}
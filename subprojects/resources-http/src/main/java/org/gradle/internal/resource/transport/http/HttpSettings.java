@@ -35,4 +35,9 @@ public interface HttpSettings {
     SslContextFactory getSslContextFactory();
 
     HostnameVerifier getHostnameVerifier();
+
+    /**
+     * The maximum number of connections kept open, in total and per host.
+     */
+    int getMaxConnections();
 }
@@ -153,4 +153,17 @@ class HttpClientConfigurerTest extends Specification {
         httpClientBuilder.defaultRequestConfig.socketTimeout == 30000
         httpClientBuilder.defaultSocketConfig.soKeepAlive
     }
+
+    def "configures http client connection pool"() {
+        httpSettings.authenticationSettings >> []
+        httpSettings.sslContextFactory >> sslContextFactory
+        httpSettings.maxConnections >> 64
+
+        when:
+        configurer.configure(httpClientBuilder)
+
+        then:
+        httpClientBuilder.maxConnTotal == 64
+        httpClientBuilder.maxConnPerRoute == 64
+    }
 }
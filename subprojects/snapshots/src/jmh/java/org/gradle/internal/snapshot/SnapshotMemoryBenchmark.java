@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot;
+
+import org.gradle.api.internal.cache.StringInterner;
+import org.gradle.internal.hash.HashCode;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Random;
+
+/**
+ * Measures the heap retained by the snapshot of a synthetic tree of a million files, kept either as a tree of snapshot objects or as a {@link CompactDirectorySnapshot}.
+ *
+ * The tree is built in memory and shaped like a large generated sources directory, so the results do not depend on the speed of the file system.
+ * The retained heap is reported as the {@code retainedBytes} secondary result.
+ */
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class SnapshotMemoryBenchmark {
+    private static final String ROOT_PATH = new File("/home/user/project/build/generated/sources").getAbsolutePath();
+    private static final int FILES_PER_DIRECTORY = 1000;
+
+    @Param({"1000000"})
+    int fileCount;
+
+    @Param({"false", "true"})
+    boolean compact;
+
+    FileSystemLocationSnapshot retained;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class RetainedHeap {
+        public long retainedBytes;
+    }
+
+    @TearDown(Level.Iteration)
+    public void release() {
+        retained = null;
+    }
+
+    @Benchmark
+    public FileSystemLocationSnapshot snapshotAndRetain(RetainedHeap heap) {
+        retained = null;
+        long before = usedHeapAfterGc();
+        FileSystemLocationSnapshot snapshot = createSnapshot();
+        if (compact) {
+            snapshot = CompactDirectorySnapshot.compact(snapshot, new StringInterner());
+        }
+        retained = snapshot;
+        heap.retainedBytes = usedHeapAfterGc() - before;
+        return snapshot;
+    }
+
+    private FileSystemLocationSnapshot createSnapshot() {
+        Random random = new Random(1234L);
+        byte[] hash = new byte[16];
+        MerkleDirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.noSortingRequired();
+        builder.preVisitDirectory(ROOT_PATH, new File(ROOT_PATH).getName());
+        int directoryCount = (fileCount + FILES_PER_DIRECTORY - 1) / FILES_PER_DIRECTORY;
+        for (int directory = 0; directory < directoryCount; directory++) {
+            String directoryName = "package" + directory;
+            String directoryPath = ROOT_PATH + File.separatorChar + directoryName;
+            builder.preVisitDirectory(directoryPath, directoryName);
+            int filesInDirectory = Math.min(FILES_PER_DIRECTORY, fileCount - directory * FILES_PER_DIRECTORY);
+            for (int file = 0; file < filesInDirectory; file++) {
+                String fileName = "GeneratedClass" + file + ".java";
+                random.nextBytes(hash);
+                builder.visit(new DefaultRegularFileSnapshot(directoryPath + File.separatorChar + fileName, fileName, HashCode.fromBytes(hash), random.nextLong()));
+            }
+            builder.postVisitDirectory();
+        }
+        builder.postVisitDirectory();
+        return builder.getResult();
+    }
+
+    private static long usedHeapAfterGc() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            memory.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
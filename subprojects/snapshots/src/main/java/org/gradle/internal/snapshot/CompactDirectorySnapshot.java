@@ -0,0 +1,288 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot;
+
+import org.gradle.api.internal.cache.StringInterner;
+import org.gradle.internal.hash.HashCode;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * A directory snapshot which keeps the whole tree below it in a few flat arrays, instead of in a tree of snapshot objects.
+ *
+ * The entries are stored in depth-first order. Only the name of each entry is stored, and the hashes of all entries are packed into a single byte array.
+ * The snapshots passed to a visitor are lightweight views, which are created on demand and can be discarded after the visit.
+ * A view only derives its absolute path from the path of its parent, and decodes its hash, when asked for them. Derived paths are interned,
+ * so that fingerprints taken from several visits share them.
+ */
+public class CompactDirectorySnapshot extends DirectorySnapshot {
+    private final Entry entry;
+
+    private CompactDirectorySnapshot(Entry entry) {
+        this.entry = entry;
+    }
+
+    /**
+     * Returns a compact copy of the given snapshot, or the snapshot itself when it is not a directory or cannot be stored compactly.
+     *
+     * A tree can only be stored compactly when it consists of directories and regular files, all hashes have the same length,
+     * and the absolute path of each entry is the path of its parent followed by its name.
+     */
+    public static FileSystemLocationSnapshot compact(FileSystemLocationSnapshot snapshot, StringInterner stringInterner) {
+        if (!(snapshot instanceof DirectorySnapshot) || snapshot instanceof CompactDirectorySnapshot) {
+            return snapshot;
+        }
+        EntryCounter counter = new EntryCounter();
+        snapshot.accept(counter);
+        TreeEncoder encoder = new TreeEncoder(counter.count, snapshot.getHash().length(), stringInterner);
+        snapshot.accept(encoder);
+        if (!encoder.isCompactable()) {
+            return snapshot;
+        }
+        return new CompactDirectorySnapshot(new Entry(encoder.getTree(), 0, null, snapshot.getAbsolutePath()));
+    }
+
+    @Override
+    public String getAbsolutePath() {
+        return entry.getAbsolutePath();
+    }
+
+    @Override
+    public String getName() {
+        return entry.getName();
+    }
+
+    @Override
+    public HashCode getHash() {
+        return entry.getHash();
+    }
+
+    @Override
+    public void accept(FileSystemSnapshotVisitor visitor) {
+        if (!visitor.preVisitDirectory(this)) {
+            return;
+        }
+        entry.tree.visitChildren(entry, visitor);
+        visitor.postVisitDirectory(this);
+    }
+
+    /**
+     * A view of a regular file in a tree.
+     */
+    private static class CompactRegularFileSnapshot extends RegularFileSnapshot {
+        private final Entry entry;
+
+        CompactRegularFileSnapshot(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public String getAbsolutePath() {
+            return entry.getAbsolutePath();
+        }
+
+        @Override
+        public String getName() {
+            return entry.getName();
+        }
+
+        @Override
+        public HashCode getHash() {
+            return entry.getHash();
+        }
+
+        @Override
+        public long getLastModified() {
+            return entry.tree.lastModified[entry.index];
+        }
+    }
+
+    /**
+     * The position of a view in its tree. Derives the absolute path and the hash of the view when they are first asked for.
+     */
+    private static class Entry {
+        private final Tree tree;
+        private final int index;
+        @Nullable
+        private final Entry parent;
+        private String absolutePath;
+        private HashCode hash;
+
+        Entry(Tree tree, int index, @Nullable Entry parent, @Nullable String absolutePath) {
+            this.tree = tree;
+            this.index = index;
+            this.parent = parent;
+            this.absolutePath = absolutePath;
+        }
+
+        String getName() {
+            return tree.names[index];
+        }
+
+        String getAbsolutePath() {
+            if (absolutePath == null) {
+                absolutePath = tree.childPath(parent, index);
+            }
+            return absolutePath;
+        }
+
+        HashCode getHash() {
+            if (hash == null) {
+                hash = tree.getHash(index);
+            }
+            return hash;
+        }
+    }
+
+    private static class Tree {
+        private final String[] names;
+        // For a directory, the index after its last descendant. 0 for a regular file.
+        private final int[] directoryEnds;
+        private final long[] lastModified;
+        private final byte[] hashes;
+        private final int hashLength;
+        private final StringInterner stringInterner;
+
+        Tree(int size, int hashLength, StringInterner stringInterner) {
+            this.names = new String[size];
+            this.directoryEnds = new int[size];
+            this.lastModified = new long[size];
+            this.hashes = new byte[size * hashLength];
+            this.hashLength = hashLength;
+            this.stringInterner = stringInterner;
+        }
+
+        String childPath(Entry parent, int index) {
+            return stringInterner.intern(parent.getAbsolutePath() + File.separatorChar + names[index]);
+        }
+
+        HashCode getHash(int index) {
+            int offset = index * hashLength;
+            return HashCode.fromBytes(Arrays.copyOfRange(hashes, offset, offset + hashLength));
+        }
+
+        void visitChildren(Entry directory, FileSystemSnapshotVisitor visitor) {
+            int end = directoryEnds[directory.index];
+            int child = directory.index + 1;
+            while (child < end) {
+                int childEnd = directoryEnds[child];
+                if (childEnd == 0) {
+                    visitor.visit(new CompactRegularFileSnapshot(new Entry(this, child, directory, null)));
+                    child++;
+                } else {
+                    new CompactDirectorySnapshot(new Entry(this, child, directory, null)).accept(visitor);
+                    child = childEnd;
+                }
+            }
+        }
+    }
+
+    private static class EntryCounter implements FileSystemSnapshotVisitor {
+        private int count;
+
+        @Override
+        public boolean preVisitDirectory(DirectorySnapshot directorySnapshot) {
+            count++;
+            return true;
+        }
+
+        @Override
+        public void visit(FileSystemLocationSnapshot fileSnapshot) {
+            count++;
+        }
+
+        @Override
+        public void postVisitDirectory(DirectorySnapshot directorySnapshot) {
+        }
+    }
+
+    private static class TreeEncoder implements FileSystemSnapshotVisitor {
+        private final Tree tree;
+        private final Deque<Integer> openDirectories = new ArrayDeque<Integer>();
+        private final Deque<String> openDirectoryPaths = new ArrayDeque<String>();
+        private int next;
+        private boolean compactable = true;
+
+        TreeEncoder(int size, int hashLength, StringInterner stringInterner) {
+            this.tree = new Tree(size, hashLength, stringInterner);
+        }
+
+        @Override
+        public boolean preVisitDirectory(DirectorySnapshot directorySnapshot) {
+            if (!add(directorySnapshot)) {
+                return false;
+            }
+            openDirectories.addLast(next - 1);
+            openDirectoryPaths.addLast(directorySnapshot.getAbsolutePath());
+            return true;
+        }
+
+        @Override
+        public void visit(FileSystemLocationSnapshot fileSnapshot) {
+            if (!(fileSnapshot instanceof RegularFileSnapshot)) {
+                compactable = false;
+                return;
+            }
+            if (add(fileSnapshot)) {
+                tree.lastModified[next - 1] = ((RegularFileSnapshot) fileSnapshot).getLastModified();
+            }
+        }
+
+        @Override
+        public void postVisitDirectory(DirectorySnapshot directorySnapshot) {
+            tree.directoryEnds[openDirectories.removeLast()] = next;
+            openDirectoryPaths.removeLast();
+        }
+
+        private boolean add(FileSystemLocationSnapshot snapshot) {
+            if (!compactable) {
+                return false;
+            }
+            String parentPath = openDirectoryPaths.peekLast();
+            HashCode hash = snapshot.getHash();
+            if (hash.length() != tree.hashLength || (parentPath != null && !isChildPath(parentPath, snapshot))) {
+                compactable = false;
+                return false;
+            }
+            int index = next++;
+            tree.names[index] = snapshot.getName();
+            System.arraycopy(hash.toByteArray(), 0, tree.hashes, index * tree.hashLength, tree.hashLength);
+            return true;
+        }
+
+        private static boolean isChildPath(String parentPath, FileSystemLocationSnapshot snapshot) {
+            String absolutePath = snapshot.getAbsolutePath();
+            String name = snapshot.getName();
+            return absolutePath.length() == parentPath.length() + 1 + name.length()
+                && absolutePath.startsWith(parentPath)
+                && absolutePath.charAt(parentPath.length()) == File.separatorChar
+                && absolutePath.endsWith(name);
+        }
+
+        boolean isCompactable() {
+            return compactable;
+        }
+
+        Tree getTree() {
+            return tree;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot;
+
+import org.gradle.internal.hash.HashCode;
+
+/**
+ * A snapshot of a regular file which holds its path, hash and modification time.
+ */
+public class DefaultRegularFileSnapshot extends RegularFileSnapshot {
+    private final String absolutePath;
+    private final String name;
+    private final HashCode contentHash;
+    private final long lastModified;
+
+    public DefaultRegularFileSnapshot(String absolutePath, String name, HashCode contentHash, long lastModified) {
+        this.absolutePath = absolutePath;
+        this.name = name;
+        this.contentHash = contentHash;
+        this.lastModified = lastModified;
+    }
+
+    @Override
+    public String getAbsolutePath() {
+        return absolutePath;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public HashCode getHash() {
+        return contentHash;
+    }
+
+    @Override
+    public long getLastModified() {
+        return lastModified;
+    }
+}
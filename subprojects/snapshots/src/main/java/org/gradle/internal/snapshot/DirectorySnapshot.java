@@ -17,27 +17,14 @@
 package org.gradle.internal.snapshot;
 
 import org.gradle.internal.file.FileType;
-import org.gradle.internal.hash.HashCode;
-
-import java.util.List;
 
 /**
  * A file snapshot which can have children (i.e. a directory).
+ *
+ * @see DefaultDirectorySnapshot
+ * @see CompactDirectorySnapshot
  */
-public class DirectorySnapshot extends AbstractFileSystemLocationSnapshot implements FileSystemLocationSnapshot {
-    private final List<FileSystemLocationSnapshot> children;
-    private final HashCode contentHash;
-
-    public DirectorySnapshot(String absolutePath, String name, List<FileSystemLocationSnapshot> children, HashCode contentHash) {
-        super(absolutePath, name);
-        this.children = children;
-        this.contentHash = contentHash;
-    }
-
-    @Override
-    public HashCode getHash() {
-        return contentHash;
-    }
+public abstract class DirectorySnapshot implements FileSystemLocationSnapshot {
 
     @Override
     public FileType getType() {
@@ -48,15 +35,4 @@ public class DirectorySnapshot extends AbstractFileSystemLocationSnapshot implem
     public boolean isContentAndMetadataUpToDate(FileSystemLocationSnapshot other) {
         return other instanceof DirectorySnapshot;
     }
-
-    @Override
-    public void accept(FileSystemSnapshotVisitor visitor) {
-        if (!visitor.preVisitDirectory(this)) {
-            return;
-        }
-        for (FileSystemLocationSnapshot child : children) {
-            child.accept(visitor);
-        }
-        visitor.postVisitDirectory(this);
-    }
 }
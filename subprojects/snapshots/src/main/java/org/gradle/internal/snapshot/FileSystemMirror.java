@@ -33,8 +33,24 @@ public interface FileSystemMirror {
 
     void putSnapshot(FileSystemLocationSnapshot file);
 
+    /**
+     * Stores the given snapshot, unless some state has been invalidated since {@link #getInvalidationCount()} returned the given count.
+     * A snapshot taken while a change was reported may not reflect the change, so it is dropped.
+     */
+    void putSnapshot(FileSystemLocationSnapshot file, long invalidationCountBeforeSnapshotting);
+
     @Nullable
     FileMetadataSnapshot getMetadata(String absolutePath);
 
     void putMetadata(String absolutePath, FileMetadataSnapshot stat);
+
+    /**
+     * Stores the given metadata, unless some state has been invalidated since {@link #getInvalidationCount()} returned the given count.
+     */
+    void putMetadata(String absolutePath, FileMetadataSnapshot stat, long invalidationCountBeforeStat);
+
+    /**
+     * Returns how often state has been invalidated so far. Read it before reading state from the file system, and pass it when putting that state.
+     */
+    long getInvalidationCount();
 }
@@ -17,30 +17,20 @@
 package org.gradle.internal.snapshot;
 
 import org.gradle.internal.file.FileType;
-import org.gradle.internal.hash.HashCode;
 
 /**
  * A snapshot of a regular file.
+ *
+ * @see DefaultRegularFileSnapshot
  */
-public class RegularFileSnapshot extends AbstractFileSystemLocationSnapshot {
-    private final HashCode contentHash;
-    private final long lastModified;
-
-    public RegularFileSnapshot(String absolutePath, String name, HashCode contentHash, long lastModified) {
-        super(absolutePath, name);
-        this.contentHash = contentHash;
-        this.lastModified = lastModified;
-    }
+public abstract class RegularFileSnapshot implements FileSystemLocationSnapshot {
 
     @Override
     public FileType getType() {
         return FileType.RegularFile;
     }
 
-    @Override
-    public HashCode getHash() {
-        return contentHash;
-    }
+    public abstract long getLastModified();
 
     @Override
     public boolean isContentAndMetadataUpToDate(FileSystemLocationSnapshot other) {
@@ -48,7 +38,7 @@ public class RegularFileSnapshot extends AbstractFileSystemLocationSnapshot {
             return false;
         }
         RegularFileSnapshot otherSnapshot = (RegularFileSnapshot) other;
-        return lastModified == otherSnapshot.lastModified && contentHash.equals(otherSnapshot.contentHash);
+        return getLastModified() == otherSnapshot.getLastModified() && getHash().equals(otherSnapshot.getHash());
     }
 
     @Override
@@ -16,30 +16,45 @@
 
 package org.gradle.internal.snapshot.impl;
 
+import org.gradle.api.internal.cache.StringInterner;
 import org.gradle.internal.file.FileMetadataSnapshot;
+import org.gradle.internal.snapshot.CompactDirectorySnapshot;
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
 import org.gradle.internal.snapshot.FileSystemMirror;
 import org.gradle.internal.snapshot.WellKnownFileLocations;
 
 import javax.annotation.Nullable;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * See {@link DefaultFileSystemSnapshotter} for some more details
+ * See {@link DefaultFileSystemSnapshotter} for some more details.
+ *
+ * State is kept in a {@link FileHierarchy} keyed by path segment, so that an output change only discards the affected subtrees.
+ * State for files that live in an append-only cache is kept separately, and is retained between builds for as long as the daemon lives.
+ * Directory snapshots are kept in the compact form of {@link CompactDirectorySnapshot}.
+ *
+ * Every invalidation increments the invalidation count. State read from the file system before an invalidation is dropped when it is put,
+ * so that a change reported while the state was being read does not leave stale state behind.
  */
 public class DefaultFileSystemMirror implements FileSystemMirror {
-    // Maps from interned absolute path for a file to metadata for the file.
-    private final Map<String, FileMetadataSnapshot> metadata = new ConcurrentHashMap<String, FileMetadataSnapshot>();
-    private final Map<String, FileMetadataSnapshot> cacheMetadata = new ConcurrentHashMap<String, FileMetadataSnapshot>();
-    // Maps from interned absolute path for a file to snapshot for the file.
-    private final Map<String, FileSystemLocationSnapshot> files = new ConcurrentHashMap<String, FileSystemLocationSnapshot>();
-    private final Map<String, FileSystemLocationSnapshot> cacheFiles = new ConcurrentHashMap<String, FileSystemLocationSnapshot>();
+    private final FileHierarchy files = new FileHierarchy();
+    private final FileHierarchy cacheFiles = new FileHierarchy();
 
     private final WellKnownFileLocations wellKnownFileLocations;
+    private final StringInterner stringInterner;
+    // Puts hold the read lock while they check the invalidation count, so no invalidation can happen between the check and the put
+    private final ReadWriteLock invalidationLock = new ReentrantReadWriteLock();
+    private volatile long invalidationCount;
 
     public DefaultFileSystemMirror(WellKnownFileLocations wellKnownFileLocations) {
+        this(wellKnownFileLocations, new StringInterner());
+    }
+
+    public DefaultFileSystemMirror(WellKnownFileLocations wellKnownFileLocations, StringInterner stringInterner) {
         this.wellKnownFileLocations = wellKnownFileLocations;
+        this.stringInterner = stringInterner;
     }
 
     @Nullable
@@ -47,60 +62,124 @@ public class DefaultFileSystemMirror implements FileSystemMirror {
     public FileSystemLocationSnapshot getSnapshot(String absolutePath) {
         // Could potentially also look whether we have the details for an ancestor directory tree
         // Could possibly infer that the path refers to a directory, if we have details for a descendant path (and it's not a missing file)
-        if (wellKnownFileLocations.isImmutable(absolutePath)) {
-            return cacheFiles.get(absolutePath);
-        }
-        return files.get(absolutePath);
+        FileHierarchy.Node node = hierarchyFor(absolutePath).get(absolutePath);
+        return node == null ? null : node.getSnapshot();
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return invalidationCount;
     }
 
     @Override
     public void putSnapshot(FileSystemLocationSnapshot snapshot) {
         String absolutePath = snapshot.getAbsolutePath();
-        if (wellKnownFileLocations.isImmutable(absolutePath)) {
-            cacheFiles.put(absolutePath, snapshot);
-        } else {
-            files.put(absolutePath, snapshot);
+        hierarchyFor(absolutePath).getOrCreate(absolutePath).setSnapshot(CompactDirectorySnapshot.compact(snapshot, stringInterner));
+    }
+
+    @Override
+    public void putSnapshot(FileSystemLocationSnapshot snapshot, long invalidationCountBeforeSnapshotting) {
+        String absolutePath = snapshot.getAbsolutePath();
+        FileSystemLocationSnapshot compactSnapshot = CompactDirectorySnapshot.compact(snapshot, stringInterner);
+        invalidationLock.readLock().lock();
+        try {
+            if (invalidationCount == invalidationCountBeforeSnapshotting) {
+                hierarchyFor(absolutePath).getOrCreate(absolutePath).setSnapshot(compactSnapshot);
+            }
+        } finally {
+            invalidationLock.readLock().unlock();
         }
     }
 
+    @Nullable
     @Override
     public FileMetadataSnapshot getMetadata(String absolutePath) {
-        if (wellKnownFileLocations.isImmutable(absolutePath)) {
-            return cacheMetadata.get(absolutePath);
-        }
-        return metadata.get(absolutePath);
+        FileHierarchy.Node node = hierarchyFor(absolutePath).get(absolutePath);
+        return node == null ? null : node.getMetadata();
     }
 
     @Override
     public void putMetadata(String absolutePath, FileMetadataSnapshot metadata) {
-        if (wellKnownFileLocations.isImmutable(absolutePath)) {
-            cacheMetadata.put(absolutePath, metadata);
-        } else {
-            this.metadata.put(absolutePath, metadata);
+        hierarchyFor(absolutePath).getOrCreate(absolutePath).setMetadata(metadata);
+    }
+
+    @Override
+    public void putMetadata(String absolutePath, FileMetadataSnapshot metadata, long invalidationCountBeforeStat) {
+        invalidationLock.readLock().lock();
+        try {
+            if (invalidationCount == invalidationCountBeforeStat) {
+                hierarchyFor(absolutePath).getOrCreate(absolutePath).setMetadata(metadata);
+            }
+        } finally {
+            invalidationLock.readLock().unlock();
+        }
+    }
+
+    private FileHierarchy hierarchyFor(String absolutePath) {
+        return wellKnownFileLocations.isImmutable(absolutePath) ? cacheFiles : files;
+    }
+
+    /**
+     * Discards all state for the given location, everything below it and the snapshots of its ancestors.
+     */
+    public void invalidate(String absolutePath) {
+        invalidationLock.writeLock().lock();
+        try {
+            invalidationCount++;
+            files.invalidate(absolutePath);
+            cacheFiles.invalidate(absolutePath);
+        } finally {
+            invalidationLock.writeLock().unlock();
         }
     }
 
+    /**
+     * Discards all state for files that do not live in an append-only cache.
+     */
+    public void invalidateAll() {
+        invalidationLock.writeLock().lock();
+        try {
+            invalidationCount++;
+            files.clear();
+        } finally {
+            invalidationLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the top-most locations for which state about files that do not live in an append-only cache is known.
+     */
+    public List<String> getRoots() {
+        return files.getRoots();
+    }
+
     public void beforeOutputChange() {
         // When the outputs are generated, throw away all state for files that do not live in an append-only cache.
-        // This is intentionally very simple, to be improved later
-        metadata.clear();
-        files.clear();
+        invalidateAll();
     }
 
     public void beforeBuildFinished() {
-        // We throw away all state between builds
-        metadata.clear();
-        cacheMetadata.clear();
-        files.clear();
-        cacheFiles.clear();
+        // Files that do not live in an append-only cache may change between builds, so we throw away their state.
+        // Files in the append-only caches are never modified in place, so we keep their state for the next build.
+        invalidateAll();
+    }
+
+    /**
+     * Like {@link #beforeBuildFinished()}, but keeps the state at or below the given locations, as any change to them is known to be reported via {@link #invalidate(String)}.
+     */
+    public void beforeBuildFinished(Iterable<String> watchedRoots) {
+        invalidationLock.writeLock().lock();
+        try {
+            invalidationCount++;
+            files.retain(watchedRoots);
+        } finally {
+            invalidationLock.writeLock().unlock();
+        }
     }
 
     public void beforeOutputChange(Iterable<String> affectedOutputPaths) {
         for (String affectedOutputPath : affectedOutputPaths) {
-            metadata.remove(affectedOutputPath);
-            files.remove(affectedOutputPath);
-            cacheMetadata.remove(affectedOutputPath);
-            cacheFiles.remove(affectedOutputPath);
+            invalidate(affectedOutputPath);
         }
     }
 }
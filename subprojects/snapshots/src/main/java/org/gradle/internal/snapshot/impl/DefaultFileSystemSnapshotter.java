@@ -29,13 +29,18 @@ import org.gradle.api.internal.file.collections.DirectoryFileTree;
 import org.gradle.api.specs.Spec;
 import org.gradle.api.tasks.util.PatternSet;
 import org.gradle.cache.internal.ProducerGuard;
+import org.gradle.concurrent.ParallelismConfiguration;
 import org.gradle.internal.Factory;
 import org.gradle.internal.MutableBoolean;
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.ManagedExecutor;
+import org.gradle.internal.concurrent.Stoppable;
 import org.gradle.internal.file.FileMetadataSnapshot;
 import org.gradle.internal.file.FileType;
 import org.gradle.internal.hash.FileHasher;
 import org.gradle.internal.hash.HashCode;
 import org.gradle.internal.nativeintegration.filesystem.FileSystem;
+import org.gradle.internal.snapshot.DefaultRegularFileSnapshot;
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
 import org.gradle.internal.snapshot.FileSystemMirror;
 import org.gradle.internal.snapshot.FileSystemSnapshot;
@@ -60,7 +65,7 @@ import java.util.List;
  * The implementations are currently intentionally very, very simple, and so there are a number of ways in which they can be made much more efficient. This can happen over time.
  */
 @NonNullApi
-public class DefaultFileSystemSnapshotter implements FileSystemSnapshotter {
+public class DefaultFileSystemSnapshotter implements FileSystemSnapshotter, Stoppable {
     private static final PatternSet EMPTY_PATTERN_SET = new PatternSet();
 
     private final FileHasher hasher;
@@ -69,15 +74,40 @@ public class DefaultFileSystemSnapshotter implements FileSystemSnapshotter {
     private final FileSystemMirror fileSystemMirror;
     private final ProducerGuard<String> producingSnapshots = ProducerGuard.striped();
     private final DirectorySnapshotter directorySnapshotter;
+    @Nullable
+    private final ManagedExecutor directorySnapshotExecutor;
 
+    /**
+     * Creates a snapshotter which walks directory trees on the calling thread.
+     */
     public DefaultFileSystemSnapshotter(FileHasher hasher, StringInterner stringInterner, FileSystem fileSystem, FileSystemMirror fileSystemMirror, String... defaultExcludes) {
         this.hasher = hasher;
         this.stringInterner = stringInterner;
         this.fileSystem = fileSystem;
         this.fileSystemMirror = fileSystemMirror;
+        this.directorySnapshotExecutor = null;
         this.directorySnapshotter = new DirectorySnapshotter(hasher, fileSystem, stringInterner, defaultExcludes);
     }
 
+    /**
+     * Creates a snapshotter which walks directory trees on a thread pool of its own, with as many threads as there are workers.
+     */
+    public DefaultFileSystemSnapshotter(FileHasher hasher, StringInterner stringInterner, FileSystem fileSystem, FileSystemMirror fileSystemMirror, ExecutorFactory executorFactory, ParallelismConfiguration parallelismConfiguration, String... defaultExcludes) {
+        this.hasher = hasher;
+        this.stringInterner = stringInterner;
+        this.fileSystem = fileSystem;
+        this.fileSystemMirror = fileSystemMirror;
+        this.directorySnapshotExecutor = executorFactory.create("Snapshot directories", parallelismConfiguration.getMaxWorkerCount());
+        this.directorySnapshotter = new DirectorySnapshotter(hasher, fileSystem, stringInterner, directorySnapshotExecutor, defaultExcludes);
+    }
+
+    @Override
+    public void stop() {
+        if (directorySnapshotExecutor != null) {
+            directorySnapshotExecutor.stop();
+        }
+    }
+
     @Override
     public HashCode getRegularFileContentHash(final File file) {
         final String absolutePath = file.getAbsolutePath();
@@ -95,12 +125,13 @@ public class DefaultFileSystemSnapshotter implements FileSystemSnapshotter {
             @Nullable
             @Override
             public HashCode create() {
+                long invalidationCount = fileSystemMirror.getInvalidationCount();
                 InternableString internableAbsolutePath = new InternableString(absolutePath);
-                FileMetadataSnapshot metadata = statAndCache(internableAbsolutePath, file);
+                FileMetadataSnapshot metadata = statAndCache(internableAbsolutePath, file, invalidationCount);
                 if (metadata.getType() != FileType.RegularFile) {
                     return null;
                 }
-                FileSystemLocationSnapshot snapshot = snapshotAndCache(internableAbsolutePath, file, metadata, null);
+                FileSystemLocationSnapshot snapshot = snapshotAndCache(internableAbsolutePath, file, metadata, null, invalidationCount);
                 return snapshot.getHash();
             }
         });
@@ -129,27 +160,29 @@ public class DefaultFileSystemSnapshotter implements FileSystemSnapshotter {
     }
 
     private FileSystemLocationSnapshot snapshotAndCache(File file, @Nullable PatternSet patternSet) {
+        // Read before anything is read from the file system, so that state read before a change is reported is not retained
+        long invalidationCount = fileSystemMirror.getInvalidationCount();
         InternableString absolutePath = new InternableString(file.getAbsolutePath());
-        FileMetadataSnapshot metadata = statAndCache(absolutePath, file);
-        return snapshotAndCache(absolutePath, file, metadata, patternSet);
+        FileMetadataSnapshot metadata = statAndCache(absolutePath, file, invalidationCount);
+        return snapshotAndCache(absolutePath, file, metadata, patternSet, invalidationCount);
     }
 
-    private FileMetadataSnapshot statAndCache(InternableString absolutePath, File file) {
+    private FileMetadataSnapshot statAndCache(InternableString absolutePath, File file, long invalidationCount) {
         FileMetadataSnapshot metadata = fileSystemMirror.getMetadata(absolutePath.asNonInterned());
         if (metadata == null) {
             metadata = fileSystem.stat(file);
-            fileSystemMirror.putMetadata(absolutePath.asInterned(), metadata);
+            fileSystemMirror.putMetadata(absolutePath.asInterned(), metadata, invalidationCount);
         }
         return metadata;
     }
 
-    private FileSystemLocationSnapshot snapshotAndCache(InternableString absolutePath, File file, FileMetadataSnapshot metadata, @Nullable PatternSet patternSet) {
+    private FileSystemLocationSnapshot snapshotAndCache(InternableString absolutePath, File file, FileMetadataSnapshot metadata, @Nullable PatternSet patternSet, long invalidationCount) {
         FileSystemLocationSnapshot fileSystemLocationSnapshot = fileSystemMirror.getSnapshot(absolutePath.asNonInterned());
         if (fileSystemLocationSnapshot == null) {
             MutableBoolean hasBeenFiltered = new MutableBoolean(false);
             fileSystemLocationSnapshot = snapshot(absolutePath.asInterned(), patternSet, file, metadata, hasBeenFiltered);
             if (!hasBeenFiltered.get()) {
-                fileSystemMirror.putSnapshot(fileSystemLocationSnapshot);
+                fileSystemMirror.putSnapshot(fileSystemLocationSnapshot, invalidationCount);
             }
         }
         return fileSystemLocationSnapshot;
@@ -161,7 +194,7 @@ public class DefaultFileSystemSnapshotter implements FileSystemSnapshotter {
             case Missing:
                 return new MissingFileSnapshot(absolutePath, name);
             case RegularFile:
-                return new RegularFileSnapshot(absolutePath, name, hasher.hash(file, metadata), metadata.getLastModified());
+                return new DefaultRegularFileSnapshot(absolutePath, name, hasher.hash(file, metadata), metadata.getLastModified());
             case Directory:
                 return directorySnapshotter.snapshot(absolutePath, patternSet, hasBeenFiltered);
             default:
@@ -217,7 +250,7 @@ public class DefaultFileSystemSnapshotter implements FileSystemSnapshotter {
             }
 
             private RegularFileSnapshot regularFileSnapshot(FileVisitDetails fileDetails) {
-                return new RegularFileSnapshot(stringInterner.intern(fileDetails.getFile().getAbsolutePath()), fileDetails.getName(), hasher.hash(fileDetails), fileDetails.getLastModified());
+                return new DefaultRegularFileSnapshot(stringInterner.intern(fileDetails.getFile().getAbsolutePath()), fileDetails.getName(), hasher.hash(fileDetails), fileDetails.getLastModified());
             }
         });
         return builder.build();
@@ -20,9 +20,11 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.gradle.api.GradleException;
 import org.gradle.api.file.FileTreeElement;
 import org.gradle.api.file.RelativePath;
@@ -37,6 +39,8 @@ import org.gradle.internal.hash.HashCode;
 import org.gradle.internal.nativeintegration.filesystem.DefaultFileMetadata;
 import org.gradle.internal.nativeintegration.filesystem.FileSystem;
 import org.gradle.internal.nativeintegration.filesystem.Stat;
+import org.gradle.internal.snapshot.DefaultRegularFileSnapshot;
+import org.gradle.internal.snapshot.DirectorySnapshot;
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
 import org.gradle.internal.snapshot.MerkleDirectorySnapshotBuilder;
 import org.gradle.internal.snapshot.RegularFileSnapshot;
@@ -46,124 +50,416 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.file.FileSystemLoopException;
-import java.nio.file.FileVisitOption;
-import java.nio.file.FileVisitResult;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.EnumSet;
+import java.util.ArrayList;
 import java.util.List;
-
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Snapshots a directory tree, walking and hashing sibling directories in parallel.
+ *
+ * Each directory is snapshotted by its own task, which lists the directory, submits a task per subdirectory and per chunk of {@link #FILES_PER_TASK} regular files to the executor,
+ * and hashes the first chunk of files itself. No task waits for another: whichever task finishes the last piece of work of a directory builds the snapshot of the directory
+ * and hands it to its parent, so the tree can be walked by an executor with a bounded number of threads.
+ * The children of each directory are sorted by {@link MerkleDirectorySnapshotBuilder}, so the result does not depend on the order in which the tasks finish.
+ *
+ * Trees filtered by patterns are walked on the calling thread, as the specs of the patterns are not required to be thread-safe.
+ */
 public class DirectorySnapshotter {
+    @VisibleForTesting
+    static final int FILES_PER_TASK = 64;
+
     private final FileHasher hasher;
     private final FileSystem fileSystem;
     private final StringInterner stringInterner;
     private final DefaultExcludes defaultExcludes;
+    private final Executor executor;
 
+    /**
+     * Creates a snapshotter which walks directory trees on the calling thread.
+     */
     public DirectorySnapshotter(FileHasher hasher, FileSystem fileSystem, StringInterner stringInterner, String... defaultExcludes) {
+        this(hasher, fileSystem, stringInterner, MoreExecutors.directExecutor(), defaultExcludes);
+    }
+
+    public DirectorySnapshotter(FileHasher hasher, FileSystem fileSystem, StringInterner stringInterner, Executor executor, String... defaultExcludes) {
         this.hasher = hasher;
         this.fileSystem = fileSystem;
         this.stringInterner = stringInterner;
         this.defaultExcludes = new DefaultExcludes(defaultExcludes);
+        this.executor = executor;
     }
 
     public FileSystemLocationSnapshot snapshot(String absolutePath, @Nullable PatternSet patterns, final MutableBoolean hasBeenFiltered) {
         Path rootPath = Paths.get(absolutePath);
-        final Spec<FileTreeElement> spec = (patterns == null || patterns.isEmpty()) ? null : patterns.getAsSpec();
-        final MerkleDirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.sortingRequired();
-
-        try {
-            Files.walkFileTree(rootPath, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new java.nio.file.FileVisitor<Path>() {
-                @Override
-                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-                    String name = stringInterner.intern(dir.getFileName().toString());
-                    if (builder.isRoot() || isAllowed(dir, name, true, attrs, builder.getRelativePath())) {
-                        builder.preVisitDirectory(internedAbsolutePath(dir), name);
-                        return FileVisitResult.CONTINUE;
-                    } else {
-                        return FileVisitResult.SKIP_SUBTREE;
-                    }
+        Spec<FileTreeElement> spec = (patterns == null || patterns.isEmpty()) ? null : patterns.getAsSpec();
+        SnapshotWalk walk = new SnapshotWalk(spec, hasBeenFiltered, spec == null ? executor : MoreExecutors.directExecutor());
+        FileSystemLocationSnapshot result = walk.snapshotRoot(rootPath);
+        walk.rethrowFailure();
+        return result;
+    }
+
+    /**
+     * The state shared by all the tasks snapshotting the same tree.
+     *
+     * Failures are collected here rather than thrown, so that every task still completes its share of the work and the walk finishes.
+     */
+    private class SnapshotWalk {
+        private final Spec<FileTreeElement> spec;
+        private final MutableBoolean hasBeenFiltered;
+        private final Executor executor;
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        private final CountDownLatch rootCompleted = new CountDownLatch(1);
+        private volatile DirectorySnapshot rootSnapshot;
+
+        SnapshotWalk(@Nullable Spec<FileTreeElement> spec, MutableBoolean hasBeenFiltered, Executor executor) {
+            this.spec = spec;
+            this.hasBeenFiltered = hasBeenFiltered;
+            this.executor = executor;
+        }
+
+        @Nullable
+        FileSystemLocationSnapshot snapshotRoot(Path rootPath) {
+            try {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = readAttributes(rootPath);
+                } catch (IOException e) {
+                    checkReadable(rootPath, e, ImmutableList.<String>of());
+                    return null;
+                }
+                String name = internedName(rootPath);
+                if (attrs.isDirectory()) {
+                    new DirectorySnapshotTask(this, rootPath, name, ImmutableList.<String>of(), new Ancestor(rootPath, attrs.fileKey(), null), null, 0).run();
+                    return awaitRoot();
                 }
+                if (isAllowed(rootPath, name, false, attrs, ImmutableList.<String>of())) {
+                    return snapshotFile(rootPath, name, attrs);
+                }
+                return null;
+            } catch (RuntimeException e) {
+                fail(e);
+                return null;
+            }
+        }
 
-                @Override
-                public FileVisitResult visitFile(Path file, @Nullable BasicFileAttributes attrs) {
-                    String name = stringInterner.intern(file.getFileName().toString());
-                    if (isAllowed(file, name, false, attrs, builder.getRelativePath())) {
-                        if (attrs == null) {
-                            throw new GradleException(String.format("Cannot read file '%s': not authorized.", file));
-                        }
-                        if (attrs.isSymbolicLink()) {
-                            // when FileVisitOption.FOLLOW_LINKS, we only get here when link couldn't be followed
-                            throw new GradleException(String.format("Could not list contents of '%s'. Couldn't follow symbolic link.", file));
-                        }
-                        addFileSnapshot(file, name, attrs);
-                    }
-                    return FileVisitResult.CONTINUE;
+        void completeRoot(@Nullable DirectorySnapshot snapshot) {
+            rootSnapshot = snapshot;
+            rootCompleted.countDown();
+        }
+
+        @Nullable
+        private DirectorySnapshot awaitRoot() {
+            try {
+                rootCompleted.await();
+            } catch (InterruptedException e) {
+                throw UncheckedException.throwAsUncheckedException(e);
+            }
+            return rootSnapshot;
+        }
+
+        void submit(Runnable task) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // The executor is shutting down, so finish the walk on this thread
+                task.run();
+            }
+        }
+
+        void fail(Throwable e) {
+            failure.compareAndSet(null, e);
+        }
+
+        boolean hasFailed() {
+            return failure.get() != null;
+        }
+
+        void rethrowFailure() {
+            Throwable e = failure.get();
+            if (e != null) {
+                throw UncheckedException.throwAsUncheckedException(e);
+            }
+        }
+
+        @Nullable
+        BasicFileAttributes readAttributes(Path path) throws IOException {
+            try {
+                return Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (IOException e) {
+                // Mirrors Files.walkFileTree() with FileVisitOption.FOLLOW_LINKS: a link that can't be followed is reported as the link itself
+                try {
+                    return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException ignored) {
+                    throw e;
                 }
+            }
+        }
 
-                @Override
-                public FileVisitResult visitFileFailed(Path file, IOException exc) {
-                    // File loop exceptions are ignored. When we encounter a loop (via symbolic links), we continue
-                    // so we include all the other files apart from the loop.
-                    // This way, we include each file only once.
-                    if (isNotFileSystemLoopException(exc) && isAllowed(file, file.getFileName().toString(), false, null, builder.getRelativePath())) {
-                        throw new GradleException(String.format("Could not read path '%s'.", file), exc);
-                    }
-                    return FileVisitResult.CONTINUE;
+        void checkReadable(Path path, IOException failure, Iterable<String> relativePath) {
+            if (isAllowed(path, path.getFileName().toString(), false, null, relativePath)) {
+                throw new GradleException(String.format("Could not read path '%s'.", path), failure);
+            }
+        }
+
+        RegularFileSnapshot snapshotFile(Path file, String name, BasicFileAttributes attrs) {
+            if (attrs.isSymbolicLink()) {
+                // when following links, we only get here when link couldn't be followed
+                throw new GradleException(String.format("Could not list contents of '%s'. Couldn't follow symbolic link.", file));
+            }
+            DefaultFileMetadata metadata = new DefaultFileMetadata(FileType.RegularFile, attrs.lastModifiedTime().toMillis(), attrs.size());
+            HashCode hash = hasher.hash(file.toFile(), metadata);
+            return new DefaultRegularFileSnapshot(internedAbsolutePath(file), name, hash, metadata.getLastModified());
+        }
+
+        String internedAbsolutePath(Path file) {
+            return stringInterner.intern(file.toString());
+        }
+
+        String internedName(Path file) {
+            return stringInterner.intern(file.getFileName().toString());
+        }
+
+        boolean isAllowed(Path path, String name, boolean isDirectory, @Nullable BasicFileAttributes attrs, Iterable<String> relativePath) {
+            if (isDirectory) {
+                if (defaultExcludes.excludeDir(name)) {
+                    return false;
                 }
+            } else if (defaultExcludes.excludeFile(name)) {
+                return false;
+            }
+            if (spec == null) {
+                return true;
+            }
+            boolean allowed = spec.isSatisfiedBy(new PathBackedFileTreeElement(path, name, isDirectory, attrs, relativePath, fileSystem));
+            if (!allowed) {
+                hasBeenFiltered.set(true);
+            }
+            return allowed;
+        }
+    }
 
-                @Override
-                public FileVisitResult postVisitDirectory(Path dir, @Nullable IOException exc) {
-                    // File loop exceptions are ignored. When we encounter a loop (via symbolic links), we continue
-                    // so we include all the other files apart from the loop.
+    private class DirectorySnapshotTask implements Runnable {
+        private final SnapshotWalk walk;
+        private final Path dir;
+        private final String name;
+        private final ImmutableList<String> parentRelativePath;
+        private final Ancestor ancestors;
+        private final DirectorySnapshotTask parent;
+        private final int indexInParent;
+        // The pieces of work left before the snapshot of the directory can be built: the listing, each subdirectory and each chunk of files
+        private final AtomicInteger pendingWork = new AtomicInteger(1);
+        // Set by the listing, before any other piece of work is submitted
+        private RegularFileSnapshot[] fileSnapshots;
+        private DirectorySnapshot[] directorySnapshots;
+
+        DirectorySnapshotTask(SnapshotWalk walk, Path dir, String name, ImmutableList<String> parentRelativePath, Ancestor ancestors, @Nullable DirectorySnapshotTask parent, int indexInParent) {
+            this.walk = walk;
+            this.dir = dir;
+            this.name = name;
+            this.parentRelativePath = parentRelativePath;
+            this.ancestors = ancestors;
+            this.parent = parent;
+            this.indexInParent = indexInParent;
+        }
+
+        @Override
+        public void run() {
+            try {
+                listDirectory();
+            } catch (Throwable e) {
+                walk.fail(e);
+            } finally {
+                workDone();
+            }
+        }
+
+        private void listDirectory() {
+            List<Path> entries = new ArrayList<Path>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path entry : stream) {
+                    entries.add(entry);
+                }
+            } catch (DirectoryIteratorException e) {
+                throw new GradleException(String.format("Could not read directory path '%s'.", dir), e.getCause());
+            } catch (IOException e) {
+                walk.checkReadable(dir, e, parentRelativePath);
+                return;
+            }
+
+            ImmutableList<String> relativePath = parent == null ? parentRelativePath : ImmutableList.<String>builder().addAll(parentRelativePath).add(name).build();
+            List<DirectorySnapshotTask> directoryTasks = new ArrayList<DirectorySnapshotTask>();
+            List<FileEntry> files = new ArrayList<FileEntry>();
+            for (Path entry : entries) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = walk.readAttributes(entry);
+                } catch (IOException e) {
+                    walk.checkReadable(entry, e, relativePath);
+                    continue;
+                }
+                String entryName = walk.internedName(entry);
+                if (attrs.isDirectory()) {
+                    // When we encounter a loop (via symbolic links), we continue so we include all the other files apart from the loop.
                     // This way, we include each file only once.
-                    if (isNotFileSystemLoopException(exc)) {
-                        throw new GradleException(String.format("Could not read directory path '%s'.", dir), exc);
+                    if (!ancestors.wouldLoop(entry, attrs.fileKey()) && walk.isAllowed(entry, entryName, true, attrs, relativePath)) {
+                        directoryTasks.add(new DirectorySnapshotTask(walk, entry, entryName, relativePath, new Ancestor(entry, attrs.fileKey(), ancestors), this, directoryTasks.size()));
                     }
-                    builder.postVisitDirectory();
-                    return FileVisitResult.CONTINUE;
+                } else if (walk.isAllowed(entry, entryName, false, attrs, relativePath)) {
+                    files.add(new FileEntry(entry, entryName, attrs));
                 }
+            }
 
-                private boolean isNotFileSystemLoopException(@Nullable IOException e) {
-                    return e != null && !(e instanceof FileSystemLoopException);
-                }
+            fileSnapshots = new RegularFileSnapshot[files.size()];
+            directorySnapshots = new DirectorySnapshot[directoryTasks.size()];
+            List<FileHashingTask> fileTasks = new ArrayList<FileHashingTask>();
+            for (int from = 0; from < files.size(); from += FILES_PER_TASK) {
+                fileTasks.add(new FileHashingTask(this, files, from, Math.min(from + FILES_PER_TASK, files.size())));
+            }
+            pendingWork.addAndGet(directoryTasks.size() + fileTasks.size());
+            for (DirectorySnapshotTask directoryTask : directoryTasks) {
+                walk.submit(directoryTask);
+            }
+            for (int i = 1; i < fileTasks.size(); i++) {
+                walk.submit(fileTasks.get(i));
+            }
+            if (!fileTasks.isEmpty()) {
+                fileTasks.get(0).run();
+            }
+        }
+
+        void childCompleted(int index, @Nullable DirectorySnapshot snapshot) {
+            directorySnapshots[index] = snapshot;
+            workDone();
+        }
 
-                private void addFileSnapshot(Path file, String name, BasicFileAttributes attrs) {
-                    Preconditions.checkNotNull(attrs, "Unauthorized access to %", file);
-                    DefaultFileMetadata metadata = new DefaultFileMetadata(FileType.RegularFile, attrs.lastModifiedTime().toMillis(), attrs.size());
-                    HashCode hash = hasher.hash(file.toFile(), metadata);
-                    RegularFileSnapshot fileSnapshot = new RegularFileSnapshot(internedAbsolutePath(file), name, hash, metadata.getLastModified());
+        /**
+         * Completes a piece of work of this directory. The task which completes the last piece builds the snapshot of the directory.
+         */
+        void workDone() {
+            if (pendingWork.decrementAndGet() != 0) {
+                return;
+            }
+            DirectorySnapshot snapshot = null;
+            try {
+                snapshot = buildSnapshot();
+            } catch (Throwable e) {
+                walk.fail(e);
+            }
+            if (parent == null) {
+                walk.completeRoot(snapshot);
+            } else {
+                parent.childCompleted(indexInParent, snapshot);
+            }
+        }
+
+        @Nullable
+        private DirectorySnapshot buildSnapshot() {
+            if (fileSnapshots == null || walk.hasFailed()) {
+                return null;
+            }
+            MerkleDirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.sortingRequired();
+            builder.preVisitDirectory(walk.internedAbsolutePath(dir), name);
+            for (RegularFileSnapshot fileSnapshot : fileSnapshots) {
+                if (fileSnapshot != null) {
                     builder.visit(fileSnapshot);
                 }
+            }
+            for (DirectorySnapshot directorySnapshot : directorySnapshots) {
+                if (directorySnapshot != null) {
+                    builder.visit(directorySnapshot);
+                }
+            }
+            builder.postVisitDirectory();
+            return (DirectorySnapshot) builder.getResult();
+        }
+    }
 
-                private String internedAbsolutePath(Path file) {
-                    return stringInterner.intern(file.toString());
+    private class FileHashingTask implements Runnable {
+        private final DirectorySnapshotTask directory;
+        private final List<FileEntry> files;
+        private final int from;
+        private final int to;
+
+        FileHashingTask(DirectorySnapshotTask directory, List<FileEntry> files, int from, int to) {
+            this.directory = directory;
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public void run() {
+            SnapshotWalk walk = directory.walk;
+            try {
+                for (int i = from; i < to && !walk.hasFailed(); i++) {
+                    FileEntry file = files.get(i);
+                    directory.fileSnapshots[i] = walk.snapshotFile(file.path, file.name, file.attrs);
                 }
+            } catch (Throwable e) {
+                walk.fail(e);
+            } finally {
+                directory.workDone();
+            }
+        }
+    }
 
-                private boolean isAllowed(Path path, String name, boolean isDirectory, @Nullable BasicFileAttributes attrs, Iterable<String> relativePath) {
-                    if (isDirectory) {
-                        if (defaultExcludes.excludeDir(name)) {
-                            return false;
-                        }
-                    } else if (defaultExcludes.excludeFile(name)) {
-                        return false;
-                    }
-                    if (spec == null) {
+    private static class FileEntry {
+        private final Path path;
+        private final String name;
+        private final BasicFileAttributes attrs;
+
+        FileEntry(Path path, String name, BasicFileAttributes attrs) {
+            this.path = path;
+            this.name = name;
+            this.attrs = attrs;
+        }
+    }
+
+    /**
+     * The chain of directories from the root of the walk to the directory being visited, used to detect loops via symbolic links.
+     */
+    private static class Ancestor {
+        private final Path dir;
+        private final Object fileKey;
+        private final Ancestor parent;
+
+        Ancestor(Path dir, @Nullable Object fileKey, @Nullable Ancestor parent) {
+            this.dir = dir;
+            this.fileKey = fileKey;
+            this.parent = parent;
+        }
+
+        boolean wouldLoop(Path dir, @Nullable Object fileKey) {
+            for (Ancestor ancestor = this; ancestor != null; ancestor = ancestor.parent) {
+                if (fileKey != null && ancestor.fileKey != null) {
+                    if (fileKey.equals(ancestor.fileKey)) {
                         return true;
                     }
-                    boolean allowed = spec.isSatisfiedBy(new PathBackedFileTreeElement(path, name, isDirectory, attrs, relativePath, fileSystem));
-                    if (!allowed) {
-                        hasBeenFiltered.set(true);
-                    }
-                    return allowed;
+                } else if (isSameFile(dir, ancestor.dir)) {
+                    return true;
                 }
-            });
-        } catch (IOException e) {
-            throw new GradleException(String.format("Could not list contents of directory '%s'.", rootPath), e);
+            }
+            return false;
+        }
+
+        private static boolean isSameFile(Path dir, Path other) {
+            try {
+                return Files.isSameFile(dir, other);
+            } catch (IOException | SecurityException e) {
+                return false;
+            }
         }
-        return builder.getResult();
     }
 
     @VisibleForTesting
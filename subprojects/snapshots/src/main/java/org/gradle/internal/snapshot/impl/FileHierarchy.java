@@ -0,0 +1,261 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot.impl;
+
+import org.gradle.internal.file.FileMetadataSnapshot;
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A prefix tree of absolute paths, keyed by path segment.
+ *
+ * Nodes for a common parent directory are shared, so state about a whole subtree can be discarded in one step.
+ * Each node can hold the metadata and the snapshot of the file at its location.
+ */
+class FileHierarchy {
+    private final char separator;
+    private final Node root = new Node();
+
+    FileHierarchy() {
+        this(File.separatorChar);
+    }
+
+    FileHierarchy(char separator) {
+        this.separator = separator;
+    }
+
+    @Nullable
+    public Node get(String absolutePath) {
+        Node current = root;
+        int start = 0;
+        int length = absolutePath.length();
+        while (current != null && start < length) {
+            int end = segmentEnd(absolutePath, start);
+            if (end > start) {
+                current = current.getChild(absolutePath.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return current;
+    }
+
+    public Node getOrCreate(String absolutePath) {
+        Node current = root;
+        int start = 0;
+        int length = absolutePath.length();
+        while (start < length) {
+            int end = segmentEnd(absolutePath, start);
+            if (end > start) {
+                current = current.getOrCreateChild(absolutePath.substring(start, end));
+            }
+            start = end + 1;
+        }
+        current.setAbsolutePath(absolutePath);
+        return current;
+    }
+
+    /**
+     * Returns the top-most locations which hold some state. All state in this hierarchy lives at or below one of these locations.
+     */
+    public List<String> getRoots() {
+        List<String> roots = new ArrayList<String>();
+        collectRoots(root, roots);
+        return roots;
+    }
+
+    private static void collectRoots(Node node, Collection<String> roots) {
+        String absolutePath = node.absolutePath;
+        if (absolutePath != null && node.hasState()) {
+            roots.add(absolutePath);
+            return;
+        }
+        ConcurrentMap<String, Node> children = node.children;
+        if (children != null) {
+            for (Node child : children.values()) {
+                collectRoots(child, roots);
+            }
+        }
+    }
+
+    /**
+     * Discards all state, except for the state at or below the given locations.
+     */
+    public void retain(Iterable<String> absolutePaths) {
+        Map<String, Node> retained = new LinkedHashMap<String, Node>();
+        for (String absolutePath : absolutePaths) {
+            Node node = get(absolutePath);
+            if (node != null) {
+                retained.put(absolutePath, node);
+            }
+        }
+        clear();
+        for (Map.Entry<String, Node> entry : retained.entrySet()) {
+            attach(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void attach(String absolutePath, Node node) {
+        Node parent = null;
+        String segmentInParent = null;
+        Node current = root;
+        int start = 0;
+        int length = absolutePath.length();
+        while (start < length) {
+            int end = segmentEnd(absolutePath, start);
+            if (end > start) {
+                parent = current;
+                segmentInParent = absolutePath.substring(start, end);
+                current = current.getOrCreateChild(segmentInParent);
+            }
+            start = end + 1;
+        }
+        if (parent != null) {
+            parent.putChild(segmentInParent, node);
+        }
+    }
+
+    /**
+     * Discards all state for the given location and everything below it.
+     *
+     * The snapshots of the ancestors are discarded as well, since a directory snapshot includes the state of its descendants.
+     * The metadata of the ancestors is kept, as a change below a directory does not change the type of the directory.
+     */
+    public void invalidate(String absolutePath) {
+        Node parent = null;
+        String segmentInParent = null;
+        Node current = root;
+        int start = 0;
+        int length = absolutePath.length();
+        while (start < length) {
+            int end = segmentEnd(absolutePath, start);
+            if (end > start) {
+                current.invalidateSnapshot();
+                parent = current;
+                segmentInParent = absolutePath.substring(start, end);
+                current = current.getChild(segmentInParent);
+                if (current == null) {
+                    return;
+                }
+            }
+            start = end + 1;
+        }
+        if (parent == null) {
+            clear();
+        } else {
+            parent.removeChild(segmentInParent);
+        }
+    }
+
+    public void clear() {
+        root.clear();
+    }
+
+    private int segmentEnd(String absolutePath, int start) {
+        int end = absolutePath.indexOf(separator, start);
+        return end < 0 ? absolutePath.length() : end;
+    }
+
+    static class Node {
+        private volatile ConcurrentMap<String, Node> children;
+        private volatile String absolutePath;
+        private volatile FileMetadataSnapshot metadata;
+        private volatile FileSystemLocationSnapshot snapshot;
+
+        @Nullable
+        public FileMetadataSnapshot getMetadata() {
+            return metadata;
+        }
+
+        public void setMetadata(FileMetadataSnapshot metadata) {
+            this.metadata = metadata;
+        }
+
+        @Nullable
+        public FileSystemLocationSnapshot getSnapshot() {
+            return snapshot;
+        }
+
+        public void setSnapshot(FileSystemLocationSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        private void setAbsolutePath(String absolutePath) {
+            if (this.absolutePath == null) {
+                this.absolutePath = absolutePath;
+            }
+        }
+
+        private boolean hasState() {
+            return metadata != null || snapshot != null;
+        }
+
+        private void invalidateSnapshot() {
+            snapshot = null;
+        }
+
+        @Nullable
+        private Node getChild(String segment) {
+            ConcurrentMap<String, Node> children = this.children;
+            return children == null ? null : children.get(segment);
+        }
+
+        private Node getOrCreateChild(String segment) {
+            return getOrCreateChildren().computeIfAbsent(segment, key -> new Node());
+        }
+
+        private void putChild(String segment, Node child) {
+            getOrCreateChildren().put(segment, child);
+        }
+
+        private ConcurrentMap<String, Node> getOrCreateChildren() {
+            ConcurrentMap<String, Node> children = this.children;
+            if (children == null) {
+                synchronized (this) {
+                    children = this.children;
+                    if (children == null) {
+                        children = new ConcurrentHashMap<String, Node>(4);
+                        this.children = children;
+                    }
+                }
+            }
+            return children;
+        }
+
+        private void removeChild(String segment) {
+            ConcurrentMap<String, Node> children = this.children;
+            if (children != null) {
+                children.remove(segment);
+            }
+        }
+
+        private void clear() {
+            children = null;
+            absolutePath = null;
+            metadata = null;
+            snapshot = null;
+        }
+    }
+}
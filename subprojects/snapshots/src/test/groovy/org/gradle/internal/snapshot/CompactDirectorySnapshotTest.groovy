@@ -0,0 +1,212 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot
+
+import org.gradle.api.internal.cache.StringInterner
+import org.gradle.internal.hash.HashCode
+import org.gradle.internal.hash.Hashing
+import spock.lang.Shared
+import spock.lang.Specification
+
+class CompactDirectorySnapshotTest extends Specification {
+    @Shared
+    def root = new File("root").absoluteFile
+    def stringInterner = new StringInterner()
+
+    def "compact snapshot visits the same tree"() {
+        def original = tree(root) {
+            file("a.txt", 1)
+            dir("empty") {}
+            dir("sub") {
+                file("b.txt", 2)
+                dir("nested") {
+                    file("c.txt", 3)
+                }
+            }
+            file("d.txt", 4)
+        }
+
+        when:
+        def compact = CompactDirectorySnapshot.compact(original, stringInterner)
+
+        then:
+        compact instanceof CompactDirectorySnapshot
+        compact.absolutePath == original.absolutePath
+        compact.name == original.name
+        compact.hash == original.hash
+        events(compact) == events(original)
+    }
+
+    def "visited snapshots compare as up-to-date with the originals"() {
+        def original = tree(root) {
+            dir("sub") {
+                file("b.txt", 2)
+            }
+        }
+        def compact = CompactDirectorySnapshot.compact(original, stringInterner)
+
+        when:
+        def originalFiles = files(original)
+        def compactFiles = files(compact)
+
+        then:
+        compactFiles.size() == 1
+        compactFiles[0].isContentAndMetadataUpToDate(originalFiles[0])
+        originalFiles[0].isContentAndMetadataUpToDate(compactFiles[0])
+        compact.isContentAndMetadataUpToDate(original)
+    }
+
+    def "can visit a sub-directory view on its own"() {
+        def compact = CompactDirectorySnapshot.compact(tree(root) {
+            dir("sub") {
+                file("b.txt", 2)
+            }
+            file("c.txt", 3)
+        }, stringInterner)
+        def subDirectories = []
+        compact.accept(new FileSystemSnapshotVisitor() {
+            @Override
+            boolean preVisitDirectory(DirectorySnapshot directorySnapshot) {
+                if (directorySnapshot.name == "sub") {
+                    subDirectories << directorySnapshot
+                }
+                return true
+            }
+
+            @Override
+            void visit(FileSystemLocationSnapshot fileSnapshot) {}
+
+            @Override
+            void postVisitDirectory(DirectorySnapshot directorySnapshot) {}
+        })
+
+        expect:
+        events(subDirectories[0]) == events(tree(new File(root, "sub")) {
+            file("b.txt", 2)
+        })
+    }
+
+    def "visits share interned paths and views keep the hash they decode"() {
+        def compact = CompactDirectorySnapshot.compact(tree(root) {
+            dir("sub") {
+                file("b.txt", 2)
+            }
+        }, stringInterner)
+
+        when:
+        def first = files(compact)[0]
+        def second = files(compact)[0]
+
+        then:
+        !first.is(second)
+        first.absolutePath == new File(root, "sub/b.txt").path
+        first.absolutePath.is(second.absolutePath)
+        first.absolutePath.is(stringInterner.intern(new File(root, "sub/b.txt").path))
+        first.hash.is(first.hash)
+        first.hash == second.hash
+    }
+
+    def "keeps snapshots which cannot be stored compactly"() {
+        expect:
+        CompactDirectorySnapshot.compact(snapshot, stringInterner).is(snapshot)
+
+        where:
+        snapshot << [
+            new DefaultRegularFileSnapshot(new File(root, "a.txt").path, "a.txt", hash(1), 1),
+            new MissingFileSnapshot(new File(root, "missing").path, "missing"),
+            new DefaultDirectorySnapshot(root.path, root.name, [new DefaultRegularFileSnapshot("/somewhere/else/a.txt", "a.txt", hash(1), 1)], hash(5)),
+            new DefaultDirectorySnapshot(root.path, root.name, [new DefaultRegularFileSnapshot(new File(root, "a.txt").path, "a.txt", HashCode.fromInt(1), 1)], hash(5))
+        ]
+    }
+
+    private static List<String> events(FileSystemSnapshot snapshot) {
+        def events = []
+        snapshot.accept(new FileSystemSnapshotVisitor() {
+            @Override
+            boolean preVisitDirectory(DirectorySnapshot directorySnapshot) {
+                events << "pre ${directorySnapshot.absolutePath}".toString()
+                return true
+            }
+
+            @Override
+            void visit(FileSystemLocationSnapshot fileSnapshot) {
+                events << "visit ${fileSnapshot.absolutePath} ${fileSnapshot.hash}".toString()
+            }
+
+            @Override
+            void postVisitDirectory(DirectorySnapshot directorySnapshot) {
+                events << "post ${directorySnapshot.absolutePath} ${directorySnapshot.hash}".toString()
+            }
+        })
+        return events
+    }
+
+    private static List<FileSystemLocationSnapshot> files(FileSystemSnapshot snapshot) {
+        def files = []
+        snapshot.accept(new FileSystemSnapshotVisitor() {
+            @Override
+            boolean preVisitDirectory(DirectorySnapshot directorySnapshot) {
+                return true
+            }
+
+            @Override
+            void visit(FileSystemLocationSnapshot fileSnapshot) {
+                files << fileSnapshot
+            }
+
+            @Override
+            void postVisitDirectory(DirectorySnapshot directorySnapshot) {}
+        })
+        return files
+    }
+
+    private static HashCode hash(int value) {
+        Hashing.md5().hashString(String.valueOf(value))
+    }
+
+    private static FileSystemLocationSnapshot tree(File root, @DelegatesTo(TreeBuilder) Closure<?> contents) {
+        def builder = MerkleDirectorySnapshotBuilder.sortingRequired()
+        new TreeBuilder(builder, root).build(contents)
+        return builder.result
+    }
+
+    private static class TreeBuilder {
+        private final MerkleDirectorySnapshotBuilder builder
+        private final File dir
+
+        TreeBuilder(MerkleDirectorySnapshotBuilder builder, File dir) {
+            this.builder = builder
+            this.dir = dir
+        }
+
+        void build(Closure<?> contents) {
+            builder.preVisitDirectory(dir.path, dir.name)
+            contents.delegate = this
+            contents.resolveStrategy = Closure.DELEGATE_FIRST
+            contents.call()
+            builder.postVisitDirectory()
+        }
+
+        void file(String name, int content) {
+            builder.visit(new DefaultRegularFileSnapshot(new File(dir, name).path, name, Hashing.md5().hashString(String.valueOf(content)), content))
+        }
+
+        void dir(String name, Closure<?> contents) {
+            new TreeBuilder(builder, new File(dir, name)).build(contents)
+        }
+    }
+}
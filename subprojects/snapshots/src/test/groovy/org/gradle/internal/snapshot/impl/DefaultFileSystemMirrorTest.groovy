@@ -22,6 +22,9 @@ import org.gradle.api.internal.changedetection.state.DefaultWellKnownFileLocatio
 import org.gradle.internal.classpath.CachedJarFileStore
 import org.gradle.internal.file.FileMetadataSnapshot
 import org.gradle.internal.hash.HashCode
+import org.gradle.internal.snapshot.CompactDirectorySnapshot
+import org.gradle.internal.snapshot.DefaultDirectorySnapshot
+import org.gradle.internal.snapshot.DefaultRegularFileSnapshot
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot
 import org.gradle.internal.snapshot.RegularFileSnapshot
 import org.gradle.test.fixtures.file.TestFile
@@ -71,6 +74,47 @@ class DefaultFileSystemMirrorTest extends Specification {
         mirror.getSnapshot(file.path) == null
     }
 
+    def "does not keep state which was read before an invalidation"() {
+        def file = tmpDir.file("a")
+        def fileSnapshot = Stub(RegularFileSnapshot)
+        def metadata = Stub(FileMetadataSnapshot)
+        _ * fileSnapshot.absolutePath >> file.path
+
+        when:
+        def invalidationCount = mirror.invalidationCount
+        mirror.invalidate(file.path)
+        mirror.putMetadata(file.path, metadata, invalidationCount)
+        mirror.putSnapshot(fileSnapshot, invalidationCount)
+
+        then:
+        mirror.getMetadata(file.path) == null
+        mirror.getSnapshot(file.path) == null
+
+        when:
+        invalidationCount = mirror.invalidationCount
+        mirror.putMetadata(file.path, metadata, invalidationCount)
+        mirror.putSnapshot(fileSnapshot, invalidationCount)
+
+        then:
+        mirror.getMetadata(file.path) == metadata
+        mirror.getSnapshot(file.path) == fileSnapshot
+    }
+
+    def "keeps directory snapshots in compact form"() {
+        def dir = tmpDir.file("dir")
+        def child = dir.file("a.txt")
+        def dirSnapshot = new DefaultDirectorySnapshot(dir.path, dir.name, [new DefaultRegularFileSnapshot(child.path, child.name, HashCode.fromInt(1), 1)], HashCode.fromInt(2))
+
+        when:
+        mirror.putSnapshot(dirSnapshot)
+        def retained = mirror.getSnapshot(dir.path)
+
+        then:
+        retained instanceof CompactDirectorySnapshot
+        retained.absolutePath == dir.path
+        retained.hash == dirSnapshot.hash
+    }
+
     def "keeps state about a file until end of build"() {
         def file = tmpDir.file("a")
         def fileSnapshot = Stub(RegularFileSnapshot)
@@ -100,7 +144,7 @@ class DefaultFileSystemMirrorTest extends Specification {
         mirror.getSnapshot(file.path) == null
     }
 
-    def "does not discard state about a file that lives in the caches when task outputs are generated"() {
+    def "does not discard state about a file that lives in the caches when task outputs are generated or the build finishes"() {
         def file = cacheDir.file("some/dir/a")
         def fileSnapshot = Stub(RegularFileSnapshot)
         def metadata = Stub(FileMetadataSnapshot)
@@ -129,7 +173,64 @@ class DefaultFileSystemMirrorTest extends Specification {
 
         mirror.beforeBuildFinished()
 
-        mirror.getMetadata(file.path) == null
-        mirror.getSnapshot(file.path) == null
+        mirror.getMetadata(file.path) == metadata
+        mirror.getSnapshot(file.path) == fileSnapshot
+    }
+
+    def "discards state about the affected subtree when specific outputs are generated"() {
+        def dir = tmpDir.file("dir")
+        def outputDir = dir.file("output")
+        def outputFile = outputDir.file("some/file")
+        def sibling = dir.file("sibling")
+        def dirMetadata = Stub(FileMetadataSnapshot)
+        def outputFileMetadata = Stub(FileMetadataSnapshot)
+        def siblingMetadata = Stub(FileMetadataSnapshot)
+
+        given:
+        mirror.putMetadata(dir.path, dirMetadata)
+        mirror.putSnapshot(snapshot(dir))
+        mirror.putSnapshot(snapshot(outputDir))
+        mirror.putMetadata(outputFile.path, outputFileMetadata)
+        mirror.putSnapshot(snapshot(outputFile))
+        mirror.putMetadata(sibling.path, siblingMetadata)
+        mirror.putSnapshot(snapshot(sibling))
+
+        when:
+        mirror.beforeOutputChange([outputDir.path])
+
+        then:
+        mirror.getSnapshot(outputDir.path) == null
+        mirror.getMetadata(outputFile.path) == null
+        mirror.getSnapshot(outputFile.path) == null
+
+        and:
+        mirror.getSnapshot(dir.path) == null
+        mirror.getMetadata(dir.path) == dirMetadata
+
+        and:
+        mirror.getMetadata(sibling.path) == siblingMetadata
+        mirror.getSnapshot(sibling.path).absolutePath == sibling.path
+    }
+
+    def "keeps state about a file when an unrelated output with a common prefix is generated"() {
+        def file = tmpDir.file("output-1")
+        def metadata = Stub(FileMetadataSnapshot)
+
+        given:
+        mirror.putMetadata(file.path, metadata)
+        mirror.putSnapshot(snapshot(file))
+
+        when:
+        mirror.beforeOutputChange([tmpDir.file("output").path])
+
+        then:
+        mirror.getMetadata(file.path) == metadata
+        mirror.getSnapshot(file.path).absolutePath == file.path
+    }
+
+    private FileSystemLocationSnapshot snapshot(File file) {
+        Stub(FileSystemLocationSnapshot) {
+            getAbsolutePath() >> file.path
+        }
     }
 }
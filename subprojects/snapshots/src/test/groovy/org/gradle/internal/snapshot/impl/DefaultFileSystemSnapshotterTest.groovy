@@ -32,6 +32,7 @@ import org.gradle.api.tasks.util.PatternFilterable
 import org.gradle.internal.Factory
 import org.gradle.internal.file.FileType
 import org.gradle.internal.hash.TestFileHasher
+import org.gradle.internal.snapshot.DefaultRegularFileSnapshot
 import org.gradle.internal.snapshot.DirectorySnapshot
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot
 import org.gradle.internal.snapshot.FileSystemSnapshot
@@ -59,7 +60,7 @@ class DefaultFileSystemSnapshotterTest extends Specification {
         snapshot.absolutePath == f.path
         snapshot.name == "f"
         snapshot.type == FileType.RegularFile
-        snapshot.isContentAndMetadataUpToDate(new RegularFileSnapshot(f.path, f.absolutePath, fileHasher.hash(f), TestFiles.fileSystem().stat(f).lastModified))
+        snapshot.isContentAndMetadataUpToDate(new DefaultRegularFileSnapshot(f.path, f.absolutePath, fileHasher.hash(f), TestFiles.fileSystem().stat(f).lastModified))
 
         def snapshot2 = snapshotter.snapshot(f)
         snapshot2.is(snapshot)
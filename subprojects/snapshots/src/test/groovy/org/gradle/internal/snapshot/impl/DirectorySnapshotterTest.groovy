@@ -17,18 +17,28 @@
 package org.gradle.internal.snapshot.impl
 
 import org.apache.tools.ant.DirectoryScanner
+import org.gradle.api.file.FileTreeElement
 import org.gradle.api.internal.cache.StringInterner
 import org.gradle.api.internal.file.TestFiles
+import org.gradle.api.specs.Spec
 import org.gradle.api.tasks.util.PatternSet
 import org.gradle.internal.MutableBoolean
+import org.gradle.internal.file.FileMetadataSnapshot
+import org.gradle.internal.hash.FileHasher
+import org.gradle.internal.hash.HashCode
 import org.gradle.internal.hash.TestFileHasher
 import org.gradle.internal.snapshot.DirectorySnapshot
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot
 import org.gradle.internal.snapshot.FileSystemSnapshotVisitor
+import org.gradle.internal.snapshot.MerkleDirectorySnapshotBuilder
 import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
 import org.gradle.util.UsesNativeServices
 import org.junit.Rule
 import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
 
 @UsesNativeServices
 class DirectorySnapshotterTest extends Specification {
@@ -132,6 +142,100 @@ class DirectorySnapshotterTest extends Specification {
         ] as Set
     }
 
+    @Unroll
+    def "snapshots directories with many files and subdirectories in parallel on #threads threads"() {
+        given:
+        def executor = Executors.newFixedThreadPool(threads)
+        def parallelSnapshotter = new DirectorySnapshotter(fileHasher, TestFiles.fileSystem(), new StringInterner(), executor)
+        def rootDir = tmpDir.createDir("root")
+        def filesPerDirectory = DirectorySnapshotter.FILES_PER_TASK * 3
+        10.times { dir ->
+            filesPerDirectory.times { file ->
+                rootDir.file("dir${dir}/sub/file${file}.txt") << "content ${dir} ${file}"
+            }
+        }
+
+        def visited = []
+
+        when:
+        def snapshot = parallelSnapshotter.snapshot(rootDir.absolutePath, null, new MutableBoolean())
+        def rebuilt = MerkleDirectorySnapshotBuilder.noSortingRequired()
+        snapshot.accept(rebuilt)
+        snapshot.accept(new RelativePathTrackingVisitor() {
+            @Override
+            void visit(String absolutePath, Deque<String> relativePath) {
+                visited << relativePath.join("/")
+            }
+        })
+
+        then:
+        rebuilt.result.hash == snapshot.hash
+        visited.findAll { it.endsWith(".txt") }.size() == 10 * filesPerDirectory
+        def children = visited.findAll { it ==~ /root\/dir\d/ }
+        children == children.sort(false)
+        parallelSnapshotter.snapshot(rootDir.absolutePath, null, new MutableBoolean()).hash == snapshot.hash
+        directorySnapshotter.snapshot(rootDir.absolutePath, null, new MutableBoolean()).hash == snapshot.hash
+
+        cleanup:
+        executor?.shutdownNow()
+
+        where:
+        threads << [1, 4]
+    }
+
+    def "snapshots filtered directories on the calling thread"() {
+        given:
+        def executor = Mock(Executor)
+        def parallelSnapshotter = new DirectorySnapshotter(fileHasher, TestFiles.fileSystem(), new StringInterner(), executor)
+        def rootDir = tmpDir.createDir("root")
+        rootDir.file("a/b/c.txt").createFile()
+        rootDir.file("a/c/c.html").createFile()
+        def patterns = new PatternSet()
+        patterns.include("**/*.txt")
+        def callingThread = Thread.currentThread()
+        def specThreads = [] as Set
+        patterns.include({ element ->
+            specThreads << Thread.currentThread()
+            return false
+        } as Spec<FileTreeElement>)
+
+        when:
+        def snapshot = parallelSnapshotter.snapshot(rootDir.absolutePath, patterns, new MutableBoolean())
+
+        then:
+        0 * executor._
+        specThreads == [callingThread] as Set
+        snapshot.hash == directorySnapshotter.snapshot(rootDir.absolutePath, patterns, new MutableBoolean()).hash
+    }
+
+    def "rethrows failure to hash a file from a parallel task"() {
+        given:
+        def rootDir = tmpDir.createDir("root")
+        rootDir.file("a/b/broken.txt").createFile()
+        rootDir.file("a/c/c.txt").createFile()
+        def failure = new UncheckedIOException(new IOException("broken"))
+        def fileHasher = Stub(FileHasher) {
+            hash(_ as File, _ as FileMetadataSnapshot) >> { File file, FileMetadataSnapshot metadata ->
+                if (file.name == "broken.txt") {
+                    throw failure
+                }
+                return HashCode.fromInt(1)
+            }
+        }
+        def executor = Executors.newFixedThreadPool(2)
+        def snapshotter = new DirectorySnapshotter(fileHasher, TestFiles.fileSystem(), new StringInterner(), executor)
+
+        when:
+        snapshotter.snapshot(rootDir.absolutePath, null, new MutableBoolean())
+
+        then:
+        def e = thrown(UncheckedIOException)
+        e.is(failure)
+
+        cleanup:
+        executor?.shutdownNow()
+    }
+
     def "default excludes are correctly parsed"() {
         def defaultExcludes = new DirectorySnapshotter.DefaultExcludes(DirectoryScanner.getDefaultExcludes())
 
@@ -18,6 +18,7 @@ package org.gradle.internal.snapshot.impl
 
 import org.gradle.api.internal.cache.StringInterner
 import org.gradle.internal.hash.HashCode
+import org.gradle.internal.snapshot.DefaultRegularFileSnapshot
 import org.gradle.internal.snapshot.DirectorySnapshot
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot
 import org.gradle.internal.snapshot.FileSystemSnapshot
@@ -127,6 +128,6 @@ class FileSystemSnapshotBuilderTest extends Specification {
     }
 
     private RegularFileSnapshot fileSnapshot(String relativePath, String name) {
-        new RegularFileSnapshot("${basePath}/${relativePath.empty ? "" : (relativePath + '/')}${name}", name, HashCode.fromInt(1234), 1234)
+        new DefaultRegularFileSnapshot("${basePath}/${relativePath.empty ? "" : (relativePath + '/')}${name}", name, HashCode.fromInt(1234), 1234)
     }
 }
@@ -19,11 +19,11 @@ package org.gradle.internal.snapshot.impl
 import org.gradle.api.internal.file.FileCollectionInternal
 import org.gradle.internal.hash.HashCode
 import org.gradle.internal.hash.Hashing
+import org.gradle.internal.snapshot.DefaultRegularFileSnapshot
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot
 import org.gradle.internal.snapshot.FileSystemSnapshot
 import org.gradle.internal.snapshot.FileSystemSnapshotter
 import org.gradle.internal.snapshot.MissingFileSnapshot
-import org.gradle.internal.snapshot.RegularFileSnapshot
 
 class TestFileSnapshotter implements FileSystemSnapshotter {
 
@@ -35,7 +35,7 @@ class TestFileSnapshotter implements FileSystemSnapshotter {
     @Override
     FileSystemLocationSnapshot snapshot(File file) {
         if (file.isFile()) {
-            return new RegularFileSnapshot(file.absolutePath, file.name, Hashing.hashBytes(file.bytes), file.lastModified())
+            return new DefaultRegularFileSnapshot(file.absolutePath, file.name, Hashing.hashBytes(file.bytes), file.lastModified())
         }
         if (!file.exists()) {
             return new MissingFileSnapshot(file.absolutePath, file.name)
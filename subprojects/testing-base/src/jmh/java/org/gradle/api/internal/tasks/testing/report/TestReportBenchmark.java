@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.tasks.testing.report;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.internal.project.ProjectInternal;
+import org.gradle.api.internal.tasks.testing.DefaultTestOutputEvent;
+import org.gradle.api.internal.tasks.testing.junit.result.Binary2JUnitXmlReportGenerator;
+import org.gradle.api.internal.tasks.testing.junit.result.BinaryResultBackedTestResultsProvider;
+import org.gradle.api.internal.tasks.testing.junit.result.TestClassResult;
+import org.gradle.api.internal.tasks.testing.junit.result.TestMethodResult;
+import org.gradle.api.internal.tasks.testing.junit.result.TestOutputAssociation;
+import org.gradle.api.internal.tasks.testing.junit.result.TestOutputStore;
+import org.gradle.api.internal.tasks.testing.junit.result.TestResultSerializer;
+import org.gradle.api.tasks.testing.TestOutputEvent;
+import org.gradle.api.tasks.testing.TestResult;
+import org.gradle.internal.operations.BuildOperationExecutor;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractCollection;
+import java.util.Iterator;
+
+/**
+ * Measures how long it takes to generate the HTML and XML reports for a synthetic suite of 500k tests, read from binary results.
+ * Every test writes a line of output and every hundredth test fails.
+ * The heap is kept small, to check that the reports are generated without holding the results of the whole suite.
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx256m")
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.SingleShotTime)
+@State(Scope.Thread)
+public class TestReportBenchmark {
+    private static final int CLASS_COUNT = 5000;
+    private static final int TESTS_PER_CLASS = 100;
+    private static final int FAILURE_INTERVAL = 100;
+
+    File tempDir;
+    File resultsDir;
+    BuildOperationExecutor buildOperationExecutor;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        tempDir = File.createTempFile("report", "benchmark");
+        FileUtils.forceDelete(tempDir);
+        FileUtils.forceMkdir(tempDir);
+        resultsDir = new File(tempDir, "binary");
+        FileUtils.forceMkdir(resultsDir);
+
+        ProjectInternal project = (ProjectInternal) ProjectBuilder.builder().withProjectDir(tempDir).build();
+        buildOperationExecutor = project.getServices().get(BuildOperationExecutor.class);
+
+        writeResults();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.forceDelete(tempDir);
+    }
+
+    @Benchmark
+    public void generateHtmlReport() throws IOException {
+        BinaryResultBackedTestResultsProvider resultsProvider = new BinaryResultBackedTestResultsProvider(resultsDir);
+        try {
+            new DefaultTestReport(buildOperationExecutor).generateReport(resultsProvider, new File(tempDir, "html"));
+        } finally {
+            resultsProvider.close();
+        }
+    }
+
+    @Benchmark
+    public void generateXmlReport() throws IOException {
+        File xmlDir = new File(tempDir, "xml");
+        FileUtils.forceMkdir(xmlDir);
+        BinaryResultBackedTestResultsProvider resultsProvider = new BinaryResultBackedTestResultsProvider(resultsDir);
+        try {
+            new Binary2JUnitXmlReportGenerator(xmlDir, resultsProvider, TestOutputAssociation.WITH_SUITE, buildOperationExecutor, "localhost").generate();
+        } finally {
+            resultsProvider.close();
+        }
+    }
+
+    private void writeResults() {
+        TestOutputStore.Writer outputWriter = new TestOutputStore(resultsDir).writer();
+        try {
+            for (int classIndex = 0; classIndex < CLASS_COUNT; classIndex++) {
+                for (int testIndex = 0; testIndex < TESTS_PER_CLASS; testIndex++) {
+                    outputWriter.onOutput(classId(classIndex), testId(classIndex, testIndex), new DefaultTestOutputEvent(TestOutputEvent.Destination.StdOut, "output of test " + testIndex + "\n"));
+                }
+            }
+        } finally {
+            outputWriter.close();
+        }
+
+        // Create the classes while they are written, so that setting up the benchmark doesn't need to hold them all either
+        new TestResultSerializer(resultsDir).write(new AbstractCollection<TestClassResult>() {
+            @Override
+            public Iterator<TestClassResult> iterator() {
+                return new Iterator<TestClassResult>() {
+                    private int classIndex;
+
+                    @Override
+                    public boolean hasNext() {
+                        return classIndex < CLASS_COUNT;
+                    }
+
+                    @Override
+                    public TestClassResult next() {
+                        return createClassResult(classIndex++);
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return CLASS_COUNT;
+            }
+        });
+    }
+
+    private static TestClassResult createClassResult(int classIndex) {
+        TestClassResult classResult = new TestClassResult(classId(classIndex), "org.gradle.package" + (classIndex % 100) + ".Test" + classIndex, 0);
+        for (int testIndex = 0; testIndex < TESTS_PER_CLASS; testIndex++) {
+            long testId = testId(classIndex, testIndex);
+            if (testId % FAILURE_INTERVAL == 0) {
+                classResult.add(new TestMethodResult(testId, "test" + testIndex, TestResult.ResultType.FAILURE, 10, 10)
+                    .addFailure("test" + testIndex + " failed", "java.lang.AssertionError: test" + testIndex + " failed\n\tat org.gradle.Test.test(Test.java:10)\n", "java.lang.AssertionError"));
+            } else {
+                classResult.add(new TestMethodResult(testId, "test" + testIndex, TestResult.ResultType.SUCCESS, 10, 10));
+            }
+        }
+        return classResult;
+    }
+
+    private static long classId(int classIndex) {
+        return classIndex + 1;
+    }
+
+    private static long testId(int classIndex, int testIndex) {
+        return (long) classIndex * TESTS_PER_CLASS + testIndex + 1;
+    }
+}
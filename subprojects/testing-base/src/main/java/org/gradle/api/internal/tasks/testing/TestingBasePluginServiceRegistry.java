@@ -17,14 +17,27 @@
 package org.gradle.api.internal.tasks.testing;
 
 import org.gradle.api.internal.tasks.testing.operations.TestExecutionBuildOperationBuildSessionScopeServices;
+import org.gradle.api.internal.tasks.testing.worker.ReusableTestWorkerClientsManager;
 import org.gradle.internal.service.ServiceRegistration;
 import org.gradle.internal.service.scopes.AbstractPluginServiceRegistry;
+import org.gradle.process.internal.health.memory.MemoryManager;
+import org.gradle.process.internal.health.memory.OsMemoryInfo;
 
 public class TestingBasePluginServiceRegistry extends AbstractPluginServiceRegistry {
 
+    @Override
+    public void registerGradleUserHomeServices(ServiceRegistration registration) {
+        registration.addProvider(new GradleUserHomeServices());
+    }
+
     @Override
     public void registerBuildSessionServices(ServiceRegistration registration) {
         registration.addProvider(new TestExecutionBuildOperationBuildSessionScopeServices());
     }
 
+    private static class GradleUserHomeServices {
+        ReusableTestWorkerClientsManager createReusableTestWorkerClientsManager(MemoryManager memoryManager, OsMemoryInfo memoryInfo) {
+            return new ReusableTestWorkerClientsManager(memoryManager, memoryInfo, Runtime.getRuntime().availableProcessors());
+        }
+    }
 }
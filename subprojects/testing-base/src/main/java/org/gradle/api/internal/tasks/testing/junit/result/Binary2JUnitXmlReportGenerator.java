@@ -34,8 +34,12 @@ import org.gradle.util.GFileUtils;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Binary2JUnitXmlReportGenerator {
+    // The files are generated in batches of classes with about this many tests, so that only the results of one batch are held in memory
+    private static final int MAX_TESTS_PER_BATCH = 10000;
 
     private final File testResultsDir;
     private final TestResultsProvider testResultsProvider;
@@ -74,17 +78,9 @@ public class Binary2JUnitXmlReportGenerator {
             }
         });
 
-        buildOperationExecutor.runAll(new Action<BuildOperationQueue<JUnitXmlReportFileGenerator>>() {
-            @Override
-            public void execute(final BuildOperationQueue<JUnitXmlReportFileGenerator> queue) {
-                testResultsProvider.visitClasses(new Action<TestClassResult>() {
-                    public void execute(final TestClassResult result) {
-                        final File reportFile = new File(testResultsDir, getReportFileName(result));
-                        queue.add(new JUnitXmlReportFileGenerator(result, reportFile, xmlWriter));
-                    }
-                });
-            }
-        });
+        BatchingReportFileGenerator generator = new BatchingReportFileGenerator();
+        testResultsProvider.visitClasses(generator);
+        generator.flush();
 
         LOG.info("Finished generating test XML results ({}) into: {}", clock.getElapsed(), testResultsDir);
     }
@@ -93,6 +89,40 @@ public class Binary2JUnitXmlReportGenerator {
         return "TEST-" + FileUtils.toSafeFileName(result.getClassName()) + ".xml";
     }
 
+    /**
+     * Generates the files of the visited classes in batches, so that the results of a batch can be discarded once its files are written.
+     */
+    private class BatchingReportFileGenerator implements Action<TestClassResult> {
+        private final List<TestClassResult> batch = new ArrayList<TestClassResult>();
+        private int testCount;
+
+        @Override
+        public void execute(TestClassResult result) {
+            batch.add(result);
+            testCount += result.getTestsCount();
+            if (testCount >= MAX_TESTS_PER_BATCH) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            buildOperationExecutor.runAll(new Action<BuildOperationQueue<JUnitXmlReportFileGenerator>>() {
+                @Override
+                public void execute(BuildOperationQueue<JUnitXmlReportFileGenerator> queue) {
+                    for (TestClassResult result : batch) {
+                        File reportFile = new File(testResultsDir, getReportFileName(result));
+                        queue.add(new JUnitXmlReportFileGenerator(result, reportFile, xmlWriter));
+                    }
+                }
+            });
+            batch.clear();
+            testCount = 0;
+        }
+    }
+
     private static class JUnitXmlReportFileGenerator implements RunnableBuildOperation {
         private final TestClassResult result;
         private final File reportFile;
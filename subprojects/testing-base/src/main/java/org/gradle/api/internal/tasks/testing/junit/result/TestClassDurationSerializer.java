@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.tasks.testing.junit.result;
+
+import org.gradle.api.UncheckedIOException;
+import org.gradle.internal.serialize.Decoder;
+import org.gradle.internal.serialize.FlushableEncoder;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores how long each test class took the last time it was run.
+ * Unlike the binary test results, the durations are kept across runs which only run some of the test classes.
+ */
+public class TestClassDurationSerializer {
+    private static final int DURATIONS_VERSION = 1;
+
+    private final File durationsFile;
+
+    public TestClassDurationSerializer(File durationsFile) {
+        this.durationsFile = durationsFile;
+    }
+
+    public void write(Map<String, Long> durations) {
+        try {
+            OutputStream outputStream = new FileOutputStream(durationsFile);
+            try {
+                FlushableEncoder encoder = new KryoBackedEncoder(outputStream);
+                encoder.writeSmallInt(DURATIONS_VERSION);
+                encoder.writeSmallInt(durations.size());
+                for (Map.Entry<String, Long> entry : durations.entrySet()) {
+                    encoder.writeString(entry.getKey());
+                    encoder.writeSmallLong(entry.getValue());
+                }
+                encoder.flush();
+            } finally {
+                outputStream.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the stored durations, in milliseconds by test class name.
+     * Returns no durations when none have been stored by this version, or when the stored durations can't be read.
+     */
+    public Map<String, Long> read() {
+        if (!durationsFile.isFile() || durationsFile.length() == 0) {
+            return new HashMap<String, Long>();
+        }
+        try {
+            InputStream inputStream = new FileInputStream(durationsFile);
+            try {
+                Decoder decoder = new KryoBackedDecoder(inputStream);
+                Map<String, Long> durations = new HashMap<String, Long>();
+                if (decoder.readSmallInt() != DURATIONS_VERSION) {
+                    return durations;
+                }
+                int count = decoder.readSmallInt();
+                for (int i = 0; i < count; i++) {
+                    String className = decoder.readString();
+                    durations.put(className, decoder.readSmallLong());
+                }
+                return durations;
+            } finally {
+                inputStream.close();
+            }
+        } catch (Exception e) {
+            // The durations are only used as a hint, so start over rather than fail, e.g. when the file has been truncated
+            return new HashMap<String, Long>();
+        }
+    }
+}
@@ -26,19 +26,24 @@ import org.gradle.internal.actor.ActorFactory;
 import org.gradle.internal.concurrent.CompositeStoppable;
 import org.gradle.internal.dispatch.DispatchException;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 
 /**
- * Manages a set of parallel TestClassProcessors. Uses a simple round-robin algorithm to assign test classes to
- * processors.
+ * Manages a set of parallel TestClassProcessors. Test classes are queued, and each processor takes the next test class
+ * from the queue once it has finished with the previous one, so that a processor with slow test classes doesn't hold up
+ * the test classes behind them. A new processor is only started when all of the existing processors are busy.
  */
 public class MaxNParallelTestClassProcessor implements TestClassProcessor {
     private final int maxProcessors;
     private final Factory<TestClassProcessor> factory;
     private final ActorFactory actorFactory;
     private TestResultProcessor resultProcessor;
-    private int pos;
+    private final Object lock = new Object();
+    private final Deque<TestClassRunInfo> queuedTestClasses = new ArrayDeque<TestClassRunInfo>();
+    private final Deque<TestClassProcessor> idleProcessors = new ArrayDeque<TestClassProcessor>();
     private List<TestClassProcessor> processors = new ArrayList<TestClassProcessor>();
     private List<TestClassProcessor> rawProcessors = new ArrayList<TestClassProcessor>();
     private List<Actor> actors = new ArrayList<Actor>();
@@ -65,21 +70,40 @@ public class MaxNParallelTestClassProcessor implements TestClassProcessor {
         }
 
         TestClassProcessor processor;
-        if (processors.size() < maxProcessors) {
-            processor = factory.create();
-            rawProcessors.add(processor);
-            Actor actor = actorFactory.createActor(processor);
+        synchronized (lock) {
+            processor = idleProcessors.poll();
+            if (processor == null && processors.size() >= maxProcessors) {
+                queuedTestClasses.add(testClass);
+                return;
+            }
+        }
+        if (processor == null) {
+            TestClassProcessor rawProcessor = factory.create();
+            rawProcessors.add(rawProcessor);
+            QueueConsumingTestClassProcessor consumer = new QueueConsumingTestClassProcessor(rawProcessor);
+            Actor actor = actorFactory.createActor(consumer);
             processor = actor.getProxy(TestClassProcessor.class);
+            consumer.proxy = processor;
             actors.add(actor);
             processors.add(processor);
             processor.startProcessing(resultProcessor);
-        } else {
-            processor = processors.get(pos);
-            pos = (pos + 1) % processors.size();
         }
         processor.processTestClass(testClass);
     }
 
+    /**
+     * Returns the next queued test class, or marks the given processor as idle when there is none.
+     */
+    private TestClassRunInfo takeNextTestClass(TestClassProcessor processor) {
+        synchronized (lock) {
+            TestClassRunInfo testClass = stoppedNow ? null : queuedTestClasses.poll();
+            if (testClass == null) {
+                idleProcessors.add(processor);
+            }
+            return testClass;
+        }
+    }
+
     @Override
     public void stop() {
         try {
@@ -96,4 +120,43 @@ public class MaxNParallelTestClassProcessor implements TestClassProcessor {
             processor.stopNow();
         }
     }
+
+    /**
+     * Processes the test class it is given, and then the queued test classes until the queue is empty.
+     * Each instance runs in its own actor, so that the processors take test classes from the queue in parallel.
+     * A processor which fails, for example because its worker has disconnected, takes no further test classes
+     * and is not marked as idle, so the remaining processors drain the queue. The failure is rethrown on stop.
+     */
+    private class QueueConsumingTestClassProcessor implements TestClassProcessor {
+        private final TestClassProcessor delegate;
+        private TestClassProcessor proxy;
+
+        QueueConsumingTestClassProcessor(TestClassProcessor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void startProcessing(TestResultProcessor resultProcessor) {
+            delegate.startProcessing(resultProcessor);
+        }
+
+        @Override
+        public void processTestClass(TestClassRunInfo testClass) {
+            TestClassRunInfo next = testClass;
+            while (next != null) {
+                delegate.processTestClass(next);
+                next = takeNextTestClass(proxy);
+            }
+        }
+
+        @Override
+        public void stop() {
+            delegate.stop();
+        }
+
+        @Override
+        public void stopNow() {
+            delegate.stopNow();
+        }
+    }
 }
@@ -20,21 +20,39 @@ import org.gradle.api.internal.tasks.testing.TestClassProcessor;
 import org.gradle.api.internal.tasks.testing.TestClassRunInfo;
 import org.gradle.api.internal.tasks.testing.TestResultProcessor;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * In order to speed up the development feedback cycle, this class guarantee previous failed test classes
  * to be passed to its delegate first.
+ *
+ * When given the durations of the previous run, the test classes are otherwise passed to the delegate slowest first,
+ * so that parallel processors don't end up waiting for a slow test class which was started last.
  */
 public class RunPreviousFailedFirstTestClassProcessor implements TestClassProcessor {
     private final Set<String> previousFailedTestClasses;
+    private final Map<String, Long> previousDurations;
     private final TestClassProcessor delegate;
     private final LinkedHashSet<TestClassRunInfo> prioritizedTestClasses = new LinkedHashSet<TestClassRunInfo>();
     private final LinkedHashSet<TestClassRunInfo> otherTestClasses = new LinkedHashSet<TestClassRunInfo>();
 
     public RunPreviousFailedFirstTestClassProcessor(Set<String> previousFailedTestClasses, TestClassProcessor delegate) {
+        this(previousFailedTestClasses, Collections.<String, Long>emptyMap(), delegate);
+    }
+
+    /**
+     * @param previousDurations the duration of each test class in the previous run. Test classes without a duration, such as new ones, are passed first.
+     */
+    public RunPreviousFailedFirstTestClassProcessor(Set<String> previousFailedTestClasses, Map<String, Long> previousDurations, TestClassProcessor delegate) {
         this.previousFailedTestClasses = previousFailedTestClasses;
+        this.previousDurations = previousDurations;
         this.delegate = delegate;
     }
 
@@ -54,15 +72,37 @@ public class RunPreviousFailedFirstTestClassProcessor implements TestClassProces
 
     @Override
     public void stop() {
-        for (TestClassRunInfo test : prioritizedTestClasses) {
+        for (TestClassRunInfo test : slowestFirst(prioritizedTestClasses)) {
             delegate.processTestClass(test);
         }
-        for (TestClassRunInfo test : otherTestClasses) {
+        for (TestClassRunInfo test : slowestFirst(otherTestClasses)) {
             delegate.processTestClass(test);
         }
         delegate.stop();
     }
 
+    private Collection<TestClassRunInfo> slowestFirst(Collection<TestClassRunInfo> testClasses) {
+        if (previousDurations.isEmpty()) {
+            return testClasses;
+        }
+        List<TestClassRunInfo> sorted = new ArrayList<TestClassRunInfo>(testClasses);
+        // The sort is stable, so test classes with the same duration keep their order
+        Collections.sort(sorted, new Comparator<TestClassRunInfo>() {
+            @Override
+            public int compare(TestClassRunInfo left, TestClassRunInfo right) {
+                long leftDuration = previousDuration(left);
+                long rightDuration = previousDuration(right);
+                return leftDuration > rightDuration ? -1 : leftDuration < rightDuration ? 1 : 0;
+            }
+        });
+        return sorted;
+    }
+
+    private long previousDuration(TestClassRunInfo testClass) {
+        Long duration = previousDurations.get(testClass.getTestClassName());
+        return duration == null ? Long.MAX_VALUE : duration;
+    }
+
     @Override
     public void stopNow() {
         delegate.stopNow();
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.tasks.testing.processors;
+
+import org.gradle.api.internal.tasks.testing.TestClassProcessor;
+import org.gradle.api.internal.tasks.testing.TestClassRunInfo;
+import org.gradle.api.internal.tasks.testing.TestResultProcessor;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Passes only the test classes of one shard to its delegate, so that the test classes can be split between several builds, e.g. on different CI agents.
+ *
+ * Without durations, each test class is assigned to a shard by the hash of its name, so the shard of a test class only depends on its name,
+ * and each test class is passed on as soon as it is found.
+ *
+ * With durations, the test classes are spread by their expected duration: the longest test class goes first to the shard with the least expected time so far.
+ * Test classes without a known duration are expected to take the average duration. The shards then depend on the names of all test classes
+ * and on the durations, so every shard has to be given the same durations, or test classes are skipped or run more than once.
+ */
+public class ShardingTestClassProcessor implements TestClassProcessor {
+    private static final Logger LOGGER = Logging.getLogger(ShardingTestClassProcessor.class);
+
+    private final int shardIndex;
+    private final int shardCount;
+    private final Map<String, Long> expectedDurations;
+    private final TestClassProcessor delegate;
+    private final List<TestClassRunInfo> testClasses = new ArrayList<TestClassRunInfo>();
+    private int classCount;
+    private int selectedCount;
+
+    /**
+     * @param shardIndex the shard to run, from 1 to {@code shardCount}.
+     * @param shardCount the number of shards, at least 2. With a single shard, there is nothing to filter.
+     */
+    public ShardingTestClassProcessor(int shardIndex, int shardCount, Map<String, Long> expectedDurations, TestClassProcessor delegate) {
+        if (shardCount < 2 || shardIndex < 1 || shardIndex > shardCount) {
+            throw new IllegalArgumentException(String.format("Cannot run shard %d of %d.", shardIndex, shardCount));
+        }
+        this.shardIndex = shardIndex;
+        this.shardCount = shardCount;
+        this.expectedDurations = expectedDurations;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void startProcessing(TestResultProcessor resultProcessor) {
+        delegate.startProcessing(resultProcessor);
+    }
+
+    @Override
+    public void processTestClass(TestClassRunInfo testClass) {
+        if (!expectedDurations.isEmpty()) {
+            testClasses.add(testClass);
+            return;
+        }
+        classCount++;
+        if (isInShardByName(testClass.getTestClassName())) {
+            selectedCount++;
+            delegate.processTestClass(testClass);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (expectedDurations.isEmpty()) {
+            LOGGER.info("Running shard {} of {}: {} of {} test classes, assigned by name.", shardIndex, shardCount, selectedCount, classCount);
+        } else {
+            Set<String> shard = selectShardByDuration();
+            for (TestClassRunInfo testClass : testClasses) {
+                if (shard.contains(testClass.getTestClassName())) {
+                    delegate.processTestClass(testClass);
+                }
+            }
+        }
+        delegate.stop();
+    }
+
+    private boolean isInShardByName(String className) {
+        // String.hashCode() is specified by the language, so it's the same for every build
+        int hash = className.hashCode() % shardCount;
+        return (hash < 0 ? hash + shardCount : hash) == shardIndex - 1;
+    }
+
+    private Set<String> selectShardByDuration() {
+        // Sort by name first, so that the shards don't depend on the order the test classes were found in
+        Set<String> sortedClassNames = new TreeSet<String>();
+        for (TestClassRunInfo testClass : testClasses) {
+            sortedClassNames.add(testClass.getTestClassName());
+        }
+        List<String> classNames = new ArrayList<String>(sortedClassNames);
+
+        long knownDurations = 0;
+        int knownCount = 0;
+        for (String className : classNames) {
+            Long duration = expectedDurations.get(className);
+            if (duration != null) {
+                knownDurations += duration;
+                knownCount++;
+            }
+        }
+        final long defaultDuration = knownCount == 0 ? 1 : Math.max(1, knownDurations / knownCount);
+
+        // The sort is stable, so test classes with the same expected duration stay sorted by name
+        Collections.sort(classNames, new Comparator<String>() {
+            @Override
+            public int compare(String left, String right) {
+                long leftDuration = expectedDuration(left, defaultDuration);
+                long rightDuration = expectedDuration(right, defaultDuration);
+                return leftDuration > rightDuration ? -1 : leftDuration < rightDuration ? 1 : 0;
+            }
+        });
+
+        long[] shardDurations = new long[shardCount];
+        Set<String> shard = new HashSet<String>();
+        long selectedDuration = 0;
+        for (String className : classNames) {
+            int shortestShard = 0;
+            for (int i = 1; i < shardCount; i++) {
+                if (shardDurations[i] < shardDurations[shortestShard]) {
+                    shortestShard = i;
+                }
+            }
+            long duration = expectedDuration(className, defaultDuration);
+            shardDurations[shortestShard] += duration;
+            if (shortestShard == shardIndex - 1) {
+                shard.add(className);
+                selectedDuration += duration;
+            }
+        }
+        LOGGER.info("Running shard {} of {}: {} of {} test classes, expected to take {}ms.", shardIndex, shardCount, shard.size(), classNames.size(), selectedDuration);
+        return shard;
+    }
+
+    private long expectedDuration(String className, long defaultDuration) {
+        Long duration = expectedDurations.get(className);
+        return duration == null ? defaultDuration : Math.max(1, duration);
+    }
+
+    @Override
+    public void stopNow() {
+        delegate.stopNow();
+    }
+}
@@ -16,9 +16,11 @@
 package org.gradle.api.internal.tasks.testing.report;
 
 import org.apache.commons.lang.StringUtils;
+import org.gradle.api.tasks.testing.TestResult.ResultType;
 import org.gradle.internal.FileUtils;
 
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -96,4 +98,16 @@ public class ClassTestResults extends CompositeTestResults {
         results.add(test);
         return addTest(test);
     }
+
+    /**
+     * Discards the results of the tests that passed, keeping the counts of this class and the results of failed and ignored tests.
+     */
+    public void discardSuccessfulTestResults() {
+        Iterator<TestResult> iterator = results.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getResultType() == ResultType.SUCCESS) {
+                iterator.remove();
+            }
+        }
+    }
 }
@@ -37,11 +37,17 @@ import org.gradle.util.GFileUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.gradle.api.tasks.testing.TestResult.ResultType.SKIPPED;
 
 public class DefaultTestReport implements TestReporter {
+    // Class pages are rendered in batches of classes with about this many tests, so that only the results of one batch are held in memory
+    private static final int MAX_TESTS_PER_BATCH = 10000;
+
     private final BuildOperationExecutor buildOperationExecutor;
     private final static Logger LOG = Logging.getLogger(DefaultTestReport.class);
 
@@ -54,34 +60,48 @@ public class DefaultTestReport implements TestReporter {
         LOG.info("Generating HTML test report...");
 
         Timer clock = Time.startTimer();
-        AllTestResults model = loadModelFromProvider(resultsProvider);
-        generateFiles(model, resultsProvider, reportDir);
+        Set<String> duplicateClassNames = new HashSet<String>();
+        AllTestResults model = loadSummaryFromProvider(resultsProvider, duplicateClassNames);
+        generateFiles(model, duplicateClassNames, resultsProvider, reportDir);
         LOG.info("Finished generating test html results ({}) into: {}", clock.getElapsed(), reportDir);
     }
 
-    private AllTestResults loadModelFromProvider(TestResultsProvider resultsProvider) {
+    /**
+     * Loads the model for the overview and package pages, which only keeps the results of the tests that did not pass.
+     * The class pages are rendered from the results of one class at a time instead.
+     */
+    private AllTestResults loadSummaryFromProvider(TestResultsProvider resultsProvider, final Set<String> duplicateClassNames) {
         final AllTestResults model = new AllTestResults();
+        final Set<String> classNames = new HashSet<String>();
         resultsProvider.visitClasses(new Action<TestClassResult>() {
             public void execute(TestClassResult classResult) {
-                model.addTestClass(classResult.getId(), classResult.getClassName(), classResult.getClassDisplayName());
-                List<TestMethodResult> collectedResults = classResult.getResults();
-                for (TestMethodResult collectedResult : collectedResults) {
-                    final TestResult testResult = model.addTest(classResult.getId(), classResult.getClassName(), classResult.getClassDisplayName(), collectedResult.getName(), collectedResult.getDisplayName(), collectedResult.getDuration());
-                    if (collectedResult.getResultType() == SKIPPED) {
-                        testResult.setIgnored();
-                    } else {
-                        List<TestFailure> failures = collectedResult.getFailures();
-                        for (TestFailure failure : failures) {
-                            testResult.addFailure(failure);
-                        }
-                    }
+                if (!classNames.add(classResult.getClassName())) {
+                    duplicateClassNames.add(classResult.getClassName());
                 }
+                addClass(model, classResult).discardSuccessfulTestResults();
             }
         });
         return model;
     }
 
-    private void generateFiles(AllTestResults model, final TestResultsProvider resultsProvider, final File reportDir) {
+    private static ClassTestResults addClass(AllTestResults model, TestClassResult classResult) {
+        ClassTestResults classResults = model.addTestClass(classResult.getId(), classResult.getClassName(), classResult.getClassDisplayName());
+        List<TestMethodResult> collectedResults = classResult.getResults();
+        for (TestMethodResult collectedResult : collectedResults) {
+            final TestResult testResult = model.addTest(classResult.getId(), classResult.getClassName(), classResult.getClassDisplayName(), collectedResult.getName(), collectedResult.getDisplayName(), collectedResult.getDuration());
+            if (collectedResult.getResultType() == SKIPPED) {
+                testResult.setIgnored();
+            } else {
+                List<TestFailure> failures = collectedResult.getFailures();
+                for (TestFailure failure : failures) {
+                    testResult.addFailure(failure);
+                }
+            }
+        }
+        return classResults;
+    }
+
+    private void generateFiles(AllTestResults model, final Set<String> duplicateClassNames, final TestResultsProvider resultsProvider, final File reportDir) {
         try {
             HtmlReportRenderer htmlRenderer = new HtmlReportRenderer();
             buildOperationExecutor.run(new RunnableBuildOperation() {
@@ -101,15 +121,13 @@ public class DefaultTestReport implements TestReporter {
             htmlRenderer.render(model, new ReportRenderer<AllTestResults, HtmlReportBuilder>() {
                 @Override
                 public void render(final AllTestResults model, final HtmlReportBuilder output) throws IOException {
+                    generateClassFiles(duplicateClassNames, resultsProvider, output);
                     buildOperationExecutor.runAll(new Action<BuildOperationQueue<HtmlReportFileGenerator<? extends CompositeTestResults>>>() {
                         @Override
                         public void execute(BuildOperationQueue<HtmlReportFileGenerator<? extends CompositeTestResults>> queue) {
                             queue.add(generator("index.html", model, new OverviewPageRenderer(), output));
                             for (PackageTestResults packageResults : model.getPackages()) {
                                 queue.add(generator(packageResults.getBaseUrl(), packageResults, new PackagePageRenderer(), output));
-                                for (ClassTestResults classResults : packageResults.getClasses()) {
-                                    queue.add(generator(classResults.getBaseUrl(), classResults, new ClassPageRenderer(resultsProvider), output));
-                                }
                             }
                         }
                     });
@@ -120,10 +138,73 @@ public class DefaultTestReport implements TestReporter {
         }
     }
 
+    /**
+     * Renders the page of each class from a model of just that class, visiting the classes a second time.
+     * Classes with the same name are merged into one page, which is rendered once all of them have been visited.
+     */
+    private void generateClassFiles(final Set<String> duplicateClassNames, TestResultsProvider resultsProvider, HtmlReportBuilder output) {
+        final BatchingClassFileGenerator generator = new BatchingClassFileGenerator(resultsProvider, output);
+        final AllTestResults duplicateClasses = new AllTestResults();
+        resultsProvider.visitClasses(new Action<TestClassResult>() {
+            public void execute(TestClassResult classResult) {
+                if (duplicateClassNames.contains(classResult.getClassName())) {
+                    addClass(duplicateClasses, classResult);
+                } else {
+                    generator.add(addClass(new AllTestResults(), classResult));
+                }
+            }
+        });
+        for (PackageTestResults packageResults : duplicateClasses.getPackages()) {
+            for (ClassTestResults classResults : packageResults.getClasses()) {
+                generator.add(classResults);
+            }
+        }
+        generator.flush();
+    }
+
     public static <T extends CompositeTestResults> HtmlReportFileGenerator<T> generator(String fileUrl, T results, PageRenderer<T> renderer, HtmlReportBuilder output) {
         return new HtmlReportFileGenerator<T>(fileUrl, results, renderer, output);
     }
 
+    /**
+     * Renders class pages in batches, so that the results of a batch can be discarded once its pages are written.
+     */
+    private class BatchingClassFileGenerator {
+        private final TestResultsProvider resultsProvider;
+        private final HtmlReportBuilder output;
+        private final List<ClassTestResults> batch = new ArrayList<ClassTestResults>();
+        private int testCount;
+
+        BatchingClassFileGenerator(TestResultsProvider resultsProvider, HtmlReportBuilder output) {
+            this.resultsProvider = resultsProvider;
+            this.output = output;
+        }
+
+        void add(ClassTestResults classResults) {
+            batch.add(classResults);
+            testCount += classResults.getTestCount();
+            if (testCount >= MAX_TESTS_PER_BATCH) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            buildOperationExecutor.runAll(new Action<BuildOperationQueue<HtmlReportFileGenerator<ClassTestResults>>>() {
+                @Override
+                public void execute(BuildOperationQueue<HtmlReportFileGenerator<ClassTestResults>> queue) {
+                    for (ClassTestResults classResults : batch) {
+                        queue.add(generator(classResults.getBaseUrl(), classResults, new ClassPageRenderer(resultsProvider), output));
+                    }
+                }
+            });
+            batch.clear();
+            testCount = 0;
+        }
+    }
+
     private static class HtmlReportFileGenerator<T extends CompositeTestResults> implements RunnableBuildOperation {
         private final String fileUrl;
         private final T results;
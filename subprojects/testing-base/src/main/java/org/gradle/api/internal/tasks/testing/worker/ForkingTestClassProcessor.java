@@ -16,6 +16,7 @@
 
 package org.gradle.api.internal.tasks.testing.worker;
 
+import com.google.common.collect.ImmutableSet;
 import org.gradle.api.Action;
 import org.gradle.api.internal.DocumentationRegistry;
 import org.gradle.api.internal.classpath.ModuleRegistry;
@@ -23,6 +24,8 @@ import org.gradle.api.internal.tasks.testing.TestClassProcessor;
 import org.gradle.api.internal.tasks.testing.TestClassRunInfo;
 import org.gradle.api.internal.tasks.testing.TestResultProcessor;
 import org.gradle.api.internal.tasks.testing.WorkerTestClassProcessorFactory;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.dispatch.StreamCompletion;
 import org.gradle.internal.remote.ObjectConnection;
 import org.gradle.internal.work.WorkerLeaseRegistry;
 import org.gradle.process.JavaForkOptions;
@@ -32,13 +35,24 @@ import org.gradle.process.internal.worker.WorkerProcessBuilder;
 import org.gradle.process.internal.worker.WorkerProcessFactory;
 import org.gradle.util.CollectionUtils;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.net.URL;
 import java.util.List;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
-public class ForkingTestClassProcessor implements TestClassProcessor {
+/**
+ * Processes test classes in a forked worker process.
+ *
+ * Processing a test class blocks until the worker has finished with it and asks for another one,
+ * so that the caller can hand the next test class to whichever worker becomes ready first.
+ *
+ * When given a {@link ReusableTestWorkerClientsManager}, the test classes are processed in a session of a reusable worker instead of a worker process of their own,
+ * unless the tests run with a Java agent.
+ */
+public class ForkingTestClassProcessor implements TestClassProcessor, RemoteTestClassRequester, StreamCompletion {
     private final WorkerLeaseRegistry.WorkerLease currentWorkerLease;
     private final WorkerProcessFactory workerFactory;
     private final WorkerTestClassProcessorFactory processorFactory;
@@ -46,15 +60,24 @@ public class ForkingTestClassProcessor implements TestClassProcessor {
     private final Iterable<File> classPath;
     private final Action<WorkerProcessBuilder> buildConfigAction;
     private final ModuleRegistry moduleRegistry;
+    private final ReusableTestWorkerClientsManager reusableWorkers;
     private final Lock lock = new ReentrantLock();
+    private final Condition testClassRequested = lock.newCondition();
     private RemoteTestClassProcessor remoteProcessor;
     private WorkerProcess workerProcess;
+    private ReusableTestWorkerClient reusableWorker;
     private TestResultProcessor resultProcessor;
     private WorkerLeaseRegistry.WorkerLeaseCompletion completion;
     private DocumentationRegistry documentationRegistry;
     private boolean stoppedNow;
+    private boolean processingTestClass;
+    private boolean workerDisconnected;
 
     public ForkingTestClassProcessor(WorkerLeaseRegistry.WorkerLease parentWorkerLease, WorkerProcessFactory workerFactory, WorkerTestClassProcessorFactory processorFactory, JavaForkOptions options, Iterable<File> classPath, Action<WorkerProcessBuilder> buildConfigAction, ModuleRegistry moduleRegistry, DocumentationRegistry documentationRegistry) {
+        this(parentWorkerLease, workerFactory, processorFactory, options, classPath, buildConfigAction, moduleRegistry, documentationRegistry, null);
+    }
+
+    public ForkingTestClassProcessor(WorkerLeaseRegistry.WorkerLease parentWorkerLease, WorkerProcessFactory workerFactory, WorkerTestClassProcessorFactory processorFactory, JavaForkOptions options, Iterable<File> classPath, Action<WorkerProcessBuilder> buildConfigAction, ModuleRegistry moduleRegistry, DocumentationRegistry documentationRegistry, @Nullable ReusableTestWorkerClientsManager reusableWorkers) {
         this.currentWorkerLease = parentWorkerLease;
         this.workerFactory = workerFactory;
         this.processorFactory = processorFactory;
@@ -63,6 +86,7 @@ public class ForkingTestClassProcessor implements TestClassProcessor {
         this.buildConfigAction = buildConfigAction;
         this.moduleRegistry = moduleRegistry;
         this.documentationRegistry = documentationRegistry;
+        this.reusableWorkers = reusableWorkers;
     }
 
     @Override
@@ -77,6 +101,9 @@ public class ForkingTestClassProcessor implements TestClassProcessor {
             if (stoppedNow) {
                 return;
             }
+            if (workerDisconnected) {
+                throw workerDisconnected(testClass);
+            }
 
             if (remoteProcessor == null) {
                 completion = currentWorkerLease.startChild();
@@ -89,33 +116,75 @@ public class ForkingTestClassProcessor implements TestClassProcessor {
                 }
             }
 
+            processingTestClass = true;
             remoteProcessor.processTestClass(testClass);
+            while (processingTestClass && !stoppedNow && !workerDisconnected) {
+                testClassRequested.await();
+            }
+            if (processingTestClass && !stoppedNow) {
+                // Fail, rather than hand the next test class to a worker which will never run it
+                throw workerDisconnected(testClass);
+            }
+        } catch (InterruptedException e) {
+            throw UncheckedException.throwAsUncheckedException(e);
         } finally {
             lock.unlock();
         }
     }
 
+    private static ExecException workerDisconnected(TestClassRunInfo testClass) {
+        return new ExecException(String.format("Could not run test class %s as the test worker has disconnected.", testClass.getTestClassName()));
+    }
+
     RemoteTestClassProcessor forkProcess() {
-        WorkerProcessBuilder builder = workerFactory.create(new TestWorker(processorFactory));
+        boolean reuseWorker = reusableWorkers != null && canReuseWorker();
+        WorkerProcessBuilder builder = workerFactory.create(reuseWorker ? new ReusableTestWorker() : new TestWorker(processorFactory));
         builder.setBaseName("Gradle Test Executor");
         builder.setImplementationClasspath(getTestWorkerImplementationClasspath());
-        builder.applicationClasspath(classPath);
+        if (!reuseWorker) {
+            builder.applicationClasspath(classPath);
+        }
         options.copyTo(builder.getJavaCommand());
         builder.getJavaCommand().jvmArgs("-Dorg.gradle.native=false");
         buildConfigAction.execute(builder);
 
+        if (reuseWorker) {
+            return startSession(builder);
+        }
+
         workerProcess = builder.build();
         workerProcess.start();
 
         ObjectConnection connection = workerProcess.getConnection();
         connection.useParameterSerializers(TestEventSerializer.create());
         connection.addIncoming(TestResultProcessor.class, resultProcessor);
+        connection.addIncoming(RemoteTestClassRequester.class, this);
         RemoteTestClassProcessor remoteProcessor = connection.addOutgoing(RemoteTestClassProcessor.class);
         connection.connect();
         remoteProcessor.startProcessing();
         return remoteProcessor;
     }
 
+    /**
+     * Java agents, such as JaCoCo, usually keep state for the lifetime of the JVM and only write their output when it exits, so tests run with an agent always get a worker process of their own.
+     */
+    private boolean canReuseWorker() {
+        for (String jvmArg : options.getAllJvmArgs()) {
+            if (jvmArg.startsWith("-javaagent:") || jvmArg.startsWith("-agentpath:") || jvmArg.startsWith("-agentlib:")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private RemoteTestClassProcessor startSession(WorkerProcessBuilder builder) {
+        reusableWorker = reusableWorkers.reserveClient(builder);
+        workerProcess = reusableWorker.getWorkerProcess();
+        RemoteTestClassProcessor remoteProcessor = reusableWorker.startSession(resultProcessor, this, ImmutableSet.copyOf(classPath), builder.getSharedPackages(), processorFactory);
+        remoteProcessor.startProcessing();
+        return remoteProcessor;
+    }
+
     List<URL> getTestWorkerImplementationClasspath() {
         return CollectionUtils.flattenCollections(URL.class,
             moduleRegistry.getModule("gradle-core-api").getImplementationClasspath().getAsURLs(),
@@ -153,7 +222,11 @@ public class ForkingTestClassProcessor implements TestClassProcessor {
                 } finally {
                     lock.unlock();
                 }
-                workerProcess.waitForStop();
+                if (reusableWorker == null) {
+                    workerProcess.waitForStop();
+                } else {
+                    stopSession();
+                }
             }
         } catch (ExecException e) {
             if (!stoppedNow) {
@@ -167,11 +240,23 @@ public class ForkingTestClassProcessor implements TestClassProcessor {
         }
     }
 
+    private void stopSession() {
+        try {
+            if (!reusableWorker.awaitSessionCompleted()) {
+                // The worker has stopped or crashed during the session
+                workerProcess.waitForStop();
+            }
+        } finally {
+            reusableWorkers.release(reusableWorker);
+        }
+    }
+
     @Override
     public void stopNow() {
         lock.lock();
         try {
             stoppedNow = true;
+            testClassRequested.signalAll();
             if (remoteProcessor != null) {
                 workerProcess.stopNow();
             }
@@ -179,4 +264,27 @@ public class ForkingTestClassProcessor implements TestClassProcessor {
             lock.unlock();
         }
     }
+
+    @Override
+    public void requestTestClass() {
+        lock.lock();
+        try {
+            processingTestClass = false;
+            testClassRequested.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void endStream() {
+        // The worker has stopped or crashed, so it won't ask for more test classes
+        lock.lock();
+        try {
+            workerDisconnected = true;
+            testClassRequested.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
 }
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.tasks.testing.worker;
+
+import org.gradle.api.internal.tasks.testing.TestResultProcessor;
+
+/**
+ * The messages sent by a reusable test worker for the session it is running.
+ * The test results, requests for test classes and the end of the session are sent through the same channel, so that they are received in order.
+ */
+public interface RemoteTestSessionListener extends TestResultProcessor, RemoteTestClassRequester {
+    /**
+     * Notifies that the session has ended, once all of its test results have been sent. Does not block.
+     */
+    void sessionCompleted();
+}
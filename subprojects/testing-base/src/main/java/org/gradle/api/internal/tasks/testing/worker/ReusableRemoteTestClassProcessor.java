@@ -0,0 +1,41 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.tasks.testing.worker;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * The messages received by a reusable test worker, which runs the test classes of one test task after another.
+ * Each test task runs in a session, started by {@link #startSession(List, List, byte[])} and ended by {@link #stop()}.
+ *
+ * @see ReusableTestWorker
+ */
+public interface ReusableRemoteTestClassProcessor extends RemoteTestClassProcessor {
+    /**
+     * Starts a session, which runs test classes from the given classpath with the given test framework. Does not block.
+     *
+     * @param serializedProcessorFactory The Java serialized {@link org.gradle.api.internal.tasks.testing.WorkerTestClassProcessorFactory} of the test framework.
+     */
+    void startSession(List<File> applicationClasspath, List<String> sharedPackages, byte[] serializedProcessorFactory);
+
+    /**
+     * Stops the worker, once no session is running. Does not block.
+     */
+    void stopWorker();
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.tasks.testing.worker;
+
+import org.gradle.api.Action;
+import org.gradle.api.internal.tasks.testing.TestClassProcessor;
+import org.gradle.api.internal.tasks.testing.TestClassRunInfo;
+import org.gradle.api.internal.tasks.testing.WorkerTestClassProcessorFactory;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.classloader.ClassLoaderUtils;
+import org.gradle.internal.classloader.ClasspathUtil;
+import org.gradle.internal.classloader.FilteringClassLoader;
+import org.gradle.internal.classpath.DefaultClassPath;
+import org.gradle.internal.dispatch.ContextClassLoaderProxy;
+import org.gradle.internal.dispatch.StreamCompletion;
+import org.gradle.internal.id.IdGenerator;
+import org.gradle.internal.io.ClassLoaderObjectInputStream;
+import org.gradle.internal.remote.ObjectConnection;
+import org.gradle.internal.service.DefaultServiceRegistry;
+import org.gradle.internal.time.Clock;
+import org.gradle.process.internal.worker.WorkerProcessContext;
+import org.gradle.util.CollectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.Serializable;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.AccessControlException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A test worker which runs the test classes of one test task after another, so that its process can be reused instead of starting a new one for each test task.
+ *
+ * <p>The worker process is started without application classes. Each session loads the test classes and the Gradle adapter for the test framework in ClassLoaders of its own,
+ * so no classes are shared between sessions. The system properties and the security manager are restored at the end of each session,
+ * but other changes the tests make to the JVM, such as threads left running, outlive the session.</p>
+ */
+public class ReusableTestWorker implements Action<WorkerProcessContext>, ReusableRemoteTestClassProcessor, Serializable, StreamCompletion {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReusableTestWorker.class);
+    private static final String[] TEST_FRAMEWORK_ADAPTER_PACKAGES = {
+        "org.gradle.api.internal.tasks.testing.junit.",
+        "org.gradle.api.internal.tasks.testing.junitplatform.",
+        "org.gradle.api.internal.tasks.testing.testng."
+    };
+    private CountDownLatch completed;
+    private WorkerProcessContext workerProcessContext;
+    private DefaultServiceRegistry testServices;
+    private RemoteTestSessionListener sessionListener;
+    private SecurityManager securityManager;
+    private Properties systemProperties;
+    private URL[] implementationClasspath;
+    private URLClassLoader applicationClassLoader;
+    private URLClassLoader testFrameworkClassLoader;
+    private TestClassProcessor processor;
+
+    @Override
+    public void execute(WorkerProcessContext workerProcessContext) {
+        LOGGER.info("{} started.", workerProcessContext.getDisplayName());
+
+        this.workerProcessContext = workerProcessContext;
+        completed = new CountDownLatch(1);
+        securityManager = System.getSecurityManager();
+        implementationClasspath = ClasspathUtil.getClasspath(getClass().getClassLoader()).getAsURLArray();
+
+        // The same jars are loaded again by later sessions, which must see their current content
+        ClassLoaderUtils.disableUrlConnectionCaching();
+
+        System.setProperty(TestWorker.WORKER_ID_SYS_PROPERTY, workerProcessContext.getWorkerId().toString());
+        systemProperties = copyOf(System.getProperties());
+
+        // Test ids are generated for the lifetime of the worker, as sessions of the same test task can run in the same worker
+        testServices = new TestWorker.TestFrameworkServiceRegistry(workerProcessContext);
+
+        ObjectConnection serverConnection = workerProcessContext.getServerConnection();
+        serverConnection.useParameterSerializers(TestEventSerializer.create());
+        sessionListener = serverConnection.addOutgoing(RemoteTestSessionListener.class);
+        serverConnection.addIncoming(ReusableRemoteTestClassProcessor.class, this);
+        serverConnection.connect();
+
+        try {
+            completed.await();
+        } catch (InterruptedException e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        } finally {
+            LOGGER.info("{} stopped.", workerProcessContext.getDisplayName());
+            testServices.close();
+        }
+    }
+
+    @Override
+    public void startSession(List<File> applicationClasspath, List<String> sharedPackages, byte[] serializedProcessorFactory) {
+        Thread.currentThread().setName("Test worker");
+        LOGGER.info("{} started executing tests.", workerProcessContext.getDisplayName());
+
+        applicationClassLoader = new URLClassLoader(DefaultClassPath.of(applicationClasspath).getAsURLArray(), ClassLoaderUtils.getPlatformClassLoader());
+        FilteringClassLoader.Spec sharedPackagesSpec = new FilteringClassLoader.Spec();
+        for (String sharedPackage : sharedPackages) {
+            sharedPackagesSpec.allowPackage(sharedPackage);
+        }
+        testFrameworkClassLoader = new TestFrameworkClassLoader(implementationClasspath, new FilteringClassLoader(applicationClassLoader, sharedPackagesSpec), getClass().getClassLoader());
+        System.setProperty("java.class.path", CollectionUtils.join(File.pathSeparator, applicationClasspath));
+
+        WorkerTestClassProcessorFactory factory;
+        try {
+            factory = (WorkerTestClassProcessorFactory) new ClassLoaderObjectInputStream(new ByteArrayInputStream(serializedProcessorFactory), testFrameworkClassLoader).readObject();
+        } catch (Exception e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+
+        TestClassProcessor targetProcessor = factory.create(testServices);
+        IdGenerator<Object> idGenerator = testServices.get(IdGenerator.class);
+        targetProcessor = new WorkerTestClassProcessor(targetProcessor, idGenerator.generateId(),
+                workerProcessContext.getDisplayName(), testServices.get(Clock.class));
+        ContextClassLoaderProxy<TestClassProcessor> proxy = new ContextClassLoaderProxy<TestClassProcessor>(
+                TestClassProcessor.class, targetProcessor, applicationClassLoader);
+        processor = proxy.getSource();
+    }
+
+    @Override
+    public void startProcessing() {
+        Thread.currentThread().setName("Test worker");
+        processor.startProcessing(sessionListener);
+    }
+
+    @Override
+    public void processTestClass(TestClassRunInfo testClass) {
+        Thread.currentThread().setName("Test worker");
+        try {
+            processor.processTestClass(testClass);
+        } catch (AccessControlException e) {
+            completed.countDown();
+            throw e;
+        } finally {
+            // Clean the interrupted status
+            Thread.interrupted();
+            sessionListener.requestTestClass();
+        }
+    }
+
+    @Override
+    public void stop() {
+        Thread.currentThread().setName("Test worker");
+        try {
+            processor.stop();
+        } finally {
+            endSession();
+            sessionListener.sessionCompleted();
+            // Clean the interrupted status
+            // because some test class processors do work here, e.g. JUnitPlatform
+            Thread.interrupted();
+        }
+    }
+
+    private void endSession() {
+        LOGGER.info("{} finished executing tests.", workerProcessContext.getDisplayName());
+        processor = null;
+
+        if (System.getSecurityManager() != securityManager) {
+            try {
+                // Reset security manager the tests seem to have installed
+                System.setSecurityManager(securityManager);
+            } catch (SecurityException e) {
+                LOGGER.warn("Unable to reset SecurityManager. Continuing anyway...", e);
+            }
+        }
+        System.setProperties(copyOf(systemProperties));
+
+        ClassLoaderUtils.tryClose(testFrameworkClassLoader);
+        ClassLoaderUtils.tryClose(applicationClassLoader);
+        testFrameworkClassLoader = null;
+        applicationClassLoader = null;
+    }
+
+    @Override
+    public void stopWorker() {
+        completed.countDown();
+    }
+
+    @Override
+    public void endStream() {
+        // The build process has gone away, so there won't be any more sessions
+        completed.countDown();
+    }
+
+    private static Properties copyOf(Properties properties) {
+        Properties copy = new Properties();
+        copy.putAll(properties);
+        return copy;
+    }
+
+    /**
+     * Loads the Gradle adapters for the test frameworks from the implementation classpath, so that they link against the test framework of the session.
+     * Classes in the shared packages are loaded from the application classpath if present there, and all other classes are shared with the worker implementation.
+     */
+    private static class TestFrameworkClassLoader extends URLClassLoader {
+        private final ClassLoader sharedApplicationClassLoader;
+        private final ClassLoader implementationClassLoader;
+
+        TestFrameworkClassLoader(URL[] implementationClasspath, ClassLoader sharedApplicationClassLoader, ClassLoader implementationClassLoader) {
+            super(implementationClasspath, null);
+            this.sharedApplicationClassLoader = sharedApplicationClassLoader;
+            this.implementationClassLoader = implementationClassLoader;
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            Class<?> loadedClass = findLoadedClass(name);
+            if (loadedClass == null) {
+                if (isTestFrameworkAdapter(name)) {
+                    loadedClass = findClass(name);
+                } else {
+                    try {
+                        loadedClass = sharedApplicationClassLoader.loadClass(name);
+                    } catch (ClassNotFoundException e) {
+                        loadedClass = implementationClassLoader.loadClass(name);
+                    }
+                }
+            }
+            if (resolve) {
+                resolveClass(loadedClass);
+            }
+            return loadedClass;
+        }
+
+        private static boolean isTestFrameworkAdapter(String className) {
+            for (String adapterPackage : TEST_FRAMEWORK_ADAPTER_PACKAGES) {
+                if (className.startsWith(adapterPackage)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.tasks.testing.worker;
+
+import com.google.common.collect.ImmutableList;
+import org.gradle.api.internal.tasks.testing.TestCompleteEvent;
+import org.gradle.api.internal.tasks.testing.TestDescriptorInternal;
+import org.gradle.api.internal.tasks.testing.TestResultProcessor;
+import org.gradle.api.internal.tasks.testing.TestStartEvent;
+import org.gradle.api.internal.tasks.testing.WorkerTestClassProcessorFactory;
+import org.gradle.api.tasks.testing.TestOutputEvent;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.concurrent.Stoppable;
+import org.gradle.internal.dispatch.StreamCompletion;
+import org.gradle.internal.remote.ObjectConnection;
+import org.gradle.process.internal.health.memory.JvmMemoryStatus;
+import org.gradle.process.internal.worker.WorkerProcess;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A started {@link ReusableTestWorker}, which runs one session after another.
+ *
+ * <p>The messages of the worker are forwarded to the session that is currently running.</p>
+ */
+public class ReusableTestWorkerClient implements RemoteTestSessionListener, StreamCompletion, Stoppable {
+    private final ReusableTestWorkerClientsManager.WorkerSpec spec;
+    private final WorkerProcess workerProcess;
+    private final ReusableRemoteTestClassProcessor remoteProcessor;
+    private final Lock lock = new ReentrantLock();
+    private final Condition sessionCompleted = lock.newCondition();
+    private TestResultProcessor resultProcessor;
+    private RemoteTestClassRequester testClassRequester;
+    private boolean sessionRunning;
+    private boolean disconnected;
+    private int uses;
+
+    ReusableTestWorkerClient(ReusableTestWorkerClientsManager.WorkerSpec spec, WorkerProcess workerProcess) {
+        this.spec = spec;
+        this.workerProcess = workerProcess;
+
+        ObjectConnection connection = workerProcess.getConnection();
+        connection.useParameterSerializers(TestEventSerializer.create());
+        connection.addIncoming(RemoteTestSessionListener.class, this);
+        remoteProcessor = connection.addOutgoing(ReusableRemoteTestClassProcessor.class);
+        connection.connect();
+    }
+
+    /**
+     * Starts a session, which sends its test results to the given processor and asks the given requester for more test classes.
+     * The session ends when {@link RemoteTestClassProcessor#stop()} is called on the returned processor.
+     *
+     * <p>The requester is notified as a {@link StreamCompletion} when it implements it, should the worker stop or crash during the session.</p>
+     */
+    public RemoteTestClassProcessor startSession(TestResultProcessor resultProcessor, RemoteTestClassRequester testClassRequester, Set<File> applicationClasspath, Set<String> sharedPackages, WorkerTestClassProcessorFactory processorFactory) {
+        lock.lock();
+        try {
+            this.resultProcessor = resultProcessor;
+            this.testClassRequester = testClassRequester;
+            sessionRunning = true;
+            uses++;
+        } finally {
+            lock.unlock();
+        }
+        remoteProcessor.startSession(ImmutableList.copyOf(applicationClasspath), ImmutableList.copyOf(sharedPackages), serialize(processorFactory));
+        return remoteProcessor;
+    }
+
+    /**
+     * Waits for the worker to send all results of the current session.
+     *
+     * @return false when the worker has stopped or crashed before completing the session.
+     */
+    public boolean awaitSessionCompleted() {
+        lock.lock();
+        try {
+            while (sessionRunning && !disconnected) {
+                sessionCompleted.await();
+            }
+            return !sessionRunning;
+        } catch (InterruptedException e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static byte[] serialize(WorkerTestClassProcessorFactory processorFactory) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream);
+            objectOutputStream.writeObject(processorFactory);
+            objectOutputStream.close();
+        } catch (IOException e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    @Override
+    public void started(TestDescriptorInternal test, TestStartEvent event) {
+        resultProcessor.started(test, event);
+    }
+
+    @Override
+    public void completed(Object testId, TestCompleteEvent event) {
+        resultProcessor.completed(testId, event);
+    }
+
+    @Override
+    public void output(Object testId, TestOutputEvent event) {
+        resultProcessor.output(testId, event);
+    }
+
+    @Override
+    public void failure(Object testId, Throwable result) {
+        resultProcessor.failure(testId, result);
+    }
+
+    @Override
+    public void requestTestClass() {
+        testClassRequester.requestTestClass();
+    }
+
+    @Override
+    public void sessionCompleted() {
+        lock.lock();
+        try {
+            sessionRunning = false;
+            resultProcessor = null;
+            testClassRequester = null;
+            sessionCompleted.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void endStream() {
+        RemoteTestClassRequester requester;
+        lock.lock();
+        try {
+            disconnected = true;
+            requester = testClassRequester;
+            sessionCompleted.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (requester instanceof StreamCompletion) {
+            ((StreamCompletion) requester).endStream();
+        }
+    }
+
+    public WorkerProcess getWorkerProcess() {
+        return workerProcess;
+    }
+
+    boolean isFailed() {
+        lock.lock();
+        try {
+            return disconnected;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isCompatibleWith(ReusableTestWorkerClientsManager.WorkerSpec required) {
+        return spec.equals(required);
+    }
+
+    ReusableTestWorkerClientsManager.WorkerSpec getSpec() {
+        return spec;
+    }
+
+    int getUses() {
+        return uses;
+    }
+
+    JvmMemoryStatus getJvmMemoryStatus() {
+        return workerProcess.getJvmMemoryStatus();
+    }
+
+    /**
+     * Stops the worker, which must not be running a session.
+     */
+    @Override
+    public void stop() {
+        if (!isFailed()) {
+            remoteProcessor.stopWorker();
+            workerProcess.waitForStop();
+        }
+    }
+}
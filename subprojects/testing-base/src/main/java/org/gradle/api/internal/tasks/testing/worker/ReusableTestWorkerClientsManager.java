@@ -0,0 +1,248 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.tasks.testing.worker;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.gradle.api.Transformer;
+import org.gradle.api.logging.LogLevel;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.concurrent.Stoppable;
+import org.gradle.internal.exceptions.DefaultMultiCauseException;
+import org.gradle.process.internal.JavaExecHandleBuilder;
+import org.gradle.process.internal.health.memory.MemoryManager;
+import org.gradle.process.internal.health.memory.OsMemoryInfo;
+import org.gradle.process.internal.worker.WorkerProcess;
+import org.gradle.process.internal.worker.WorkerProcessBuilder;
+import org.gradle.util.CollectionUtils;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps {@link ReusableTestWorker}s running across test tasks and builds, so that a worker can run the tests of any test task that forks its workers with the same settings.
+ *
+ * <p>The test classpath is not part of these settings, as each session loads the test classes in a ClassLoader of its own.
+ * The working directory and the JVM arguments are, as a running JVM cannot change them. As the working directory defaults to the project directory,
+ * workers are usually only shared between the test tasks of a project, and between builds.</p>
+ *
+ * <p>At most a given number of idle workers is kept, the least used being stopped first. Idle workers are also stopped when memory needs to be freed,
+ * and all workers are stopped when the build process stops.</p>
+ */
+public class ReusableTestWorkerClientsManager implements Stoppable {
+
+    private static final Logger LOGGER = Logging.getLogger(ReusableTestWorkerClientsManager.class);
+
+    private final Object lock = new Object();
+    private final List<ReusableTestWorkerClient> allClients = new ArrayList<ReusableTestWorkerClient>();
+    private final List<ReusableTestWorkerClient> idleClients = new ArrayList<ReusableTestWorkerClient>();
+    private final MemoryManager memoryManager;
+    private final ReusableTestWorkerExpiration workerExpiration;
+    private final int maxIdleWorkers;
+
+    public ReusableTestWorkerClientsManager(MemoryManager memoryManager, OsMemoryInfo memoryInfo, int maxIdleWorkers) {
+        this.memoryManager = memoryManager;
+        this.maxIdleWorkers = maxIdleWorkers;
+        this.workerExpiration = new ReusableTestWorkerExpiration(this, getTotalPhysicalMemory(memoryInfo));
+        memoryManager.addMemoryHolder(workerExpiration);
+    }
+
+    /**
+     * Reserves an idle worker which has been started with the same settings as the given builder, or starts a new worker with the builder.
+     * The worker of the builder must be a {@link ReusableTestWorker}.
+     */
+    public ReusableTestWorkerClient reserveClient(WorkerProcessBuilder builder) {
+        WorkerSpec spec = WorkerSpec.of(builder);
+        synchronized (lock) {
+            Iterator<ReusableTestWorkerClient> it = idleClients.iterator();
+            while (it.hasNext()) {
+                ReusableTestWorkerClient candidate = it.next();
+                if (candidate.isCompatibleWith(spec)) {
+                    it.remove();
+                    return candidate;
+                }
+            }
+        }
+
+        //allow the workers to be started concurrently
+        LOGGER.debug("Starting reusable test worker with {}.", spec);
+        builder.enableJvmMemoryInfoPublishing(true);
+        WorkerProcess workerProcess = builder.build();
+        workerProcess.start();
+        ReusableTestWorkerClient client = new ReusableTestWorkerClient(spec, workerProcess);
+        synchronized (lock) {
+            allClients.add(client);
+        }
+        return client;
+    }
+
+    /**
+     * Makes the worker available to run another session, unless it has stopped or crashed.
+     * Stops the least used idle workers when more than the maximum number of idle workers are kept.
+     */
+    public void release(ReusableTestWorkerClient client) {
+        synchronized (lock) {
+            if (client.isFailed()) {
+                allClients.remove(client);
+                return;
+            }
+            idleClients.add(client);
+            int excessWorkers = idleClients.size() - maxIdleWorkers;
+            if (excessWorkers > 0) {
+                stopWorkers(new ArrayList<ReusableTestWorkerClient>(getIdleClientsLeastUsedFirst().subList(0, excessWorkers)));
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        synchronized (lock) {
+            memoryManager.removeMemoryHolder(workerExpiration);
+            stopWorkers(new ArrayList<ReusableTestWorkerClient>(allClients));
+        }
+    }
+
+    private static long getTotalPhysicalMemory(OsMemoryInfo memoryInfo) {
+        try {
+            return memoryInfo.getOsSnapshot().getTotalPhysicalMemory();
+        } catch (UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Select idle workers to stop.
+     *
+     * @param selectionFunction Gets all idle workers, least used first, and returns the workers to stop
+     */
+    void selectIdleClientsToStop(Transformer<List<ReusableTestWorkerClient>, List<ReusableTestWorkerClient>> selectionFunction) {
+        synchronized (lock) {
+            List<ReusableTestWorkerClient> clientsToStop = selectionFunction.transform(new ArrayList<ReusableTestWorkerClient>(getIdleClientsLeastUsedFirst()));
+            if (!clientsToStop.isEmpty()) {
+                stopWorkers(clientsToStop);
+            }
+        }
+    }
+
+    private List<ReusableTestWorkerClient> getIdleClientsLeastUsedFirst() {
+        return CollectionUtils.sort(idleClients, new Comparator<ReusableTestWorkerClient>() {
+            @Override
+            public int compare(ReusableTestWorkerClient o1, ReusableTestWorkerClient o2) {
+                return o1.getUses() - o2.getUses();
+            }
+        });
+    }
+
+    private void stopWorkers(List<ReusableTestWorkerClient> clientsToStop) {
+        if (clientsToStop.isEmpty()) {
+            return;
+        }
+        int clientCount = clientsToStop.size();
+        LOGGER.debug("Stopping {} reusable test worker(s).", clientCount);
+        List<Exception> failures = Lists.newArrayList();
+        for (ReusableTestWorkerClient client : clientsToStop) {
+            try {
+                client.stop();
+            } catch (Exception e) {
+                failures.add(e);
+            }
+        }
+        idleClients.removeAll(clientsToStop);
+        allClients.removeAll(clientsToStop);
+        if (!failures.isEmpty()) {
+            if (failures.size() == 1) {
+                throw UncheckedException.throwAsUncheckedException(failures.get(0));
+            } else {
+                throw new DefaultMultiCauseException("Not all reusable test worker(s) could be stopped.", failures);
+            }
+        } else {
+            LOGGER.info("Stopped {} reusable test worker(s).", clientCount);
+        }
+    }
+
+    /**
+     * The settings a worker has been started with.
+     */
+    static class WorkerSpec {
+        private final String executable;
+        private final List<String> jvmArgs;
+        private final Map<String, String> environment;
+        private final File workingDir;
+        private final LogLevel logLevel;
+        private final String maxHeapSize;
+
+        private WorkerSpec(String executable, List<String> jvmArgs, Map<String, String> environment, File workingDir, LogLevel logLevel, @Nullable String maxHeapSize) {
+            this.executable = executable;
+            this.jvmArgs = jvmArgs;
+            this.environment = environment;
+            this.workingDir = workingDir;
+            this.logLevel = logLevel;
+            this.maxHeapSize = maxHeapSize;
+        }
+
+        static WorkerSpec of(WorkerProcessBuilder builder) {
+            JavaExecHandleBuilder javaCommand = builder.getJavaCommand();
+            ImmutableMap.Builder<String, String> environment = ImmutableMap.builder();
+            for (Map.Entry<String, Object> entry : javaCommand.getEnvironment().entrySet()) {
+                environment.put(entry.getKey(), String.valueOf(entry.getValue()));
+            }
+            return new WorkerSpec(javaCommand.getExecutable(), ImmutableList.copyOf(javaCommand.getAllJvmArgs()), environment.build(),
+                javaCommand.getWorkingDir(), builder.getLogLevel(), javaCommand.getMaxHeapSize());
+        }
+
+        @Nullable
+        String getMaxHeapSize() {
+            return maxHeapSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            WorkerSpec other = (WorkerSpec) o;
+            return executable.equals(other.executable)
+                && jvmArgs.equals(other.jvmArgs)
+                && environment.equals(other.environment)
+                && workingDir.equals(other.workingDir)
+                && logLevel == other.logLevel;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(executable, jvmArgs, environment, workingDir, logLevel);
+        }
+
+        @Override
+        public String toString() {
+            return "executable: " + executable + ", jvmArgs: " + jvmArgs + ", workingDir: " + workingDir;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.tasks.testing.worker;
+
+import org.gradle.api.Transformer;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.process.internal.health.memory.MaximumHeapHelper;
+import org.gradle.process.internal.health.memory.MemoryAmount;
+import org.gradle.process.internal.health.memory.MemoryHolder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stops idle reusable test workers, least used first, until the requested amount of memory has been released.
+ */
+public class ReusableTestWorkerExpiration implements MemoryHolder {
+
+    private static final Logger LOGGER = Logging.getLogger(ReusableTestWorkerExpiration.class);
+
+    private final ReusableTestWorkerClientsManager clientsManager;
+    private final long osTotalMemory;
+
+    public ReusableTestWorkerExpiration(ReusableTestWorkerClientsManager clientsManager, long osTotalMemory) {
+        this.clientsManager = clientsManager;
+        this.osTotalMemory = osTotalMemory;
+    }
+
+    @Override
+    public long attemptToRelease(long memoryAmountBytes) throws IllegalArgumentException {
+        if (memoryAmountBytes < 0) {
+            throw new IllegalArgumentException("Negative memory amount");
+        }
+        MemoryExpirationSelector selector = new MemoryExpirationSelector(memoryAmountBytes);
+        clientsManager.selectIdleClientsToStop(selector);
+        return selector.getReleasedBytes();
+    }
+
+    private class MemoryExpirationSelector implements Transformer<List<ReusableTestWorkerClient>, List<ReusableTestWorkerClient>> {
+
+        private final long memoryBytesToRelease;
+        private long releasedBytes;
+
+        MemoryExpirationSelector(long memoryBytesToRelease) {
+            this.memoryBytesToRelease = memoryBytesToRelease;
+        }
+
+        long getReleasedBytes() {
+            return releasedBytes;
+        }
+
+        @Override
+        public List<ReusableTestWorkerClient> transform(List<ReusableTestWorkerClient> idleClients) {
+            List<ReusableTestWorkerClient> toExpire = new ArrayList<ReusableTestWorkerClient>();
+            for (ReusableTestWorkerClient idleClient : idleClients) {
+                if (releasedBytes >= memoryBytesToRelease) {
+                    break;
+                }
+                toExpire.add(idleClient);
+                releasedBytes += getMemoryUsage(idleClient);
+            }
+            if (!toExpire.isEmpty()) {
+                LOGGER.debug("Reusable test worker(s) expired to free some system memory {}", toExpire.size());
+            }
+            return toExpire;
+        }
+
+        private long getMemoryUsage(ReusableTestWorkerClient idleClient) {
+            // prefer to use the actual memory usage reported by the worker
+            try {
+                return idleClient.getJvmMemoryStatus().getCommittedMemory();
+            } catch (IllegalStateException e) {
+                // This means the worker has not reported memory usage yet
+            }
+
+            long maxHeapSize = MemoryAmount.parseNotation(idleClient.getSpec().getMaxHeapSize());
+            if (maxHeapSize != -1) {
+                return maxHeapSize;
+            }
+            if (osTotalMemory != -1) {
+                return new MaximumHeapHelper().getDefaultMaximumHeapSize(osTotalMemory);
+            }
+            return 0;
+        }
+    }
+}
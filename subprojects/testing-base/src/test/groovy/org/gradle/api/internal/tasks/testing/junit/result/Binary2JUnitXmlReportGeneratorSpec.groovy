@@ -81,6 +81,35 @@ class Binary2JUnitXmlReportGeneratorSpec extends Specification {
         numThreads << [ 1, 4 ]
     }
 
+    def "writes results of each batch of classes before visiting further classes"() {
+        generator = generatorWithMaxThreads(1)
+
+        def classes = (1..3).collect { classId ->
+            def result = new TestClassResult(classId, "Test" + classId, 100)
+            (1..6000).each { result.add(new TestMethodResult(classId * 10000 + it, "test" + it)) }
+            result
+        }
+        def events = []
+
+        resultsProvider.visitClasses(_) >> { Action action ->
+            classes.each {
+                events << "visit " + it.className
+                action.execute(it)
+            }
+        }
+
+        when:
+        generator.generate()
+
+        then:
+        3 * generator.xmlWriter.write(_, _) >> { TestClassResult result, OutputStream output ->
+            events << "write " + result.className
+        }
+
+        and:
+        events == ["visit Test1", "visit Test2", "write Test1", "write Test2", "visit Test3", "write Test3"]
+    }
+
     def "adds context information to the failure if something goes wrong"() {
         generator = generatorWithMaxThreads(1)
 
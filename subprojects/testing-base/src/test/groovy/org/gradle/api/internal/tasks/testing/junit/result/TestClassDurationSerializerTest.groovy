@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.tasks.testing.junit.result
+
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+class TestClassDurationSerializerTest extends Specification {
+    @Rule
+    private TestNameTestDirectoryProvider tmp = new TestNameTestDirectoryProvider()
+
+    def serializer = new TestClassDurationSerializer(tmp.file("durations.bin"))
+
+    def "can write and read durations"() {
+        when:
+        serializer.write([Class1: 100L, Class2: 0L, Class3: 123456789L])
+
+        then:
+        serializer.read() == [Class1: 100L, Class2: 0L, Class3: 123456789L]
+    }
+
+    def "has no durations when none have been written"() {
+        expect:
+        serializer.read().isEmpty()
+    }
+
+    def "has no durations when written by another version"() {
+        given:
+        tmp.file("durations.bin").bytes = [99, 0] as byte[]
+
+        expect:
+        serializer.read().isEmpty()
+    }
+
+    def "has no durations when the file is truncated"() {
+        given:
+        serializer.write([Class1: 100L, Class2: 0L, Class3: 123456789L])
+        def file = tmp.file("durations.bin")
+        file.bytes = file.bytes[0..-4] as byte[]
+
+        expect:
+        serializer.read().isEmpty()
+    }
+}
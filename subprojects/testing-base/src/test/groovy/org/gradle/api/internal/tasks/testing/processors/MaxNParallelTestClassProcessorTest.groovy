@@ -71,7 +71,7 @@ class MaxNParallelTestClassProcessorTest extends Specification {
 
         then:
         1 * factory.create() >> processor1
-        1 * actorFactory.createActor(processor1) >> actor1
+        1 * actorFactory.createActor(_ as TestClassProcessor) >> actor1
         1 * actor1.getProxy(TestClassProcessor) >> asyncProcessor1
         1 * asyncProcessor1.startProcessing(asyncResultProcessor)
         1 * asyncProcessor1.processTestClass(test)
@@ -101,7 +101,7 @@ class MaxNParallelTestClassProcessorTest extends Specification {
 
         then:
         1 * factory.create() >> processor1
-        1 * actorFactory.createActor(processor1) >> actor1
+        1 * actorFactory.createActor(_ as TestClassProcessor) >> actor1
         1 * actor1.getProxy(TestClassProcessor) >> asyncProcessor1
         1 * asyncProcessor1.startProcessing(asyncResultProcessor)
         1 * asyncProcessor1.processTestClass(test)
@@ -111,7 +111,7 @@ class MaxNParallelTestClassProcessorTest extends Specification {
 
         then:
         1 * factory.create() >> processor2
-        1 * actorFactory.createActor(processor2) >> actor2
+        1 * actorFactory.createActor(_ as TestClassProcessor) >> actor2
         1 * actor2.getProxy(TestClassProcessor) >> asyncProcessor2
         1 * asyncProcessor2.startProcessing(asyncResultProcessor)
         1 * asyncProcessor2.processTestClass(test)
@@ -124,48 +124,129 @@ class MaxNParallelTestClassProcessorTest extends Specification {
         1 * asyncProcessor2.stop()
     }
 
-    def roundRobinsTestClassesToProcessors() {
-        TestClassRunInfo test = Mock()
+    def queuesTestClassesUntilAProcessorIsReady() {
+        TestClassRunInfo test1 = Mock()
+        TestClassRunInfo test2 = Mock()
+        TestClassRunInfo test3 = Mock()
+        TestClassRunInfo test4 = Mock()
+        TestClassRunInfo test5 = Mock()
         TestClassProcessor processor1 = Mock()
         TestClassProcessor processor2 = Mock()
         TestClassProcessor asyncProcessor1 = Mock()
         TestClassProcessor asyncProcessor2 = Mock()
+        TestClassProcessor consumer1 = null
         Actor actor1 = Mock()
         Actor actor2 = Mock()
 
         startProcessor()
 
         when:
-        processor.processTestClass(test)
+        processor.processTestClass(test1)
+        processor.processTestClass(test2)
 
         then:
         1 * factory.create() >> processor1
-        1 * actorFactory.createActor(processor1) >> actor1
+        1 * actorFactory.createActor(_ as TestClassProcessor) >> { TestClassProcessor target -> consumer1 = target; actor1 }
         1 * actor1.getProxy(TestClassProcessor) >> asyncProcessor1
         1 * asyncProcessor1.startProcessing(asyncResultProcessor)
-        1 * asyncProcessor1.processTestClass(test)
+        1 * asyncProcessor1.processTestClass(test1)
+
+        then:
+        1 * factory.create() >> processor2
+        1 * actorFactory.createActor(_ as TestClassProcessor) >> actor2
+        1 * actor2.getProxy(TestClassProcessor) >> asyncProcessor2
+        1 * asyncProcessor2.startProcessing(asyncResultProcessor)
+        1 * asyncProcessor2.processTestClass(test2)
 
         when:
-        processor.processTestClass(test)
+        processor.processTestClass(test3)
+        processor.processTestClass(test4)
+
+        then:
+        0 * _
+
+        when:
+        consumer1.processTestClass(test1)
+
+        then:
+        1 * processor1.processTestClass(test1)
+
+        then:
+        1 * processor1.processTestClass(test3)
+
+        then:
+        1 * processor1.processTestClass(test4)
+        0 * _
+
+        when:
+        processor.processTestClass(test5)
+
+        then:
+        1 * asyncProcessor1.processTestClass(test5)
+        0 * _
+    }
+
+    def "processor which fails takes no further test classes"() {
+        TestClassRunInfo test1 = Mock()
+        TestClassRunInfo test2 = Mock()
+        TestClassRunInfo test3 = Mock()
+        TestClassRunInfo test4 = Mock()
+        TestClassProcessor processor1 = Mock()
+        TestClassProcessor processor2 = Mock()
+        TestClassProcessor asyncProcessor1 = Mock()
+        TestClassProcessor asyncProcessor2 = Mock()
+        TestClassProcessor consumer1 = null
+        TestClassProcessor consumer2 = null
+        Actor actor1 = Mock()
+        Actor actor2 = Mock()
+        def failure = new RuntimeException("worker disconnected")
+
+        startProcessor()
+
+        when:
+        processor.processTestClass(test1)
+        processor.processTestClass(test2)
+        processor.processTestClass(test3)
+        processor.processTestClass(test4)
+
+        then:
+        1 * factory.create() >> processor1
+        1 * actorFactory.createActor(_ as TestClassProcessor) >> { TestClassProcessor target -> consumer1 = target; actor1 }
+        1 * actor1.getProxy(TestClassProcessor) >> asyncProcessor1
 
         then:
         1 * factory.create() >> processor2
-        1 * actorFactory.createActor(processor2) >> actor2
+        1 * actorFactory.createActor(_ as TestClassProcessor) >> { TestClassProcessor target -> consumer2 = target; actor2 }
         1 * actor2.getProxy(TestClassProcessor) >> asyncProcessor2
-        1 * asyncProcessor2.startProcessing(asyncResultProcessor)
-        1 * asyncProcessor2.processTestClass(test)
 
         when:
-        processor.processTestClass(test)
+        consumer1.processTestClass(test1)
 
         then:
-        1 * asyncProcessor1.processTestClass(test)
+        1 * processor1.processTestClass(test1) >> { throw failure }
+        0 * processor1.processTestClass(_)
+        def e = thrown(RuntimeException)
+        e == failure
 
         when:
-        processor.processTestClass(test)
+        consumer2.processTestClass(test2)
 
         then:
-        1 * asyncProcessor2.processTestClass(test)
+        1 * processor2.processTestClass(test2)
+
+        then:
+        1 * processor2.processTestClass(test3)
+
+        then:
+        1 * processor2.processTestClass(test4)
+        0 * processor1._
+
+        when:
+        processor.processTestClass(test1)
+
+        then:
+        1 * asyncProcessor2.processTestClass(test1)
+        0 * asyncProcessor1._
     }
 
     def "stopNow propagates to factory created processors"() {
@@ -184,7 +265,7 @@ class MaxNParallelTestClassProcessorTest extends Specification {
 
         then:
         1 * factory.create() >> processor1
-        1 * actorFactory.createActor(processor1) >> actor1
+        1 * actorFactory.createActor(_ as TestClassProcessor) >> actor1
         1 * actor1.getProxy(TestClassProcessor) >> asyncProcessor1
 
         when:
@@ -192,7 +273,7 @@ class MaxNParallelTestClassProcessorTest extends Specification {
 
         then:
         1 * factory.create() >> processor2
-        1 * actorFactory.createActor(processor2) >> actor2
+        1 * actorFactory.createActor(_ as TestClassProcessor) >> actor2
         1 * actor2.getProxy(TestClassProcessor) >> asyncProcessor2
 
         when:
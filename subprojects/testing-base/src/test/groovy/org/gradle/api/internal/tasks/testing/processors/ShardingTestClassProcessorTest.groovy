@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.tasks.testing.processors
+
+import org.gradle.api.internal.tasks.testing.DefaultTestClassRunInfo
+import org.gradle.api.internal.tasks.testing.TestClassProcessor
+import org.gradle.api.internal.tasks.testing.TestResultProcessor
+import spock.lang.Specification
+
+class ShardingTestClassProcessorTest extends Specification {
+    TestClassProcessor delegate = Mock()
+    TestResultProcessor testResultProcessor = Mock()
+
+    def 'spreads test classes over shards by their expected duration'() {
+        def durations = [Class1: 100L, Class2: 60L, Class3: 50L, Class4: 30L, Class5: 20L]
+
+        expect:
+        shard(1, 2, durations, ['Class1', 'Class2', 'Class3', 'Class4', 'Class5']) == ['Class1', 'Class4']
+        shard(2, 2, durations, ['Class1', 'Class2', 'Class3', 'Class4', 'Class5']) == ['Class2', 'Class3', 'Class5']
+    }
+
+    def 'shards do not depend on the order test classes are found in'() {
+        def durations = [Class1: 100L, Class2: 60L, Class3: 50L, Class4: 30L, Class5: 20L]
+
+        expect:
+        shard(2, 2, durations, ['Class5', 'Class3', 'Class1', 'Class4', 'Class2']) == ['Class5', 'Class3', 'Class2']
+    }
+
+    def 'assigns test classes to shards by name when no durations are given'() {
+        expect:
+        shard(1, 3, [:], ['Class1', 'Class2', 'Class3', 'Class4']) == ['Class2']
+        shard(2, 3, [:], ['Class1', 'Class2', 'Class3', 'Class4']) == ['Class3']
+        shard(3, 3, [:], ['Class1', 'Class2', 'Class3', 'Class4']) == ['Class1', 'Class4']
+    }
+
+    def 'shard of a test class does not depend on the other test classes when no durations are given'() {
+        expect:
+        shard(3, 3, [:], ['Class1', 'Class4']) == ['Class1', 'Class4']
+        shard(3, 3, [:], ['Class4', 'Class5', 'Class6']) == ['Class4']
+    }
+
+    def 'passes test classes on as they are found when no durations are given'() {
+        def processor = new ShardingTestClassProcessor(3, 3, [:], delegate)
+        def testClass = new DefaultTestClassRunInfo('Class1')
+
+        when:
+        processor.startProcessing(testResultProcessor)
+        processor.processTestClass(testClass)
+
+        then:
+        1 * delegate.startProcessing(testResultProcessor)
+        1 * delegate.processTestClass(testClass)
+        0 * delegate._
+
+        when:
+        processor.processTestClass(new DefaultTestClassRunInfo('Class2'))
+        processor.stop()
+
+        then:
+        1 * delegate.stop()
+        0 * delegate._
+    }
+
+    def 'test classes without a known duration are expected to take the average duration'() {
+        def durations = [Class1: 100L, Class2: 20L]
+
+        expect:
+        shard(1, 2, durations, ['Class1', 'Class2', 'NewClass']) == ['Class1']
+        shard(2, 2, durations, ['Class1', 'Class2', 'NewClass']) == ['Class2', 'NewClass']
+    }
+
+    def 'cannot run shard outside of shard count'() {
+        when:
+        new ShardingTestClassProcessor(3, 2, [:], delegate)
+
+        then:
+        def e = thrown(IllegalArgumentException)
+        e.message == 'Cannot run shard 3 of 2.'
+    }
+
+    def 'cannot run a single shard'() {
+        when:
+        new ShardingTestClassProcessor(1, 1, [:], delegate)
+
+        then:
+        def e = thrown(IllegalArgumentException)
+        e.message == 'Cannot run shard 1 of 1.'
+    }
+
+    private List<String> shard(int shardIndex, int shardCount, Map<String, Long> durations, List<String> classNames) {
+        def processed = []
+        def shardDelegate = [
+            startProcessing: {},
+            processTestClass: { processed << it.testClassName },
+            stop: {}
+        ] as TestClassProcessor
+        def processor = new ShardingTestClassProcessor(shardIndex, shardCount, durations, shardDelegate)
+
+        processor.startProcessing(testResultProcessor)
+        classNames.each { processor.processTestClass(new DefaultTestClassRunInfo(it)) }
+        processor.stop()
+        processed
+    }
+}
@@ -466,6 +466,68 @@ class DefaultTestReportTest extends Specification {
         numThreads << [ 1, 4 ]
     }
 
+    def "merges results of classes with the same name"() {
+        given:
+        report = reportWithMaxThreads(1)
+        def testTestResults = buildResults {
+            testClassResult("org.gradle.Test") {
+                testcase("first") {
+                    duration = 1000
+                }
+            }
+            testClassResult("org.gradle.Test") {
+                testcase("second") {
+                    duration = 1000
+                    failure("something failed", "this is the failure\nat someClass")
+                }
+            }
+        }
+
+        when:
+        report.generateReport(testTestResults, reportDir)
+
+        then:
+        def index = results(indexFile)
+        index.assertHasTests(2)
+        index.assertHasFailures(1)
+        index.assertHasFailedTest('classes/org.gradle.Test', 'second')
+
+        def testClassFile = results(reportDir.file('classes/org.gradle.Test.html'))
+        testClassFile.assertHasTests(2)
+        testClassFile.testDetails('first').assertPassed()
+        testClassFile.testDetails('second').assertFailed()
+    }
+
+    @Unroll
+    def "generates class pages for more tests than are rendered in one batch - #numThreads parallel thread(s)"() {
+        given:
+        report = reportWithMaxThreads(numThreads)
+        def testTestResults = buildResults {
+            (1..3).each { classIndex ->
+                testClassResult("org.gradle.Test" + classIndex) {
+                    (1..4000).each { testIndex ->
+                        testcase("test" + testIndex) {
+                            duration = 1
+                        }
+                    }
+                }
+            }
+        }
+
+        when:
+        report.generateReport(testTestResults, reportDir)
+
+        then:
+        def index = results(indexFile)
+        index.assertHasTests(12000)
+        (1..3).each { classIndex ->
+            results(reportDir.file("classes/org.gradle.Test${classIndex}.html")).assertHasTests(4000)
+        }
+
+        where:
+        numThreads << [ 1, 4 ]
+    }
+
     def reportsOnClassesInDefaultPackage() {
         given:
         report = reportWithMaxThreads(1)
@@ -65,11 +65,50 @@ class ForkingTestClassProcessorTest extends Specification {
         then:
         1 * workerLease.startChild()
         1 * processor.forkProcess() >> remoteProcessor
-        1 * remoteProcessor.processTestClass(test1)
-        1 * remoteProcessor.processTestClass(test2)
+        1 * remoteProcessor.processTestClass(test1) >> { processor.requestTestClass() }
+        1 * remoteProcessor.processTestClass(test2) >> { processor.requestTestClass() }
         0 * remoteProcessor._
     }
 
+    def "fails instead of waiting for worker which has disconnected to request another test class"() {
+        def test1 = Stub(TestClassRunInfo) { getTestClassName() >> "org.gradle.Test1" }
+
+        def remoteProcessor = Mock(RemoteTestClassProcessor)
+
+        when:
+        processor.processTestClass(test1)
+
+        then:
+        1 * processor.forkProcess() >> remoteProcessor
+        1 * remoteProcessor.processTestClass(test1) >> { processor.endStream() }
+        0 * remoteProcessor._
+        def e = thrown(ExecException)
+        e.message == "Could not run test class org.gradle.Test1 as the test worker has disconnected."
+    }
+
+    def "does not hand test classes to worker which has disconnected"() {
+        def test1 = Mock(TestClassRunInfo)
+        def test2 = Stub(TestClassRunInfo) { getTestClassName() >> "org.gradle.Test2" }
+
+        def remoteProcessor = Mock(RemoteTestClassProcessor)
+
+        when:
+        processor.processTestClass(test1)
+
+        then:
+        1 * processor.forkProcess() >> remoteProcessor
+        1 * remoteProcessor.processTestClass(test1) >> { processor.requestTestClass() }
+
+        when:
+        processor.endStream()
+        processor.processTestClass(test2)
+
+        then:
+        0 * remoteProcessor._
+        def e = thrown(ExecException)
+        e.message == "Could not run test class org.gradle.Test2 as the test worker has disconnected."
+    }
+
     def "starts process with a limited implementation classpath"() {
         setup:
         1 * workerProcess.getConnection() >> Stub(ObjectConnection) { addOutgoing(_) >> Stub(RemoteTestClassProcessor) }
@@ -96,7 +135,11 @@ class ForkingTestClassProcessorTest extends Specification {
         ForkingTestClassProcessor processor = new ForkingTestClassProcessor(Stub(WorkerLeaseRegistry.WorkerLease), workerProcessFactory, Mock(WorkerTestClassProcessorFactory), options, [new File("classpath.jar")], Mock(Action), Stub(ModuleRegistry), documentationRegistry)
 
         setup:
-        1 * workerProcess.getConnection() >> Stub(ObjectConnection) { addOutgoing(_) >> Stub(RemoteTestClassProcessor) }
+        1 * workerProcess.getConnection() >> Stub(ObjectConnection) {
+            addOutgoing(_) >> Stub(RemoteTestClassProcessor) {
+                processTestClass(_) >> { processor.requestTestClass() }
+            }
+        }
 
         when:
         processor.processTestClass(Mock(TestClassRunInfo))
@@ -110,7 +153,11 @@ class ForkingTestClassProcessorTest extends Specification {
         ForkingTestClassProcessor processor = new ForkingTestClassProcessor(Stub(WorkerLeaseRegistry.WorkerLease), workerProcessFactory, Mock(WorkerTestClassProcessorFactory), options, [new File("classpath.jar")], Mock(Action), Stub(ModuleRegistry), documentationRegistry)
 
         setup:
-        1 * workerProcess.getConnection() >> Stub(ObjectConnection) { addOutgoing(_) >> Stub(RemoteTestClassProcessor) }
+        1 * workerProcess.getConnection() >> Stub(ObjectConnection) {
+            addOutgoing(_) >> Stub(RemoteTestClassProcessor) {
+                processTestClass(_) >> { processor.requestTestClass() }
+            }
+        }
 
         when:
         processor.processTestClass(Mock(TestClassRunInfo))
@@ -123,6 +170,52 @@ class ForkingTestClassProcessorTest extends Specification {
         notThrown(ExecException)
     }
 
+    def "runs test classes in a session of a reusable worker and releases the worker when stopped"() {
+        def reusableWorkers = Mock(ReusableTestWorkerClientsManager)
+        def reusableWorker = Mock(ReusableTestWorkerClient)
+        def remoteProcessor = Mock(RemoteTestClassProcessor)
+        def test = Mock(TestClassRunInfo)
+        ForkingTestClassProcessor processor = new ForkingTestClassProcessor(Stub(WorkerLeaseRegistry.WorkerLease), workerProcessFactory, Mock(WorkerTestClassProcessorFactory), options, [new File("classpath.jar")], Mock(Action), Stub(ModuleRegistry), documentationRegistry, reusableWorkers)
+
+        when:
+        processor.processTestClass(test)
+        processor.stop()
+
+        then:
+        1 * reusableWorkers.reserveClient(workerProcessBuilder) >> reusableWorker
+        1 * reusableWorker.startSession(_, processor, [new File("classpath.jar")] as Set, _, _) >> remoteProcessor
+        1 * remoteProcessor.startProcessing()
+        1 * remoteProcessor.processTestClass(test) >> { processor.requestTestClass() }
+        1 * remoteProcessor.stop()
+        1 * reusableWorker.awaitSessionCompleted() >> true
+        1 * reusableWorkers.release(reusableWorker)
+        0 * workerProcessBuilder.applicationClasspath(_)
+        0 * workerProcessBuilder.build()
+    }
+
+    def "starts a worker process of its own for tests which run with a Java agent"() {
+        def reusableWorkers = Mock(ReusableTestWorkerClientsManager)
+        def remoteProcessor = Mock(RemoteTestClassProcessor)
+        def test = Mock(TestClassRunInfo)
+        def agentOptions = Stub(JavaForkOptions) {
+            getAllJvmArgs() >> ["-javaagent:jacocoagent.jar=destfile=jacoco.exec"]
+        }
+        workerProcess.getConnection() >> Stub(ObjectConnection) {
+            addOutgoing(RemoteTestClassProcessor) >> remoteProcessor
+        }
+        ForkingTestClassProcessor processor = new ForkingTestClassProcessor(Stub(WorkerLeaseRegistry.WorkerLease), workerProcessFactory, Mock(WorkerTestClassProcessorFactory), agentOptions, [new File("classpath.jar")], Mock(Action), Stub(ModuleRegistry), documentationRegistry, reusableWorkers)
+
+        when:
+        processor.processTestClass(test)
+        processor.stop()
+
+        then:
+        1 * workerProcessBuilder.applicationClasspath([new File("classpath.jar")])
+        1 * remoteProcessor.processTestClass(test) >> { processor.requestTestClass() }
+        1 * workerProcess.waitForStop()
+        0 * reusableWorkers._
+    }
+
     def module(String module) {
         return Stub(Module) {
             _ * getImplementationClasspath() >> {
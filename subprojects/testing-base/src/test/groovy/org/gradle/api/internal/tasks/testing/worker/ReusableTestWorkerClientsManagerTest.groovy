@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.tasks.testing.worker
+
+import org.gradle.api.internal.tasks.testing.TestResultProcessor
+import org.gradle.api.logging.LogLevel
+import org.gradle.internal.remote.ObjectConnection
+import org.gradle.process.internal.JavaExecHandleBuilder
+import org.gradle.process.internal.health.memory.JvmMemoryStatus
+import org.gradle.process.internal.health.memory.MemoryManager
+import org.gradle.process.internal.health.memory.OsMemoryInfo
+import org.gradle.process.internal.worker.WorkerProcess
+import org.gradle.process.internal.worker.WorkerProcessBuilder
+import spock.lang.Specification
+
+class ReusableTestWorkerClientsManagerTest extends Specification {
+    def memoryManager = Mock(MemoryManager)
+    def manager = new ReusableTestWorkerClientsManager(memoryManager, Stub(OsMemoryInfo), 2)
+
+    def "reuses an idle worker started with the same settings"() {
+        def workerProcess = workerProcess()
+
+        when:
+        def client = manager.reserveClient(builder(workerProcess, ["-Xmx64m"]))
+        manager.release(client)
+        def reused = manager.reserveClient(builder(workerProcess(), ["-Xmx64m"]))
+
+        then:
+        reused.is(client)
+        reused.workerProcess.is(workerProcess)
+    }
+
+    def "starts a new worker when no idle worker has the same settings"() {
+        def workerProcess1 = workerProcess()
+        def workerProcess2 = workerProcess()
+
+        when:
+        def client1 = manager.reserveClient(builder(workerProcess1, ["-Xmx64m"]))
+        manager.release(client1)
+        def client2 = manager.reserveClient(builder(workerProcess2, ["-Xmx128m"]))
+
+        then:
+        !client2.is(client1)
+        client2.workerProcess.is(workerProcess2)
+    }
+
+    def "does not reuse a worker which is running a session"() {
+        def workerProcess2 = workerProcess()
+
+        when:
+        def client1 = manager.reserveClient(builder(workerProcess(), ["-Xmx64m"]))
+        def client2 = manager.reserveClient(builder(workerProcess2, ["-Xmx64m"]))
+
+        then:
+        !client2.is(client1)
+        client2.workerProcess.is(workerProcess2)
+    }
+
+    def "does not reuse a worker which has stopped or crashed"() {
+        def workerProcess2 = workerProcess()
+
+        when:
+        def client1 = manager.reserveClient(builder(workerProcess(), ["-Xmx64m"]))
+        client1.endStream()
+        manager.release(client1)
+        def client2 = manager.reserveClient(builder(workerProcess2, ["-Xmx64m"]))
+
+        then:
+        !client2.is(client1)
+        client2.workerProcess.is(workerProcess2)
+    }
+
+    def "stops least used idle workers until enough memory has been released"() {
+        def workerProcess1 = workerProcess()
+        def workerProcess2 = workerProcess()
+        def client1 = manager.reserveClient(builder(workerProcess1, ["-Xmx64m"]))
+        def client2 = manager.reserveClient(builder(workerProcess2, ["-Xmx64m"]))
+        client1.startSession(Stub(TestResultProcessor), Stub(RemoteTestClassRequester), [] as Set, [] as Set, null)
+        client1.sessionCompleted()
+        manager.release(client1)
+        manager.release(client2)
+
+        when:
+        def released = new ReusableTestWorkerExpiration(manager, -1).attemptToRelease(100)
+
+        then:
+        released == 100
+        1 * workerProcess2.waitForStop()
+        0 * workerProcess1.waitForStop()
+    }
+
+    def "stops least used idle workers when more than the maximum number of idle workers are kept"() {
+        def workerProcess1 = workerProcess()
+        def workerProcess2 = workerProcess()
+        def workerProcess3 = workerProcess()
+        def client1 = manager.reserveClient(builder(workerProcess1, ["-Xmx64m"]))
+        def client2 = manager.reserveClient(builder(workerProcess2, ["-Xmx64m"]))
+        def client3 = manager.reserveClient(builder(workerProcess3, ["-Xmx64m"]))
+        client1.startSession(Stub(TestResultProcessor), Stub(RemoteTestClassRequester), [] as Set, [] as Set, null)
+        client1.sessionCompleted()
+        client3.startSession(Stub(TestResultProcessor), Stub(RemoteTestClassRequester), [] as Set, [] as Set, null)
+        client3.sessionCompleted()
+        manager.release(client1)
+        manager.release(client2)
+
+        when:
+        manager.release(client3)
+
+        then:
+        1 * workerProcess2.waitForStop()
+        0 * workerProcess1.waitForStop()
+        0 * workerProcess3.waitForStop()
+
+        and:
+        manager.reserveClient(builder(workerProcess(), ["-Xmx64m"])).is(client1)
+        manager.reserveClient(builder(workerProcess(), ["-Xmx64m"])).is(client3)
+    }
+
+    def "stops all workers when stopped"() {
+        def workerProcess1 = workerProcess()
+        def workerProcess2 = workerProcess()
+        def client1 = manager.reserveClient(builder(workerProcess1, ["-Xmx64m"]))
+        manager.reserveClient(builder(workerProcess2, ["-Xmx128m"]))
+        manager.release(client1)
+
+        when:
+        manager.stop()
+
+        then:
+        1 * memoryManager.removeMemoryHolder(_)
+        1 * workerProcess1.waitForStop()
+        1 * workerProcess2.waitForStop()
+    }
+
+    private WorkerProcess workerProcess() {
+        def connection = Stub(ObjectConnection) {
+            addOutgoing(ReusableRemoteTestClassProcessor) >> Stub(ReusableRemoteTestClassProcessor)
+        }
+        return Mock(WorkerProcess) {
+            getConnection() >> connection
+            getJvmMemoryStatus() >> Stub(JvmMemoryStatus) {
+                getCommittedMemory() >> 100
+            }
+        }
+    }
+
+    private WorkerProcessBuilder builder(WorkerProcess workerProcess, List<String> jvmArgs) {
+        def javaCommand = Stub(JavaExecHandleBuilder) {
+            getExecutable() >> "java"
+            getAllJvmArgs() >> jvmArgs
+            getEnvironment() >> [:]
+            getWorkingDir() >> new File("workingDir")
+        }
+        return Stub(WorkerProcessBuilder) {
+            getJavaCommand() >> javaCommand
+            getLogLevel() >> LogLevel.LIFECYCLE
+            build() >> workerProcess
+        }
+    }
+}
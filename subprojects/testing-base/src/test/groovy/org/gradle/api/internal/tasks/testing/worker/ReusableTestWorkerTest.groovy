@@ -0,0 +1,204 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.tasks.testing.worker
+
+import org.gradle.api.internal.tasks.testing.DefaultTestClassRunInfo
+import org.gradle.api.internal.tasks.testing.TestClassProcessor
+import org.gradle.api.internal.tasks.testing.TestClassRunInfo
+import org.gradle.api.internal.tasks.testing.TestResultProcessor
+import org.gradle.api.internal.tasks.testing.WorkerTestClassProcessorFactory
+import org.gradle.internal.remote.ObjectConnection
+import org.gradle.internal.service.DefaultServiceRegistry
+import org.gradle.internal.service.ServiceRegistry
+import org.gradle.internal.time.Clock
+import org.gradle.internal.time.Time
+import org.gradle.process.internal.worker.WorkerProcessContext
+import org.gradle.test.fixtures.concurrent.ConcurrentSpec
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.util.SetSystemProperties
+import org.junit.Rule
+
+import java.security.Permission
+
+class ReusableTestWorkerTest extends ConcurrentSpec {
+    @Rule SetSystemProperties properties = new SetSystemProperties()
+    @Rule TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+    def workerContext = Mock(WorkerProcessContext)
+    def connection = Mock(ObjectConnection)
+    def worker = new ReusableTestWorker()
+    def serviceRegistry = new DefaultServiceRegistry().add(Clock, Time.clock())
+    List<File> applicationClasspath = []
+
+    def setup() {
+        workerContext.workerId >> "<worker-id>"
+        workerContext.displayName >> "Test worker"
+        workerContext.serverConnection >> connection
+        workerContext.serviceRegistry >> serviceRegistry
+        connection.addOutgoing(RemoteTestSessionListener) >> Stub(RemoteTestSessionListener)
+        connection.connect() >> {
+            start {
+                2.times {
+                    worker.startSession(applicationClasspath, [], serialize(new SessionRecordingProcessorFactory()))
+                    worker.startProcessing()
+                    worker.processTestClass(new DefaultTestClassRunInfo("SomeTest"))
+                    worker.stop()
+                }
+                worker.stopWorker()
+            }
+        }
+        SessionRecordingProcessor.reset()
+    }
+
+    def "loads the test classes of each session in a ClassLoader of its own"() {
+        def classesDir = tmpDir.createDir("classes")
+        writeEmptyClass(classesDir, "SomeTest")
+        applicationClasspath = [classesDir]
+
+        when:
+        runSessions()
+
+        then:
+        def loadedClasses = SessionRecordingProcessor.loadedClasses
+        loadedClasses.size() == 2
+        loadedClasses*.name == ["SomeTest", "SomeTest"]
+        !loadedClasses[0].is(loadedClasses[1])
+        !loadedClasses[0].classLoader.is(loadedClasses[1].classLoader)
+    }
+
+    def "restores the system properties at the end of each session"() {
+        when:
+        runSessions()
+
+        then:
+        SessionRecordingProcessor.propertiesAtStart == [null, null]
+        System.getProperty(SessionRecordingProcessor.PROPERTY_NAME) == null
+    }
+
+    def "restores the security manager at the end of each session"() {
+        def securityManager = System.securityManager
+
+        when:
+        runSessions()
+
+        then:
+        SessionRecordingProcessor.securityManagersAtStart == [securityManager, securityManager]
+        System.securityManager.is(securityManager)
+    }
+
+    /**
+     * Runs two sessions in the worker, each processing the test class 'SomeTest'.
+     */
+    private void runSessions() {
+        async {
+            worker.execute(workerContext)
+        }
+    }
+
+    private static byte[] serialize(Object object) {
+        def bytes = new ByteArrayOutputStream()
+        def outputStream = new ObjectOutputStream(bytes)
+        outputStream.writeObject(object)
+        outputStream.close()
+        return bytes.toByteArray()
+    }
+
+    /**
+     * Writes a class without members, which extends Object.
+     */
+    private static void writeEmptyClass(File classesDir, String className) {
+        new File(classesDir, className + ".class").withDataOutputStream { out ->
+            out.writeInt((int) 0xCAFEBABE)
+            out.writeShort(0) // minor version
+            out.writeShort(49) // major version
+            out.writeShort(5) // constant pool count
+            out.writeByte(7) // #1 = Class #2
+            out.writeShort(2)
+            out.writeByte(1) // #2 = Utf8 className
+            out.writeUTF(className)
+            out.writeByte(7) // #3 = Class #4
+            out.writeShort(4)
+            out.writeByte(1) // #4 = Utf8 java/lang/Object
+            out.writeUTF("java/lang/Object")
+            out.writeShort(0x0021) // ACC_PUBLIC | ACC_SUPER
+            out.writeShort(1) // this class
+            out.writeShort(3) // super class
+            out.writeShort(0) // interfaces
+            out.writeShort(0) // fields
+            out.writeShort(0) // methods
+            out.writeShort(0) // attributes
+        }
+    }
+
+    static class SessionRecordingProcessorFactory implements WorkerTestClassProcessorFactory, Serializable {
+        @Override
+        TestClassProcessor create(ServiceRegistry serviceRegistry) {
+            return new SessionRecordingProcessor()
+        }
+    }
+
+    /**
+     * Records what a session sees, then changes the system properties and installs a security manager as tests may do.
+     */
+    static class SessionRecordingProcessor implements TestClassProcessor {
+        static final String PROPERTY_NAME = "org.gradle.test.reusable.worker"
+        static List<Class<?>> loadedClasses
+        static List<String> propertiesAtStart
+        static List<SecurityManager> securityManagersAtStart
+
+        static void reset() {
+            loadedClasses = []
+            propertiesAtStart = []
+            securityManagersAtStart = []
+        }
+
+        @Override
+        void startProcessing(TestResultProcessor resultProcessor) {
+            propertiesAtStart << System.getProperty(PROPERTY_NAME)
+            securityManagersAtStart << System.securityManager
+        }
+
+        @Override
+        void processTestClass(TestClassRunInfo testClass) {
+            try {
+                loadedClasses << Class.forName(testClass.testClassName, false, Thread.currentThread().contextClassLoader)
+            } catch (ClassNotFoundException ignored) {
+                // Not every session has test classes
+            }
+            System.setProperty(PROPERTY_NAME, "changed by test")
+            System.securityManager = new PermissiveSecurityManager()
+        }
+
+        @Override
+        void stop() {
+        }
+
+        @Override
+        void stopNow() {
+        }
+    }
+
+    static class PermissiveSecurityManager extends SecurityManager {
+        @Override
+        void checkPermission(Permission permission) {
+        }
+
+        @Override
+        void checkPermission(Permission permission, Object context) {
+        }
+    }
+}
@@ -21,6 +21,8 @@ import org.apache.commons.lang.StringUtils;
 import org.gradle.api.internal.file.RelativeFile;
 import org.gradle.api.internal.tasks.testing.DefaultTestClassRunInfo;
 import org.gradle.api.internal.tasks.testing.TestClassProcessor;
+import org.gradle.cache.internal.FileContentCache;
+import org.gradle.cache.internal.FileContentCacheFactory;
 import org.gradle.internal.Factories;
 import org.gradle.internal.Factory;
 import org.gradle.internal.IoActions;
@@ -29,6 +31,7 @@ import org.objectweb.asm.Type;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -47,21 +50,32 @@ public abstract class AbstractTestFrameworkDetector<T extends TestClassVisitor>
 
     private List<File> testClassDirectories;
     private final ClassFileExtractionManager classFileExtractionManager;
-    private final Map<File, Boolean> superClasses;
+    private final FileContentCacheFactory cacheFactory;
+    private final String classesCacheName;
+    private final Factory<T> classVisitorFactory;
+    private final Map<String, Boolean> superClasses;
+    private FileContentCache<TestClassInfo> classesCache;
     private TestClassProcessor testClassProcessor;
 
     private Set<File> testClassesDirectories;
     private Set<File> testClasspath;
 
-    protected AbstractTestFrameworkDetector(ClassFileExtractionManager classFileExtractionManager) {
+    /**
+     * @param classesCacheName The name of the cache that keeps what this detector has learned about each class file across builds.
+     * @param classVisitorFactory Creates the visitors to parse class files with. It's shared by all detectors that use the cache, so it must not hold any state.
+     */
+    protected AbstractTestFrameworkDetector(ClassFileExtractionManager classFileExtractionManager, FileContentCacheFactory cacheFactory, String classesCacheName, Factory<T> classVisitorFactory) {
         assert classFileExtractionManager != null;
+        assert cacheFactory != null;
         this.classFileExtractionManager = classFileExtractionManager;
-        this.superClasses = new HashMap<File, Boolean>();
+        this.cacheFactory = cacheFactory;
+        this.classesCacheName = classesCacheName;
+        this.classVisitorFactory = classVisitorFactory;
+        this.superClasses = new HashMap<String, Boolean>();
     }
 
-    protected abstract T createClassVisitor();
-
-    private File getSuperTestClassFile(String superClassName) {
+    @Nullable
+    private TestClassInfo readSuperClass(String superClassName) {
         prepareClasspath();
         if (StringUtils.isEmpty(superClassName)) {
             throw new IllegalArgumentException("superClassName is empty!");
@@ -76,13 +90,23 @@ public abstract class AbstractTestFrameworkDetector<T extends TestClassVisitor>
         }
 
         if (superTestClassFile != null) {
-            return superTestClassFile;
+            return readClassFile(superTestClassFile, Factories.constant(superClassName));
         } else if (JAVA_LANG_OBJECT.equals(superClassName)) {
             // java.lang.Object found, which is not a test class
             return null;
-        } else {
-            // super test class file not in test class directories
-            return classFileExtractionManager.getLibraryClassFile(superClassName);
+        }
+
+        // super test class file not in test class directories
+        File libraryJar = classFileExtractionManager.getLibraryJar(superClassName);
+        if (libraryJar == null) {
+            return null;
+        }
+        byte[] classBytes = classFileExtractionManager.readLibraryClass(libraryJar, superClassName);
+        try {
+            return analyze(classVisitorFactory, classBytes);
+        } catch (Throwable e) {
+            LOGGER.debug("Failed to read class file " + superClassName + " from " + libraryJar.getAbsolutePath() + "; assuming it's a test class and continuing", e);
+            return TestClassInfo.forUnparseableFile(superClassName);
         }
     }
 
@@ -117,31 +141,30 @@ public abstract class AbstractTestFrameworkDetector<T extends TestClassVisitor>
         this.testClasspath = testClasspath;
     }
 
-    private TestClass readClassFile(File testClassFile, Factory<String> fallbackClassNameProvider) {
-        final TestClassVisitor classVisitor = createClassVisitor();
-
-        InputStream classStream = null;
-        try {
-            classStream = new BufferedInputStream(new FileInputStream(testClassFile));
-            final ClassReader classReader = new ClassReader(IOUtils.toByteArray(classStream));
-            classReader.accept(classVisitor, ClassReader.SKIP_DEBUG | ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
-            return TestClass.forParseableFile(classVisitor);
-        } catch (Throwable e) {
-            LOGGER.debug("Failed to read class file " + testClassFile.getAbsolutePath() + "; assuming it's a test class and continuing", e);
-            return TestClass.forUnparseableFile(fallbackClassNameProvider.create());
-        } finally {
-            IoActions.closeQuietly(classStream);
+    private TestClassInfo readClassFile(File testClassFile, Factory<String> fallbackClassNameProvider) {
+        if (classesCache == null) {
+            classesCache = cacheFactory.newCache(classesCacheName, 200000, new ClassFileCalculator(classVisitorFactory), TestClassInfoSerializer.INSTANCE);
         }
+        TestClassInfo testClass = classesCache.get(testClassFile);
+        return testClass.getClassName() != null ? testClass : TestClassInfo.forUnparseableFile(fallbackClassNameProvider.create());
+    }
+
+    private static TestClassInfo analyze(Factory<? extends TestClassVisitor> classVisitorFactory, byte[] classBytes) {
+        final TestClassVisitor classVisitor = classVisitorFactory.create();
+        final ClassReader classReader = new ClassReader(classBytes);
+        classReader.accept(classVisitor, ClassReader.SKIP_DEBUG | ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+        return TestClassInfo.forParseableFile(classVisitor);
     }
 
     @Override
     public boolean processTestClass(final RelativeFile testClassFile) {
-        return processTestClass(testClassFile.getFile(), false, new Factory<String>() {
+        TestClassInfo testClass = readClassFile(testClassFile.getFile(), new Factory<String>() {
             @Override
             public String create() {
                 return testClassFile.getRelativePath().getPathString().replace(".class", "");
             }
         });
+        return processTestClass(testClass, false);
     }
 
     /**
@@ -149,9 +172,7 @@ public abstract class AbstractTestFrameworkDetector<T extends TestClassVisitor>
      * class is a test class. First the package of the parent class is checked, if it is a java.lang or groovy.lang the class can't be a test class, otherwise the parent class is scanned. <p/> When a
      * parent class is a test class all the extending classes are marked as test classes.
      */
-    private boolean processTestClass(File testClassFile, boolean superClass, Factory<String> fallbackClassNameProvider) {
-        TestClass testClass = readClassFile(testClassFile, fallbackClassNameProvider);
-
+    private boolean processTestClass(TestClassInfo testClass, boolean superClass) {
         boolean isTest = testClass.isTest();
 
         if (!isTest) { // scan parent class
@@ -160,14 +181,7 @@ public abstract class AbstractTestFrameworkDetector<T extends TestClassVisitor>
             if (isKnownTestCaseClassName(superClassName)) {
                 isTest = true;
             } else {
-                File superClassFile = getSuperTestClassFile(superClassName);
-
-                if (superClassFile != null) {
-                    isTest = processSuperClass(superClassFile, superClassName);
-                } else {
-                    LOGGER.debug("test-class-scan : failed to scan parent class {}, could not find the class file",
-                        superClassName);
-                }
+                isTest = processSuperClass(superClassName);
             }
         }
 
@@ -178,15 +192,23 @@ public abstract class AbstractTestFrameworkDetector<T extends TestClassVisitor>
 
     protected abstract boolean isKnownTestCaseClassName(String testCaseClassName);
 
-    private boolean processSuperClass(File testClassFile, String superClassName) {
+    private boolean processSuperClass(String superClassName) {
         boolean isTest;
 
-        Boolean isSuperTest = superClasses.get(testClassFile);
+        Boolean isSuperTest = superClasses.get(superClassName);
 
         if (isSuperTest == null) {
-            isTest = processTestClass(testClassFile, true, Factories.constant(superClassName));
+            TestClassInfo superTestClass = readSuperClass(superClassName);
 
-            superClasses.put(testClassFile, isTest);
+            if (superTestClass != null) {
+                isTest = processTestClass(superTestClass, true);
+            } else {
+                LOGGER.debug("test-class-scan : failed to scan parent class {}, could not find the class file",
+                    superClassName);
+                isTest = false;
+            }
+
+            superClasses.put(superClassName, isTest);
         } else {
             isTest = isSuperTest;
         }
@@ -198,7 +220,7 @@ public abstract class AbstractTestFrameworkDetector<T extends TestClassVisitor>
      * In none super class mode a test class is published when the class is a test and it is not abstract. In super class mode it must not publish the class otherwise it will get published multiple
      * times (for each extending class).
      */
-    private void publishTestClass(boolean isTest, TestClass testClass, boolean superClass) {
+    private void publishTestClass(boolean isTest, TestClassInfo testClass, boolean superClass) {
         if (isTest && !testClass.isAbstract() && !superClass) {
             String className = Type.getObjectType(testClass.getClassName()).getClassName();
             testClassProcessor.processTestClass(new DefaultTestClassRunInfo(className));
@@ -210,42 +232,29 @@ public abstract class AbstractTestFrameworkDetector<T extends TestClassVisitor>
         this.testClassProcessor = testClassProcessor;
     }
 
-    private static class TestClass {
-        private final boolean test;
-        private final boolean isAbstract;
-        private final String className;
-        private final String superClassName;
-
-        static TestClass forParseableFile(TestClassVisitor testClassVisitor) {
-            return new TestClass(testClassVisitor.isTest(), testClassVisitor.isAbstract(), testClassVisitor.getClassName(), testClassVisitor.getSuperClassName());
-        }
-
-        static TestClass forUnparseableFile(String className) {
-            return new TestClass(true, false, className, null);
-        }
-
-        private TestClass(boolean test, boolean isAbstract, String className, String superClassName) {
-            this.test = test;
-            this.isAbstract = isAbstract;
-            this.className = className;
-            this.superClassName = superClassName;
-        }
-
-        boolean isTest() {
-            return test;
-        }
-
-        boolean isAbstract() {
-            return isAbstract;
-        }
+    /**
+     * Parses class files on behalf of all detectors that share the cache, which lives as long as the daemon.
+     * So it must not reference any detector, or the first detector and the build it belongs to would be retained.
+     */
+    private static class ClassFileCalculator implements FileContentCacheFactory.Calculator<TestClassInfo> {
+        private final Factory<? extends TestClassVisitor> classVisitorFactory;
 
-        String getClassName() {
-            return className;
+        ClassFileCalculator(Factory<? extends TestClassVisitor> classVisitorFactory) {
+            this.classVisitorFactory = classVisitorFactory;
         }
 
-        String getSuperClassName() {
-            return superClassName;
+        @Override
+        public TestClassInfo calculate(File file, boolean isRegularFile) {
+            InputStream classStream = null;
+            try {
+                classStream = new BufferedInputStream(new FileInputStream(file));
+                return analyze(classVisitorFactory, IOUtils.toByteArray(classStream));
+            } catch (Throwable e) {
+                LOGGER.debug("Failed to read class file " + file.getAbsolutePath() + "; assuming it's a test class and continuing", e);
+                return TestClassInfo.forUnparseableFile(null);
+            } finally {
+                IoActions.closeQuietly(classStream);
+            }
         }
     }
-
 }
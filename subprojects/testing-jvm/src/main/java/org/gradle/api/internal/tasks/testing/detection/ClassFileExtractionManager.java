@@ -15,126 +15,131 @@
  */
 package org.gradle.api.internal.tasks.testing.detection;
 
-import org.apache.commons.lang.text.StrBuilder;
+import org.apache.commons.io.IOUtils;
 import org.gradle.api.GradleException;
-import org.gradle.api.internal.file.DefaultTemporaryFileProvider;
-import org.gradle.api.internal.file.TemporaryFileProvider;
-import org.gradle.internal.Factory;
-import org.gradle.util.JarUtil;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.gradle.cache.internal.FileContentCache;
+import org.gradle.cache.internal.FileContentCacheFactory;
+import org.gradle.internal.IoActions;
+import org.gradle.internal.serialize.BaseSerializerFactory;
+import org.gradle.internal.serialize.SetSerializer;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
-import java.util.*;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
- * This class manages class file extraction from library jar files.
+ * This class manages access to the class files in library jars. <p/> Class files are read directly from the jars. The classes contained
+ * in each jar are listed once per jar content, and the listing is reused across builds. The listings of all added jars are combined
+ * into a single index from class name to jar, so finding the jar of a class does not depend on the number of jars.
  */
 public class ClassFileExtractionManager {
-    private static final Logger LOGGER = LoggerFactory.getLogger(ClassFileExtractionManager.class);
-    private final Map<String, Set<File>> packageJarFilesMappings;
-    private final Map<String, File> extractedJarClasses;
-    private final Set<String> unextractableClasses;
-    private final TemporaryFileProvider tempDirProvider;
-
-    public ClassFileExtractionManager(final Factory<File> tempDirFactory) {
-        assert tempDirFactory != null;
-        tempDirProvider = new DefaultTemporaryFileProvider(tempDirFactory);
-        packageJarFilesMappings = new HashMap<String, Set<File>>();
-        extractedJarClasses = new HashMap<String, File>();
-        unextractableClasses = new TreeSet<String>();
+    private static final String CLASS_FILE_EXTENSION = ".class";
+    private final FileContentCacheFactory cacheFactory;
+    private final Set<File> libraryJars;
+    private final Map<String, File> classLibraryJars;
+    private FileContentCache<Set<String>> libraryClassNamesCache;
+
+    public ClassFileExtractionManager(FileContentCacheFactory cacheFactory) {
+        assert cacheFactory != null;
+        this.cacheFactory = cacheFactory;
+        libraryJars = new HashSet<File>();
+        classLibraryJars = new HashMap<String, File>();
     }
 
     /**
-     * Add all packages found in the jar file to the package <> jar(s) index.
+     * Add all classes found in the jar file to the class <> jar index.
      *
      * @param libraryJar Jar file to add to the index.
      */
-    public void addLibraryJar(final File libraryJar) {
-        new JarFilePackageLister().listJarPackages(libraryJar, new JarFilePackageListener() {
-            public void receivePackage(String packageName) {
-                Set<File> jarFiles = packageJarFilesMappings.get(packageName);
-                if (jarFiles == null) {
-                    jarFiles = new TreeSet<File>();
-                }
-                jarFiles.add(libraryJar);
-
-                packageJarFilesMappings.put(packageName, jarFiles);
+    public void addLibraryJar(File libraryJar) {
+        if (!libraryJars.add(libraryJar)) {
+            return;
+        }
+        if (libraryClassNamesCache == null) {
+            libraryClassNamesCache = cacheFactory.newCache("test-library-classes", 20000, new LibraryClassNamesCalculator(), new SetSerializer<String>(BaseSerializerFactory.STRING_SERIALIZER, false));
+        }
+        for (String className : libraryClassNamesCache.get(libraryJar)) {
+            // The first jar which contains a class wins, as on a class path
+            if (!classLibraryJars.containsKey(className)) {
+                classLibraryJars.put(className, libraryJar);
             }
-        });
+        }
     }
 
     /**
-     * Retrieve the file that contains the extracted class file. <p/> This method will extract the class file if it is
-     * not extracted yet. Extracted class files are deleted on exit of the Gradle process. The same class is only
-     * extracted once.
+     * Retrieve the first library jar that contains the given class, in the order the jars were added.
      *
-     * @param className Name of the class to extract.
-     * @return File that contains the extracted class file.
+     * @param className Internal name of the class.
+     * @return The jar that contains the class, or null when the class is not in any library jar.
      */
-    public File getLibraryClassFile(final String className) {
-        if (unextractableClasses.contains(className)) {
-            return null;
-        } else {
-            if (!extractedJarClasses.containsKey(className)) {
-                if (!extractClassFile(className)) {
-                    unextractableClasses.add(className);
-                }
-            }
-
-            return extractedJarClasses.get(className);
-        }
+    @Nullable
+    public File getLibraryJar(String className) {
+        return classLibraryJars.get(className);
     }
 
-    private boolean extractClassFile(final String className) {
-        boolean classFileExtracted = false;
-
-        final File extractedClassFile = tempFile();
-        final String classFileName = new StrBuilder().append(className).append(".class").toString();
-        final String classNamePackage = classNamePackage(className);
-        final Set<File> packageJarFiles = packageJarFilesMappings.get(classNamePackage);
-
-        File classFileSourceJar = null;
-
-        if (packageJarFiles != null && !packageJarFiles.isEmpty()) {
-            final Iterator<File> packageJarFilesIt = packageJarFiles.iterator();
-
-            while (!classFileExtracted && packageJarFilesIt.hasNext()) {
-                final File jarFile = packageJarFilesIt.next();
-
+    /**
+     * Reads the class file of the given class from the given library jar.
+     */
+    public byte[] readLibraryClass(File libraryJar, String className) {
+        try {
+            ZipFile zipFile = new ZipFile(libraryJar);
+            try {
+                ZipEntry zipEntry = zipFile.getEntry(className + CLASS_FILE_EXTENSION);
+                if (zipEntry == null) {
+                    throw new GradleException("class file " + className + " not found in jar (" + libraryJar + ")");
+                }
+                InputStream inputStream = zipFile.getInputStream(zipEntry);
                 try {
-                    classFileExtracted = JarUtil.extractZipEntry(jarFile, classFileName, extractedClassFile);
-
-                    if (classFileExtracted) {
-                        classFileSourceJar = jarFile;
-                    }
-                } catch (IOException e) {
-                    throw new GradleException("failed to extract class file from jar (" + jarFile + ")", e);
+                    return IOUtils.toByteArray(inputStream);
+                } finally {
+                    IoActions.closeQuietly(inputStream);
                 }
+            } finally {
+                zipFile.close();
             }
-
-            if (classFileExtracted) {
-                LOGGER.debug("extracted class {} from {}", className, classFileSourceJar.getName());
-
-                extractedJarClasses.put(className, extractedClassFile);
-            }
-        } // super class not on the classpath - unable to scan parent class
-
-        return classFileExtracted;
+        } catch (IOException e) {
+            throw new GradleException("failed to read class file from jar (" + libraryJar + ")", e);
+        }
     }
 
-    private String classNamePackage(final String className) {
-        final int lastSlashIndex = className.lastIndexOf('/');
-
-        if (lastSlashIndex == -1) {
-            return null; // class in root package - should not happen
-        } else {
-            return className.substring(0, lastSlashIndex + 1);
+    private static class LibraryClassNamesCalculator implements FileContentCacheFactory.Calculator<Set<String>> {
+        @Override
+        public Set<String> calculate(File file, boolean isRegularFile) {
+            if (!isRegularFile) {
+                return Collections.emptySet();
+            }
+            return listClassNames(file);
         }
     }
 
-    private File tempFile() {
-        return tempDirProvider.createTemporaryFile("jar_extract_", "_tmp"); // Could throw UncheckedIOException
+    private static Set<String> listClassNames(File libraryJar) {
+        Set<String> classNames = new HashSet<String>();
+        try {
+            ZipFile zipFile = new ZipFile(libraryJar);
+            try {
+                Enumeration<? extends ZipEntry> zipFileEntries = zipFile.entries();
+                while (zipFileEntries.hasMoreElements()) {
+                    ZipEntry zipFileEntry = zipFileEntries.nextElement();
+                    String zipFileEntryName = zipFileEntry.getName();
+                    if (!zipFileEntry.isDirectory() && zipFileEntryName.endsWith(CLASS_FILE_EXTENSION) && !zipFileEntryName.startsWith("META-INF")) {
+                        classNames.add(zipFileEntryName.substring(0, zipFileEntryName.length() - CLASS_FILE_EXTENSION.length()));
+                    }
+                }
+            } finally {
+                zipFile.close();
+            }
+        } catch (IOException e) {
+            throw new GradleException("failed to scan jar file for classes (" + libraryJar.getAbsolutePath() + ")", e);
+        }
+        return classNames;
     }
 }
@@ -31,8 +31,10 @@ import org.gradle.api.internal.tasks.testing.processors.MaxNParallelTestClassPro
 import org.gradle.api.internal.tasks.testing.processors.PatternMatchTestClassProcessor;
 import org.gradle.api.internal.tasks.testing.processors.RestartEveryNTestClassProcessor;
 import org.gradle.api.internal.tasks.testing.processors.RunPreviousFailedFirstTestClassProcessor;
+import org.gradle.api.internal.tasks.testing.processors.ShardingTestClassProcessor;
 import org.gradle.api.internal.tasks.testing.processors.TestMainAction;
 import org.gradle.api.internal.tasks.testing.worker.ForkingTestClassProcessor;
+import org.gradle.api.internal.tasks.testing.worker.ReusableTestWorkerClientsManager;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.logging.Logging;
 import org.gradle.internal.Factory;
@@ -43,6 +45,8 @@ import org.gradle.internal.work.WorkerLeaseRegistry;
 import org.gradle.process.internal.worker.WorkerProcessFactory;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -52,6 +56,33 @@ public class DefaultTestExecuter implements TestExecuter<JvmTestExecutionSpec> {
 
     private static final Logger LOGGER = Logging.getLogger(DefaultTestExecuter.class);
 
+    /**
+     * When set, test classes are handed to the test workers slowest first, using the durations of the previous run.
+     */
+    public static final String SLOWEST_FIRST_PROPERTY = "org.gradle.internal.testing.slowestFirst";
+
+    /**
+     * The number of shards to split the test classes of each test task into, so that the shards can run in separate builds.
+     * Test classes are assigned to shards by their name, unless the durations to balance the shards by are given.
+     */
+    public static final String SHARD_COUNT_PROPERTY = "org.gradle.internal.testing.shardCount";
+
+    /**
+     * The shard of the test classes to run, from 1 to the number of shards.
+     */
+    public static final String SHARD_INDEX_PROPERTY = "org.gradle.internal.testing.shardIndex";
+
+    /**
+     * A file with the durations to balance the shards by, in the format the test task keeps its own durations in, e.g. published by a previous CI run.
+     * Every shard has to be given the same file, which is an input of the test task. The durations kept by the task itself are never used for sharding.
+     */
+    public static final String SHARD_DURATIONS_PROPERTY = "org.gradle.internal.testing.shardDurations";
+
+    /**
+     * When set, test workers are kept running after the test task and reused by test tasks with the same fork options, in this build and later ones.
+     */
+    public static final String REUSE_WORKERS_PROPERTY = "org.gradle.internal.testing.reuseWorkers";
+
     private final WorkerProcessFactory workerFactory;
     private final ActorFactory actorFactory;
     private final ModuleRegistry moduleRegistry;
@@ -61,11 +92,15 @@ public class DefaultTestExecuter implements TestExecuter<JvmTestExecutionSpec> {
     private final Clock clock;
     private final DocumentationRegistry documentationRegistry;
     private final DefaultTestFilter testFilter;
+    private final boolean slowestFirst;
+    private final int shardCount;
+    private final int shardIndex;
+    private final ReusableTestWorkerClientsManager reusableWorkers;
     private TestClassProcessor processor;
 
     public DefaultTestExecuter(WorkerProcessFactory workerFactory, ActorFactory actorFactory, ModuleRegistry moduleRegistry,
                                WorkerLeaseRegistry workerLeaseRegistry, BuildOperationExecutor buildOperationExecutor, int maxWorkerCount,
-                               Clock clock, DocumentationRegistry documentationRegistry, DefaultTestFilter testFilter) {
+                               Clock clock, DocumentationRegistry documentationRegistry, DefaultTestFilter testFilter, ReusableTestWorkerClientsManager reusableWorkers) {
         this.workerFactory = workerFactory;
         this.actorFactory = actorFactory;
         this.moduleRegistry = moduleRegistry;
@@ -75,6 +110,10 @@ public class DefaultTestExecuter implements TestExecuter<JvmTestExecutionSpec> {
         this.clock = clock;
         this.documentationRegistry = documentationRegistry;
         this.testFilter = testFilter;
+        this.slowestFirst = Boolean.getBoolean(SLOWEST_FIRST_PROPERTY);
+        this.shardCount = Integer.getInteger(SHARD_COUNT_PROPERTY, 1);
+        this.shardIndex = Integer.getInteger(SHARD_INDEX_PROPERTY, 1);
+        this.reusableWorkers = Boolean.getBoolean(REUSE_WORKERS_PROPERTY) ? reusableWorkers : null;
     }
 
     @Override
@@ -86,7 +125,7 @@ public class DefaultTestExecuter implements TestExecuter<JvmTestExecutionSpec> {
         final Factory<TestClassProcessor> forkingProcessorFactory = new Factory<TestClassProcessor>() {
             public TestClassProcessor create() {
                 return new ForkingTestClassProcessor(currentWorkerLease, workerFactory, testInstanceFactory, testExecutionSpec.getJavaForkOptions(),
-                    classpath, testFramework.getWorkerConfigurationAction(), moduleRegistry, documentationRegistry);
+                    classpath, testFramework.getWorkerConfigurationAction(), moduleRegistry, documentationRegistry, reusableWorkers);
             }
         };
         final Factory<TestClassProcessor> reforkingProcessorFactory = new Factory<TestClassProcessor>() {
@@ -94,10 +133,14 @@ public class DefaultTestExecuter implements TestExecuter<JvmTestExecutionSpec> {
                 return new RestartEveryNTestClassProcessor(forkingProcessorFactory, testExecutionSpec.getForkEvery());
             }
         };
-        processor =
-            new PatternMatchTestClassProcessor(testFilter,
-                new RunPreviousFailedFirstTestClassProcessor(testExecutionSpec.getPreviousFailedTestClasses(),
-                    new MaxNParallelTestClassProcessor(getMaxParallelForks(testExecutionSpec), reforkingProcessorFactory, actorFactory)));
+        final Map<String, Long> previousTestClassDurations = slowestFirst ? testExecutionSpec.getPreviousTestClassDurations() : Collections.<String, Long>emptyMap();
+        TestClassProcessor testClassProcessor =
+            new RunPreviousFailedFirstTestClassProcessor(testExecutionSpec.getPreviousFailedTestClasses(), previousTestClassDurations,
+                new MaxNParallelTestClassProcessor(getMaxParallelForks(testExecutionSpec), reforkingProcessorFactory, actorFactory));
+        if (shardCount > 1) {
+            testClassProcessor = new ShardingTestClassProcessor(shardIndex, shardCount, testExecutionSpec.getShardDurations(), testClassProcessor);
+        }
+        processor = new PatternMatchTestClassProcessor(testFilter, testClassProcessor);
 
         final FileTree testClassFiles = testExecutionSpec.getCandidateClassFiles();
 
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.tasks.testing.detection;
+
+import javax.annotation.Nullable;
+
+/**
+ * What a test framework detector has learned about a single class file.
+ */
+class TestClassInfo {
+    private final boolean test;
+    private final boolean isAbstract;
+    private final String className;
+    private final String superClassName;
+
+    static TestClassInfo forParseableFile(TestClassVisitor testClassVisitor) {
+        return new TestClassInfo(testClassVisitor.isTest(), testClassVisitor.isAbstract(), testClassVisitor.getClassName(), testClassVisitor.getSuperClassName());
+    }
+
+    static TestClassInfo forUnparseableFile(@Nullable String className) {
+        return new TestClassInfo(true, false, className, null);
+    }
+
+    TestClassInfo(boolean test, boolean isAbstract, @Nullable String className, @Nullable String superClassName) {
+        this.test = test;
+        this.isAbstract = isAbstract;
+        this.className = className;
+        this.superClassName = superClassName;
+    }
+
+    public boolean isTest() {
+        return test;
+    }
+
+    public boolean isAbstract() {
+        return isAbstract;
+    }
+
+    /**
+     * Returns the internal name of the class, or null when the class file could not be parsed.
+     */
+    @Nullable
+    public String getClassName() {
+        return className;
+    }
+
+    @Nullable
+    public String getSuperClassName() {
+        return superClassName;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.tasks.testing.detection;
+
+import org.gradle.internal.serialize.AbstractSerializer;
+import org.gradle.internal.serialize.Decoder;
+import org.gradle.internal.serialize.Encoder;
+
+class TestClassInfoSerializer extends AbstractSerializer<TestClassInfo> {
+    public static final TestClassInfoSerializer INSTANCE = new TestClassInfoSerializer();
+
+    private TestClassInfoSerializer() {
+    }
+
+    @Override
+    public TestClassInfo read(Decoder decoder) throws Exception {
+        boolean test = decoder.readBoolean();
+        boolean isAbstract = decoder.readBoolean();
+        String className = decoder.readNullableString();
+        String superClassName = decoder.readNullableString();
+        return new TestClassInfo(test, isAbstract, className, superClassName);
+    }
+
+    @Override
+    public void write(Encoder encoder, TestClassInfo value) throws Exception {
+        encoder.writeBoolean(value.isTest());
+        encoder.writeBoolean(value.isAbstract());
+        encoder.writeNullableString(value.getClassName());
+        encoder.writeNullableString(value.getSuperClassName());
+    }
+}
@@ -17,14 +17,17 @@ package org.gradle.api.internal.tasks.testing.junit;
 
 import org.gradle.internal.classanalysis.AsmConstants;
 import org.gradle.api.internal.tasks.testing.detection.TestClassVisitor;
-import org.gradle.api.internal.tasks.testing.detection.TestFrameworkDetector;
+import org.gradle.internal.Factory;
 import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.MethodVisitor;
 
 class JUnitTestClassDetector extends TestClassVisitor {
-    JUnitTestClassDetector(final TestFrameworkDetector detector) {
-        super(detector);
-    }
+    static final Factory<JUnitTestClassDetector> FACTORY = new Factory<JUnitTestClassDetector>() {
+        @Override
+        public JUnitTestClassDetector create() {
+            return new JUnitTestClassDetector();
+        }
+    };
 
     @Override
     protected boolean ignoreNonStaticInnerClass(){
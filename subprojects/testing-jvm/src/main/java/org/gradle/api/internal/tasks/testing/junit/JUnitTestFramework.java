@@ -26,6 +26,7 @@ import org.gradle.api.internal.tasks.testing.detection.ClassFileExtractionManage
 import org.gradle.api.internal.tasks.testing.filter.DefaultTestFilter;
 import org.gradle.api.tasks.testing.Test;
 import org.gradle.api.tasks.testing.junit.JUnitOptions;
+import org.gradle.cache.internal.FileContentCacheFactory;
 import org.gradle.internal.actor.ActorFactory;
 import org.gradle.internal.id.IdGenerator;
 import org.gradle.internal.service.ServiceRegistry;
@@ -37,10 +38,10 @@ public class JUnitTestFramework implements TestFramework {
     private final JUnitDetector detector;
     private final DefaultTestFilter filter;
 
-    public JUnitTestFramework(Test testTask, DefaultTestFilter filter) {
+    public JUnitTestFramework(Test testTask, DefaultTestFilter filter, FileContentCacheFactory cacheFactory) {
         this.filter = filter;
         options = new JUnitOptions();
-        detector = new JUnitDetector(new ClassFileExtractionManager(testTask.getTemporaryDirFactory()));
+        detector = new JUnitDetector(new ClassFileExtractionManager(cacheFactory), cacheFactory);
     }
 
     @Override
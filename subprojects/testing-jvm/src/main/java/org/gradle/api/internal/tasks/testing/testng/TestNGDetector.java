@@ -17,15 +17,11 @@ package org.gradle.api.internal.tasks.testing.testng;
 
 import org.gradle.api.internal.tasks.testing.detection.AbstractTestFrameworkDetector;
 import org.gradle.api.internal.tasks.testing.detection.ClassFileExtractionManager;
+import org.gradle.cache.internal.FileContentCacheFactory;
 
 class TestNGDetector extends AbstractTestFrameworkDetector<TestNGTestClassDetector> {
-    TestNGDetector(ClassFileExtractionManager classFileExtractionManager) {
-        super(classFileExtractionManager);
-    }
-
-    @Override
-    protected TestNGTestClassDetector createClassVisitor() {
-        return new TestNGTestClassDetector(this);
+    TestNGDetector(ClassFileExtractionManager classFileExtractionManager, FileContentCacheFactory cacheFactory) {
+        super(classFileExtractionManager, cacheFactory, "testng-test-classes", TestNGTestClassDetector.FACTORY);
     }
 
     @Override
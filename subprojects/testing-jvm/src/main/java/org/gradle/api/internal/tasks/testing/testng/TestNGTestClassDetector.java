@@ -18,7 +18,7 @@ package org.gradle.api.internal.tasks.testing.testng;
 import com.google.common.collect.ImmutableSet;
 import org.gradle.internal.classanalysis.AsmConstants;
 import org.gradle.api.internal.tasks.testing.detection.TestClassVisitor;
-import org.gradle.api.internal.tasks.testing.detection.TestFrameworkDetector;
+import org.gradle.internal.Factory;
 import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.MethodVisitor;
 
@@ -37,9 +37,12 @@ class TestNGTestClassDetector extends TestClassVisitor {
         .add("Lorg/testng/annotations/Factory;")
         .build();
 
-    TestNGTestClassDetector(final TestFrameworkDetector detector) {
-        super(detector);
-    }
+    static final Factory<TestNGTestClassDetector> FACTORY = new Factory<TestNGTestClassDetector>() {
+        @Override
+        public TestNGTestClassDetector create() {
+            return new TestNGTestClassDetector();
+        }
+    };
 
     @Override
     protected boolean ignoreNonStaticInnerClass() {
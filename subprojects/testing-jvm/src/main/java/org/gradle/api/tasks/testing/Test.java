@@ -36,10 +36,12 @@ import org.gradle.api.internal.tasks.testing.TestFramework;
 import org.gradle.api.internal.tasks.testing.detection.DefaultTestExecuter;
 import org.gradle.api.internal.tasks.testing.filter.DefaultTestFilter;
 import org.gradle.api.internal.tasks.testing.junit.JUnitTestFramework;
+import org.gradle.api.internal.tasks.testing.junit.result.TestClassDurationSerializer;
 import org.gradle.api.internal.tasks.testing.junit.result.TestClassResult;
 import org.gradle.api.internal.tasks.testing.junit.result.TestResultSerializer;
 import org.gradle.api.internal.tasks.testing.junitplatform.JUnitPlatformTestFramework;
 import org.gradle.api.internal.tasks.testing.testng.TestNGTestFramework;
+import org.gradle.api.internal.tasks.testing.worker.ReusableTestWorkerClientsManager;
 import org.gradle.api.specs.Spec;
 import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Classpath;
@@ -56,6 +58,7 @@ import org.gradle.api.tasks.testing.junit.JUnitOptions;
 import org.gradle.api.tasks.testing.junitplatform.JUnitPlatformOptions;
 import org.gradle.api.tasks.testing.testng.TestNGOptions;
 import org.gradle.api.tasks.util.PatternFilterable;
+import org.gradle.cache.internal.FileContentCacheFactory;
 import org.gradle.internal.Actions;
 import org.gradle.internal.Cast;
 import org.gradle.internal.actor.ActorFactory;
@@ -75,10 +78,12 @@ import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.io.File;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import static org.gradle.util.ConfigureUtil.configureUsing;
 
@@ -152,6 +157,22 @@ public class Test extends AbstractTestTask implements JavaForkOptions, PatternFi
         patternSet = getFileResolver().getPatternSetFactory().create();
         forkOptions = new DefaultJavaForkOptions(getFileResolver());
         forkOptions.setEnableAssertions(true);
+        // Each shard runs different test classes, so the outputs of one shard can't be reused for another
+        getInputs().property("shard", new Callable<String>() {
+            @Override
+            public String call() {
+                String shardCount = System.getProperty(DefaultTestExecuter.SHARD_COUNT_PROPERTY);
+                return shardCount == null ? null : System.getProperty(DefaultTestExecuter.SHARD_INDEX_PROPERTY, "1") + "/" + shardCount;
+            }
+        }).optional(true);
+        // The shards are balanced by these durations, so every shard has to use the same ones
+        getInputs().file(new Callable<File>() {
+            @Override
+            @Nullable
+            public File call() {
+                return getShardDurationsFile();
+            }
+        }).withPropertyName("shardDurations").withPathSensitivity(PathSensitivity.NONE).optional(true);
     }
 
     @Inject
@@ -551,25 +572,47 @@ public class Test extends AbstractTestTask implements JavaForkOptions, PatternFi
     protected JvmTestExecutionSpec createTestExecutionSpec() {
         DefaultJavaForkOptions javaForkOptions = new DefaultJavaForkOptions(getFileResolver());
         copyTo(javaForkOptions);
-        return new JvmTestExecutionSpec(getTestFramework(), getClasspath(), getCandidateClassFiles(), isScanForTestClasses(), getTestClassesDirs(), getPath(), getIdentityPath(), getForkEvery(), javaForkOptions, getMaxParallelForks(), getPreviousFailedTestClasses());
+        Set<String> previousFailedTestClasses = new HashSet<String>();
+        Map<String, Long> previousTestClassDurations = readPreviousTestResults(previousFailedTestClasses);
+        File shardDurationsFile = getShardDurationsFile();
+        Map<String, Long> shardDurations = shardDurationsFile == null ? Collections.<String, Long>emptyMap() : new TestClassDurationSerializer(shardDurationsFile).read();
+        return new JvmTestExecutionSpec(getTestFramework(), getClasspath(), getCandidateClassFiles(), isScanForTestClasses(), getTestClassesDirs(), getPath(), getIdentityPath(), getForkEvery(), javaForkOptions, getMaxParallelForks(), previousFailedTestClasses, previousTestClassDurations, shardDurations);
     }
 
-    private Set<String> getPreviousFailedTestClasses() {
+    @Nullable
+    private File getShardDurationsFile() {
+        String path = System.getProperty(DefaultTestExecuter.SHARD_DURATIONS_PROPERTY);
+        return path == null ? null : getFileResolver().resolve(path);
+    }
+
+    /**
+     * Collects the test classes which failed in the previous run, and returns how long each test class took the last time it ran.
+     * The durations are kept outside of the binary results, which only cover the previous run.
+     * They are only kept when they are used, i.e. when running the slowest test classes first or when balancing shards by durations,
+     * in which case the durations of the task are the ones to publish for the next run.
+     */
+    private Map<String, Long> readPreviousTestResults(final Set<String> previousFailedTestClasses) {
+        final boolean keepDurations = Boolean.getBoolean(DefaultTestExecuter.SLOWEST_FIRST_PROPERTY) || getShardDurationsFile() != null;
+        TestClassDurationSerializer durationSerializer = new TestClassDurationSerializer(new File(getTemporaryDir(), "durations.bin"));
+        final Map<String, Long> previousTestClassDurations = keepDurations ? durationSerializer.read() : new HashMap<String, Long>();
         TestResultSerializer serializer = new TestResultSerializer(getBinResultsDir());
         if (serializer.isHasResults()) {
-            final Set<String> previousFailedTestClasses = new HashSet<String>();
             serializer.read(new Action<TestClassResult>() {
                 @Override
                 public void execute(TestClassResult testClassResult) {
                     if (testClassResult.getFailuresCount() > 0) {
                         previousFailedTestClasses.add(testClassResult.getClassName());
                     }
+                    if (keepDurations) {
+                        previousTestClassDurations.put(testClassResult.getClassName(), testClassResult.getDuration());
+                    }
                 }
             });
-            return previousFailedTestClasses;
-        } else {
-            return Collections.emptySet();
+            if (keepDurations) {
+                durationSerializer.write(previousTestClassDurations);
+            }
         }
+        return previousTestClassDurations;
     }
 
     @TaskAction
@@ -599,7 +642,8 @@ public class Test extends AbstractTestTask implements JavaForkOptions, PatternFi
                 getServices().get(StartParameter.class).getMaxWorkerCount(),
                 getServices().get(Clock.class),
                 getServices().get(DocumentationRegistry.class),
-                (DefaultTestFilter) getFilter());
+                (DefaultTestFilter) getFilter(),
+                getServices().get(ReusableTestWorkerClientsManager.class));
         } else {
             return testExecuter;
         }
@@ -879,7 +923,7 @@ public class Test extends AbstractTestTask implements JavaForkOptions, PatternFi
      * @since 3.5
      */
     public void useJUnit(Action<? super JUnitOptions> testFrameworkConfigure) {
-        useTestFramework(new JUnitTestFramework(this, (DefaultTestFilter) getFilter()), testFrameworkConfigure);
+        useTestFramework(new JUnitTestFramework(this, (DefaultTestFilter) getFilter(), getServices().get(FileContentCacheFactory.class)), testFrameworkConfigure);
     }
 
     /**
@@ -929,7 +973,7 @@ public class Test extends AbstractTestTask implements JavaForkOptions, PatternFi
      * @since 3.5
      */
     public void useTestNG(Action<? super TestNGOptions> testFrameworkConfigure) {
-        useTestFramework(new TestNGTestFramework(this, (DefaultTestFilter) getFilter(), getInstantiator(), getClassLoaderCache()), testFrameworkConfigure);
+        useTestFramework(new TestNGTestFramework(this, (DefaultTestFilter) getFilter(), getInstantiator(), getClassLoaderCache(), getServices().get(FileContentCacheFactory.class)), testFrameworkConfigure);
     }
 
     /**
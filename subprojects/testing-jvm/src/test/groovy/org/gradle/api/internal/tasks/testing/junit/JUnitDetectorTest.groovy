@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.tasks.testing.junit
+
+import org.gradle.api.file.RelativePath
+import org.gradle.api.internal.file.RelativeFile
+import org.gradle.api.internal.tasks.testing.TestClassProcessor
+import org.gradle.api.internal.tasks.testing.TestClassRunInfo
+import org.gradle.api.internal.tasks.testing.detection.ClassFileExtractionManager
+import org.gradle.cache.internal.FileContentCache
+import org.gradle.cache.internal.FileContentCacheFactory
+import org.gradle.internal.serialize.Serializer
+import org.gradle.test.fixtures.file.TestFile
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.Opcodes
+import spock.lang.Specification
+
+class JUnitDetectorTest extends Specification {
+    @Rule
+    final TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+
+    def calculated = []
+    def cacheFactory = new FileContentCacheFactory() {
+        @Override
+        <V> FileContentCache<V> newCache(String name, int normalizedCacheSize, FileContentCacheFactory.Calculator<? extends V> calculator, Serializer<V> serializer) {
+            def values = [:]
+            return { File file ->
+                if (!values.containsKey(file)) {
+                    calculated << file.name
+                    values[file] = calculator.calculate(file, file.file)
+                }
+                values[file]
+            } as FileContentCache<V>
+        }
+    }
+    def detected = []
+    def processor = Stub(TestClassProcessor) {
+        processTestClass(_) >> { TestClassRunInfo info -> detected << info.testClassName }
+    }
+    def classesDir = tmpDir.createDir("classes")
+    def libraryJar = tmpDir.file("lib.jar")
+
+    def "detects test classes whose superclass is a test class in a library jar"() {
+        given:
+        writeClass(tmpDir.createDir("lib"), "org/lib/BaseTest", "java/lang/Object", true)
+        tmpDir.file("lib").zipTo(libraryJar)
+        writeClass(classesDir, "org/test/SomeTest", "org/lib/BaseTest", false)
+        writeClass(classesDir, "org/test/NotATest", "java/lang/Object", false)
+        def detector = detector()
+
+        when:
+        detector.processTestClass(classFile("org/test/SomeTest"))
+        detector.processTestClass(classFile("org/test/NotATest"))
+
+        then:
+        detected == ["org.test.SomeTest"]
+        calculated == ["SomeTest.class", "lib.jar", "NotATest.class"]
+    }
+
+    def "detects test classes whose superclass is a test class in the test classes"() {
+        given:
+        writeClass(classesDir, "org/test/BaseTest", "java/lang/Object", true)
+        writeClass(classesDir, "org/test/SomeTest", "org/test/BaseTest", false)
+        writeClass(classesDir, "org/test/OtherTest", "org/test/BaseTest", false)
+        def detector = detector()
+
+        when:
+        detector.processTestClass(classFile("org/test/SomeTest"))
+        detector.processTestClass(classFile("org/test/OtherTest"))
+
+        then:
+        detected == ["org.test.SomeTest", "org.test.OtherTest"]
+        calculated == ["SomeTest.class", "BaseTest.class", "OtherTest.class"]
+    }
+
+    def "does not detect classes whose superclass can not be found"() {
+        given:
+        writeClass(classesDir, "org/test/SomeTest", "org/lib/BaseTest", false)
+        def detector = detector()
+
+        when:
+        detector.processTestClass(classFile("org/test/SomeTest"))
+
+        then:
+        detected.empty
+    }
+
+    def "assumes that class files which can not be parsed are test classes"() {
+        given:
+        classesDir.createFile("org/test/Broken.class").text = "not a class file"
+        def detector = detector()
+
+        when:
+        detector.processTestClass(classFile("org/test/Broken"))
+
+        then:
+        detected == ["org.test.Broken"]
+    }
+
+    private JUnitDetector detector() {
+        def detector = new JUnitDetector(new ClassFileExtractionManager(cacheFactory), cacheFactory)
+        detector.testClasses = [classesDir] as Set
+        detector.testClasspath = [libraryJar] as Set
+        detector.startDetection(processor)
+        detector
+    }
+
+    private RelativeFile classFile(String className) {
+        new RelativeFile(classesDir.file("${className}.class"), RelativePath.parse(true, "${className}.class"))
+    }
+
+    private static void writeClass(TestFile dir, String className, String superClassName, boolean withTestMethod) {
+        ClassWriter cw = new ClassWriter(0)
+        cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, className, null, superClassName, null)
+        if (withTestMethod) {
+            def method = cw.visitMethod(Opcodes.ACC_PUBLIC, "test", "()V", null, null)
+            method.visitAnnotation("Lorg/junit/Test;", true).visitEnd()
+            method.visitEnd()
+        }
+        cw.visitEnd()
+        dir.createFile("${className}.class").bytes = cw.toByteArray()
+    }
+}